@@ -27,6 +27,7 @@
  */
 package com.trivir.idmunit.connector;
 
+import org.idmunit.Failures;
 import org.idmunit.IdMUnitException;
 import org.idmunit.IdMUnitFailureException;
 import org.idmunit.connector.AbstractConnector;
@@ -36,29 +37,51 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 public class CmdLineConnector extends AbstractConnector {
 
     protected static final String COMMAND = "command";
     protected static final String RESPONSE = "response";
-    private static int timeout = 60 * 1000;
+    protected static final String CONFIG_SHELL = "shell";
+    protected static final String CONFIG_TIMEOUT = "timeout";
+    protected static final String CONFIG_MAX_THREADS = "max-threads";
+    private static final String DEFAULT_SHELL = "cmd /C";
+    private static final int DEFAULT_MAX_THREADS = 4;
     private static Logger log = LoggerFactory.getLogger(CmdLineConnector.class);
 
     protected String username;
     protected String password;
 
+    private int timeout = 60 * 1000;
+    private List<String> shell = Arrays.asList(DEFAULT_SHELL.split(" "));
+    private int maxThreads = DEFAULT_MAX_THREADS;
+    private ExecutorService executor = null;
+
     protected static boolean regexLineByLineChecker(String txtToCheck, String regex) throws IdMUnitException {
         BufferedReader input = new BufferedReader(new StringReader(txtToCheck));
 
         //Iterate over the string and try matching on each line.
         //It is done this way because the string.matches method was freezing when a regex contained "(/s|.)*"
         try {
+            Pattern pattern = Pattern.compile(regex);
             String line = null;
             while ((line = input.readLine()) != null) {
-                if (line.matches(regex)) {
+                if (pattern.matcher(line).matches()) {
                     return true; //Once we find a match, return success
                 }
             }
@@ -73,9 +96,34 @@ public class CmdLineConnector extends AbstractConnector {
     public void setup(Map<String, String> config) throws IdMUnitException {
         username = config.get(BasicConnector.CONFIG_USER);
         password = config.get(BasicConnector.CONFIG_PASSWORD);
+
+        String shellParam = config.get(CONFIG_SHELL);
+        if (shellParam != null && shellParam.trim().length() > 0) {
+            shell = Arrays.asList(shellParam.trim().split("\\s+"));
+        }
+
+        try {
+            String timeoutParam = config.get(CONFIG_TIMEOUT);
+            if (timeoutParam != null) {
+                timeout = Integer.parseInt(timeoutParam) * 1000;
+            }
+            String maxThreadsParam = config.get(CONFIG_MAX_THREADS);
+            if (maxThreadsParam != null) {
+                maxThreads = Integer.parseInt(maxThreadsParam);
+            }
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("Invalid number in configuration: " + e.getMessage(), e);
+        }
+        if (maxThreads < 1) {
+            throw new IdMUnitException("'" + CONFIG_MAX_THREADS + "' must be at least 1.");
+        }
     }
 
     public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
     }
 
     public void opRunCmd(Map<String, Collection<String>> expectedValues) throws IdMUnitException {
@@ -98,6 +146,76 @@ public class CmdLineConnector extends AbstractConnector {
         if (failures != null) {
             throw new IdMUnitException(failures);
         }
+
+        runAndValidate(command, expectedResponseRegex);
+    }
+
+    /**
+     * Runs every value of the command column concurrently, using at most <code>max-threads</code>
+     * processes at a time, and validates each command's output. The response column holds either one
+     * regular expression that is applied to every command or one regular expression per command.
+     */
+    public void opRunCmdParallel(Map<String, Collection<String>> expectedValues) throws IdMUnitException {
+        Collection<String> commandValues = expectedValues.get(COMMAND);
+        Collection<String> responseValues = expectedValues.get(RESPONSE);
+
+        if (commandValues == null || commandValues.isEmpty()) {
+            throw new IdMUnitException("No value was entered for the \"" + COMMAND + "\" column.");
+        }
+        if (responseValues == null || responseValues.isEmpty()) {
+            throw new IdMUnitException("No value was entered for the \"" + RESPONSE + "\" column.");
+        }
+
+        final List<String> commands = new ArrayList<String>(commandValues);
+        final List<String> responses = new ArrayList<String>(responseValues);
+        if (responses.size() != 1 && responses.size() != commands.size()) {
+            throw new IdMUnitException("The \"" + RESPONSE + "\" column must have one value or one value per command (" + commands.size() + ") but had " + responses.size() + ".");
+        }
+        for (String regex : responses) {
+            try {
+                Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw new IdMUnitException("Invalid regex expression entered: " + regex, e);
+            }
+        }
+
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int i = 0; i < commands.size(); i++) {
+            final String command = commands.get(i);
+            final String regex = responses.size() == 1 ? responses.get(0) : responses.get(i);
+            results.add(getExecutor().submit(new Callable<Void>() {
+                public Void call() throws IdMUnitException {
+                    runAndValidate(command, regex);
+                    return null;
+                }
+            }));
+        }
+
+        Failures failures = new Failures();
+        boolean errors = false;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IdMUnitException("Interrupted while waiting for commands to complete.", e);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof IdMUnitFailureException)) {
+                    errors = true;
+                }
+                failures.add("[" + commands.get(i) + "] " + e.getCause().getMessage());
+            }
+        }
+
+        if (errors) {
+            throw new IdMUnitException(failures.toString());
+        } else if (failures.hasFailures()) {
+            throw new IdMUnitFailureException(failures.toString());
+        }
+        log.info("Success. " + commands.size() + " commands ran successfully.");
+    }
+
+    private void runAndValidate(String command, String expectedResponseRegex) throws IdMUnitException {
         ExecResults results = exec(command);
 
         //If the errorCode > 0 then the command being used is invalid.
@@ -113,80 +231,56 @@ public class CmdLineConnector extends AbstractConnector {
         log.info("Success. Command ran successfully: " + command);
     }
 
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(maxThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "cmdline-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
     private ExecResults exec(String command) throws IdMUnitException {
-        String commandPrompt = "cmd /C " + command;
+        List<String> cmdarray = new ArrayList<String>(shell);
+        cmdarray.add(command);
 
         Process proc;
         try {
-            proc = Runtime.getRuntime().exec(commandPrompt);
+            proc = new ProcessBuilder(cmdarray).start();
         } catch (IOException e) {
             throw new IdMUnitException("Error starting the command line.", e);
         }
 
-        OutputStreamWriter stdin = new OutputStreamWriter(proc.getOutputStream());
-        try {
-            stdin.write(command);
-            stdin.close();
-        } catch (IOException e) {
-            throw new IdMUnitException("Error executing '" + commandPrompt + "'.", e);
-        }
-
-        InputStream stdout = proc.getInputStream();
-        InputStream stderr = proc.getErrorStream();
-
         ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
         ByteArrayOutputStream errorBuffer = new ByteArrayOutputStream();
-
-        int errorCode;
-        int processingTime = 0;
-        while (true) {
-            try {
-                errorCode = proc.exitValue();
-                break;
-            } catch (IllegalThreadStateException e) {
-                try {
-                    Thread.sleep(200);
-                } catch (InterruptedException ex) {
-                    //ignore exception
-                }
-                processingTime += 200;
-            }
-
-            try {
-                while (stdout.available() > 0) {
-                    outputBuffer.write(stdout.read());
-                }
-            } catch (IOException e) {
-                //ignore exceptioin
-            }
-
-            try {
-                while (stderr.available() > 0) {
-                    errorBuffer.write(stderr.read());
-                }
-            } catch (IOException e) {
-                //ignore exception
-            }
-
-            if (processingTime > timeout) {
-                proc.destroy();
-            }
-        }
+        Thread stdoutPump = pump(proc.getInputStream(), outputBuffer);
+        Thread stderrPump = pump(proc.getErrorStream(), errorBuffer);
 
         try {
-            while (stdout.available() > 0) {
-                outputBuffer.write(stdout.read());
-            }
+            proc.getOutputStream().close();
         } catch (IOException e) {
             //ignore exception
         }
 
+        int errorCode;
         try {
-            while (stderr.available() > 0) {
-                errorBuffer.write(stderr.read());
+            if (proc.waitFor(timeout, TimeUnit.MILLISECONDS) == false) {
+                proc.destroy();
+                throw new IdMUnitException("Timed out after " + timeout / 1000 + " seconds running '" + command + "'.");
             }
-        } catch (IOException e) {
-            //ignore exception
+            errorCode = proc.exitValue();
+            stdoutPump.join();
+            stderrPump.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            proc.destroy();
+            throw new IdMUnitException("Interrupted while running '" + command + "'.", e);
         }
 
         ExecResults results = new ExecResults();
@@ -196,7 +290,26 @@ public class CmdLineConnector extends AbstractConnector {
         return results;
     }
 
-    private class ExecResults {
+    private static Thread pump(final InputStream in, final OutputStream out) {
+        Thread pump = new Thread(new Runnable() {
+            public void run() {
+                byte[] buf = new byte[8192];
+                try {
+                    int len;
+                    while ((len = in.read(buf)) != -1) {
+                        out.write(buf, 0, len);
+                    }
+                } catch (IOException e) {
+                    //ignore exception
+                }
+            }
+        });
+        pump.setDaemon(true);
+        pump.start();
+        return pump;
+    }
+
+    private static class ExecResults {
         int errorCode;
         String stdout;
         String stderr;
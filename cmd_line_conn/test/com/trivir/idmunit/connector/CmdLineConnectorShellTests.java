@@ -0,0 +1,152 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+import org.idmunit.IdMUnitFailureException;
+
+import java.util.*;
+
+/**
+ * Tests that run the connector with a POSIX shell instead of cmd.exe.
+ */
+public class CmdLineConnectorShellTests extends TestCase {
+    private CmdLineConnector conn = null;
+
+    private static void addValues(Map<String, Collection<String>> data, String name, String... values) {
+        data.put(name, new ArrayList<String>(Arrays.asList(values)));
+    }
+
+    protected void setUp() throws Exception {
+        conn = new CmdLineConnector();
+        Map<String, String> config = new TreeMap<String, String>();
+        config.put("shell", "sh -c");
+        config.put("timeout", "2");
+        config.put("max-threads", "4");
+        conn.setup(config);
+    }
+
+    protected void tearDown() throws Exception {
+        conn.tearDown();
+        conn = null;
+    }
+
+    public void testRunCmd() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "echo hello world");
+        addValues(data, "response", "hello w.*");
+        conn.opRunCmd(data);
+    }
+
+    public void testRunCmdLargeOutput() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "i=0; while [ $i -lt 20000 ]; do echo \"line $i of output that fills the pipe buffer\"; i=$((i+1)); done");
+        addValues(data, "response", "line 19999 .*");
+        conn.opRunCmd(data);
+    }
+
+    public void testRunCmdFailure() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "echo hello");
+        addValues(data, "response", "goodbye");
+        try {
+            conn.opRunCmd(data);
+            fail("An IdMUnitFailureException should have been thrown due to a failed test.");
+        } catch (IdMUnitFailureException e) {
+            //Success
+        }
+    }
+
+    public void testRunCmdTimeout() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "sleep 10");
+        addValues(data, "response", ".*");
+        long start = System.currentTimeMillis();
+        try {
+            conn.opRunCmd(data);
+            fail("An exception should have been thrown for the timed out command.");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    public void testRunCmdReturnsAsSoonAsCommandCompletes() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "echo fast");
+        addValues(data, "response", "fast");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            conn.opRunCmd(data);
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    public void testRunCmdParallel() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "sleep 1; echo one", "sleep 1; echo two", "sleep 1; echo three", "sleep 1; echo four");
+        addValues(data, "response", "one", "two", "three", "four");
+        long start = System.currentTimeMillis();
+        conn.opRunCmdParallel(data);
+        assertTrue(System.currentTimeMillis() - start < 3000);
+    }
+
+    public void testRunCmdParallelSingleResponse() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "echo ok 1", "echo ok 2", "echo ok 3", "echo ok 4", "echo ok 5", "echo ok 6");
+        addValues(data, "response", "ok \\d");
+        conn.opRunCmdParallel(data);
+    }
+
+    public void testRunCmdParallelReportsEveryFailure() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "echo one", "echo two", "echo three");
+        addValues(data, "response", "one", "2", "3");
+        try {
+            conn.opRunCmdParallel(data);
+            fail("An IdMUnitFailureException should have been thrown due to failed commands.");
+        } catch (IdMUnitFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("[echo two]"));
+            assertTrue(e.getMessage(), e.getMessage().contains("[echo three]"));
+            assertFalse(e.getMessage(), e.getMessage().contains("[echo one]"));
+        }
+    }
+
+    public void testRunCmdParallelResponseCountMismatch() {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addValues(data, "command", "echo one", "echo two", "echo three");
+        addValues(data, "response", "one", "two");
+        try {
+            conn.opRunCmdParallel(data);
+            fail("An exception should have been thrown for the mismatched response column.");
+        } catch (IdMUnitException e) {
+            //Success
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.util;
+
+import org.idmunit.IdMUnitException;
+
+/**
+ * Repeats a check until it produces a result or a timeout expires, doubling the delay between
+ * attempts up to a maximum. Used by connectors to wait for a change to show up in the target system
+ * instead of relying on spreadsheet level retries.
+ */
+public final class Backoff {
+    public static final long DEFAULT_INITIAL_DELAY = 250;
+    public static final long DEFAULT_MAX_DELAY = 5000;
+
+    private final long timeoutMillis;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    public Backoff(long timeoutMillis) {
+        this(timeoutMillis, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    public Backoff(long timeoutMillis, long initialDelayMillis, long maxDelayMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.initialDelayMillis = Math.max(1, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+    }
+
+    public interface Poll<T> {
+        /**
+         * @return the result, or <code>null</code> if the check should be repeated
+         */
+        T attempt() throws IdMUnitException;
+    }
+
+    /**
+     * Calls <code>poll</code> until it returns a non-null value. The check is always made at least
+     * once, and once more when the timeout expires.
+     *
+     * @return the value returned by <code>poll</code>, or <code>null</code> if the timeout expired
+     */
+    public <T> T waitFor(Poll<T> poll) throws IdMUnitException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long delay = initialDelayMillis;
+        while (true) {
+            T result = poll.attempt();
+            if (result != null) {
+                return result;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            try {
+                Thread.sleep(Math.min(delay, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IdMUnitException("Interrupted while waiting.", e);
+            }
+            delay = Math.min(delay * 2, maxDelayMillis);
+        }
+    }
+}
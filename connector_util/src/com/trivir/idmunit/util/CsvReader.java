@@ -0,0 +1,178 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.util;
+
+import org.idmunit.IdMUnitException;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads a CSV file whose first non-blank line names the columns, returning each following row as a map from column
+ * name to value. Rows are read one at a time so that large files need not fit in memory.
+ */
+public final class CsvReader {
+    private final String fileName;
+    private final BufferedReader reader;
+    private final List<String> header;
+    private int lineNumber;
+
+    public CsvReader(String fileName) throws IdMUnitException {
+        this.fileName = fileName;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+        } catch (IOException e) {
+            throw new IdMUnitException("Error reading '" + fileName + "'.", e);
+        }
+        try {
+            List<String> names = readLine();
+            header = new ArrayList<String>();
+            if (names != null) {
+                for (String name : names) {
+                    header.add(name.trim());
+                }
+            }
+        } catch (IdMUnitException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the column names, which are empty if the file is.
+     */
+    public List<String> getHeader() {
+        return Collections.unmodifiableList(header);
+    }
+
+    /**
+     * Returns the line number of the row last returned by {@link #next()}, for use in error messages.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the next row, or null at the end of the file. Columns past the last value in a short row are left out.
+     */
+    public Map<String, String> next() throws IdMUnitException {
+        List<String> values = readLine();
+        if (values == null) {
+            return null;
+        }
+        if (values.size() > header.size()) {
+            throw new IdMUnitException("Line " + lineNumber + " of '" + fileName + "' has more values than the header row.");
+        }
+        Map<String, String> row = new LinkedHashMap<String, String>();
+        for (int i = 0; i < values.size(); i++) {
+            row.put(header.get(i), values.get(i));
+        }
+        return row;
+    }
+
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private List<String> readLine() throws IdMUnitException {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().length() != 0) {
+                    return parseLine(line);
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new IdMUnitException("Error reading '" + fileName + "'.", e);
+        }
+    }
+
+    /**
+     * Reads every row of a CSV file.
+     */
+    public static List<Map<String, String>> readAll(String fileName) throws IdMUnitException {
+        List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+        CsvReader reader = new CsvReader(fileName);
+        try {
+            Map<String, String> row;
+            while ((row = reader.next()) != null) {
+                rows.add(row);
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Splits a CSV line on commas. Values may be enclosed in double quotes to include commas, and a
+     * doubled quote inside a quoted value is a literal quote.
+     */
+    public static List<String> parseLine(String line) throws IdMUnitException {
+        List<String> values = new ArrayList<String>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IdMUnitException("Unterminated quoted value in CSV line: " + line);
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.util;
+
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.ConnectorUtil;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The rows that bulk operations fill templates from, read one at a time. A row maps names to values and is applied
+ * to a template with {@link #substitute(String, Map)}. Rows come from one of:
+ * <ul>
+ * <li>values - a list of values, each available as ${value}</li>
+ * <li>range - a range of numbers such as 1-1000, each available as ${value}</li>
+ * <li>csvFile - a CSV file whose first line names the columns, each available as ${name}</li>
+ * </ul>
+ */
+public abstract class ValueSource {
+    public static final String ATTR_VALUES = "values";
+    public static final String ATTR_RANGE = "range";
+    public static final String ATTR_CSV_FILE = "csvFile";
+
+    public static final String VALUE = "value";
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final Pattern RANGE = Pattern.compile("\\s*(\\d+)\\s*-\\s*(\\d+)\\s*");
+
+    /**
+     * Returns the next row, or null when there are no more.
+     */
+    public abstract Map<String, String> next() throws IdMUnitException;
+
+    public void close() {
+    }
+
+    /**
+     * Reads the remaining rows and closes the source.
+     */
+    public List<Map<String, String>> readAll() throws IdMUnitException {
+        List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+        try {
+            Map<String, String> row;
+            while ((row = next()) != null) {
+                rows.add(row);
+            }
+        } finally {
+            close();
+        }
+        return rows;
+    }
+
+    /**
+     * Opens the source named by exactly one of the values, range or csvFile attributes of a test row.
+     */
+    public static ValueSource open(Map<String, Collection<String>> data) throws IdMUnitException {
+        Collection<String> list = data.get(ATTR_VALUES);
+        String range = ConnectorUtil.getSingleValue(data, ATTR_RANGE);
+        String csvFile = ConnectorUtil.getSingleValue(data, ATTR_CSV_FILE);
+        int sources = (list == null || list.isEmpty() ? 0 : 1) + (range == null ? 0 : 1) + (csvFile == null ? 0 : 1);
+        if (sources != 1) {
+            throw new IdMUnitException("Exactly one of '" + ATTR_VALUES + "', '" + ATTR_RANGE + "' or '" + ATTR_CSV_FILE + "' must be provided.");
+        }
+
+        if (csvFile != null) {
+            return csv(csvFile);
+        } else if (range != null) {
+            return range(range);
+        } else {
+            return list(list);
+        }
+    }
+
+    public static ValueSource list(Collection<String> values) {
+        final Iterator<String> i = new ArrayList<String>(values).iterator();
+        return new ValueSource() {
+            public Map<String, String> next() {
+                return i.hasNext() ? Collections.singletonMap(VALUE, i.next()) : null;
+            }
+        };
+    }
+
+    public static ValueSource range(String range) throws IdMUnitException {
+        Matcher matcher = RANGE.matcher(range);
+        if (!matcher.matches()) {
+            throw new IdMUnitException("'" + ATTR_RANGE + "' must be of the form start-end, but: [" + range + "] was provided.");
+        }
+        final long first = Long.parseLong(matcher.group(1));
+        final long last = Long.parseLong(matcher.group(2));
+        return new ValueSource() {
+            private long value = first;
+
+            public Map<String, String> next() {
+                return value > last ? null : Collections.singletonMap(VALUE, Long.toString(value++));
+            }
+        };
+    }
+
+    public static ValueSource csv(String fileName) throws IdMUnitException {
+        final CsvReader reader = new CsvReader(fileName);
+        return new ValueSource() {
+            public Map<String, String> next() throws IdMUnitException {
+                return reader.next();
+            }
+
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Replaces each ${name} in template with the value of name, leaving unknown names in place.
+     */
+    public static String substitute(String template, Map<String, String> row) {
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        if (!matcher.find()) {
+            return template;
+        }
+        StringBuffer result = new StringBuffer();
+        do {
+            String replacement = row.get(matcher.group(1));
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement == null ? matcher.group() : replacement));
+        } while (matcher.find());
+        matcher.appendTail(result);
+        return result.toString();
+    }
+}
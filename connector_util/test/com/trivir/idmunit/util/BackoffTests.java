@@ -0,0 +1,60 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.util;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BackoffTests extends TestCase {
+    public void testReturnsFirstResult() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        String result = new Backoff(5000, 10, 50).waitFor(new Backoff.Poll<String>() {
+            public String attempt() {
+                return attempts.incrementAndGet() < 3 ? null : "done";
+            }
+        });
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+    }
+
+    public void testBackoffTimesOut() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        Object result = new Backoff(200, 10, 50).waitFor(new Backoff.Poll<Object>() {
+            public Object attempt() {
+                attempts.incrementAndGet();
+                return null;
+            }
+        });
+        assertNull(result);
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertTrue(attempts.get() >= 4);
+        assertTrue(attempts.get() < 20);
+    }
+}
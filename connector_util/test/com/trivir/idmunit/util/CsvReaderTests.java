@@ -0,0 +1,119 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.util;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+
+import java.io.*;
+import java.util.*;
+
+public class CsvReaderTests extends TestCase {
+    private File csv;
+
+    protected void setUp() throws Exception {
+        csv = File.createTempFile("CsvReaderTests", ".csv");
+    }
+
+    protected void tearDown() throws Exception {
+        csv.delete();
+    }
+
+    private void write(String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testParseLine() throws Exception {
+        assertEquals(Arrays.asList("a", "b,c", "d\"e", ""), CsvReader.parseLine("a,\"b,c\",\"d\"\"e\","));
+    }
+
+    public void testParseLineUnterminatedQuote() throws Exception {
+        try {
+            CsvReader.parseLine("a,\"b");
+            fail("An unterminated quote should be rejected");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().contains("Unterminated"));
+        }
+    }
+
+    public void testNext() throws Exception {
+        write("\r\n id , name\r\n1,\"Smith, Jo\"\r\n\r\n2\r\n");
+        CsvReader reader = new CsvReader(csv.getPath());
+        try {
+            assertEquals(Arrays.asList("id", "name"), reader.getHeader());
+
+            Map<String, String> row = reader.next();
+            assertEquals("1", row.get("id"));
+            assertEquals("Smith, Jo", row.get("name"));
+            assertEquals(3, reader.getLineNumber());
+
+            row = reader.next();
+            assertEquals(Collections.singletonMap("id", "2"), row);
+            assertEquals(5, reader.getLineNumber());
+
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testTooManyValues() throws Exception {
+        write("id\n1,2\n");
+        try {
+            CsvReader.readAll(csv.getPath());
+            fail("A row longer than the header should be rejected");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().startsWith("Line 2 of '"));
+        }
+    }
+
+    public void testEmptyFile() throws Exception {
+        write("");
+        CsvReader reader = new CsvReader(csv.getPath());
+        try {
+            assertTrue(reader.getHeader().isEmpty());
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testMissingFile() throws Exception {
+        try {
+            new CsvReader(new File(csv.getPath() + ".missing").getPath());
+            fail("A missing file should be reported");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().startsWith("Error reading '"));
+        }
+    }
+}
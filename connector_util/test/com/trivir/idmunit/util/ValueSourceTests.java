@@ -0,0 +1,108 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.util;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+
+import java.io.*;
+import java.util.*;
+
+public class ValueSourceTests extends TestCase {
+    private static Map<String, Collection<String>> data(String name, String... values) {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put(name, Arrays.asList(values));
+        return data;
+    }
+
+    private static List<String> values(ValueSource source) throws IdMUnitException {
+        List<String> values = new ArrayList<String>();
+        for (Map<String, String> row : source.readAll()) {
+            values.add(row.get(ValueSource.VALUE));
+        }
+        return values;
+    }
+
+    public void testRange() throws Exception {
+        assertEquals(Arrays.asList("8", "9", "10"), values(ValueSource.open(data(ValueSource.ATTR_RANGE, " 8 - 10 "))));
+    }
+
+    public void testBadRange() throws Exception {
+        try {
+            ValueSource.range("1..10");
+            fail("A malformed range should be rejected");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().contains("start-end"));
+        }
+    }
+
+    public void testList() throws Exception {
+        assertEquals(Arrays.asList("a", "b"), values(ValueSource.open(data(ValueSource.ATTR_VALUES, "a", "b"))));
+    }
+
+    public void testCsv() throws Exception {
+        File csv = File.createTempFile("ValueSourceTests", ".csv");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+            writer.write("id,name\n1,Jo\n2,Al\n");
+            writer.close();
+
+            ValueSource source = ValueSource.open(data(ValueSource.ATTR_CSV_FILE, csv.getPath()));
+            assertEquals("<u id=\"1\">Jo</u>", ValueSource.substitute("<u id=\"${id}\">${name}</u>", source.next()));
+            assertEquals("Al", source.next().get("name"));
+            assertNull(source.next());
+            source.close();
+        } finally {
+            csv.delete();
+        }
+    }
+
+    public void testExactlyOneSource() throws Exception {
+        Map<String, Collection<String>> data = data(ValueSource.ATTR_VALUES, "a");
+        data.put(ValueSource.ATTR_RANGE, Collections.singletonList("1-2"));
+        try {
+            ValueSource.open(data);
+            fail("Two sources should be rejected");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().startsWith("Exactly one of"));
+        }
+        try {
+            ValueSource.open(new HashMap<String, Collection<String>>());
+            fail("A source should be required");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().startsWith("Exactly one of"));
+        }
+    }
+
+    public void testSubstitute() {
+        Map<String, String> row = new HashMap<String, String>();
+        row.put("value", "a$1");
+        assertEquals("<id>a$1</id>${other}", ValueSource.substitute("<id>${value}</id>${other}", row));
+        assertEquals("no placeholders", ValueSource.substitute("no placeholders", row));
+    }
+}
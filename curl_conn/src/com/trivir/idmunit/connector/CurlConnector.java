@@ -37,46 +37,44 @@ import org.idmunit.connector.ConnectorUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.*;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class CurlConnector extends AbstractConnector {
     private static final String CONFIG_TRUST_ALL_CERTS = "trust-all-certs";
+    private static final String CONFIG_CONNECT_TIMEOUT = "connect-timeout";
+    private static final String CONFIG_READ_TIMEOUT = "read-timeout";
+    private static final int DEFAULT_CONNECT_TIMEOUT = 30;
+    private static final int DEFAULT_READ_TIMEOUT = 120;
 
     private static Logger log = LoggerFactory.getLogger(CurlConnector.class);
+    private static final Gson GSON = new Gson();
+    private static final JsonParser JSON_PARSER = new JsonParser();
 
     private CurlClient curlClient;
 
     @Override
     public void setup(Map<String, String> config) throws IdMUnitException {
-        if (config.get(CONFIG_TRUST_ALL_CERTS) != null && Boolean.valueOf(config.get(CONFIG_TRUST_ALL_CERTS))) {
-            try {
-                SSLContext sc = SSLContext.getInstance("TLS");
-                sc.init(null, new TrustManager[] {new TrustAllX509TrustManager()}, new java.security.SecureRandom());
-                HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-                HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
-                    public boolean verify(String string, SSLSession ssls) {
-                        return true;
-                    }
-                });
-            } catch (NoSuchAlgorithmException e) {
-                //handle exception
-            } catch (KeyManagementException e) {
-                //handle exception
-            }
+        boolean trustAllCerts = config.get(CONFIG_TRUST_ALL_CERTS) != null && Boolean.valueOf(config.get(CONFIG_TRUST_ALL_CERTS));
+        int connectTimeout = getSeconds(config, CONFIG_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+        int readTimeout = getSeconds(config, CONFIG_READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        curlClient = CurlClient.init(trustAllCerts, connectTimeout * 1000, readTimeout * 1000);
+    }
 
+    private static int getSeconds(Map<String, String> config, String name, int defaultValue) throws IdMUnitException {
+        String value = config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException(String.format("'%s' must be a number of seconds but was [%s]", name, value), e);
         }
     }
 
-    public void opAction(Map<String, Collection<String>> attrs) throws IdMUnitException {
-        validateAttrs(attrs, "ACTION");
-        String url = ConnectorUtil.getSingleValue(attrs, "url");
-        String method = ConnectorUtil.getSingleValue(attrs, "method").toLowerCase();
-        String body = ConnectorUtil.getSingleValue(attrs, "body");
-
+    private static Map<String, String> getHeaders(Map<String, Collection<String>> attrs) {
         Map<String, String> headers = new HashMap<String, String>();
         if (attrs.get("headers") != null) {
             for (String header : attrs.get("headers")) {
@@ -84,8 +82,17 @@ public class CurlConnector extends AbstractConnector {
                 headers.put(headerSplit[0], headerSplit[1]);
             }
         }
+        return headers;
+    }
+
+    public void opAction(Map<String, Collection<String>> attrs) throws IdMUnitException {
+        validateAttrs(attrs, "ACTION");
+        String url = ConnectorUtil.getSingleValue(attrs, "url");
+        String method = ConnectorUtil.getSingleValue(attrs, "method").toLowerCase();
+        String body = ConnectorUtil.getSingleValue(attrs, "body");
+
+        Map<String, String> headers = getHeaders(attrs);
 
-        curlClient = CurlClient.init(url);
         CurlClient.Response response;
 
         if ("post".equals(method)) {
@@ -125,16 +132,10 @@ public class CurlConnector extends AbstractConnector {
             statusCode = Integer.valueOf(statusCodeString);
         }
 
-        Map<String, String> headers = new HashMap<String, String>();
-        for (String header : attrs.get("headers")) {
-            String[] headerSplit = header.split("=", 2);
-            headers.put(headerSplit[0], headerSplit[1]);
-        }
+        Map<String, String> headers = getHeaders(attrs);
 
         CurlClient.Response response;
 
-        curlClient = CurlClient.init(url);
-
         if ("get".equals(method)) {
             response = curlClient.executeGet(url, headers);
 
@@ -155,8 +156,11 @@ public class CurlConnector extends AbstractConnector {
         }
 
         if (responseBody != null) {
-            JsonObject expectedOutput = new JsonParser().parse(responseBody).getAsJsonObject();
-            JsonObject actualOutput = new JsonParser().parse(response.messageBody).getAsJsonObject();
+            JsonObject expectedOutput = JSON_PARSER.parse(responseBody).getAsJsonObject();
+            JsonElement actualOutput = response.getJson();
+            if (!actualOutput.isJsonObject()) {
+                throw new IdMUnitException("Validation failed: expected a JSON object but was " + response.messageBody);
+            }
             List<String> differences = jsonMatches(expectedOutput, actualOutput);
             if (differences.size() > 0) {
                 throw new IdMUnitException("Validation failed: " + differences.toString());
@@ -169,7 +173,6 @@ public class CurlConnector extends AbstractConnector {
             }
         }
     }
-
     private void validateAttrs(Map<String, Collection<String>> attrs, String opType) throws IdMUnitException {
         String url = ConnectorUtil.getSingleValue(attrs, "url");
         String method = ConnectorUtil.getSingleValue(attrs, "method");
@@ -204,96 +207,129 @@ public class CurlConnector extends AbstractConnector {
 
     static List<String> jsonMatches(JsonElement expected, JsonElement actual) {
         List<String> differences = new ArrayList<String>();
-        jsonMatches(differences, "", expected, actual);
+        jsonMatches(differences, "", expected, actual, new IdentityHashMap<JsonElement, Pattern>());
         return differences;
     }
 
-    static void jsonMatches(List<String> differences, String baseName, JsonElement expected, JsonElement actual) {
-        Gson gson = new Gson();
-
+    /**
+     * Compares an expected JSON document, whose primitive values are regular expressions, to an actual
+     * document. When <code>differences</code> is null the comparison stops at the first mismatch without
+     * formatting any messages; this is used to test array items. Each expected value's regular expression
+     * is compiled once and kept in <code>patterns</code>.
+     *
+     * @return false if <code>differences</code> is null and a mismatch was found, otherwise true
+     */
+    static boolean jsonMatches(List<String> differences, String baseName, JsonElement expected, JsonElement actual, Map<JsonElement, Pattern> patterns) {
         if (expected.isJsonPrimitive()) {
+            String expectedValue = expected.getAsString();
             // Java null means the attribute is missing
             if (actual == null || actual.isJsonNull()) {
-                if (!expected.getAsString().isEmpty()) {
-                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, gson.toJson(expected)));
+                if (!expectedValue.isEmpty()) {
+                    if (differences == null) {
+                        return false;
+                    }
+                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, GSON.toJson(expected)));
                 }
-                return;
+                return true;
             }
 
-            if (!actual.isJsonPrimitive() || !actual.getAsString().matches(expected.getAsString())) {
-                if (actual.getAsString().equals(expected.getAsString())) {
-                    log.info(String.format("'%s' attribute failed regex check but passed equals check", baseName));
+            if (!actual.isJsonPrimitive() || !getPattern(patterns, expected).matcher(actual.getAsString()).matches()) {
+                if (actual.isJsonPrimitive() && actual.getAsString().equals(expectedValue)) {
+                    if (differences != null) {
+                        log.info(String.format("'%s' attribute failed regex check but passed equals check", baseName));
+                    }
                 } else {
-                    differences.add(String.format("'%s' attribute mismatch: expected %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
+                    if (differences == null) {
+                        return false;
+                    }
+                    differences.add(String.format("'%s' attribute mismatch: expected %s but was %s", baseName, GSON.toJson(expected), GSON.toJson(actual)));
                 }
             }
-            return;
+            return true;
         }
 
         if (expected.isJsonArray()) {
             if (actual == null || actual.isJsonNull()) {
                 if (expected.getAsJsonArray().size() != 0) {
-                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, gson.toJson(expected)));
+                    if (differences == null) {
+                        return false;
+                    }
+                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, GSON.toJson(expected)));
                 }
-                return;
+                return true;
             }
 
             if (!actual.isJsonArray()) {
-                differences.add(String.format("'%s' attribute mismatch: expected an array %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-                return;
+                if (differences == null) {
+                    return false;
+                }
+                differences.add(String.format("'%s' attribute mismatch: expected an array %s but was %s", baseName, GSON.toJson(expected), GSON.toJson(actual)));
+                return true;
             }
 
             // Validating an array is a "contains" operation, it ignores ordering of the items in the array
-            Set<JsonElement> actualItems = new LinkedHashSet<JsonElement>();
+            List<JsonElement> actualItems = new LinkedList<JsonElement>();
             for (JsonElement item : actual.getAsJsonArray()) {
                 actualItems.add(item);
             }
             for (JsonElement expectedItem : expected.getAsJsonArray()) {
-                int actualItemSize = actualItems.size();
+                boolean found = false;
                 for (Iterator<JsonElement> i = actualItems.iterator(); i.hasNext(); ) {
-                    JsonElement actualItem = i.next();
-                    List<String> d = new ArrayList<String>();
-                    jsonMatches(d, baseName + "[]", expectedItem, actualItem);
-                    if (d.size() == 0) {
+                    if (jsonMatches(null, null, expectedItem, i.next(), patterns)) {
                         i.remove();
+                        found = true;
                         break;
                     }
                 }
-                if (actualItems.size() == actualItemSize) {
-                    differences.add(String.format("'%s' attribute mismatch: expected item %s was not found in %s", baseName, gson.toJson(expectedItem), gson.toJson(actual)));
+                if (!found) {
+                    if (differences == null) {
+                        return false;
+                    }
+                    differences.add(String.format("'%s' attribute mismatch: expected item %s was not found in %s", baseName, GSON.toJson(expectedItem), GSON.toJson(actual)));
                 }
             }
-            return;
+            return true;
         }
 
         if (expected.isJsonObject()) {
             if (actual == null || actual.isJsonNull()) {
-                differences.add(String.format("'%s' attribute mismatch: expected an object %s but was null", baseName, gson.toJson(expected)));
-                return;
+                if (differences == null) {
+                    return false;
+                }
+                differences.add(String.format("'%s' attribute mismatch: expected an object %s but was null", baseName, GSON.toJson(expected)));
+                return true;
             }
             if (!actual.isJsonObject()) {
-                differences.add(String.format("'%s' attribute mismatch: expected an object %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-                return;
+                if (differences == null) {
+                    return false;
+                }
+                differences.add(String.format("'%s' attribute mismatch: expected an object %s but was %s", baseName, GSON.toJson(expected), GSON.toJson(actual)));
+                return true;
             }
             JsonObject actualObj = actual.getAsJsonObject();
             for (Map.Entry<String, JsonElement> entry : expected.getAsJsonObject().entrySet()) {
                 String name  = entry.getKey();
                 JsonElement expectedValue = entry.getValue();
                 JsonElement actualValue = actualObj.get(name);
-                jsonMatches(differences, baseName + "." + name, expectedValue, actualValue);
+                if (!jsonMatches(differences, differences == null ? null : baseName + "." + name, expectedValue, actualValue, patterns)) {
+                    return false;
+                }
             }
         }
+        return true;
     }
 
-    private static class TrustAllX509TrustManager implements X509TrustManager {
-        public void checkClientTrusted(X509Certificate[] chain, String authType) {
-        }
-
-        public void checkServerTrusted(X509Certificate[] chain, String authType) {
-        }
-
-        public X509Certificate[] getAcceptedIssuers() {
-            return null;
+    private static Pattern getPattern(Map<JsonElement, Pattern> patterns, JsonElement expected) {
+        Pattern pattern = patterns.get(expected);
+        if (pattern == null) {
+            try {
+                pattern = Pattern.compile(expected.getAsString());
+            } catch (PatternSyntaxException e) {
+                // not a valid regular expression, so it can only match itself
+                pattern = Pattern.compile(Pattern.quote(expected.getAsString()));
+            }
+            patterns.put(expected, pattern);
         }
+        return pattern;
     }
 }
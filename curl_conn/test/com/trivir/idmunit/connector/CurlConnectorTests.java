@@ -27,9 +27,16 @@
  */
 package com.trivir.idmunit.connector;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import junit.framework.TestCase;
 import org.idmunit.IdMUnitException;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.*;
 
 public class CurlConnectorTests extends TestCase {
@@ -188,6 +195,56 @@ public class CurlConnectorTests extends TestCase {
         }
     }
 
+    public void testJsonMatches() throws Exception {
+        JsonParser parser = new JsonParser();
+        JsonElement expected = parser.parse("{\"name\": \"test-.*\", \"roles\": [{\"_ref\": \"managed/role/a\"}, \"b\"], \"manager\": {\"id\": \"\\\\d+\"}, \"missing\": \"\"}");
+        JsonElement actual = parser.parse("{\"name\": \"test-connector\", \"roles\": [\"b\", \"c\", {\"_ref\": \"managed/role/a\", \"_id\": \"1\"}], \"manager\": {\"id\": \"42\"}}");
+        assertEquals(Collections.<String>emptyList(), CurlConnector.jsonMatches(expected, actual));
+    }
+
+    public void testJsonMatchesDifferences() throws Exception {
+        JsonParser parser = new JsonParser();
+        JsonElement expected = parser.parse("{\"name\": \"other\", \"roles\": [\"a\", \"a\"], \"manager\": {\"id\": \"1\"}}");
+        JsonElement actual = parser.parse("{\"name\": \"test\", \"roles\": [\"a\"], \"manager\": null}");
+        List<String> differences = CurlConnector.jsonMatches(expected, actual);
+        assertEquals(3, differences.size());
+        assertEquals("'.name' attribute mismatch: expected \"other\" but was \"test\"", differences.get(0));
+        assertEquals("'.roles' attribute mismatch: expected item \"a\" was not found in [\"a\"]", differences.get(1));
+        assertEquals("'.manager' attribute mismatch: expected an object {\"id\":\"1\"} but was null", differences.get(2));
+    }
+
+    public void testJsonMatchesInvalidRegexComparedLiterally() throws Exception {
+        JsonParser parser = new JsonParser();
+        assertEquals(Collections.<String>emptyList(), CurlConnector.jsonMatches(parser.parse("{\"a\": \"(\"}"), parser.parse("{\"a\": \"(\"}")));
+        assertEquals(1, CurlConnector.jsonMatches(parser.parse("{\"a\": \"(\"}"), parser.parse("{\"a\": \"x\"}")).size());
+    }
+
+    public void testValidateLocalServer() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/user", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "{\"userName\": \"test-connector\", \"roles\": [\"a\", \"b\"]}".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Map<String, Collection<String>> attrs = new HashMap<String, Collection<String>>();
+                attrs.put("url", singleValue("http://localhost:" + server.getAddress().getPort() + "/user"));
+                attrs.put("method", singleValue("GET"));
+                attrs.put("statusCode", singleValue("200"));
+                attrs.put("responseBody", singleValue("{\"userName\": \"test-.*\", \"roles\": [\"b\"]}"));
+                connector.execute("Validate", Collections.unmodifiableMap(attrs));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
     private static Collection<String> singleValue(String value) {
         List<String> values = new ArrayList<String>();
         values.add(value);
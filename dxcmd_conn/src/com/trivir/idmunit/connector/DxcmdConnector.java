@@ -28,9 +28,11 @@
 
 package com.trivir.idmunit.connector;
 
+import com.trivir.idmunit.util.Backoff;
 import nu.xom.Builder;
 import nu.xom.Document;
 import nu.xom.Node;
+import nu.xom.Nodes;
 import nu.xom.ParsingException;
 import org.idmunit.Failures;
 import org.idmunit.IdMUnitException;
@@ -42,21 +44,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.text.ParseException;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class DxcmdConnector extends AbstractConnector {
     static final String CONFIG_PORT = "port";
     static final String CACHE_EMPTY_FLAG = "CACHE_EMPTY";
     static final String SUCCESS_FLAG = "SUCCESS";
+    static final String CONFIG_WAIT_TIMEOUT = "wait-timeout";
+    static final long DEFAULT_WAIT_TIMEOUT = 60;
+    static final String XPATH_OLDEST_TRANSACTION = "/driver-info/subscriber/cache/transactions/oldest";
+    static final String XPATH_NEWEST_TRANSACTION = "/driver-info/subscriber/cache/transactions/newest";
+    private static final int MAX_DRIVER_THREADS = 16;
+
+    private static volatile MethodHandle commandLine;
 
     private static Logger log = LoggerFactory.getLogger(DxcmdConnector.class);
     Map<String, String> eventProcessingDates;
     private String[] commonArgs;
+    private Backoff backoff;
 
     static Document loadXMLFromFS(String fullPath) throws IdMUnitException {
         Document doc;
@@ -91,8 +104,22 @@ public class DxcmdConnector extends AbstractConnector {
         return xmlFileHandle;
     }
 
+    static String getTransactionTimestamp(Document stats, String xpath) {
+        Nodes nodes = stats.query(xpath);
+        return nodes.size() == 0 ? null : nodes.get(0).getValue().trim();
+    }
+
     public void setup(Map<String, String> config) throws IdMUnitException {
         eventProcessingDates = new HashMap<String, String>();
+        long waitTimeout = DEFAULT_WAIT_TIMEOUT;
+        if (config.get(CONFIG_WAIT_TIMEOUT) != null) {
+            try {
+                waitTimeout = Long.parseLong(config.get(CONFIG_WAIT_TIMEOUT).trim());
+            } catch (NumberFormatException e) {
+                throw new IdMUnitException("'" + CONFIG_WAIT_TIMEOUT + "' must be a number of seconds, but: [" + config.get(CONFIG_WAIT_TIMEOUT) + "] was provided.");
+            }
+        }
+        backoff = new Backoff(waitTimeout * 1000);
         String host = config.get(BasicConnector.CONFIG_SERVER);
         String user = config.get(BasicConnector.CONFIG_USER);
         String pass = config.get(BasicConnector.CONFIG_PASSWORD);
@@ -223,7 +250,21 @@ public class DxcmdConnector extends AbstractConnector {
         executeCommand(args);
     }
 
-    private void executeCommand(String[] commandArgs) throws IdMUnitException {
+    private static MethodHandle getCommandLine() throws IdMUnitException {
+        MethodHandle handle = commandLine;
+        if (handle == null) {
+            synchronized (DxcmdConnector.class) {
+                handle = commandLine;
+                if (handle == null) {
+                    handle = lookupCommandLine();
+                    commandLine = handle;
+                }
+            }
+        }
+        return handle;
+    }
+
+    private static MethodHandle lookupCommandLine() throws IdMUnitException {
         Class<?> clssDxcmd;
         try {
             clssDxcmd = Class.forName("com.novell.nds.dirxml.util.DxCommand");
@@ -231,47 +272,149 @@ public class DxcmdConnector extends AbstractConnector {
             throw new IdMUnitException("Please ensure the following libraries are included in the project: dirxml.jar, dirxml_misc.jar, jclient.jar, nxsl.jar, xp.jar - This action requires access to com.novell.nds.dirxml.util.DxCommand", cnfe);
         }
 
-        Method meth;
         try {
-            meth = clssDxcmd.getMethod("commandLine", new Class[] {String[].class});
+            Method meth = clssDxcmd.getMethod("commandLine", new Class[] {String[].class});
+            if (!Modifier.isStatic(meth.getModifiers())) {
+                throw new IdMUnitException("Error while attempting to call 'commandLine' in DXCMD: the method is not static");
+            }
+            return MethodHandles.publicLookup().unreflect(meth).asType(MethodType.methodType(Object.class, String[].class));
         } catch (SecurityException e) {
             throw new IdMUnitException("Error while attempting to call 'commandLine' in DXCMD", e);
         } catch (NoSuchMethodException e) {
             throw new IdMUnitException("Error while attempting to call 'commandLine' in DXCMD", e);
+        } catch (IllegalAccessException e) {
+            throw new IdMUnitException("Error while attempting to call 'commandLine' in DXCMD", e);
+        } catch (WrongMethodTypeException e) {
+            throw new IdMUnitException("Error while attempting to call 'commandLine' in DXCMD", e);
         }
+    }
 
+    /**
+     * Runs DxCommand.commandLine in the current thread. Anything it writes to System.err is captured by
+     * executeCommand.
+     */
+    int invokeCommandLine(String[] args) throws IdMUnitException {
+        MethodHandle handle = getCommandLine();
+        try {
+            return ((Integer)(Object)handle.invokeExact(args)).intValue();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IdMUnitException("Failed while attempting to call a method in DXCMD.", e);
+        }
+    }
+
+    private void executeCommand(String[] commandArgs) throws IdMUnitException {
         // setup arguments:
         String[] args = new String[commonArgs.length + commandArgs.length];
         System.arraycopy(commonArgs, 0, args, 0, commonArgs.length);
         System.arraycopy(commandArgs, 0, args, commonArgs.length, commandArgs.length);
-        Object[] argsToUse = new Object[] {args};
-        int ret = -1;
+        int ret;
+        String errors;
         try {
-            PrintStream console = System.err;
-            ByteArrayOutputStream systemErrorReDirectionStream = new ByteArrayOutputStream();
-            System.setErr(new PrintStream(systemErrorReDirectionStream));
+            // DxCommand reports errors on System.err; only this thread's output is captured
+            ErrorCapture.start();
             try {
-
-                ret = ((Integer)meth.invoke(clssDxcmd, argsToUse)).intValue();
-            } catch (IllegalAccessException e) {
-                // could be a IllegalAccessException, IllegalArgumentException, or InvocationTargetException.  In each case, lets throw it wrapped in our exception:
-                throw new IdMUnitException("Failed while attempting to call a method in DXCMD.", e);
-            } catch (IllegalArgumentException e) {
-                // could be a IllegalAccessException, IllegalArgumentException, or InvocationTargetException.  In each case, lets throw it wrapped in our exception:
-                throw new IdMUnitException("Failed while attempting to call a method in DXCMD.", e);
-            } catch (InvocationTargetException e) {
-                // could be a IllegalAccessException, IllegalArgumentException, or InvocationTargetException.  In each case, lets throw it wrapped in our exception:
-                throw new IdMUnitException("Failed while attempting to call a method in DXCMD.", e);
+                ret = invokeCommandLine(args);
             } finally {
-                System.setErr(console);
-            }
-
-            if (ret != 0) {
-                throw new IdMUnitException("DXCMD returned: [" + ret + "], error: [" + systemErrorReDirectionStream.toString() + "]");
+                errors = ErrorCapture.stop();
             }
         } catch (RuntimeException e) {
             throw new IdMUnitException("Error while attempting to invoke 'commandLine'", e);
         }
+
+        if (ret != 0) {
+            throw new IdMUnitException("DXCMD returned: [" + ret + "], error: [" + errors + "]");
+        }
+    }
+
+    /**
+     * Starts each of the drivers at the same time.
+     */
+    public void opStartDrivers(Map<String, Collection<String>> fields) throws IdMUnitException {
+        runDriverCommand(fields, "-start");
+    }
+
+    /**
+     * Stops each of the drivers at the same time.
+     */
+    public void opStopDrivers(Map<String, Collection<String>> fields) throws IdMUnitException {
+        runDriverCommand(fields, "-stop");
+    }
+
+    private void runDriverCommand(Map<String, Collection<String>> fields, final String command) throws IdMUnitException {
+        Collection<String> dns = fields.get("dn");
+        if (dns == null || dns.isEmpty()) {
+            throw new IdMUnitException("'dn' of driver not specified.");
+        }
+        List<String> driverDns = new ArrayList<String>(new LinkedHashSet<String>(dns));
+        long start = System.currentTimeMillis();
+        forEachDriver(driverDns, new DriverTask<Boolean>() {
+            public Boolean run(String driverDn) throws IdMUnitException {
+                executeCommand(new String[] {command, driverDn});
+                return Boolean.TRUE;
+            }
+        });
+        log.info("...ran DXCMD " + command + " for " + driverDns.size() + " driver(s) in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Runs a task for each driver on its own thread, up to MAX_DRIVER_THREADS at a time. Every task is run to
+     * completion. Failures are reported together; if any task had an error it is thrown instead, or all of the
+     * errors are listed if there were several.
+     *
+     * @return the result of each driver's task, in the order of driverDns
+     */
+    private <T> Map<String, T> forEachDriver(List<String> driverDns, final DriverTask<T> task) throws IdMUnitException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(driverDns.size(), MAX_DRIVER_THREADS));
+        try {
+            Map<String, Future<T>> futures = new LinkedHashMap<String, Future<T>>();
+            for (final String driverDn : driverDns) {
+                futures.put(driverDn, executor.submit(new Callable<T>() {
+                    public T call() throws IdMUnitException {
+                        return task.run(driverDn);
+                    }
+                }));
+            }
+
+            Failures failures = new Failures();
+            Map<String, IdMUnitException> errors = new LinkedHashMap<String, IdMUnitException>();
+            Map<String, T> results = new LinkedHashMap<String, T>();
+            for (Map.Entry<String, Future<T>> future : futures.entrySet()) {
+                try {
+                    results.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IdMUnitFailureException) {
+                        failures.add(e.getCause().getMessage());
+                    } else if (e.getCause() instanceof IdMUnitException) {
+                        errors.put(future.getKey(), (IdMUnitException)e.getCause());
+                    } else {
+                        errors.put(future.getKey(), new IdMUnitException("Error while running DXCMD for '" + future.getKey() + "'.", e.getCause()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IdMUnitException("Interrupted while waiting for DXCMD.", e);
+                }
+            }
+
+            if (errors.size() == 1) {
+                throw errors.values().iterator().next();
+            } else if (errors.size() > 1) {
+                StringBuilder message = new StringBuilder("DXCMD failed for " + errors.size() + " drivers:");
+                for (Map.Entry<String, IdMUnitException> error : errors.entrySet()) {
+                    message.append("\n").append(error.getKey()).append(": ").append(error.getValue().getMessage());
+                }
+                throw new IdMUnitException(message.toString(), errors.values().iterator().next());
+            }
+            if (failures.hasFailures()) {
+                throw new IdMUnitFailureException(failures.toString());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     public void opCheckDriverProcessing(Map<String, Collection<String>> fields) throws IdMUnitException, ParseException {
@@ -286,14 +429,8 @@ public class DxcmdConnector extends AbstractConnector {
                 eventProcessingDates.put(currentDN, null);
             }
 
-            String[] args = new String[] {
-                "-getdriverstats",
-                currentDN,
-                getXmlFsName(currentDN), };
-            executeCommand(args);
-
             try {
-                validateCacheXml(currentDN, getXmlFsName(currentDN));
+                validateCache(currentDN, getDriverStats(currentDN));
             } catch (IdMUnitFailureException e) {
                 failures.add(e.getMessage());
             }
@@ -312,12 +449,21 @@ public class DxcmdConnector extends AbstractConnector {
 
     public void validateCacheXml(String dn, String xmlFile) throws IdMUnitException, ParseException {
         File fileToDelete = new File(xmlFile);
-        if (eventProcessingDates.get(dn) != null && eventProcessingDates.get(dn).equalsIgnoreCase(SUCCESS_FLAG)) {
+        try {
+            if (eventProcessingDates.get(dn) != null && eventProcessingDates.get(dn).equalsIgnoreCase(SUCCESS_FLAG)) {
+                return;
+            }
+            validateCache(dn, loadXMLFromFS(xmlFile));
+        } finally {
             fileToDelete.delete();
+        }
+    }
+
+    void validateCache(String dn, Document doc) throws IdMUnitException {
+        if (eventProcessingDates.get(dn) != null && eventProcessingDates.get(dn).equalsIgnoreCase(SUCCESS_FLAG)) {
             return;
         }
 
-        Document doc = loadXMLFromFS(xmlFile);
         Node newestTimeStamp = null;
         Node oldestTimeStamp = null;
 
@@ -354,8 +500,100 @@ public class DxcmdConnector extends AbstractConnector {
                 eventProcessingDates.put(dn, SUCCESS_FLAG);
                 //Success, fall out without error
             }
+        }
+    }
+
+    /**
+     * Reads the statistics of a driver. DxCommand can only write them to a file, so they are written to a
+     * private temporary file that is parsed and deleted straight away.
+     */
+    Document getDriverStats(String driverDn) throws IdMUnitException {
+        File statsFile;
+        try {
+            statsFile = File.createTempFile("driverstats", ".xml");
+        } catch (IOException e) {
+            throw new IdMUnitException("Could not create temp file: " + e.getMessage(), e);
+        }
+        try {
+            executeCommand(new String[] {"-getdriverstats", driverDn, statsFile.getAbsolutePath()});
+            try {
+                return new Builder().build(statsFile);
+            } catch (ParsingException e) {
+                throw new IdMUnitException("Error parsing the statistics of '" + driverDn + "'.", e);
+            } catch (IOException e) {
+                throw new IdMUnitException("Error reading the statistics of '" + driverDn + "'.", e);
+            }
         } finally {
-            fileToDelete.delete();
+            statsFile.delete();
+        }
+    }
+
+    /**
+     * Waits until the subscriber cache of each driver no longer holds any of the transactions it held when
+     * the operation started. All drivers are polled at the same time, backing off between polls, until
+     * wait-timeout expires. The time each driver took to drain is logged.
+     */
+    public void opWaitForDriverCacheDrained(Map<String, Collection<String>> fields) throws IdMUnitException {
+        Collection<String> dns = fields.get("dn");
+        if (dns == null || dns.isEmpty()) {
+            throw new IdMUnitException("'dn' of driver not specified.");
+        }
+        waitForDriverCachesDrained(new ArrayList<String>(new LinkedHashSet<String>(dns)));
+    }
+
+    /**
+     * @return the number of milliseconds each driver took to drain
+     */
+    Map<String, Long> waitForDriverCachesDrained(List<String> driverDns) throws IdMUnitException {
+        return forEachDriver(driverDns, new DriverTask<Long>() {
+            public Long run(String driverDn) throws IdMUnitException {
+                return waitForDriverCacheDrained(driverDn);
+            }
+        });
+    }
+
+    private long waitForDriverCacheDrained(final String driverDn) throws IdMUnitException {
+        final long start = System.currentTimeMillis();
+        CacheDrainPoll poll = new CacheDrainPoll(driverDn);
+        if (backoff.waitFor(poll) == null) {
+            throw new IdMUnitFailureException(driverDn + ": cache not drained after " + (System.currentTimeMillis() - start) + " ms. Oldest transaction [" + poll.oldest + "], waiting for transactions newer than [" + poll.mark + "]");
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("..." + driverDn + ": cache drained in " + elapsed + " ms (" + poll.polls + " polls)");
+        return elapsed;
+    }
+
+    private interface DriverTask<T> {
+        T run(String driverDn) throws IdMUnitException;
+    }
+
+    /**
+     * Records the newest cached transaction of a driver on the first poll, then reports the cache drained once it
+     * is empty or its oldest transaction is newer than the recorded one.
+     */
+    private final class CacheDrainPoll implements Backoff.Poll<Boolean> {
+        private final String driverDn;
+        private boolean marked;
+        private String mark;
+        private String oldest;
+        private int polls;
+
+        private CacheDrainPoll(String driverDn) {
+            this.driverDn = driverDn;
+        }
+
+        public Boolean attempt() throws IdMUnitException {
+            polls++;
+            Document stats = getDriverStats(driverDn);
+            oldest = getTransactionTimestamp(stats, XPATH_OLDEST_TRANSACTION);
+            if (!marked) {
+                marked = true;
+                mark = getTransactionTimestamp(stats, XPATH_NEWEST_TRANSACTION);
+            }
+            if (oldest == null || (mark != null && oldest.compareTo(mark) > 0)) {
+                return Boolean.TRUE;
+            }
+            return null;
         }
     }
 }
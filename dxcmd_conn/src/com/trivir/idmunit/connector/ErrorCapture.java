@@ -0,0 +1,100 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Captures what a thread writes to System.err without swapping System.err for every other thread. A routing
+ * stream is installed as System.err once; while a thread is capturing, its writes go to its own buffer and
+ * writes from all other threads still reach the console.
+ */
+final class ErrorCapture {
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFER = new ThreadLocal<ByteArrayOutputStream>();
+    private static PrintStream router;
+
+    private ErrorCapture() {
+    }
+
+    /**
+     * Installs the routing stream unless it is still System.err. If System.err has been replaced since, the
+     * replacement becomes the console for other threads.
+     */
+    static synchronized void install() {
+        if (System.err == router) {
+            return;
+        }
+        final PrintStream console = System.err;
+        router = new PrintStream(new OutputStream() {
+            public void write(int b) throws IOException {
+                OutputStream buffer = BUFFER.get();
+                if (buffer != null) {
+                    buffer.write(b);
+                } else {
+                    console.write(b);
+                }
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                OutputStream buffer = BUFFER.get();
+                if (buffer != null) {
+                    buffer.write(b, off, len);
+                } else {
+                    console.write(b, off, len);
+                }
+            }
+
+            public void flush() {
+                if (BUFFER.get() == null) {
+                    console.flush();
+                }
+            }
+        }, true);
+        System.setErr(router);
+    }
+
+    /**
+     * Starts capturing the current thread's writes to System.err.
+     */
+    static void start() {
+        install();
+        BUFFER.set(new ByteArrayOutputStream());
+    }
+
+    /**
+     * Stops capturing the current thread's writes and returns what was written.
+     */
+    static String stop() {
+        ByteArrayOutputStream buffer = BUFFER.get();
+        BUFFER.remove();
+        return buffer == null ? "" : buffer.toString();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import nu.xom.Builder;
+import nu.xom.Document;
+import org.idmunit.IdMUnitException;
+import org.idmunit.IdMUnitFailureException;
+import org.idmunit.connector.BasicConnector;
+import org.idmunit.connector.ConnectionConfigData;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DxcmdCacheDrainTests extends TestCase {
+    private static final String DRIVER1 = "Driver1.Driver Set.system";
+    private static final String DRIVER2 = "Driver2.Driver Set.system";
+
+    private ScriptedConnector conn;
+
+    private static Document stats(String oldest, String newest) throws Exception {
+        String transactions = oldest == null ? "" : "<transactions><oldest>" + oldest + "</oldest><newest>" + newest + "</newest></transactions>";
+        return new Builder().build(new java.io.StringReader("<driver-info><subscriber><cache>" + transactions + "</cache></subscriber></driver-info>"));
+    }
+
+    private static Collection<String> values(String... values) {
+        return new ArrayList<String>(Arrays.asList(values));
+    }
+
+    protected void setUp() throws IdMUnitException {
+        conn = new ScriptedConnector();
+        ConnectionConfigData ccd = new ConnectionConfigData("dxcmd", "com.trivir.idmunit.connector.DxcmdConnector");
+        ccd.setParam(BasicConnector.CONFIG_USER, "admin.sa.system");
+        ccd.setParam(BasicConnector.CONFIG_PASSWORD, "trivir");
+        ccd.setParam(BasicConnector.CONFIG_SERVER, "localhost");
+        ccd.setParam(DxcmdConnector.CONFIG_WAIT_TIMEOUT, "2");
+        conn.setup(ccd.getParams());
+    }
+
+    public void testEmptyCacheIsDrainedImmediately() throws Exception {
+        conn.script(DRIVER1, stats(null, null));
+
+        Map<String, Long> drained = conn.waitForDriverCachesDrained(Arrays.asList(DRIVER1));
+        assertEquals(1, conn.polls(DRIVER1));
+        assertTrue(drained.containsKey(DRIVER1));
+    }
+
+    public void testWaitsUntilOldestTransactionPassesMark() throws Exception {
+        conn.script(DRIVER1, stats("20190101100000", "20190101100500"), stats("20190101100000", "20190101100900"),
+                stats("20190101100600", "20190101100900"));
+        conn.script(DRIVER2, stats("20190101100000", "20190101100100"), stats(null, null));
+
+        Map<String, Long> drained = conn.waitForDriverCachesDrained(Arrays.asList(DRIVER1, DRIVER2));
+        assertEquals(Arrays.asList(DRIVER1, DRIVER2), new ArrayList<String>(drained.keySet()));
+        assertEquals(3, conn.polls(DRIVER1));
+        assertEquals(2, conn.polls(DRIVER2));
+    }
+
+    public void testDriversArePolledConcurrently() throws Exception {
+        conn.delay = 300;
+        conn.script(DRIVER1, stats(null, null));
+        conn.script(DRIVER2, stats(null, null));
+
+        long start = System.currentTimeMillis();
+        conn.waitForDriverCachesDrained(Arrays.asList(DRIVER1, DRIVER2));
+        assertTrue(System.currentTimeMillis() - start < 550);
+    }
+
+    public void testTimeoutListsDriversNotDrained() throws Exception {
+        conn.script(DRIVER1, stats(null, null));
+        conn.script(DRIVER2, stats("20190101100000", "20190101100500"));
+
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("dn", values(DRIVER1, DRIVER2));
+        try {
+            conn.opWaitForDriverCacheDrained(data);
+            fail("Should have thrown exception");
+        } catch (IdMUnitFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(DRIVER2 + ": cache not drained after"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Oldest transaction [20190101100000], waiting for transactions newer than [20190101100500]"));
+            assertFalse(e.getMessage(), e.getMessage().contains(DRIVER1));
+        }
+        assertTrue(conn.polls(DRIVER2) > 2);
+    }
+
+    public void testErrorReadingStatsIsNotRetried() throws Exception {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("dn", values(DRIVER1));
+        try {
+            conn.opWaitForDriverCacheDrained(data);
+            fail("Should have thrown exception");
+        } catch (IdMUnitFailureException e) {
+            fail("Expected an error, not a failure");
+        } catch (IdMUnitException e) {
+            assertEquals("DXCMD returned: [-1], error: [no stats for " + DRIVER1 + "]", e.getMessage());
+        }
+        assertEquals(1, conn.polls(DRIVER1));
+    }
+
+    public void testDnRequired() {
+        try {
+            conn.opWaitForDriverCacheDrained(new HashMap<String, Collection<String>>());
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertEquals("'dn' of driver not specified.", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns scripted statistics for each driver, repeating the last one.
+     */
+    private static class ScriptedConnector extends DxcmdConnector {
+        private final Map<String, List<Document>> scripts = new ConcurrentHashMap<String, List<Document>>();
+        private final Map<String, AtomicInteger> polls = new ConcurrentHashMap<String, AtomicInteger>();
+        private volatile long delay;
+
+        void script(String driverDn, Document... stats) {
+            scripts.put(driverDn, Arrays.asList(stats));
+            polls.put(driverDn, new AtomicInteger());
+        }
+
+        int polls(String driverDn) {
+            return polls.get(driverDn).get();
+        }
+
+        Document getDriverStats(String driverDn) throws IdMUnitException {
+            List<Document> script = scripts.get(driverDn);
+            if (script == null) {
+                polls.put(driverDn, new AtomicInteger(1));
+                throw new IdMUnitException("DXCMD returned: [-1], error: [no stats for " + driverDn + "]");
+            }
+            int poll = polls.get(driverDn).getAndIncrement();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new IdMUnitException("Interrupted", e);
+                }
+            }
+            return script.get(Math.min(poll, script.size() - 1));
+        }
+    }
+}
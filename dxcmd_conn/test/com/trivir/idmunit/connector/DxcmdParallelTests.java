@@ -0,0 +1,178 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.BasicConnector;
+import org.idmunit.connector.ConnectionConfigData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class DxcmdParallelTests extends TestCase {
+    private static final long COMMAND_MILLIS = 300;
+
+    private FakeDxcmdConnector conn;
+
+    private static Collection<String> values(String... values) {
+        return new ArrayList<String>(Arrays.asList(values));
+    }
+
+    protected void setUp() throws IdMUnitException {
+        conn = new FakeDxcmdConnector();
+        ConnectionConfigData ccd = new ConnectionConfigData("dxcmd", "com.trivir.idmunit.connector.DxcmdConnector");
+        ccd.setParam(BasicConnector.CONFIG_USER, "admin.sa.system");
+        ccd.setParam(BasicConnector.CONFIG_PASSWORD, "trivir");
+        ccd.setParam(BasicConnector.CONFIG_SERVER, "localhost");
+        conn.setup(ccd.getParams());
+    }
+
+    public void testStartDriversRunsConcurrently() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("dn", values("Driver1", "Driver2", "Driver3", "Driver4"));
+
+        long start = System.currentTimeMillis();
+        conn.opStartDrivers(data);
+        assertTrue(System.currentTimeMillis() - start < 2 * COMMAND_MILLIS);
+        assertEquals(new HashSet<String>(Arrays.asList("-start Driver1", "-start Driver2", "-start Driver3", "-start Driver4")), new HashSet<String>(conn.commands));
+    }
+
+    public void testErrorsAreCapturedPerDriver() {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("dn", values("BadDriver1", "Driver2", "BadDriver3"));
+        try {
+            conn.opStopDrivers(data);
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertEquals("DXCMD failed for 2 drivers:"
+                    + "\nBadDriver1: DXCMD returned: [1], error: [cannot stop BadDriver1]"
+                    + "\nBadDriver3: DXCMD returned: [1], error: [cannot stop BadDriver3]", e.getMessage());
+        }
+        assertEquals(3, conn.commands.size());
+    }
+
+    public void testSingleErrorIsThrownAsIs() {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("dn", values("BadDriver1", "Driver2"));
+        try {
+            conn.opStartDrivers(data);
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertEquals("DXCMD returned: [1], error: [cannot start BadDriver1]", e.getMessage());
+        }
+    }
+
+    public void testDnRequired() {
+        try {
+            conn.opStartDrivers(new HashMap<String, Collection<String>>());
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertEquals("'dn' of driver not specified.", e.getMessage());
+        }
+    }
+
+    public void testOtherThreadsStillWriteToConsole() throws Exception {
+        PrintStream original = System.err;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(console, true));
+        try {
+            ErrorCapture.start();
+            Thread other = new Thread(new Runnable() {
+                public void run() {
+                    System.err.print("from another thread");
+                }
+            });
+            other.start();
+            other.join();
+            System.err.print("captured");
+            assertEquals("captured", ErrorCapture.stop());
+            assertEquals("from another thread", console.toString());
+
+            System.err.print(" after");
+            assertEquals("from another thread after", console.toString());
+        } finally {
+            System.setErr(original);
+        }
+    }
+
+    public void testConcurrentCapturesDoNotMix() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; i++) {
+                final String name = "thread" + i;
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        ErrorCapture.start();
+                        for (int j = 0; j < 100; j++) {
+                            System.err.print(name);
+                            Thread.yield();
+                        }
+                        return ErrorCapture.stop();
+                    }
+                }));
+            }
+            for (int i = 0; i < 8; i++) {
+                StringBuilder expected = new StringBuilder();
+                for (int j = 0; j < 100; j++) {
+                    expected.append("thread").append(i);
+                }
+                assertEquals(expected.toString(), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Simulates DxCommand: each command takes a while and drivers whose name starts with "Bad" fail with a
+     * message on System.err.
+     */
+    private static class FakeDxcmdConnector extends DxcmdConnector {
+        private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+
+        int invokeCommandLine(String[] args) throws IdMUnitException {
+            String command = args[args.length - 2];
+            String driverDn = args[args.length - 1];
+            commands.add(command + " " + driverDn);
+            try {
+                Thread.sleep(COMMAND_MILLIS);
+            } catch (InterruptedException e) {
+                throw new IdMUnitException("Interrupted", e);
+            }
+            if (driverDn.startsWith("Bad")) {
+                System.err.print("cannot " + command.substring(1) + " " + driverDn);
+                return 1;
+            }
+            return 0;
+        }
+    }
+}
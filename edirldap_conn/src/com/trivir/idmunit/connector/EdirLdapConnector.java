@@ -28,44 +28,94 @@
 
 package com.trivir.idmunit.connector;
 
+import org.idmunit.Failures;
 import org.idmunit.IdMUnitException;
 import org.idmunit.IdMUnitFailureException;
 import org.idmunit.connector.LdapConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.naming.AuthenticationException;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.directory.*;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class EdirLdapConnector extends LdapConnector {
+    static final String CONFIG_PASSWORD_CHECK_THREADS = "password-check-threads";
+    static final int DEFAULT_PASSWORD_CHECK_THREADS = 8;
+    static final String STR_DN_FILE = "dnFile";
+
+    private static Logger log = LoggerFactory.getLogger(EdirLdapConnector.class);
 
     private final String dummyPassword = "thissafepas124";
 
-    /**
-     * Please see opPasswordExists, and opPasswordDoesNotExist for information on this function.
-     */
-    private boolean passwordExists(Map<String, Collection<String>> dataRow) throws IdMUnitException {
+    private Hashtable<String, String> anonymousEnv;
+    private int passwordCheckThreads = DEFAULT_PASSWORD_CHECK_THREADS;
+    private ExecutorService passwordCheckExecutor;
+
+    public void setup(Map<String, String> config) throws IdMUnitException {
+        super.setup(config);
+
+        // The anonymous contexts are taken from the JNDI LDAP connection pool, so each password check
+        // reuses an open connection instead of connecting again. Closing a context returns its connection.
         Hashtable<String, String> env = new Hashtable<String, String>();
         env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
         env.put(Context.SECURITY_AUTHENTICATION, "none");
         env.put(Context.PROVIDER_URL, "ldap://" + server);
-        //env.put(Context.SECURITY_PRINCIPAL, userDN);
-        //env.put(Context.SECURITY_CREDENTIALS, password);
         env.put(Context.SECURITY_CREDENTIALS, "");
         env.put("com.sun.jndi.ldap.connect.timeout", "5000");
+        env.put("com.sun.jndi.ldap.connect.pool", "true");
         env.put(Context.REFERRAL, "follow");
+        anonymousEnv = env;
+
+        String threads = config.get(CONFIG_PASSWORD_CHECK_THREADS);
+        if (threads == null || threads.trim().length() == 0) {
+            passwordCheckThreads = DEFAULT_PASSWORD_CHECK_THREADS;
+        } else {
+            try {
+                passwordCheckThreads = Integer.parseInt(threads.trim());
+            } catch (NumberFormatException e) {
+                throw new IdMUnitException("Invalid value '" + threads + "' for '" + CONFIG_PASSWORD_CHECK_THREADS + "'", e);
+            }
+            if (passwordCheckThreads < 1) {
+                throw new IdMUnitException("'" + CONFIG_PASSWORD_CHECK_THREADS + "' must be at least 1");
+            }
+        }
+        shutdownPasswordCheckExecutor();
+    }
+
+    public void tearDown() throws IdMUnitException {
+        shutdownPasswordCheckExecutor();
+        super.tearDown();
+    }
+
+    Hashtable<String, String> getAnonymousEnv() {
+        return anonymousEnv;
+    }
+
+    /**
+     * Opens an anonymous context for a password check. The caller must close it.
+     */
+    DirContext newAnonymousContext() throws NamingException {
+        return new InitialDirContext(anonymousEnv);
+    }
 
+    /**
+     * Please see opPasswordExists, and opPasswordDoesNotExist for information on this function.
+     */
+    boolean passwordExists(String dn) throws IdMUnitException {
         DirContext ctxAnon;
         try {
-            ctxAnon = new InitialDirContext(env);
+            ctxAnon = newAnonymousContext();
         } catch (NamingException e) {
             throw new IdMUnitException("Failed to initialize password test, failed to login anonymously!", e);
         }
 
-        String dn = getTargetDn(dataRow);
-
         Attribute modValuesRemove = new BasicAttribute("userPassword");
         modValuesRemove.add("");
         Attribute modValuesAdd = new BasicAttribute("userPassword");
@@ -82,6 +132,12 @@ public class EdirLdapConnector extends LdapConnector {
             return true;
         } catch (NamingException e) {
             throw new IdMUnitException("Could not execute password test", e);
+        } finally {
+            try {
+                ctxAnon.close();
+            } catch (NamingException e) {
+                log.debug("Failed to close anonymous context", e);
+            }
         }
 
         //TODO: this should never happen . .determine possible situations where it might.
@@ -98,8 +154,9 @@ public class EdirLdapConnector extends LdapConnector {
      * @throws IdMUnitException
      */
     public void opPasswordExists(Map<String, Collection<String>> dataRow) throws IdMUnitException {
-        if (!passwordExists(dataRow)) {
-            throw new IdMUnitFailureException("Password did not exist for user: [" + getTargetDn(dataRow) + "]");
+        String dn = getTargetDn(dataRow);
+        if (!passwordExists(dn)) {
+            throw new IdMUnitFailureException("Password did not exist for user: [" + dn + "]");
         }
     }
 
@@ -112,10 +169,154 @@ public class EdirLdapConnector extends LdapConnector {
      * @throws IdMUnitException
      */
     public void opPasswordDoesNotExist(Map<String, Collection<String>> dataRow) throws IdMUnitException {
-        if (passwordExists(dataRow)) {
-            throw new IdMUnitFailureException("Password exists for user: [" + getTargetDn(dataRow) + "]");
+        String dn = getTargetDn(dataRow);
+        if (passwordExists(dn)) {
+            throw new IdMUnitFailureException("Password exists for user: [" + dn + "]");
+        }
+    }
+
+    /**
+     * Checks that every listed user has a password, in the same way as opPasswordExists. The users are
+     * checked concurrently, up to password-check-threads at a time, and every user is checked before the
+     * results are reported.
+     *
+     * @param dataRow the users' DNs in dn, in the file named by dnFile, or both
+     * @throws IdMUnitException
+     */
+    public void opPasswordsExist(Map<String, Collection<String>> dataRow) throws IdMUnitException {
+        checkPasswords(getDns(dataRow), true);
+    }
+
+    /**
+     * Checks that none of the listed users has a password. See opPasswordsExist.
+     *
+     * @param dataRow the users' DNs in dn, in the file named by dnFile, or both
+     * @throws IdMUnitException
+     */
+    public void opPasswordsDoNotExist(Map<String, Collection<String>> dataRow) throws IdMUnitException {
+        checkPasswords(getDns(dataRow), false);
+    }
+
+    private void checkPasswords(List<String> dns, boolean expected) throws IdMUnitException {
+        long start = System.currentTimeMillis();
+        Map<String, Future<Boolean>> futures = new LinkedHashMap<String, Future<Boolean>>();
+        ExecutorService executor = getPasswordCheckExecutor();
+        for (final String dn : dns) {
+            futures.put(dn, executor.submit(new Callable<Boolean>() {
+                public Boolean call() throws IdMUnitException {
+                    return passwordExists(dn);
+                }
+            }));
+        }
+
+        Failures failures = new Failures();
+        int mismatched = 0;
+        int errors = 0;
+        for (Map.Entry<String, Future<Boolean>> entry : futures.entrySet()) {
+            String dn = entry.getKey();
+            try {
+                if (getResult(entry.getValue()) != expected) {
+                    mismatched++;
+                    failures.add((expected ? "Password did not exist for user: [" : "Password exists for user: [") + dn + "]");
+                }
+            } catch (ExecutionException e) {
+                errors++;
+                Throwable cause = e.getCause();
+                String message = cause instanceof IdMUnitException ? cause.getMessage() : cause.toString();
+                if (cause.getCause() != null) {
+                    message += ": " + cause.getCause().getMessage();
+                }
+                failures.add("Could not check password for user: [" + dn + "]: " + message);
+            }
+        }
+
+        log.info(String.format("Checked passwords of %d users in %d ms, %d %s, %d could not be checked",
+                dns.size(), System.currentTimeMillis() - start, mismatched, expected ? "without a password" : "with a password", errors));
+        if (errors > 0) {
+            throw new IdMUnitException(String.format("%d of %d users could not be checked:\n%s", errors, dns.size(), failures.toString()));
+        }
+        if (failures.hasFailures()) {
+            throw new IdMUnitFailureException(String.format("%d of %d users %s:\n%s", mismatched, dns.size(), expected ? "had no password" : "had a password", failures.toString()));
+        }
+    }
+
+    private static List<String> getDns(Map<String, Collection<String>> dataRow) throws IdMUnitException {
+        List<String> dns = new ArrayList<String>();
+        Collection<String> values = dataRow.get(STR_DN);
+        if (values != null) {
+            for (String value : values) {
+                if (value != null && value.trim().length() > 0) {
+                    dns.add(value.trim());
+                }
+            }
+        }
+
+        Collection<String> files = dataRow.get(STR_DN_FILE);
+        if (files != null) {
+            for (String file : files) {
+                if (file != null && file.trim().length() > 0) {
+                    readDns(new File(file.trim()), dns);
+                }
+            }
+        }
+
+        if (dns.isEmpty()) {
+            throw new IdMUnitException("No users to check. Specify their DNs in '" + STR_DN + "' or in a file named by '" + STR_DN_FILE + "'.");
+        }
+        return dns;
+    }
+
+    private static void readDns(File file, List<String> dns) throws IdMUnitException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    dns.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            throw new IdMUnitException("Failed to read DNs from '" + file.getPath() + "'", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.debug("Failed to close '" + file.getPath() + "'", e);
+                }
+            }
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws ExecutionException, IdMUnitException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdMUnitException("Interrupted while waiting for password checks.", e);
         }
     }
 
+    private synchronized ExecutorService getPasswordCheckExecutor() {
+        if (passwordCheckExecutor == null) {
+            passwordCheckExecutor = Executors.newFixedThreadPool(passwordCheckThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "edir-password-check-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return passwordCheckExecutor;
+    }
 
+    private synchronized void shutdownPasswordCheckExecutor() {
+        if (passwordCheckExecutor != null) {
+            passwordCheckExecutor.shutdown();
+            passwordCheckExecutor = null;
+        }
+    }
 }
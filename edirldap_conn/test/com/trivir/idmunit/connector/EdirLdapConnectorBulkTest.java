@@ -0,0 +1,239 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+import org.idmunit.IdMUnitFailureException;
+
+import javax.naming.AuthenticationException;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.NoSuchAttributeException;
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EdirLdapConnectorBulkTest extends TestCase {
+    private StubConnector connector;
+
+    protected void setUp() throws Exception {
+        connector = new StubConnector();
+    }
+
+    protected void tearDown() throws Exception {
+        connector.tearDown();
+    }
+
+    public void testPasswordsExist() throws IdMUnitException {
+        connector.passwords.put("cn=user1,o=users", Boolean.TRUE);
+        connector.passwords.put("cn=user2,o=users", Boolean.TRUE);
+
+        connector.opPasswordsExist(row("cn=user1,o=users", "cn=user2,o=users"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("cn=user1,o=users", "cn=user2,o=users")), connector.checked);
+    }
+
+    public void testPasswordsExistReportsEveryMissingPassword() throws IdMUnitException {
+        connector.passwords.put("cn=user1,o=users", Boolean.FALSE);
+        connector.passwords.put("cn=user2,o=users", Boolean.TRUE);
+        connector.passwords.put("cn=user3,o=users", Boolean.FALSE);
+
+        try {
+            connector.opPasswordsExist(row("cn=user1,o=users", "cn=user2,o=users", "cn=user3,o=users"));
+            fail("Expected the check to fail");
+        } catch (IdMUnitFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("2 of 3 users had no password:"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Password did not exist for user: [cn=user1,o=users]"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Password did not exist for user: [cn=user3,o=users]"));
+            assertFalse(e.getMessage(), e.getMessage().contains("cn=user2,o=users"));
+        }
+        assertEquals(3, connector.checked.size());
+    }
+
+    public void testPasswordsDoNotExist() throws IdMUnitException {
+        connector.passwords.put("cn=user1,o=users", Boolean.FALSE);
+        connector.passwords.put("cn=user2,o=users", Boolean.TRUE);
+
+        try {
+            connector.opPasswordsDoNotExist(row("cn=user1,o=users", "cn=user2,o=users"));
+            fail("Expected the check to fail");
+        } catch (IdMUnitFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 2 users had a password:"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Password exists for user: [cn=user2,o=users]"));
+        }
+    }
+
+    public void testErrorsAreNotTestFailures() {
+        connector.passwords.put("cn=user1,o=users", Boolean.FALSE);
+
+        try {
+            connector.opPasswordsExist(row("cn=user1,o=users", "cn=missing,o=users"));
+            fail("Expected the check to fail");
+        } catch (IdMUnitFailureException e) {
+            fail("Expected an error, not a test failure: " + e.getMessage());
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 2 users could not be checked:"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Could not check password for user: [cn=missing,o=users]: Could not execute password test"));
+        }
+        assertEquals(2, connector.checked.size());
+    }
+
+    public void testChecksConcurrently() throws Exception {
+        final CountDownLatch started = new CountDownLatch(4);
+        connector = new StubConnector() {
+            boolean passwordExists(String dn) throws IdMUnitException {
+                started.countDown();
+                try {
+                    if (!started.await(5, TimeUnit.SECONDS)) {
+                        throw new IdMUnitException("Checks were not run concurrently");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IdMUnitException("Interrupted", e);
+                }
+                return true;
+            }
+        };
+
+        connector.opPasswordsExist(row("cn=user1,o=users", "cn=user2,o=users", "cn=user3,o=users", "cn=user4,o=users"));
+    }
+
+    public void testDnFile() throws Exception {
+        File file = File.createTempFile("dns", ".txt");
+        try {
+            FileWriter writer = new FileWriter(file);
+            writer.write("cn=user2,o=users\n\n  cn=user3,o=users  \n");
+            writer.close();
+            connector.passwords.put("cn=user1,o=users", Boolean.TRUE);
+            connector.passwords.put("cn=user2,o=users", Boolean.TRUE);
+            connector.passwords.put("cn=user3,o=users", Boolean.TRUE);
+
+            Map<String, Collection<String>> row = row("cn=user1,o=users");
+            row.put(EdirLdapConnector.STR_DN_FILE, Collections.singletonList(file.getPath()));
+            connector.opPasswordsExist(row);
+
+            assertEquals(connector.passwords.keySet(), connector.checked);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testNoDns() {
+        try {
+            connector.opPasswordsExist(new HashMap<String, Collection<String>>());
+            fail("Expected an error when no DNs are given");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No users to check."));
+        }
+    }
+
+    public void testContextIsClosedWhenPasswordExists() throws IdMUnitException {
+        ContextStubConnector contextConnector = new ContextStubConnector(new AuthenticationException());
+        assertTrue(contextConnector.passwordExists("cn=user1,o=users"));
+        assertEquals(1, contextConnector.closed);
+    }
+
+    public void testContextIsClosedWhenPasswordDoesNotExist() throws IdMUnitException {
+        ContextStubConnector contextConnector = new ContextStubConnector(new NoSuchAttributeException());
+        assertFalse(contextConnector.passwordExists("cn=user1,o=users"));
+        assertEquals(1, contextConnector.closed);
+    }
+
+    public void testContextIsClosedOnError() {
+        ContextStubConnector contextConnector = new ContextStubConnector(new NamingException("no such entry"));
+        try {
+            contextConnector.passwordExists("cn=user1,o=users");
+            fail("Expected an error");
+        } catch (IdMUnitException e) {
+            assertEquals("Could not execute password test", e.getMessage());
+        }
+        assertEquals(1, contextConnector.closed);
+    }
+
+    public void testContextIsClosedWhenModifySucceeds() {
+        ContextStubConnector contextConnector = new ContextStubConnector(null);
+        try {
+            contextConnector.passwordExists("cn=user1,o=users");
+            fail("Expected an error");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Password check test failed to operate properly!"));
+        }
+        assertEquals(1, contextConnector.closed);
+    }
+
+    private static Map<String, Collection<String>> row(String... dns) {
+        Map<String, Collection<String>> row = new HashMap<String, Collection<String>>();
+        row.put("dn", Arrays.asList(dns));
+        return row;
+    }
+
+    private static class StubConnector extends EdirLdapConnector {
+        final Map<String, Boolean> passwords = new HashMap<String, Boolean>();
+        final Set<String> checked = Collections.synchronizedSet(new HashSet<String>());
+
+        boolean passwordExists(String dn) throws IdMUnitException {
+            checked.add(dn);
+            Boolean exists = passwords.get(dn);
+            if (exists == null) {
+                throw new IdMUnitException("Could not execute password test", new Exception("no such entry"));
+            }
+            return exists.booleanValue();
+        }
+    }
+
+    /**
+     * Hands out contexts whose modifyAttributes throws the given exception, or returns if it is null.
+     */
+    private static class ContextStubConnector extends EdirLdapConnector {
+        private final NamingException modifyError;
+        int closed;
+
+        ContextStubConnector(NamingException modifyError) {
+            this.modifyError = modifyError;
+        }
+
+        DirContext newAnonymousContext() {
+            return (DirContext)Proxy.newProxyInstance(DirContext.class.getClassLoader(), new Class<?>[] {DirContext.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws NamingException {
+                    if (method.getName().equals("close")) {
+                        closed++;
+                    } else if (method.getName().equals("modifyAttributes") && modifyError != null) {
+                        throw modifyError;
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+}
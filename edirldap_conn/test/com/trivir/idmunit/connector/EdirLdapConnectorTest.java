@@ -155,6 +155,10 @@ public class EdirLdapConnectorTest extends TestCase {
 
     }
 
+    public void testSetupPoolsAnonymousConnections() {
+        assertEquals("true", ldapConnectorTest.getAnonymousEnv().get("com.sun.jndi.ldap.connect.pool"));
+    }
+
     public void testPasswordExists() throws EdirLdapConnectorTestException, IdMUnitException {
         HashMap<String, Collection<String>> dataUserNoPassword = new HashMap<String, Collection<String>>();
         ArrayList<String> valuesnopass = new ArrayList<String>();
@@ -0,0 +1,238 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import com.trivir.idmunit.connector.api.UserApi;
+import com.trivir.idmunit.connector.api.resource.User;
+import com.trivir.idmunit.connector.rest.RestClient;
+import com.trivir.idmunit.util.CsvReader;
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.ConnectorUtil;
+
+import java.io.*;
+import java.util.*;
+
+import static com.trivir.idmunit.connector.util.EntityConverter.userToMap;
+import static com.trivir.idmunit.connector.util.JavaUtil.isBlank;
+
+/**
+ * Validates many users in one operation. The users are read with batch requests (or, for a domain query, a page at
+ * a time) and each user is converted to an attribute map once and compared as it arrives. The differences for every
+ * user are gathered into a single report.
+ */
+final class BulkUserValidation {
+    static final String ATTR_CSV_FILE = "csvFile";
+    static final String ATTR_QUERY = "query";
+    static final String ATTR_DOMAIN = "domain";
+    static final String ATTR_REPORT_FILE = "reportFile";
+
+    private static final Set<String> CONTROL_ATTRS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+        User.Schema.ATTR_USERNAME, ATTR_CSV_FILE, ATTR_QUERY, ATTR_DOMAIN, ATTR_REPORT_FILE)));
+
+    private static final Collection<String> EXCLUDE_ATTRS = Collections.singleton(User.Schema.ATTR_USERNAME);
+
+    private final RestClient rest;
+
+    BulkUserValidation(RestClient rest) {
+        this.rest = rest;
+    }
+
+    Report run(Map<String, Collection<String>> data) throws IdMUnitException {
+        final Map<String, Collection<String>> common = new HashMap<String, Collection<String>>();
+        for (Map.Entry<String, Collection<String>> entry : data.entrySet()) {
+            if (!CONTROL_ATTRS.contains(entry.getKey())) {
+                common.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        String csvFile = ConnectorUtil.getSingleValue(data, ATTR_CSV_FILE);
+        String query = ConnectorUtil.getSingleValue(data, ATTR_QUERY);
+        String domain = ConnectorUtil.getSingleValue(data, ATTR_DOMAIN);
+        Collection<String> usernames = data.get(User.Schema.ATTR_USERNAME);
+        boolean listUsers = !isBlank(query) || !isBlank(domain);
+
+        int sources = (isBlank(csvFile) ? 0 : 1) + (listUsers ? 1 : 0) + (usernames == null || usernames.isEmpty() ? 0 : 1);
+        if (sources != 1) {
+            throw new IdMUnitException(String.format("Specify exactly one of '%s', '%s' or '%s'/'%s'.",
+                User.Schema.ATTR_USERNAME, ATTR_CSV_FILE, ATTR_QUERY, ATTR_DOMAIN));
+        }
+
+        long start = System.currentTimeMillis();
+        final Report report = new Report();
+        if (listUsers) {
+            Map<String, String> queryParams = new HashMap<String, String>();
+            if (!isBlank(domain)) {
+                queryParams.put(ATTR_DOMAIN, domain);
+            } else {
+                queryParams.put("customer", "my_customer");
+            }
+            if (!isBlank(query)) {
+                queryParams.put(ATTR_QUERY, query);
+            }
+            UserApi.forEachUserPage(rest, queryParams, null, true, new UserApi.UserPageVisitor() {
+                public void visit(List<User> users) throws IdMUnitException {
+                    for (User user : users) {
+                        report.add(compare(user.getPrimaryEmail(), common, user));
+                    }
+                }
+            });
+        } else {
+            Map<String, Map<String, Collection<String>>> expected = isBlank(csvFile)
+                ? expectedFromUsernames(usernames, common)
+                : readCsv(csvFile, common);
+            List<String> names = new ArrayList<String>(expected.keySet());
+            List<User> users = UserApi.getUsers(rest, names);
+            for (int i = 0; i < names.size(); i++) {
+                report.add(compare(names.get(i), expected.get(names.get(i)), users.get(i)));
+            }
+        }
+        report.elapsedMillis = System.currentTimeMillis() - start;
+        return report;
+    }
+
+    private static Result compare(String username, Map<String, Collection<String>> expected, User user) throws IdMUnitException {
+        if (user == null) {
+            return new Result(username, null);
+        }
+        return new Result(username, GoogleAppsConnector.diffAttributes(expected, userToMap(user), EXCLUDE_ATTRS));
+    }
+
+    static Map<String, Map<String, Collection<String>>> expectedFromUsernames(Collection<String> usernames, Map<String, Collection<String>> common) {
+        Map<String, Map<String, Collection<String>>> expected = new LinkedHashMap<String, Map<String, Collection<String>>>();
+        for (String username : usernames) {
+            if (!isBlank(username)) {
+                expected.put(username.trim(), common);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Reads the expected attributes of each user from a CSV file whose first row holds the attribute names. One
+     * column must be username. Empty cells are not validated; values given in the operation apply to every row
+     * unless the row overrides them.
+     */
+    static Map<String, Map<String, Collection<String>>> readCsv(String fileName, Map<String, Collection<String>> common) throws IdMUnitException {
+        Map<String, Map<String, Collection<String>>> expected = new LinkedHashMap<String, Map<String, Collection<String>>>();
+        CsvReader reader = new CsvReader(fileName);
+        try {
+            if (!reader.getHeader().contains(User.Schema.ATTR_USERNAME)) {
+                throw new IdMUnitException("The header row of '" + fileName + "' has no '" + User.Schema.ATTR_USERNAME + "' column.");
+            }
+            Map<String, String> row;
+            while ((row = reader.next()) != null) {
+                Map<String, Collection<String>> attrs = new HashMap<String, Collection<String>>(common);
+                for (Map.Entry<String, String> value : row.entrySet()) {
+                    if (value.getValue().length() > 0) {
+                        attrs.put(value.getKey(), Collections.singletonList(value.getValue()));
+                    }
+                }
+                String username = ConnectorUtil.getSingleValue(attrs, User.Schema.ATTR_USERNAME);
+                if (isBlank(username)) {
+                    throw new IdMUnitException("Line " + reader.getLineNumber() + " of '" + fileName + "' has no username.");
+                }
+                expected.put(username.trim(), attrs);
+            }
+        } finally {
+            reader.close();
+        }
+        return expected;
+    }
+
+    static void writeReport(String fileName, Report report) throws IdMUnitException {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8");
+            writer.write(report.toString());
+        } catch (IOException e) {
+            throw new IdMUnitException("Error writing the validation report to '" + fileName + "'.", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    static final class Result {
+        final String username;
+        // null if the user does not exist
+        final List<String> differences;
+
+        Result(String username, List<String> differences) {
+            this.username = username;
+            this.differences = differences;
+        }
+    }
+
+    static final class Report {
+        int total;
+        int matched;
+        long elapsedMillis;
+        final SortedSet<String> notFound = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        final SortedMap<String, List<String>> differences = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+
+        void add(Result result) {
+            total++;
+            if (result.differences == null) {
+                notFound.add(result.username);
+            } else if (result.differences.isEmpty()) {
+                matched++;
+            } else {
+                differences.put(result.username, result.differences);
+            }
+        }
+
+        boolean hasFailures() {
+            return !notFound.isEmpty() || !differences.isEmpty();
+        }
+
+        String summary() {
+            return String.format("Validated %d users in %d ms: %d matched, %d differed, %d not found",
+                total, elapsedMillis, matched, differences.size(), notFound.size());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(summary()).append("\r\n");
+            for (String username : notFound) {
+                sb.append(username).append(": user does not exist\r\n");
+            }
+            for (Map.Entry<String, List<String>> entry : differences.entrySet()) {
+                sb.append(entry.getKey()).append(":\r\n");
+                for (String difference : entry.getValue()) {
+                    sb.append("    ").append(difference).append("\r\n");
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
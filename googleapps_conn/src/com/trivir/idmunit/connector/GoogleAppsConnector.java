@@ -39,7 +39,10 @@ import com.trivir.idmunit.connector.api.resource.Group;
 import com.trivir.idmunit.connector.api.resource.SendAs;
 import com.trivir.idmunit.connector.api.resource.User;
 import com.trivir.idmunit.connector.api.util.RestUtil;
+import com.trivir.idmunit.connector.rest.RateLimiter;
+import com.trivir.idmunit.connector.rest.RequestMetrics;
 import com.trivir.idmunit.connector.rest.RestClient;
+import com.trivir.idmunit.connector.rest.RetryPolicy;
 import com.trivir.idmunit.connector.util.*;
 import lombok.Getter;
 import lombok.Setter;
@@ -81,6 +84,8 @@ public class GoogleAppsConnector extends AbstractConnector {
     public static final String CONFIG_P12KEY_FILE = "p12keyFile";
     public static final String CONFIG_PRIVATE_KEY = "privateKey";
     public static final String CONFIG_SCOPES = "scopes";
+    public static final String CONFIG_MAX_RETRIES = "maxRetries";
+    public static final String CONFIG_MAX_REQUESTS_PER_SECOND = "maxRequestsPerSecond";
 
     public static final String ADMIN_EMAIL = "admin@idmunit.org";
 
@@ -131,6 +136,11 @@ public class GoogleAppsConnector extends AbstractConnector {
     private RestClient restClient;
     private String serviceAccount;
     private PrivateKey privateKey;
+    // Shared by every RestClient this connector creates.
+    private RetryPolicy retryPolicy;
+    private RateLimiter rateLimiter;
+    @Getter
+    private RequestMetrics requestMetrics;
 
     // For validating passwords:
     @Setter
@@ -139,6 +149,12 @@ public class GoogleAppsConnector extends AbstractConnector {
     private HttpsURLConnection conn;
 
     public void tearDown() {
+        if (requestMetrics != null && requestMetrics.getRequests() > 0) {
+            log.info("Google API " + requestMetrics);
+        }
+        if (serviceAccount != null) {
+            RestClient.removeTokens(serviceAccount, privateKey);
+        }
     }
 
     public void setup(Map<String, String> config) throws IdMUnitException {
@@ -172,7 +188,36 @@ public class GoogleAppsConnector extends AbstractConnector {
             throw new IdMUnitException("Must specify either privateKey or p12keyFile");
         }
 
-        restClient = RestUtil.newRestClient(serviceAccount, privateKey, superUserEmail, scopeStr);
+        retryPolicy = new RetryPolicy(parseInt(config, CONFIG_MAX_RETRIES, RetryPolicy.DEFAULT.getMaxRetries()), 1000, 32000);
+        int maxRequestsPerSecond = parseInt(config, CONFIG_MAX_REQUESTS_PER_SECOND, 0);
+        rateLimiter = maxRequestsPerSecond > 0 ? new RateLimiter(maxRequestsPerSecond, maxRequestsPerSecond) : null;
+        requestMetrics = new RequestMetrics();
+
+        restClient = newRestClient(superUserEmail, scopeStr);
+    }
+
+    private RestClient newRestClient(String subject, String scopeStr) throws IdMUnitException {
+        RestClient rest = RestUtil.newRestClient(serviceAccount, privateKey, subject, scopeStr);
+        rest.setRetryPolicy(retryPolicy);
+        rest.setRateLimiter(rateLimiter);
+        rest.setMetrics(requestMetrics);
+        return rest;
+    }
+
+    private static int parseInt(Map<String, String> config, String name, int defaultValue) throws IdMUnitException {
+        String value = config.get(name);
+        if (isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value.trim());
+            if (i < 0) {
+                throw new IdMUnitException(String.format("'%s' must not be negative: %s", name, value));
+            }
+            return i;
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException(String.format("'%s' must be an integer: %s", name, value), e);
+        }
     }
 
     public void opCreateObject(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -210,10 +255,16 @@ public class GoogleAppsConnector extends AbstractConnector {
             }
 
         } else if (Alias.Schema.CLASS_NAME.equalsIgnoreCase(objectClass)) {
-            AliasApi.insertAlias(restClient, mapToAlias(data));
+            Collection<String> aliasEmails = data.get(Alias.Schema.ATTR_ALIAS);
+            if (aliasEmails != null && aliasEmails.size() > 1) {
+                // Several aliases for one user are inserted with batch requests.
+                AliasApi.insertAliases(restClient, ConnectorUtil.getSingleValue(data, Alias.Schema.ATTR_USERKEY), aliasEmails);
+            } else {
+                AliasApi.insertAlias(restClient, mapToAlias(data));
+            }
         } else if (SendAs.Schema.CLASS_NAME.equalsIgnoreCase(objectClass)) {
             SendAs sendAs = mapToSendAs(data);
-            RestClient rest = RestUtil.newRestClient(serviceAccount, privateKey, sendAs.getUserId(), JavaUtil.join(SendAsApi.SCOPES, ","));
+            RestClient rest = newRestClient(sendAs.getUserId(), JavaUtil.join(SendAsApi.SCOPES, ","));
             SendAsApi.createSendAs(rest, mapToSendAs(data));
         } else {
             throw new IdMUnitException("objectClass '" + objectClass + "' not supported");
@@ -279,7 +330,7 @@ public class GoogleAppsConnector extends AbstractConnector {
             modifyUser(data);
         } else if (SendAs.Schema.CLASS_NAME.equalsIgnoreCase(objectClass)) {
             SendAs sendAs = mapToSendAs(data);
-            RestClient rest = RestUtil.newRestClient(serviceAccount, privateKey, sendAs.getUserId(), JavaUtil.join(SendAsApi.SCOPES, ","));
+            RestClient rest = newRestClient(sendAs.getUserId(), JavaUtil.join(SendAsApi.SCOPES, ","));
             SendAsApi.updateSendAs(rest, mapToSendAs(data));
         } else {
             throw new IdMUnitException("objectClass '" + objectClass + "' not supported");
@@ -532,15 +583,11 @@ public class GoogleAppsConnector extends AbstractConnector {
 
     public void opAddGroupMemeber(Map<String, Collection<String>> data) throws IdMUnitException {
         final String groupEmail = ConnectorUtil.getSingleValue(data, Group.Schema.ATTR_GROUP_EMAIL);
-        final String username = ConnectorUtil.getSingleValue(data, User.Schema.ATTR_USERNAME);
+        final Collection<String> usernames = mapNullToEmpty(data.get(User.Schema.ATTR_USERNAME));
         //mapping prevents NullPointerException on call to groupRole.toUpperCase()
         final String groupRole = mapNull(ConnectorUtil.getSingleValue(data, Group.Schema.ATTR_GROUP_ROLE), "");
 
-        if (isBlank(groupEmail, false) || isBlank(username)) {  //username cannot be blank
-            throw new IdMUnitException(String.format("Both '%s' and '%s' must be specified.", Group.Schema.ATTR_GROUP_EMAIL, User.Schema.ATTR_USERNAME));
-        } else if (!validEmail(groupEmail) || !validEmail(username)) {
-            throw new IdMUnitException(String.format("Both '%s' and '%s' must be valid email addresses.", groupEmail, username));
-        }
+        checkGroupMembers(groupEmail, usernames);
         String role = groupRole.toUpperCase();
 
         if (!"OWNER".equals(role) && !"MEMBER".equals(role) && !"MANAGER".equals(role)) {
@@ -550,46 +597,29 @@ public class GoogleAppsConnector extends AbstractConnector {
         //verify group exists
         GroupApi.getGroup(restClient, groupEmail);
 
-        JsonObject memberJson = new JsonObject();
-        memberJson.addProperty("email", username);
-        if (!isBlank(groupRole, false)) {
-            //if (groupRole != null || "".equals(groupRole)) {
-            memberJson.addProperty("role", groupRole);
-        }
-
-        String path = GroupApi.Path.PATH_ROOT + "/" + groupEmail + "/members";
-        RestClient.Response response = restClient.executePost(path, memberJson);
-
-        if (response.getStatusCode() != HTTP_OK) {
-            String message = JsonUtil.parseError(response.getMessageBody());
-            throw new IdMUnitException(String.format("Error unable to add user '%s' to group '%s'. %s", username, groupEmail, message));
-        }
-
+        GroupApi.addMembers(restClient, groupEmail, usernames, groupRole);
     }
 
     public void opRemoveGroupMemeber(Map<String, Collection<String>> data) throws IdMUnitException {
         final String groupEmail = ConnectorUtil.getSingleValue(data, Group.Schema.ATTR_GROUP_EMAIL);
-        final String username = ConnectorUtil.getSingleValue(data, User.Schema.ATTR_USERNAME);
+        final Collection<String> usernames = mapNullToEmpty(data.get(User.Schema.ATTR_USERNAME));
 
-        if (isBlank(groupEmail, false) || isBlank(username)) {  //username cannot be blank
-            throw new IdMUnitException(String.format("Both '%s' and '%s' must be specified.", Group.Schema.ATTR_GROUP_EMAIL, User.Schema.ATTR_USERNAME));
-        } else if (!validEmail(groupEmail) || !validEmail(username)) {
-            throw new IdMUnitException(String.format("Both '%s' and '%s' must be valid email addresses.", groupEmail, username));
-        }
+        checkGroupMembers(groupEmail, usernames);
 
         GroupApi.getGroup(restClient, groupEmail);
 
-        String path = GroupApi.Path.PATH_ROOT + "/" + groupEmail + "/members/" + username;
-        RestClient.Response response = restClient.executeDelete(path);
-        if (response.getStatusCode() != HTTP_OK && response.getStatusCode() != HTTP_NO_CONTENT) {
-            if (response.getMessageBody() == null || response.getMessageBody().length() == 0) {
-                throw new IdMUnitException(String.format("Error %d deleting group member '%s' of group '%s': '%s'",
-                        response.getStatusCode(), username, groupEmail, response.getReasonPhrase()));
-            } else {
-                String msg = JsonUtil.parseError(response.getMessageBody());
-                if (!"Resource Not Found: groupKey".equals(msg)) {
-                    throw new IdMUnitException(String.format("Error deleting group member '%s' of group '%s': '%s'", username, groupEmail, msg));
-                }
+        GroupApi.removeMembers(restClient, groupEmail, usernames);
+    }
+
+    private void checkGroupMembers(String groupEmail, Collection<String> usernames) throws IdMUnitException {
+        if (isBlank(groupEmail, false) || usernames.isEmpty()) {
+            throw new IdMUnitException(String.format("Both '%s' and '%s' must be specified.", Group.Schema.ATTR_GROUP_EMAIL, User.Schema.ATTR_USERNAME));
+        }
+        for (String username : usernames) {
+            if (isBlank(username)) {  //username cannot be blank
+                throw new IdMUnitException(String.format("Both '%s' and '%s' must be specified.", Group.Schema.ATTR_GROUP_EMAIL, User.Schema.ATTR_USERNAME));
+            } else if (!validEmail(groupEmail) || !validEmail(username)) {
+                throw new IdMUnitException(String.format("Both '%s' and '%s' must be valid email addresses.", groupEmail, username));
             }
         }
     }
@@ -641,6 +671,24 @@ public class GoogleAppsConnector extends AbstractConnector {
         }
     }
 
+    /**
+     * Validates many users at once and reports the differences for all of them in one failure. The users are given
+     * as username values, a CSV file of expected attributes, or a domain and/or user search query. Any other
+     * attributes are expected on every user.
+     */
+    public void opBulkValidateUsers(Map<String, Collection<String>> data) throws IdMUnitException {
+        BulkUserValidation.Report report = new BulkUserValidation(restClient).run(data);
+        log.info(report.summary());
+
+        String reportFile = ConnectorUtil.getSingleValue(data, BulkUserValidation.ATTR_REPORT_FILE);
+        if (!isBlank(reportFile)) {
+            BulkUserValidation.writeReport(reportFile, report);
+        }
+        if (report.hasFailures()) {
+            throw new IdMUnitException(report.toString());
+        }
+    }
+
     public void opValidatePassword(Map<String, Collection<String>> data) throws IdMUnitException {
         data = new HashMap<String, Collection<String>>(data); //defensive copy
         String username = ConnectorUtil.getSingleValue(data, User.Schema.ATTR_USERNAME);
@@ -687,6 +735,16 @@ public class GoogleAppsConnector extends AbstractConnector {
     }
 
     private void validateImpl(Map<String, Collection<String>> srcAttrs, Map<String, Collection<String>> destAttrs, Collection<String> excludeAttrs) throws IdMUnitException {
+        for (String attrName : srcAttrs.keySet()) {
+            if (!excludeAttrs.contains(attrName)) {
+                log.info(String.format("%s is being validated...", attrName));
+            }
+        }
+
+        handleValidationErrors(diffAttributes(srcAttrs, destAttrs, excludeAttrs));
+    }
+
+    static List<String> diffAttributes(Map<String, Collection<String>> srcAttrs, Map<String, Collection<String>> destAttrs, Collection<String> excludeAttrs) {
 
         List<String> errors = new ArrayList<String>();
 
@@ -696,8 +754,6 @@ public class GoogleAppsConnector extends AbstractConnector {
                 //skip excluded attributes
                 continue;
             }
-            log.info(String.format("%s is being validated...", attrName));
-
             //TODO: normalizing of non-values should happen in each Resource class (e.g., User)
             //remove null and "" values (non-values); treat whitespace (e.g., " ") as a value
 
@@ -735,7 +791,7 @@ public class GoogleAppsConnector extends AbstractConnector {
 
         }
 
-        handleValidationErrors(errors);
+        return errors;
     }
 
     private void validateAlias(Map<String, Collection<String>> srcMap) throws IdMUnitException {
@@ -36,6 +36,7 @@ import com.trivir.idmunit.connector.api.resource.Alias;
 import com.trivir.idmunit.connector.api.resource.AliasArray;
 import com.trivir.idmunit.connector.api.util.ApiInternalException;
 import com.trivir.idmunit.connector.api.util.HttpRequest;
+import com.trivir.idmunit.connector.rest.BatchRequest;
 import com.trivir.idmunit.connector.rest.RestClient;
 import org.idmunit.IdMUnitException;
 
@@ -159,20 +160,79 @@ public final class AliasApi {
         return deleteAlias(rest, alias.getUserKey(), alias.getAlias());
     }
 
+    /**
+     * Inserts the aliases for the user using batch requests. Every alias is attempted; if any could not be inserted
+     * the exception lists all of them.
+     */
+    public static List<Alias> insertAliases(RestClient rest, String userKey, Collection<String> aliasEmails) throws IdMUnitException {
+        checkNotNull("rest", rest);
+        checkNotBlank("userKey", userKey);
+        checkNotNull("aliasEmails", aliasEmails);
+
+        List<String> emails = new ArrayList<String>(aliasEmails);
+        BatchRequest batch = BatchRequest.newDirectoryBatch(rest);
+        JsonParser jp = new JsonParser();
+        for (String aliasEmail : emails) {
+            if (isBlank(aliasEmail)) {
+                throw new IdMUnitException("Error: alias is empty and should be populated");
+            }
+            Alias alias = Alias.Factory.newAlias(userKey, aliasEmail);
+            alias.normalize();
+            batch.add("POST", String.format(Path.PATH_INSERT, alias.getUserKey()), GSON.toJson(jp.parse(GSON.toJson(alias))));
+        }
+
+        List<RestClient.Response> responses = batch.execute(3, 1, HTTP_CODES_RETURN_ALWAYS);
+        List<Alias> inserted = new ArrayList<Alias>(emails.size());
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < emails.size(); i++) {
+            RestClient.Response response = responses.get(i);
+            if (response.getStatusCode() >= HTTP_MULT_CHOICE) {
+                errors.add(String.format("Unable to insert alias %s for user %s. Status Code: %d. Message: %s", emails.get(i), userKey, response.getStatusCode(), response.getMessageBody()));
+            } else {
+                inserted.add(newAliasFromJson(GSON, jp, response.getMessageBody()));
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IdMUnitException(String.format("Unable to insert %d of %d aliases:%n%s", errors.size(), emails.size(), join(errors, "\n")));
+        }
+
+        return inserted;
+    }
+
     public static boolean deleteAllAliases(RestClient rest, String userKey) throws IdMUnitException {
         checkNotNull("rest", rest);
         checkNotNull("userKey", userKey);
 
         List<String> aliases = listAliasesEmailOnly(rest, userKey);
+        if (aliases.isEmpty()) {
+            return false;
+        }
 
-        boolean someExisted = false;
-        boolean allDeleted = true;
+        BatchRequest batch = BatchRequest.newDirectoryBatch(rest);
         for (String aliasEmail : aliases) {
-            someExisted = true;
-            allDeleted = allDeleted && deleteAlias(rest, userKey, aliasEmail);
+            batch.add("DELETE", String.format(Path.PATH_DELETE, userKey, aliasEmail), null);
+        }
+        List<RestClient.Response> responses = batch.execute(3, 1, new ImmutableSet.Builder<Integer>()
+            .addAll(HTTP_CODES_RETURN_ALWAYS)
+            .addAll(HTTP_CODES_RETURN_ON_DELETE_SUCCESS)
+            .build());
+
+        boolean allDeleted = true;
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < aliases.size(); i++) {
+            int code = responses.get(i).getStatusCode();
+            if (code >= HTTP_MULT_CHOICE) {
+                allDeleted = false;
+                if (!HTTP_CODES_RETURN_ON_DELETE_SUCCESS.contains(code)) {
+                    errors.add(String.format("Unable to delete alias %s for user %s. Status Code: %d. Message: %s", aliases.get(i), userKey, code, getMessage(responses.get(i))));
+                }
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IdMUnitException(String.format("Unable to delete %d of %d aliases:%n%s", errors.size(), aliases.size(), join(errors, "\n")));
         }
 
-        return someExisted && allDeleted;
+        return allDeleted;
     }
 
     public static Alias getAlias(RestClient rest, String userKey, String aliasEmail) throws IdMUnitException {
@@ -33,13 +33,22 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.trivir.idmunit.connector.api.resource.Group;
-import com.trivir.idmunit.connector.api.util.RestUtil;
+import com.trivir.idmunit.connector.api.util.HttpRequest;
+import com.trivir.idmunit.connector.rest.BatchRequest;
 import com.trivir.idmunit.connector.rest.RestClient;
 import com.trivir.idmunit.connector.util.JsonUtil;
 import org.idmunit.IdMUnitException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static com.trivir.idmunit.connector.api.util.RestUtil.executeWithRetry;
 import static com.trivir.idmunit.connector.util.JavaUtil.checkNotBlank;
 import static com.trivir.idmunit.connector.util.JavaUtil.checkNotNull;
+import static com.trivir.idmunit.connector.util.JavaUtil.isBlank;
+import static com.trivir.idmunit.connector.util.JavaUtil.join;
 import static java.net.HttpURLConnection.*;
 
 //TODO: Remove traces of IdmUnit (e.g, IDMUnitExceptions)
@@ -78,39 +87,124 @@ public final class GroupApi {
 
         Group group;
         String path = Path.PATH_ROOT + "/" + groupEmail;
-        RestClient.Response response = rest.executeGet(path);
+        // An object that was just created may not be visible yet, so a failed lookup is tried once more.
+        // Rate limit and server errors are retried by RestClient itself.
+        RestClient.Response response = executeWithRetry(1, 3, rest, HttpRequest.Factory.newGetRequest(path), null);
         if (response.getStatusCode() < HTTP_BAD_REQUEST) {
             JsonParser jp = new JsonParser();
             JsonElement el = jp.parse(response.getMessageBody());
             JsonObject jobject = el.getAsJsonObject();
             group = GSON.fromJson(jobject, Group.class);
         } else {
+            String msg = JsonUtil.parseError(response.getMessageBody());
 
-            // retry
-            response = RestUtil.retryGet(rest, path);
-            if (response.getStatusCode() == HTTP_OK) {
-                JsonParser jp = new JsonParser();
-                JsonElement el = jp.parse(response.getMessageBody());
-                JsonObject jobject = el.getAsJsonObject();
-                group = GSON.fromJson(jobject, Group.class);
+            if ("Resource Not Found: groupKey".equals(msg)) {
+                throw new IdMUnitException(String.format("Error group '%s' does not exist", groupEmail));
             } else {
-                //group = null;
-                String msg = JsonUtil.parseError(response.getMessageBody());
+                throw new IdMUnitException(String.format("Error retrieving group '%s'", groupEmail));
+            }
+        }
+
+        return group;
+    }
+
+    /**
+     * Adds the members to the group with the given role (or the default role if it is blank). A single member is
+     * added with a normal request; several members are added using batch requests. Every member is attempted; if any
+     * could not be added the exception lists all of them.
+     */
+    public static void addMembers(RestClient rest, String groupEmail, Collection<String> memberEmails, String role) throws IdMUnitException {
+        checkNotNull("rest", rest);
+        checkNotBlank("groupEmail", groupEmail);
+        checkNotNull("memberEmails", memberEmails);
+
+        List<String> emails = new ArrayList<String>(memberEmails);
+        List<String> bodies = new ArrayList<String>(emails.size());
+        for (String email : emails) {
+            JsonObject memberJson = new JsonObject();
+            memberJson.addProperty("email", email);
+            if (!isBlank(role, false)) {
+                memberJson.addProperty("role", role);
+            }
+            bodies.add(GSON.toJson(memberJson));
+        }
+
+        String path = String.format(Path.PATH_MEMBERS, groupEmail);
+        List<RestClient.Response> responses;
+        if (emails.size() == 1) {
+            responses = Collections.singletonList(rest.executePost(path, bodies.get(0)));
+        } else {
+            BatchRequest batch = BatchRequest.newDirectoryBatch(rest);
+            for (String body : bodies) {
+                batch.add("POST", path, body);
+            }
+            responses = batch.execute();
+        }
+
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < emails.size(); i++) {
+            RestClient.Response response = responses.get(i);
+            if (response.getStatusCode() != HTTP_OK) {
+                String message = JsonUtil.parseError(response.getMessageBody());
+                errors.add(String.format("Error unable to add user '%s' to group '%s'. %s", emails.get(i), groupEmail, message));
+            }
+        }
+        throwIfErrors(errors);
+    }
+
+    /**
+     * Removes the members from the group. Members that are not in the group are ignored. Several members are removed
+     * using batch requests.
+     */
+    public static void removeMembers(RestClient rest, String groupEmail, Collection<String> memberEmails) throws IdMUnitException {
+        checkNotNull("rest", rest);
+        checkNotBlank("groupEmail", groupEmail);
+        checkNotNull("memberEmails", memberEmails);
 
-                if ("Resource Not Found: groupKey".equals(msg)) {
-                    throw new IdMUnitException(String.format("Error group '%s' does not exist", groupEmail));
+        List<String> emails = new ArrayList<String>(memberEmails);
+        List<RestClient.Response> responses;
+        if (emails.size() == 1) {
+            responses = Collections.singletonList(rest.executeDelete(String.format(Path.PATH_MEMBER, groupEmail, emails.get(0))));
+        } else {
+            BatchRequest batch = BatchRequest.newDirectoryBatch(rest);
+            for (String email : emails) {
+                batch.add("DELETE", String.format(Path.PATH_MEMBER, groupEmail, email), null);
+            }
+            responses = batch.execute();
+        }
+
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < emails.size(); i++) {
+            RestClient.Response response = responses.get(i);
+            String username = emails.get(i);
+            if (response.getStatusCode() != HTTP_OK && response.getStatusCode() != HTTP_NO_CONTENT) {
+                if (response.getMessageBody() == null || response.getMessageBody().length() == 0) {
+                    errors.add(String.format("Error %d deleting group member '%s' of group '%s': '%s'",
+                        response.getStatusCode(), username, groupEmail, response.getReasonPhrase()));
                 } else {
-                    throw new IdMUnitException(String.format("Error retrieving group '%s'", groupEmail));
+                    String msg = JsonUtil.parseError(response.getMessageBody());
+                    if (!"Resource Not Found: groupKey".equals(msg)) {
+                        errors.add(String.format("Error deleting group member '%s' of group '%s': '%s'", username, groupEmail, msg));
+                    }
                 }
             }
         }
+        throwIfErrors(errors);
+    }
 
-        return group;
+    private static void throwIfErrors(List<String> errors) throws IdMUnitException {
+        if (errors.size() == 1) {
+            throw new IdMUnitException(errors.get(0));
+        } else if (errors.size() > 1) {
+            throw new IdMUnitException(join(errors, "\n"));
+        }
     }
 
     public static final class Path {
 
         public static final String PATH_ROOT = "/admin/directory/v1/groups";
+        public static final String PATH_MEMBERS = PATH_ROOT + "/%s/members"; //groupKey
+        public static final String PATH_MEMBER = PATH_ROOT + "/%s/members/%s"; //groupKey, memberKey
     }
 
 }
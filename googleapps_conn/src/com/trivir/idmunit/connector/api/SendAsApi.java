@@ -37,6 +37,7 @@ import com.trivir.idmunit.connector.api.resource.SendAsArray;
 import com.trivir.idmunit.connector.api.util.ApiInternalException;
 import com.trivir.idmunit.connector.api.util.HttpRequest;
 import com.trivir.idmunit.connector.api.util.RestUtil;
+import com.trivir.idmunit.connector.rest.BatchRequest;
 import com.trivir.idmunit.connector.rest.RestClient;
 import com.trivir.idmunit.connector.util.JavaUtil;
 import org.idmunit.IdMUnitException;
@@ -201,18 +202,41 @@ public final class SendAsApi {
         checkNotNull("rest", rest);
         checkNotNull("userId", userId);
 
-        List<SendAs> sendAses = listSendAs(rest, userId);
+        List<String> toDelete = new ArrayList<String>();
+        for (SendAs sendAs : listSendAs(rest, userId)) {
+            if (!((sendAs == null) || (sendAs.getIsPrimary() == Boolean.TRUE) || isBlank(sendAs.getSendAsEmail()))) {
+                toDelete.add(sendAs.getSendAsEmail());
+            }
+        }
+        if (toDelete.isEmpty()) {
+            return false;
+        }
+
+        BatchRequest batch = BatchRequest.newGmailBatch(rest);
+        for (String sendAsEmail : toDelete) {
+            batch.add("DELETE", String.format(Path.PATH_DELETE, userId, sendAsEmail), null);
+        }
+        List<RestClient.Response> responses = batch.execute(3, 1, new ImmutableSet.Builder<Integer>()
+            .addAll(HTTP_CODES_RETURN_ALWAYS)
+            .addAll(HTTP_CODES_RETURN_ON_DELETE_SUCCESS)
+            .build());
 
-        boolean someExisted = false;
         boolean allDeleted = true;
-        for (SendAs sendAs : sendAses) {
-            if (!((sendAs == null) || (sendAs.getIsPrimary() == Boolean.TRUE) || isBlank(sendAs.getSendAsEmail()))) {
-                someExisted = true;
-                allDeleted = allDeleted && deleteSendAs(rest, userId, sendAs.getSendAsEmail());
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < toDelete.size(); i++) {
+            int code = responses.get(i).getStatusCode();
+            if (code >= HTTP_MULT_CHOICE) {
+                allDeleted = false;
+                if (!HTTP_CODES_RETURN_ON_DELETE_SUCCESS.contains(code)) {
+                    errors.add(String.format("Unable to delete sendAs email %s for user %s. Status Code: %d. Message: %s", toDelete.get(i), userId, code, getMessage(responses.get(i))));
+                }
             }
         }
+        if (!errors.isEmpty()) {
+            throw new IdMUnitException(String.format("Unable to delete %d of %d sendAs emails:%n%s", errors.size(), toDelete.size(), join(errors, "\n")));
+        }
 
-        return someExisted && allDeleted;
+        return allDeleted;
     }
 
     public static boolean deleteSendAs(RestClient rest, SendAs sendAs) throws IdMUnitException {
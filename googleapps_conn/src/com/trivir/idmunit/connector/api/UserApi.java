@@ -36,13 +36,19 @@ import com.google.gson.JsonParser;
 import com.trivir.idmunit.connector.api.resource.UserArray;
 import com.trivir.idmunit.connector.api.resource.User;
 import com.trivir.idmunit.connector.api.util.ApiInternalException;
-import com.trivir.idmunit.connector.api.util.RestUtil;
 import com.trivir.idmunit.connector.api.util.HttpRequest;
+import com.trivir.idmunit.connector.rest.BatchRequest;
 import com.trivir.idmunit.connector.rest.RestClient;
 import com.trivir.idmunit.connector.util.JsonUtil;
 import org.idmunit.IdMUnitException;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import static com.trivir.idmunit.connector.api.UserApi.Path.PATH_ROOT;
 import static com.trivir.idmunit.connector.api.UserApi.Path.PATH_USER;
@@ -57,62 +63,149 @@ public final class UserApi {
     //Gson is thread-safe
     private static final Gson GSON = new Gson();
 
-    private static UserArray newListUserFromJson(Gson gson, JsonParser parser, String json) {
-        return (UserArray)newObjectFromJson(gson, parser, json, UserArray.class);
-    }
+    private static final ThreadFactory PREFETCH_THREAD_FACTORY = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "google-user-prefetch");
+            t.setDaemon(true);
+            return t;
+        }
+    };
 
     private static User newUserFromJson(Gson gson, JsonParser parser, String json) {
         return (User)newObjectFromJson(gson, parser, json, User.class);
     }
 
+    public static final int MAX_RESULTS = 500;
+
+    /**
+     * Receives the users returned by {@link #forEachUserPage} one page at a time.
+     */
+    public interface UserPageVisitor {
+        void visit(List<User> users) throws IdMUnitException;
+    }
+
+    interface PageFetcher {
+        UserArray fetch(String pageToken) throws IdMUnitException;
+    }
+
     public static List<User> listUsers(RestClient rest, Map<String, String> queryParams) throws IdMUnitException {
-        final String queryParamPageToken = "pageToken";
+        final List<User> users = new ArrayList<User>();
+        forEachUserPage(rest, queryParams, null, false, new UserPageVisitor() {
+            public void visit(List<User> page) {
+                users.addAll(page);
+            }
+        });
+        return users;
+    }
+
+    /**
+     * Lists users a page at a time, handing each page to the visitor as it arrives instead of holding every user in
+     * memory. Up to {@link #MAX_RESULTS} users are requested per page unless queryParams sets maxResults.
+     *
+     * @param fields   the user fields to return (e.g. "primaryEmail", "name/givenName"), or null for full user resources
+     * @param prefetch request the next page while the visitor processes the current one
+     */
+    public static void forEachUserPage(final RestClient rest, Map<String, String> queryParams, Collection<String> fields,
+                                       boolean prefetch, UserPageVisitor visitor) throws IdMUnitException {
         final Set<Integer> returnCodes = new ImmutableSet.Builder<Integer>()
             .addAll(HTTP_CODES_RETURN_ALWAYS)
             .addAll(HTTP_CODES_RETURN_ON_NOT_FOUND)
             .build();
 
         checkNotNull("rest", rest);
-        queryParams = mapNullToEmpty(queryParams);
-
-        List<User> users = new ArrayList<User>();
-        UserArray userList = null;
-        String path = PATH_ROOT;
-        HttpRequest request = HttpRequest.Factory.newGetRequest(path, queryParams);
+        checkNotNull("visitor", visitor);
 
-        String pageToken = null;
+        final Map<String, String> params = new HashMap<String, String>(mapNullToEmpty(queryParams));
+        if (!params.containsKey("maxResults")) {
+            params.put("maxResults", Integer.toString(MAX_RESULTS));
+        }
+        if (!isNullOrEmpty(fields)) {
+            params.put("fields", fieldsParam(fields));
+        }
 
-        do {
-            try {
-                if (isBlank(pageToken)) {
-                    queryParams.remove(queryParamPageToken);
-                } else {
-                    queryParams.put(queryParamPageToken, pageToken);
+        forEachPage(new PageFetcher() {
+            public UserArray fetch(String pageToken) throws IdMUnitException {
+                Map<String, String> pageParams = new HashMap<String, String>(params);
+                if (!isBlank(pageToken)) {
+                    pageParams.put("pageToken", pageToken);
                 }
+                HttpRequest request = HttpRequest.Factory.newGetRequest(PATH_ROOT, pageParams);
 
-                RestClient.Response response = executeWithRetry(rest, request, returnCodes);
+                try {
+                    RestClient.Response response = executeWithRetry(rest, request, returnCodes);
 
-                int code = response.getStatusCode();
-                if (code < HTTP_MULT_CHOICE) {
-                    userList = newListUserFromJson(GSON, new JsonParser(), response.getMessageBody());
-                    if (userList == null) {
-                        pageToken = null;
-                    } else {
-                        pageToken = userList.nextPageToken;
-                        users.addAll(mapNullToEmpty(userList.users));
+                    int code = response.getStatusCode();
+                    if (code < HTTP_MULT_CHOICE) {
+                        return GSON.fromJson(response.getMessageBody(), UserArray.class);
+                    } else if (!HTTP_CODES_RETURN_ON_NOT_FOUND.contains(code)) {
+                        String msg = getMessage(response);
+                        throw new ApiInternalException(String.format("Unable to list users. Status Code: %d. Message: %s", code, msg));
                     }
-                } else if (!HTTP_CODES_RETURN_ON_NOT_FOUND.contains(code)) {
-                    String msg = getMessage(response);
-                    throw new ApiInternalException(String.format("Unable to list users. Status Code: %d. Message: %s", code, msg));
+                    return null;
+                } catch (IdMUnitException e) {
+                    throw new IdMUnitException("Unable to list users", e);
+                } catch (ApiInternalException e) {
+                    throw new IdMUnitException(e.getMessage());
                 }
-            } catch (IdMUnitException e) {
-                throw new IdMUnitException("Unable to list users", e);
-            } catch (ApiInternalException e) {
-                throw new IdMUnitException(e.getMessage());
             }
-        } while (!isBlank(pageToken));
+        }, prefetch, visitor);
+    }
 
-        return users;
+    static void forEachPage(final PageFetcher fetcher, boolean prefetch, UserPageVisitor visitor) throws IdMUnitException {
+        ExecutorService executor = null;
+        Future<UserArray> next = null;
+        try {
+            UserArray page = fetcher.fetch(null);
+            while (page != null) {
+                final String pageToken = page.nextPageToken;
+                if (prefetch && !isBlank(pageToken)) {
+                    if (executor == null) {
+                        executor = Executors.newSingleThreadExecutor(PREFETCH_THREAD_FACTORY);
+                    }
+                    next = executor.submit(new Callable<UserArray>() {
+                        public UserArray call() throws IdMUnitException {
+                            return fetcher.fetch(pageToken);
+                        }
+                    });
+                }
+
+                visitor.visit(mapNullToEmpty(page.users));
+
+                if (isBlank(pageToken)) {
+                    page = null;
+                } else if (next != null) {
+                    page = getPage(next);
+                    next = null;
+                } else {
+                    page = fetcher.fetch(pageToken);
+                }
+            }
+        } finally {
+            if (next != null) {
+                next.cancel(true);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static UserArray getPage(Future<UserArray> future) throws IdMUnitException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdMUnitException("Interrupted while listing users", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IdMUnitException) {
+                throw (IdMUnitException)e.getCause();
+            }
+            throw new IdMUnitException("Unable to list users", e.getCause());
+        }
+    }
+
+    static String fieldsParam(Collection<String> userFields) {
+        return "nextPageToken,users(" + join(userFields, ",") + ")";
     }
 
     public static List<User> listUsersInDomain(RestClient rest, String domain) throws IdMUnitException {
@@ -127,17 +220,26 @@ public final class UserApi {
     public static void deleteUsersInDomain(RestClient rest, String domain, List<String> except) throws IdMUnitException {
         checkNotNull("rest", rest);
         checkNotBlank("domain", domain);
-        except = mapNullToEmpty(except);
-
-        List<User> users = listUsersInDomain(rest, domain);
-        for (User user : users) {
-            if (!user.getIsAdmin()) {
-                String email = user.getPrimaryEmail();
-                if (!except.contains(email)) {
-                    deleteUser(rest, email);
+        final List<String> exceptions = mapNullToEmpty(except);
+
+        // Only the fields needed to choose the users are downloaded. The users are deleted after the listing is
+        // complete so that paging is not disturbed by the deletes.
+        Map<String, String> queryParams = new HashMap<String, String>();
+        queryParams.put("domain", domain);
+        final List<String> toDelete = new ArrayList<String>();
+        forEachUserPage(rest, queryParams, Arrays.asList("primaryEmail", "isAdmin"), true, new UserPageVisitor() {
+            public void visit(List<User> users) {
+                for (User user : users) {
+                    if (!Boolean.TRUE.equals(user.getIsAdmin())) {
+                        String email = user.getPrimaryEmail();
+                        if (!exceptions.contains(email)) {
+                            toDelete.add(email);
+                        }
+                    }
                 }
             }
-        }
+        });
+        deleteUsers(rest, toDelete);
     }
 
     public static void deleteUser(RestClient rest, String username) throws IdMUnitException {
@@ -145,23 +247,55 @@ public final class UserApi {
         checkNotBlank("username", username);
 
         RestClient.Response response = rest.executeDelete(String.format(PATH_USER, username));
+        String error = getDeleteUserError(username, response);
+        if (error != null) {
+            throw new IdMUnitException(error);
+        }
+    }
+
+    /**
+     * Deletes the users using batch requests. Users that do not exist are ignored. Every user is attempted; if any
+     * could not be deleted the exception lists all of them.
+     */
+    public static void deleteUsers(RestClient rest, Collection<String> usernames) throws IdMUnitException {
+        checkNotNull("rest", rest);
+        checkNotNull("usernames", usernames);
+
+        List<String> names = new ArrayList<String>(usernames);
+        BatchRequest batch = BatchRequest.newDirectoryBatch(rest);
+        for (String username : names) {
+            checkNotBlank("username", username);
+            batch.add("DELETE", String.format(PATH_USER, username), null);
+        }
+
+        List<RestClient.Response> responses = batch.execute();
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < names.size(); i++) {
+            String error = getDeleteUserError(names.get(i), responses.get(i));
+            if (error != null) {
+                errors.add(error);
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IdMUnitException(String.format("Unable to delete %d of %d users:%n%s", errors.size(), names.size(), join(errors, "\n")));
+        }
+    }
+
+    private static String getDeleteUserError(String username, RestClient.Response response) {
         // If the user doesn't exist then the status code will be
         // HTTP_NO_CONTENT and there will be no messageBody content.
-        if (response.getStatusCode() != HTTP_OK && response.getStatusCode() != HTTP_NO_CONTENT) {
-            if (response.getMessageBody() == null || response.getMessageBody().length() == 0) {
-                throw new IdMUnitException(String.format("Error %d deleting user '%s': '%s'",
-                    response.getStatusCode(), username, response.getReasonPhrase()));
-            } else {
-                String msg = JsonUtil.parseError(response.getMessageBody());
-                if (!"Resource Not Found: userKey".equals(msg)) {
-                    throw new IdMUnitException(String.format("Error deleting user '%s': '%s'", username, msg));
-                }
-            }
-            String msg = (response.getMessageBody() != null && response.getMessageBody().length() > 0) ? JsonUtil.parseError(response.getMessageBody()) : "";
-            if (!"Resource Not Found: userKey".equals(msg)) {
-                throw new IdMUnitException(String.format("Error deleting user '%s'", username));
-            }
+        if (response.getStatusCode() == HTTP_OK || response.getStatusCode() == HTTP_NO_CONTENT) {
+            return null;
+        }
+        if (response.getMessageBody() == null || response.getMessageBody().length() == 0) {
+            return String.format("Error %d deleting user '%s': '%s'",
+                response.getStatusCode(), username, response.getReasonPhrase());
+        }
+        String msg = JsonUtil.parseError(response.getMessageBody());
+        if ("Resource Not Found: userKey".equals(msg)) {
+            return null;
         }
+        return String.format("Error deleting user '%s': '%s'", username, msg);
     }
 
     public static User getUser(RestClient rest, String username) throws IdMUnitException {
@@ -170,35 +304,63 @@ public final class UserApi {
 
         User user;
         String path = String.format(PATH_USER, username);
-        RestClient.Response response = rest.executeGet(path);
+        // An object that was just created may not be visible yet, so a failed lookup is tried once more.
+        // Rate limit and server errors are retried by RestClient itself.
+        RestClient.Response response = executeWithRetry(1, 3, rest, HttpRequest.Factory.newGetRequest(path), null);
         if (response.getStatusCode() < HTTP_BAD_REQUEST) {
             JsonParser jp = new JsonParser();
             JsonElement el = jp.parse(response.getMessageBody());
             JsonObject jobject = el.getAsJsonObject();
             user = GSON.fromJson(jobject, User.class);
         } else {
+            String msg = parseError(response.getMessageBody());
 
-            response = RestUtil.retryGet(rest, path);
-
-            if (response.getStatusCode() == HTTP_OK) {
-                JsonParser jp = new JsonParser();
-                JsonElement el = jp.parse(response.getMessageBody());
-                JsonObject jobject = el.getAsJsonObject();
-                user = GSON.fromJson(jobject, User.class);
+            if ("Resource Not Found: userKey".equals(msg)) {
+                throw new IdMUnitException(String.format("Error user '%s' does not exist", username));
             } else {
-                String msg = parseError(response.getMessageBody());
-
-                if ("Resource Not Found: userKey".equals(msg)) {
-                    throw new IdMUnitException(String.format("Error user '%s' does not exist", username));
-                } else {
-                    throw new IdMUnitException(String.format("Error retrieving user '%s'", username));
-                }
+                throw new IdMUnitException(String.format("Error retrieving user '%s'", username));
             }
         }
 
         return user;
     }
 
+    /**
+     * Gets the users using batch requests. The returned list is in the same order as usernames and holds null for
+     * users that do not exist. If any other error occurs the exception lists every user that could not be read.
+     */
+    public static List<User> getUsers(RestClient rest, Collection<String> usernames) throws IdMUnitException {
+        checkNotNull("rest", rest);
+        checkNotNull("usernames", usernames);
+
+        List<String> names = new ArrayList<String>(usernames);
+        BatchRequest batch = BatchRequest.newDirectoryBatch(rest);
+        for (String username : names) {
+            checkNotBlank("username", username);
+            batch.add("GET", String.format(PATH_USER, username), null);
+        }
+
+        List<RestClient.Response> responses = batch.execute();
+        List<User> users = new ArrayList<User>(names.size());
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < names.size(); i++) {
+            RestClient.Response response = responses.get(i);
+            if (response.getStatusCode() < HTTP_BAD_REQUEST) {
+                users.add(GSON.fromJson(response.getMessageBody(), User.class));
+            } else if (response.getStatusCode() == HTTP_NOT_FOUND) {
+                users.add(null);
+            } else {
+                users.add(null);
+                errors.add(String.format("Error retrieving user '%s': %s", names.get(i), getMessage(response)));
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IdMUnitException(String.format("Unable to retrieve %d of %d users:%n%s", errors.size(), names.size(), join(errors, "\n")));
+        }
+
+        return users;
+    }
+
     //TODO: move validation code from NewUser constructor into this method
     public static User insertUser(RestClient rest, User toInsert) throws IdMUnitException {
         final Set<Integer> returnCodes = HTTP_CODES_RETURN_ALWAYS;
@@ -33,13 +33,18 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.trivir.idmunit.connector.rest.RestClient;
+import com.trivir.idmunit.connector.rest.RetryPolicy;
 import org.idmunit.IdMUnitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.security.*;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.trivir.idmunit.connector.GoogleAppsConnector.ADMIN_EMAIL;
 import static com.trivir.idmunit.connector.api.UserApi.Path.PATH_USER;
@@ -48,10 +53,10 @@ import static com.trivir.idmunit.connector.util.JavaUtil.checkNotNull;
 import static com.trivir.idmunit.connector.util.JavaUtil.isBlank;
 import static java.net.HttpURLConnection.*;
 
-//TODO: integrate excute and retry code into RestClient
 //TODO: update RestClient to take a function signature for initialization and results handling; the results handler should
 // replace the HTTP_CODES construct used here
 public class RestUtil {
+    private static Logger log = LoggerFactory.getLogger(RestUtil.class);
 
     public static final Set<Integer> HTTP_CODES_RETURN_ON_NOT_FOUND;
     public static final Set<Integer> HTTP_CODES_RETURN_ON_DELETE_SUCCESS;
@@ -73,9 +78,15 @@ public class RestUtil {
 
     private static final String REST_SERVICE_URL = "https://www.googleapis.com";
 
+    // Service accounts and scopes for which the Admin SDK test call has already succeeded.
+    private static final Set<String> SDK_ENABLED_CHECKED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private static final int RETRY_MAX = 10;
     private static final int WAIT_BETWEEN_MAX = 10;
 
+    // Waits of 1-2, 2-4, 4-8 and then 8-16 seconds (with jitter), multiplied by waitBetweenSeconds.
+    private static final RetryPolicy RETRY_BACKOFF = new RetryPolicy(RETRY_MAX, 2000, 16000);
+
     static {
         Set<Integer> codesNotFound = new HashSet<Integer>();
         codesNotFound.add(HTTP_NOT_FOUND);
@@ -106,7 +117,11 @@ public class RestUtil {
             RestClient restClient = RestClient.init(REST_SERVICE_URL, serviceEmail, key, superUserEmail, scopes);
 
             if (ADMIN_EMAIL.equals(superUserEmail)) {
-                checkSdkEnabled(restClient);
+                String checkKey = serviceEmail + '|' + Arrays.toString(scopes);
+                if (!SDK_ENABLED_CHECKED.contains(checkKey)) {
+                    checkSdkEnabled(restClient);
+                    SDK_ENABLED_CHECKED.add(checkKey);
+                }
             }
             return restClient;
         } catch (InvalidKeyException e) {
@@ -224,12 +239,17 @@ public class RestUtil {
             //if code is in the 200s or in successCodes
             if ((code < HTTP_MULT_CHOICE) || returnCodes.contains(code)) {
                 break;
+            } else if (rest.getRetryPolicy().isRetryable(response)) {
+                // RestClient has already retried rate limit and server errors with backoff; trying again won't help.
+                log.debug("Request:\n{}\nResponse:\n{}", request, response);
+                break;
             } else {
-                System.out.println(String.format("Request:\n%s", request.toString()));
-                System.out.println(String.format("Response:\n%s", response.toString()));
+                log.debug("Request:\n{}\nResponse:\n{}", request, response);
                 if (r < retryCount) {
-                    System.out.println(String.format("Retry attempt %d...", r + 1));
-                    waitTimeSeconds(waitBetweenSeconds);
+                    // Other failures are usually changes that have not propagated yet, so back off between attempts.
+                    long delay = RETRY_BACKOFF.getDelayMillis(r, null) * waitBetweenSeconds;
+                    log.debug("Retry attempt {} in {} ms...", r + 1, delay);
+                    waitTimeMillis(delay);
                 }
             }
         }
@@ -241,19 +261,19 @@ public class RestUtil {
         if (multiplier < 1) {
             return;
         }
+        //1000 milliseconds is one second
+        log.debug("Waiting for {} seconds...", multiplier);
+        waitTimeMillis(1000L * multiplier);
+    }
+
+    private static void waitTimeMillis(long millis) {
+        if (millis < 1) {
+            return;
+        }
         try {
-            //1000 milliseconds is one second
-            System.out.println(String.format("Waiting for %d seconds...", multiplier));
-            Thread.sleep(1000 * multiplier);
+            Thread.sleep(millis);
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
         }
     }
-
-    //TODO: remove when UserApi and GroupApi are flushed-out
-    public static RestClient.Response retryGet(RestClient rest, String path) throws IdMUnitException {
-        waitTimeSeconds(3);
-        RestClient.Response response = rest.executeGet(path);
-        return response;
-    }
 }
@@ -0,0 +1,246 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import org.idmunit.IdMUnitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches OAuth access tokens by service account, private key, subject and scopes so that clients created for the
+ * same credentials share one token instead of each signing a JWT and exchanging it with the token endpoint. A
+ * replaced key gets its own tokens, and {@link #removeAll} drops a connector's tokens when it is torn down.
+ * <p>
+ * A token is treated as stale {@code refreshMarginMillis} before it expires. Tokens that have been used again
+ * after they were fetched are refreshed in the background at that point, so callers rarely wait on the token
+ * endpoint. Tokens that are no longer used are left to expire and are fetched again on demand.
+ */
+final class AccessTokenCache {
+    private static Logger log = LoggerFactory.getLogger(AccessTokenCache.class);
+
+    static final long DEFAULT_REFRESH_MARGIN_MILLIS = 5 * 60 * 1000;
+
+    interface TokenSource {
+        AccessToken requestToken(String serviceAccount, PrivateKey key, String[] scopes, String subject) throws IdMUnitException;
+    }
+
+    static final class AccessToken {
+        final String value;
+        final long issuedAt;
+        final long expiresAt;
+
+        AccessToken(String value, long expiresInSeconds) {
+            this.value = value;
+            this.issuedAt = System.currentTimeMillis();
+            this.expiresAt = issuedAt + expiresInSeconds * 1000;
+        }
+
+        // Short lived tokens are refreshed half way through their lifetime rather than immediately.
+        long refreshAt(long refreshMarginMillis) {
+            return expiresAt - Math.min(refreshMarginMillis, (expiresAt - issuedAt) / 2);
+        }
+    }
+
+    private final TokenSource source;
+    private final long refreshMarginMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private ScheduledExecutorService refresher;
+
+    AccessTokenCache(TokenSource source, long refreshMarginMillis) {
+        this.source = source;
+        this.refreshMarginMillis = refreshMarginMillis;
+    }
+
+    static String key(String serviceAccount, PrivateKey privateKey, String[] scopes, String subject) {
+        String[] sorted = scopes.clone();
+        Arrays.sort(sorted);
+        StringBuilder key = new StringBuilder();
+        key.append(serviceAccount).append('|').append(keyId(privateKey)).append('|');
+        key.append(subject == null ? "" : subject.toLowerCase()).append('|');
+        String previous = null;
+        for (String scope : sorted) {
+            if (!scope.equals(previous)) {
+                key.append(scope).append(' ');
+            }
+            previous = scope;
+        }
+        return key.toString();
+    }
+
+    /**
+     * Identifies a private key by a digest of its encoding, so that an equal key loaded again shares tokens with
+     * the original but a rotated key does not.
+     */
+    static String keyId(PrivateKey key) {
+        if (key == null) {
+            return "";
+        }
+        byte[] encoded = key.getEncoded();
+        if (encoded == null) {
+            return key.getAlgorithm() + "@" + Integer.toHexString(System.identityHashCode(key));
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+            StringBuilder id = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                id.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return id.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    String getToken(String serviceAccount, PrivateKey key, String[] scopes, String subject) throws IdMUnitException {
+        String cacheKey = key(serviceAccount, key, scopes, subject);
+        Entry entry = entries.get(cacheKey);
+        if (entry == null) {
+            Entry newEntry = new Entry(serviceAccount, key, scopes, subject);
+            entry = entries.putIfAbsent(cacheKey, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry.get();
+    }
+
+    /**
+     * Discards the cached token for the credentials, e.g. after the server rejects it, so the next call fetches
+     * a new one.
+     */
+    void invalidate(String serviceAccount, PrivateKey key, String[] scopes, String subject) {
+        Entry entry = entries.get(key(serviceAccount, key, scopes, subject));
+        if (entry != null) {
+            entry.clear();
+        }
+    }
+
+    /**
+     * Drops every token of the service account and key, whatever the subject and scopes, and cancels their
+     * background refreshes.
+     */
+    void removeAll(String serviceAccount, PrivateKey key) {
+        String keyId = keyId(key);
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            Entry entry = i.next();
+            if (entry.serviceAccount.equals(serviceAccount) && entry.keyId.equals(keyId)) {
+                i.remove();
+                entry.clear();
+            }
+        }
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private synchronized void scheduleRefresh(final Entry entry, final AccessToken current, long delayMillis) {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "google-token-refresh");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        refresher.schedule(new Runnable() {
+            public void run() {
+                entry.refreshIfUsed(current);
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private final class Entry {
+        private final String serviceAccount;
+        private final PrivateKey key;
+        private final String keyId;
+        private final String[] scopes;
+        private final String subject;
+
+        private AccessToken token;
+        private boolean used;
+
+        Entry(String serviceAccount, PrivateKey key, String[] scopes, String subject) {
+            this.serviceAccount = serviceAccount;
+            this.key = key;
+            this.keyId = keyId(key);
+            this.scopes = scopes.clone();
+            this.subject = subject;
+        }
+
+        synchronized String get() throws IdMUnitException {
+            if (token == null || System.currentTimeMillis() >= token.refreshAt(refreshMarginMillis)) {
+                // A token fetched on demand only counts as used once it is asked for again.
+                refresh();
+            } else {
+                used = true;
+            }
+            return token.value;
+        }
+
+        synchronized void clear() {
+            token = null;
+        }
+
+        synchronized void refreshIfUsed(AccessToken scheduledFor) {
+            // Skip if the token was replaced or cleared since this refresh was scheduled.
+            if (!used || token != scheduledFor) {
+                return;
+            }
+            try {
+                refresh();
+            } catch (IdMUnitException e) {
+                // The next call to get() will try again and report the error to the caller.
+                log.warn("Background refresh of the access token for '" + subject + "' failed: " + e.getMessage());
+            }
+        }
+
+        private void refresh() throws IdMUnitException {
+            token = source.requestToken(serviceAccount, key, scopes, subject);
+            used = false;
+            scheduleRefresh(this, token, token.refreshAt(refreshMarginMillis) - System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import org.idmunit.IdMUnitException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.net.HttpURLConnection.HTTP_MULT_CHOICE;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Sends many Google API requests in as few HTTP calls as possible using the batch endpoint. Sub-requests are
+ * packed into {@code multipart/mixed} bodies of up to {@code maxSubRequests} parts and the responses are
+ * returned in the order the requests were added.
+ * <p>
+ * Each sub-request counts against the API quota as usual; batching only saves the per call HTTP overhead.
+ * Sub-requests in a batch may be executed in any order, so do not batch requests that depend on each other.
+ */
+public final class BatchRequest {
+    public static final String DIRECTORY_BATCH_PATH = "/batch/admin/directory_v1";
+    public static final String GMAIL_BATCH_PATH = "/batch/gmail/v1";
+
+    public static final int DIRECTORY_MAX_SUB_REQUESTS = 1000;
+    public static final int GMAIL_MAX_SUB_REQUESTS = 100;
+
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+    private static final Pattern CONTENT_ID = Pattern.compile("(?im)^Content-ID:\\s*<?response-item(\\d+)>?\\s*$");
+    private static final Pattern STATUS_LINE = Pattern.compile("HTTP/\\d\\.\\d\\s+(\\d{3})\\s*(.*)");
+
+    private final RestClient rest;
+    private final String batchPath;
+    private final int maxSubRequests;
+    private final List<SubRequest> requests = new ArrayList<SubRequest>();
+
+    public BatchRequest(RestClient rest, String batchPath, int maxSubRequests) {
+        if (maxSubRequests < 1) {
+            throw new IllegalArgumentException("Param 'maxSubRequests' must be greater than 0");
+        }
+        this.rest = rest;
+        this.batchPath = batchPath;
+        this.maxSubRequests = maxSubRequests;
+    }
+
+    public static BatchRequest newDirectoryBatch(RestClient rest) {
+        return new BatchRequest(rest, DIRECTORY_BATCH_PATH, DIRECTORY_MAX_SUB_REQUESTS);
+    }
+
+    public static BatchRequest newGmailBatch(RestClient rest) {
+        return new BatchRequest(rest, GMAIL_BATCH_PATH, GMAIL_MAX_SUB_REQUESTS);
+    }
+
+    /**
+     * Queues a request and returns its index in the list returned by {@link #execute()}.
+     */
+    public int add(String method, String path, String body) {
+        requests.add(new SubRequest(method, path, body));
+        return requests.size() - 1;
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    public List<RestClient.Response> execute() throws IdMUnitException {
+        return sendWithBackoff(requests);
+    }
+
+    /**
+     * Like {@link #execute()}, but sub-requests that fail with a status code of 300 or more that is not in
+     * {@code returnCodes} are sent again in a new batch, up to {@code retryCount} times.
+     */
+    public List<RestClient.Response> execute(int retryCount, int waitBetweenSeconds, Collection<Integer> returnCodes) throws IdMUnitException {
+        if (returnCodes == null) {
+            returnCodes = Collections.emptySet();
+        }
+
+        List<RestClient.Response> responses = sendWithBackoff(requests);
+        for (int r = 0; r < retryCount; r++) {
+            List<Integer> failed = new ArrayList<Integer>();
+            for (int i = 0; i < responses.size(); i++) {
+                int code = responses.get(i).getStatusCode();
+                if (code >= HTTP_MULT_CHOICE && !returnCodes.contains(code)) {
+                    failed.add(i);
+                }
+            }
+            if (failed.isEmpty()) {
+                break;
+            }
+
+            waitTimeSeconds(waitBetweenSeconds);
+            List<SubRequest> retries = new ArrayList<SubRequest>(failed.size());
+            for (Integer i : failed) {
+                retries.add(requests.get(i));
+            }
+            List<RestClient.Response> retried = sendWithBackoff(retries);
+            for (int i = 0; i < failed.size(); i++) {
+                responses.set(failed.get(i), retried.get(i));
+            }
+        }
+        return responses;
+    }
+
+    /*
+     * Sub-requests that were rate limited or hit a server error are sent again in a new batch, following the
+     * client's retry policy.
+     */
+    private List<RestClient.Response> sendWithBackoff(List<SubRequest> requests) throws IdMUnitException {
+        RetryPolicy policy = rest.getRetryPolicy();
+        List<RestClient.Response> responses = send(requests);
+        for (int attempt = 0; attempt < policy.getMaxRetries(); attempt++) {
+            List<Integer> retryable = new ArrayList<Integer>();
+            long delay = 0;
+            for (int i = 0; i < responses.size(); i++) {
+                RestClient.Response response = responses.get(i);
+                if (policy.isRetryable(response)) {
+                    retryable.add(i);
+                    delay = Math.max(delay, policy.getDelayMillis(attempt, response));
+                    rest.getMetrics().retry(response.getStatusCode(), 0);
+                }
+            }
+            if (retryable.isEmpty()) {
+                break;
+            }
+
+            // The sub-requests are retried together, so the round's wait is counted once rather than per sub-request.
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            rest.getMetrics().backoff(delay);
+            List<SubRequest> retries = new ArrayList<SubRequest>(retryable.size());
+            for (Integer i : retryable) {
+                retries.add(requests.get(i));
+            }
+            List<RestClient.Response> retried = send(retries);
+            for (int i = 0; i < retryable.size(); i++) {
+                responses.set(retryable.get(i), retried.get(i));
+            }
+        }
+        return responses;
+    }
+
+    private List<RestClient.Response> send(List<SubRequest> requests) throws IdMUnitException {
+        List<RestClient.Response> responses = new ArrayList<RestClient.Response>(requests.size());
+        for (int start = 0; start < requests.size(); start += maxSubRequests) {
+            int end = Math.min(start + maxSubRequests, requests.size());
+            String boundary = "batch_" + UUID.randomUUID().toString().replace("-", "");
+            String body = encode(requests.subList(start, end), start, boundary);
+
+            RestClient.Response response = rest.executeRequest("POST", batchPath, "multipart/mixed; boundary=" + boundary, body, end - start);
+            if (response.getStatusCode() != HTTP_OK) {
+                throw new IdMUnitException(String.format("Batch request failed. Status Code: %d. Message: %s",
+                    response.getStatusCode(), response.getMessageBody()));
+            }
+
+            Map<Integer, RestClient.Response> parts = parse(response.getHeader("Content-Type"), response.getMessageBody());
+            for (int i = start; i < end; i++) {
+                RestClient.Response part = parts.get(i);
+                if (part == null) {
+                    throw new IdMUnitException(String.format("Batch response is missing the response for %s %s",
+                        requests.get(i).method, requests.get(i).path));
+                }
+                responses.add(part);
+            }
+        }
+        return responses;
+    }
+
+    private static void waitTimeSeconds(int seconds) {
+        if (seconds < 1) {
+            return;
+        }
+        try {
+            Thread.sleep(1000L * seconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static String encode(List<SubRequest> requests, int firstIndex, String boundary) {
+        StringBuilder body = new StringBuilder();
+        int index = firstIndex;
+        for (SubRequest request : requests) {
+            body.append("--").append(boundary).append("\r\n");
+            body.append("Content-Type: application/http\r\n");
+            body.append("Content-ID: <item").append(index++).append(">\r\n");
+            body.append("\r\n");
+            body.append(request.method).append(' ').append(request.path).append(" HTTP/1.1\r\n");
+            if (request.body != null) {
+                body.append("Content-Type: application/json; charset=UTF-8\r\n");
+                body.append("\r\n");
+                body.append(request.body).append("\r\n");
+            } else {
+                body.append("\r\n");
+            }
+        }
+        body.append("--").append(boundary).append("--\r\n");
+        return body.toString();
+    }
+
+    /*
+     * A batch response looks like this (each part's Content-ID echoes the request's with a "response-" prefix):
+     *
+     * --batch_abc
+     * Content-Type: application/http
+     * Content-ID: <response-item0>
+     *
+     * HTTP/1.1 204 No Content
+     * Content-Length: 0
+     *
+     *
+     * --batch_abc--
+     */
+    static Map<Integer, RestClient.Response> parse(String contentType, String messageBody) throws IdMUnitException {
+        Matcher m = contentType == null ? null : BOUNDARY.matcher(contentType);
+        if (m == null || !m.find()) {
+            throw new IdMUnitException("Batch response has no multipart boundary. Content-Type: " + contentType);
+        }
+        String delimiter = "--" + m.group(1);
+
+        Map<Integer, RestClient.Response> responses = new HashMap<Integer, RestClient.Response>();
+        String[] parts = messageBody.replace("\r\n", "\n").split(Pattern.quote(delimiter));
+        // parts[0] is the preamble; the part after the closing delimiter starts with "--".
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.startsWith("--")) {
+                break;
+            }
+
+            int headersEnd = part.indexOf("\n\n");
+            if (headersEnd < 0) {
+                continue;
+            }
+            Matcher id = CONTENT_ID.matcher(part.substring(0, headersEnd));
+            if (!id.find()) {
+                continue;
+            }
+
+            String http = part.substring(headersEnd + 2);
+            int statusEnd = http.indexOf('\n');
+            Matcher status = STATUS_LINE.matcher(statusEnd < 0 ? http : http.substring(0, statusEnd));
+            if (!status.find()) {
+                throw new IdMUnitException("Unable to parse the batch response part: " + part);
+            }
+
+            Map<String, String> headers = new HashMap<String, String>();
+            String body = "";
+            if (statusEnd >= 0) {
+                // The blank line may follow the status line directly when there are no headers.
+                int bodyStart = http.indexOf("\n\n", statusEnd);
+                String headerBlock = bodyStart < 0 ? http.substring(statusEnd + 1) : http.substring(statusEnd + 1, Math.max(statusEnd + 1, bodyStart));
+                for (String line : headerBlock.split("\n")) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                    }
+                }
+                if (bodyStart >= 0) {
+                    body = http.substring(bodyStart + 2).trim();
+                }
+            }
+
+            responses.put(Integer.valueOf(id.group(1)),
+                new RestClient.Response(Integer.parseInt(status.group(1)), status.group(2).trim(), body, headers));
+        }
+        return responses;
+    }
+
+    static final class SubRequest {
+        final String method;
+        final String path;
+        final String body;
+
+        SubRequest(String method, String path, String body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+    }
+}
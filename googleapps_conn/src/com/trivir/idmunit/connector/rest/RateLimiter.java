@@ -0,0 +1,91 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+/**
+ * A token bucket that keeps the requests made by any number of threads under a fixed rate. Up to {@code burst}
+ * requests may be made at once after a quiet period; after that callers wait their turn.
+ */
+public final class RateLimiter {
+    private final double permitsPerNano;
+    private final double burst;
+
+    private double permits;
+    private long lastRefill;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Param 'permitsPerSecond' must be greater than 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Param 'burst' must be greater than 0");
+        }
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.burst = burst;
+        this.permits = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Waits until a request may be made and returns the number of milliseconds waited.
+     */
+    public long acquire() {
+        return acquire(1);
+    }
+
+    /**
+     * Waits until {@code permits} requests may be made, e.g. the sub-requests of a batch, and returns the number of
+     * milliseconds waited.
+     */
+    public long acquire(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Param 'permits' must be greater than 0");
+        }
+        long waitNanos = reserve(permits);
+        if (waitNanos <= 0) {
+            return 0;
+        }
+        try {
+            Thread.sleep(waitNanos / 1000000, (int)(waitNanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return waitNanos / 1000000;
+    }
+
+    /*
+     * Takes the permits, letting the count go negative so that each waiting caller is given its own slot.
+     */
+    private synchronized long reserve(int count) {
+        long now = System.nanoTime();
+        permits = Math.min(burst, permits + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        permits -= count;
+        return permits >= 0 ? 0 : (long)(-permits / permitsPerNano);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the requests, retries and throttling of the clients that share it. Safe for use by concurrent workers.
+ */
+public final class RequestMetrics {
+    // Retries after an I/O error are counted under this status code.
+    public static final int IO_ERROR = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong backoffMillis = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private final AtomicLong throttledMillis = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> retriesByStatus = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    void request() {
+        requests.incrementAndGet();
+    }
+
+    void retry(int statusCode, long delayMillis) {
+        retries.incrementAndGet();
+        backoffMillis.addAndGet(delayMillis);
+        AtomicLong count = retriesByStatus.get(statusCode);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = retriesByStatus.putIfAbsent(statusCode, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    void backoff(long delayMillis) {
+        backoffMillis.addAndGet(delayMillis);
+    }
+
+    void throttled(long waitMillis) {
+        if (waitMillis > 0) {
+            throttledRequests.incrementAndGet();
+            throttledMillis.addAndGet(waitMillis);
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getBackoffMillis() {
+        return backoffMillis.get();
+    }
+
+    public long getThrottledRequests() {
+        return throttledRequests.get();
+    }
+
+    public long getThrottledMillis() {
+        return throttledMillis.get();
+    }
+
+    public Map<Integer, Long> getRetriesByStatus() {
+        Map<Integer, Long> result = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : retriesByStatus.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests: %d, retries: %d %s, backoff: %d ms, throttled requests: %d, throttled: %d ms",
+            getRequests(), getRetries(), getRetriesByStatus(), getBackoffMillis(), getThrottledRequests(), getThrottledMillis());
+    }
+}
@@ -33,6 +33,8 @@ import com.trivir.idmunit.connector.util.JWTUtil;
 import lombok.Getter;
 import lombok.Setter;
 import org.idmunit.IdMUnitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.HttpURLConnection;
@@ -51,24 +53,60 @@ import java.util.Map;
 import static java.net.HttpURLConnection.*;
 
 public final class RestClient {
+    private static Logger log = LoggerFactory.getLogger(RestClient.class);
+
     private static final String ACCESS_TOKEN_AUD = "https://www.googleapis.com/oauth2/v3/token";
+    private static final long DEFAULT_EXPIRES_IN = 3600;
+
+    // Shared by every client so that clients built for the same service account, key, subject and scopes reuse one token.
+    private static final AccessTokenCache TOKEN_CACHE = new AccessTokenCache(new AccessTokenCache.TokenSource() {
+        public AccessTokenCache.AccessToken requestToken(String serviceAccount, PrivateKey key, String[] scopes, String subject) throws IdMUnitException {
+            try {
+                return requestAuthToken(serviceAccount, key, scopes, subject);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IdMUnitException("Error signing the authentication request", e);
+            } catch (InvalidKeyException e) {
+                throw new IdMUnitException("Error signing the authentication request", e);
+            } catch (SignatureException e) {
+                throw new IdMUnitException("Error signing the authentication request", e);
+            }
+        }
+    }, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
 
     private final String restServiceUrl;
-    private final String authToken;
+    private final String serviceAccountEMail;
+    private final PrivateKey key;
+    private final String authUser;
+    private final String[] scopes;
 
     private Gson gson = new GsonBuilder().serializeNulls().create();
 
-    private RestClient(String restServiceUrl, String authToken) {
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private volatile RateLimiter rateLimiter;
+    private volatile RequestMetrics metrics = new RequestMetrics();
+
+    private RestClient(String restServiceUrl, String serviceAccountEMail, PrivateKey key, String authUser, String[] scopes) {
         this.restServiceUrl = restServiceUrl;
-        this.authToken = authToken;
+        this.serviceAccountEMail = serviceAccountEMail;
+        this.key = key;
+        this.authUser = authUser;
+        this.scopes = scopes.clone();
+    }
+
+    /**
+     * Drops the cached access tokens of the service account and key for every subject and scope set.
+     */
+    public static void removeTokens(String serviceAccountEMail, PrivateKey key) {
+        TOKEN_CACHE.removeAll(serviceAccountEMail, key);
     }
 
     public static RestClient init(String restServiceUrl, String serviceAccountEMail, PrivateKey key, String authUser, String[] scopes) throws IdMUnitException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
-        String authToken = requestAuthToken(serviceAccountEMail, key, scopes, authUser);
-        return new RestClient(restServiceUrl, authToken);
+        // Fetch (or reuse) the token now so that authentication problems are reported when the client is created.
+        TOKEN_CACHE.getToken(serviceAccountEMail, key, scopes, authUser);
+        return new RestClient(restServiceUrl, serviceAccountEMail, key, authUser, scopes);
     }
 
-    static String requestAuthToken(String serviceAccountEMail, PrivateKey key, String[] scopes, String superUser) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IdMUnitException {
+    static AccessTokenCache.AccessToken requestAuthToken(String serviceAccountEMail, PrivateKey key, String[] scopes, String superUser) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IdMUnitException {
         String jwt = JWTUtil.generateJWT(serviceAccountEMail, key, scopes, ACCESS_TOKEN_AUD, superUser);
         try {
             return sendAuthRequest(jwt);
@@ -110,7 +148,7 @@ public final class RestClient {
         }
     }
 
-    static String sendAuthRequest(String jwt) throws IdMUnitException {
+    static AccessTokenCache.AccessToken sendAuthRequest(String jwt) throws IdMUnitException {
         String postData = encodeParameter("grant_type", "urn:ietf:params:oauth:grant-type:jwt-bearer") + '&' + encodeParameter("assertion", jwt);
         Response response = internalRequest("POST", ACCESS_TOKEN_AUD, "application/x-www-form-urlencoded", null, postData);
         if (response.statusCode != HttpURLConnection.HTTP_OK) {
@@ -126,7 +164,9 @@ public final class RestClient {
         JsonElement element = gson.fromJson(response.messageBody, JsonElement.class);
         JsonObject jsonObj = element.getAsJsonObject();
 
-        return jsonObj.get("access_token").toString().replaceAll("\"", "");
+        String accessToken = jsonObj.get("access_token").toString().replaceAll("\"", "");
+        JsonElement expiresIn = jsonObj.get("expires_in");
+        return new AccessTokenCache.AccessToken(accessToken, expiresIn == null ? DEFAULT_EXPIRES_IN : expiresIn.getAsLong());
     }
 
     private static Response internalRequest(String method, String urlString, String contentType, String authToken, String request) throws IdMUnitException {
@@ -156,7 +196,7 @@ public final class RestClient {
                 conn.setRequestProperty("Content-Length", Integer.toString(requestBytes.length));
                 OutputStream os = conn.getOutputStream();
                 os.write(requestBytes);
-                os.flush();
+                os.close();
             }
 
             InputStream is;
@@ -170,17 +210,29 @@ public final class RestClient {
 
             // The input stream will be null if the http response body is empty.
             if (is != null) {
-                BufferedReader br = new BufferedReader(new InputStreamReader(is));
-
-                int c;
-                while ((c = br.read()) != -1) {
-                    messageBody.append((char) c);
+                // Reading the body to the end and closing the stream (rather than calling disconnect()) hands the
+                // socket back to the JVM's keep-alive cache so later requests to the same host reuse it.
+                Reader reader = new InputStreamReader(is, "UTF-8");
+                try {
+                    char[] buffer = new char[4096];
+                    int n;
+                    while ((n = reader.read(buffer)) != -1) {
+                        messageBody.append(buffer, 0, n);
+                    }
+                } finally {
+                    reader.close();
                 }
             }
 
-            conn.disconnect();
+            Map<String, String> headers = new HashMap<String, String>();
+            for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+                // The status line is returned with a null key.
+                if (header.getKey() != null && !header.getValue().isEmpty()) {
+                    headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+                }
+            }
 
-            return new Response(conn.getResponseCode(), conn.getResponseMessage(), messageBody.toString());
+            return new Response(conn.getResponseCode(), conn.getResponseMessage(), messageBody.toString(), headers);
         } catch (IOException e) {
             throw new IdMUnitException("Error sending or receiving request.", e);
         }
@@ -306,8 +358,105 @@ public final class RestClient {
     //TODO: Fix exception handling - Right now it will simply return the Response, the caller will be responsible
     // to check the status code and messages.
     private Response executeRequest(String method, String path, String request) throws IdMUnitException {
+        return executeRequest(method, path, "application/json", request);
+    }
+
+    Response executeRequest(String method, String path, String contentType, String request) throws IdMUnitException {
+        return executeRequest(method, path, contentType, request, 1);
+    }
+
+    /*
+     * A batch counts as one request per sub-request against the rate limit, so {@code permits} is the number of
+     * sub-requests it carries.
+     */
+    Response executeRequest(String method, String path, String contentType, String request, int permits) throws IdMUnitException {
         String url = String.format("%s%s", restServiceUrl, path);
-        return internalRequest(method, url, "application/json", authToken, request);
+        RetryPolicy policy = retryPolicy;
+        for (int attempt = 0; ; attempt++) {
+            Response response;
+            try {
+                response = sendRequest(method, url, contentType, request, permits);
+            } catch (IdMUnitException e) {
+                // Only requests that are safe to repeat are retried after an I/O error.
+                boolean idempotent = !"POST".equals(method) && !"PATCH".equals(method);
+                boolean ioError = e.getCause() instanceof IOException && !(e.getCause() instanceof MalformedURLException);
+                if (!ioError || !idempotent || attempt >= policy.getMaxRetries()) {
+                    throw e;
+                }
+                long delay = policy.getDelayMillis(attempt, null);
+                metrics.retry(RequestMetrics.IO_ERROR, delay);
+                log.debug("{} {} failed ({}), retrying in {} ms", method, path, e.getCause().toString(), delay);
+                if (!sleep(delay)) {
+                    throw e;
+                }
+                continue;
+            }
+
+            if (attempt >= policy.getMaxRetries() || !policy.isRetryable(response)) {
+                return response;
+            }
+            long delay = policy.getDelayMillis(attempt, response);
+            metrics.retry(response.statusCode, delay);
+            log.debug("{} {} returned {} {}, retrying in {} ms", method, path, response.statusCode, response.reasonPhrase, delay);
+            if (!sleep(delay)) {
+                return response;
+            }
+        }
+    }
+
+    private Response sendRequest(String method, String url, String contentType, String request, int permits) throws IdMUnitException {
+        RateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            metrics.throttled(limiter.acquire(permits));
+        }
+        metrics.request();
+
+        String authToken = TOKEN_CACHE.getToken(serviceAccountEMail, key, scopes, authUser);
+        Response response = internalRequest(method, url, contentType, authToken, request);
+        if (response.statusCode == HTTP_UNAUTHORIZED) {
+            // The token may have been revoked or expired early; fetch a new one and try once more.
+            TOKEN_CACHE.invalidate(serviceAccountEMail, key, scopes, authUser);
+            authToken = TOKEN_CACHE.getToken(serviceAccountEMail, key, scopes, authUser);
+            response = internalRequest(method, url, contentType, authToken, request);
+        }
+        return response;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Shares a rate limiter between clients, e.g. all the clients used by one connector. Null disables throttling.
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(RequestMetrics metrics) {
+        this.metrics = metrics == null ? new RequestMetrics() : metrics;
     }
 
     @Getter
@@ -316,11 +465,22 @@ public final class RestClient {
         int statusCode;
         String reasonPhrase;
         String messageBody;
+        // Header names are lower case.
+        Map<String, String> headers;
 
         Response(int statusCode, String reasonPhrase, String messageBody) {
+            this(statusCode, reasonPhrase, messageBody, new HashMap<String, String>());
+        }
+
+        Response(int statusCode, String reasonPhrase, String messageBody, Map<String, String> headers) {
             this.statusCode = statusCode;
             this.reasonPhrase = reasonPhrase;
             this.messageBody = messageBody;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
         }
 
         @Override
@@ -0,0 +1,183 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which Google API responses are worth retrying and how long to wait before each retry.
+ * <p>
+ * 429 and 5xx responses are retried, as are 403 responses whose error reason says a rate limit was exceeded (Google
+ * reports per-user rate limits that way). Other 403 responses, such as {@code dailyLimitExceeded} or a missing
+ * permission, are returned to the caller straight away.
+ * <p>
+ * A {@code Retry-After} header is honoured. Otherwise the delay doubles with each attempt, starting at
+ * {@code initialDelayMillis} and capped at {@code maxDelayMillis}, and a random half of it is added as jitter so that
+ * concurrent workers do not retry in lock step.
+ */
+public final class RetryPolicy {
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, 1000, 32000);
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    private static final long MAX_RETRY_AFTER_MILLIS = 5 * 60 * 1000;
+
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(
+        429, 500, 502, 503, 504)));
+
+    private static final Set<String> RETRYABLE_REASONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+        "rateLimitExceeded", "userRateLimitExceeded", "backendError")));
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Param 'maxRetries' must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = Math.max(initialDelayMillis, maxDelayMillis);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public boolean isRetryable(RestClient.Response response) {
+        int code = response.getStatusCode();
+        if (RETRYABLE_STATUS_CODES.contains(code)) {
+            return true;
+        }
+        if (code == 403) {
+            return isRateLimitError(response.getMessageBody());
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before retry number {@code attempt} (starting at 0).
+     * {@code response} may be null when the request failed with an I/O error.
+     */
+    public long getDelayMillis(int attempt, RestClient.Response response) {
+        if (response != null) {
+            long retryAfter = parseRetryAfter(response.getHeader("Retry-After"), System.currentTimeMillis());
+            if (retryAfter >= 0) {
+                return Math.min(retryAfter, MAX_RETRY_AFTER_MILLIS);
+            }
+        }
+
+        long delay = initialDelayMillis << Math.min(attempt, 30);
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        long half = delay / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+
+    /*
+     * Retry-After is either a number of seconds or an HTTP date. Returns -1 if the header is missing or invalid.
+     */
+    static long parseRetryAfter(String retryAfter, long now) {
+        if (retryAfter == null || retryAfter.trim().length() == 0) {
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return Math.max(0, format.parse(retryAfter).getTime() - now);
+            } catch (ParseException pe) {
+                return -1;
+            }
+        }
+    }
+
+    /*
+     * Rate limit errors look like this:
+     *
+     * {
+     *  "error": {
+     *   "errors": [
+     *    {
+     *     "domain": "usageLimits",
+     *     "reason": "userRateLimitExceeded",
+     *     "message": "User Rate Limit Exceeded"
+     *    }
+     *   ],
+     *   "code": 403,
+     *   "message": "User Rate Limit Exceeded"
+     *  }
+     * }
+     */
+    static boolean isRateLimitError(String errorJson) {
+        if (errorJson == null || errorJson.trim().length() == 0) {
+            return false;
+        }
+        try {
+            JsonElement root = new JsonParser().parse(errorJson);
+            if (!root.isJsonObject()) {
+                return false;
+            }
+            JsonElement error = root.getAsJsonObject().get("error");
+            if (error == null || !error.isJsonObject()) {
+                return false;
+            }
+            JsonElement errors = error.getAsJsonObject().get("errors");
+            if (errors != null && errors.isJsonArray()) {
+                for (JsonElement e : (JsonArray)errors) {
+                    JsonElement reason = e.isJsonObject() ? ((JsonObject)e).get("reason") : null;
+                    if (reason != null && reason.isJsonPrimitive() && RETRYABLE_REASONS.contains(reason.getAsString())) {
+                        return true;
+                    }
+                }
+            }
+            String description = RestClient.parseErrorDescription(errorJson);
+            return description != null && description.toLowerCase(Locale.US).contains("rate limit exceeded");
+        } catch (RuntimeException e) {
+            // Not a JSON error response.
+            return false;
+        }
+    }
+}
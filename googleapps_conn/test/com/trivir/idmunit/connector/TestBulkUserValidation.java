@@ -0,0 +1,118 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import org.idmunit.IdMUnitException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestBulkUserValidation {
+
+    private static Map<String, Collection<String>> attrs(String... nameValues) {
+        Map<String, Collection<String>> attrs = new HashMap<String, Collection<String>>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            attrs.put(nameValues[i], Collections.singletonList(nameValues[i + 1]));
+        }
+        return attrs;
+    }
+
+    @Test
+    public void testDiffAttributes() throws Exception {
+        Map<String, Collection<String>> expected = attrs("username", "a@x.com", "givenName", "Abe", "familyName", "Smith");
+        Map<String, Collection<String>> actual = attrs("givenName", "Abe", "familyName", "Jones");
+
+        List<String> differences = GoogleAppsConnector.diffAttributes(expected, actual, Collections.singleton("username"));
+        assertEquals(1, differences.size());
+        assertEquals("Validation failed: Attribute [familyName] not equal. Expected dest value(s): [Smith]. Actual dest value(s): [Jones].", differences.get(0));
+
+        expected.put("familyName", Collections.singletonList(GoogleAppsConnector.EMPTY_VAL));
+        actual.remove("familyName");
+        assertTrue(GoogleAppsConnector.diffAttributes(expected, actual, Collections.singleton("username")).isEmpty());
+    }
+
+    @Test
+    public void testReadCsv() throws Exception {
+        File csv = File.createTempFile("bulk-validate", ".csv");
+        csv.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        writer.write("username,givenName,orgName\n");
+        writer.write("a@x.com,Abe,\"Acme, Inc.\"\n");
+        writer.write("\n");
+        writer.write("b@x.com,,\n");
+        writer.close();
+
+        Map<String, Map<String, Collection<String>>> expected = BulkUserValidation.readCsv(csv.getPath(), attrs("suspended", "false"));
+        assertEquals(Arrays.asList("a@x.com", "b@x.com"), new ArrayList<String>(expected.keySet()));
+        assertEquals(Collections.singletonList("Acme, Inc."), expected.get("a@x.com").get("orgName"));
+        assertEquals(Collections.singletonList("false"), expected.get("a@x.com").get("suspended"));
+        assertNull(expected.get("b@x.com").get("givenName"));
+        assertEquals(Collections.singletonList("false"), expected.get("b@x.com").get("suspended"));
+    }
+
+    @Test
+    public void testReadCsvWithoutUsernameColumn() throws Exception {
+        File csv = File.createTempFile("bulk-validate", ".csv");
+        csv.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        writer.write("primaryEmail,givenName\n");
+        writer.close();
+
+        try {
+            BulkUserValidation.readCsv(csv.getPath(), attrs());
+            fail("Expected an exception");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().contains("no 'username' column"));
+        }
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        BulkUserValidation.Report report = new BulkUserValidation.Report();
+        report.add(new BulkUserValidation.Result("c@x.com", Collections.<String>emptyList()));
+        report.add(new BulkUserValidation.Result("b@x.com", Arrays.asList("Validation failed: Attribute [givenName] not equal.")));
+        report.add(new BulkUserValidation.Result("a@x.com", null));
+        report.elapsedMillis = 12;
+
+        assertTrue(report.hasFailures());
+        assertEquals("Validated 3 users in 12 ms: 1 matched, 1 differed, 1 not found\r\n" +
+            "a@x.com: user does not exist\r\n" +
+            "b@x.com:\r\n" +
+            "    Validation failed: Attribute [givenName] not equal.\r\n", report.toString());
+
+        BulkUserValidation.Report clean = new BulkUserValidation.Report();
+        clean.add(new BulkUserValidation.Result("c@x.com", Collections.<String>emptyList()));
+        assertFalse(clean.hasFailures());
+    }
+}
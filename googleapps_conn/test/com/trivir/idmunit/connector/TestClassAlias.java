@@ -34,6 +34,7 @@ import com.trivir.idmunit.connector.util.TestUtil;
 import org.idmunit.IdMUnitException;
 import org.junit.*;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -103,6 +104,30 @@ public class TestClassAlias {
         }
     }
 
+    @Test
+    public void testInsertSeveralAliases() throws IdMUnitException {
+        final String userKey = ConfigTests.TEST_USERS[0];
+
+        List<String> aliasEmails = new ArrayList<String>();
+        for (int a = 0; a < 3; a++) {
+            aliasEmails.add(TestUtil.newUniqueEmailAddress(EMAIL_TEMPLATE));
+        }
+        Map<String, Collection<String>> map = aliasToMap(Alias.Factory.newAlias(userKey, aliasEmails.get(0)));
+        map.put(Alias.Schema.ATTR_ALIAS, aliasEmails);
+
+        //create aliases in one batch
+        admin.opCreateObject(map);
+
+        try {
+            List<String> aliases = listAliasesEmailOnly(admin.getRestClient(), userKey);
+            assertTrue(aliases.containsAll(aliasEmails));
+        } finally {
+            for (String aliasEmail : aliasEmails) {
+                deleteObjectSuppressed(admin, aliasToMap(Alias.Factory.newAlias(userKey, aliasEmail)));
+            }
+        }
+    }
+
     @Test
     public void testValidateBasicAlias() throws IdMUnitException {
         final String userKey = ConfigTests.TEST_USERS[0];
@@ -0,0 +1,152 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.api;
+
+import com.trivir.idmunit.connector.api.resource.User;
+import com.trivir.idmunit.connector.api.resource.UserArray;
+import org.idmunit.IdMUnitException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestUserApiPaging {
+
+    private static UserArray page(String nextPageToken, String... emails) {
+        UserArray page = new UserArray();
+        page.nextPageToken = nextPageToken;
+        page.users = new ArrayList<User>();
+        for (String email : emails) {
+            User user = new User();
+            user.setPrimaryEmail(email);
+            page.users.add(user);
+        }
+        return page;
+    }
+
+    private static final class ThreePages implements UserApi.PageFetcher {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch secondPageRequested = new CountDownLatch(1);
+
+        public UserArray fetch(String pageToken) throws IdMUnitException {
+            fetched.add(String.valueOf(pageToken));
+            if (pageToken == null) {
+                return page("p2", "a@x.com", "b@x.com");
+            } else if ("p2".equals(pageToken)) {
+                secondPageRequested.countDown();
+                return page("p3", "c@x.com");
+            } else {
+                return page(null, "d@x.com");
+            }
+        }
+    }
+
+    private static List<String> visitAll(UserApi.PageFetcher fetcher, boolean prefetch) throws IdMUnitException {
+        final List<String> emails = new ArrayList<String>();
+        UserApi.forEachPage(fetcher, prefetch, new UserApi.UserPageVisitor() {
+            public void visit(List<User> users) {
+                for (User user : users) {
+                    emails.add(user.getPrimaryEmail());
+                }
+            }
+        });
+        return emails;
+    }
+
+    @Test
+    public void testVisitsEveryPageInOrder() throws Exception {
+        ThreePages fetcher = new ThreePages();
+        assertEquals(Arrays.asList("a@x.com", "b@x.com", "c@x.com", "d@x.com"), visitAll(fetcher, false));
+        assertEquals(Arrays.asList("null", "p2", "p3"), fetcher.fetched);
+    }
+
+    @Test
+    public void testPrefetchVisitsEveryPageInOrder() throws Exception {
+        ThreePages fetcher = new ThreePages();
+        assertEquals(Arrays.asList("a@x.com", "b@x.com", "c@x.com", "d@x.com"), visitAll(fetcher, true));
+        assertEquals(Arrays.asList("null", "p2", "p3"), fetcher.fetched);
+    }
+
+    @Test
+    public void testPrefetchOverlapsWithVisitor() throws Exception {
+        final ThreePages fetcher = new ThreePages();
+        final List<Boolean> prefetched = new ArrayList<Boolean>();
+        UserApi.forEachPage(fetcher, true, new UserApi.UserPageVisitor() {
+            public void visit(List<User> users) throws IdMUnitException {
+                if (prefetched.isEmpty()) {
+                    // The second page is requested while the first is still being processed.
+                    try {
+                        prefetched.add(fetcher.secondPageRequested.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IdMUnitException("Interrupted", e);
+                    }
+                }
+            }
+        });
+        assertEquals(Collections.singletonList(Boolean.TRUE), prefetched);
+    }
+
+    @Test
+    public void testFetchErrorIsReported() throws Exception {
+        UserApi.PageFetcher fetcher = new UserApi.PageFetcher() {
+            public UserArray fetch(String pageToken) throws IdMUnitException {
+                if (pageToken == null) {
+                    return page("p2", "a@x.com");
+                }
+                throw new IdMUnitException("Unable to list users");
+            }
+        };
+        try {
+            visitAll(fetcher, true);
+            fail("Expected an exception");
+        } catch (IdMUnitException e) {
+            assertEquals("Unable to list users", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception {
+        UserApi.PageFetcher fetcher = new UserApi.PageFetcher() {
+            public UserArray fetch(String pageToken) {
+                return null;
+            }
+        };
+        assertTrue(visitAll(fetcher, true).isEmpty());
+    }
+
+    @Test
+    public void testFieldsParam() throws Exception {
+        assertEquals("nextPageToken,users(primaryEmail,isAdmin)", UserApi.fieldsParam(Arrays.asList("primaryEmail", "isAdmin")));
+    }
+}
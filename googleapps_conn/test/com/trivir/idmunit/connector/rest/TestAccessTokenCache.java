@@ -0,0 +1,218 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import org.idmunit.IdMUnitException;
+import org.junit.Test;
+
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestAccessTokenCache {
+
+    private static final String SERVICE_ACCOUNT = "service@developer.gserviceaccount.com";
+    private static final String[] SCOPES = {"scope-a", "scope-b"};
+
+    private static final class CountingSource implements AccessTokenCache.TokenSource {
+        final AtomicInteger requests = new AtomicInteger();
+        volatile long expiresIn = 3600;
+
+        public AccessTokenCache.AccessToken requestToken(String serviceAccount, PrivateKey key, String[] scopes, String subject) throws IdMUnitException {
+            int n = requests.incrementAndGet();
+            try {
+                // Give concurrent callers a chance to pile up behind the first request.
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new AccessTokenCache.AccessToken(subject + "-" + n, expiresIn);
+        }
+    }
+
+    @Test
+    public void testTokenIsReused() throws Exception {
+        CountingSource source = new CountingSource();
+        AccessTokenCache cache = new AccessTokenCache(source, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
+
+        assertEquals("a@x.com-1", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+        assertEquals("a@x.com-1", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+        assertEquals("a@x.com-1", cache.getToken(SERVICE_ACCOUNT, null, new String[]{"scope-b", "scope-a"}, "A@X.com"));
+        assertEquals(1, source.requests.get());
+    }
+
+    @Test
+    public void testKeyedBySubjectAndScopes() throws Exception {
+        CountingSource source = new CountingSource();
+        AccessTokenCache cache = new AccessTokenCache(source, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
+
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com");
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "b@x.com");
+        cache.getToken(SERVICE_ACCOUNT, null, new String[]{"scope-a"}, "a@x.com");
+        cache.getToken("other@developer.gserviceaccount.com", null, SCOPES, "a@x.com");
+        assertEquals(4, source.requests.get());
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        CountingSource source = new CountingSource();
+        AccessTokenCache cache = new AccessTokenCache(source, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
+
+        assertEquals("a@x.com-1", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+        cache.invalidate(SERVICE_ACCOUNT, null, SCOPES, "a@x.com");
+        assertEquals("a@x.com-2", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+    }
+
+    @Test
+    public void testStaleTokenIsRefreshed() throws Exception {
+        CountingSource source = new CountingSource();
+        source.expiresIn = 0;
+        AccessTokenCache cache = new AccessTokenCache(source, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
+
+        assertEquals("a@x.com-1", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+        source.expiresIn = 3600;
+        assertEquals("a@x.com-2", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+        assertEquals("a@x.com-2", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+    }
+
+    @Test
+    public void testUsedTokenIsRefreshedInBackground() throws Exception {
+        CountingSource source = new CountingSource();
+        source.expiresIn = 1;
+        AccessTokenCache cache = new AccessTokenCache(source, 200);
+
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "used@x.com");
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "used@x.com");
+        source.expiresIn = 3600;
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "unused@x.com");
+
+        Thread.sleep(1200);
+        assertEquals(3, source.requests.get());
+        // The refreshed token is returned without another request.
+        assertEquals("used@x.com-3", cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "used@x.com"));
+        assertEquals(3, source.requests.get());
+    }
+
+    @Test
+    public void testUnusedTokenIsNotRefreshedInBackground() throws Exception {
+        CountingSource source = new CountingSource();
+        source.expiresIn = 1;
+        AccessTokenCache cache = new AccessTokenCache(source, 200);
+
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com");
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com");
+        cache.invalidate(SERVICE_ACCOUNT, null, SCOPES, "a@x.com");
+        Thread.sleep(1200);
+        assertEquals(1, source.requests.get());
+    }
+
+    @Test
+    public void testTokenFetchedOnDemandIsNotRefreshedUntilUsedAgain() throws Exception {
+        CountingSource source = new CountingSource();
+        source.expiresIn = 1;
+        AccessTokenCache cache = new AccessTokenCache(source, 200);
+
+        cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com");
+        Thread.sleep(1200);
+        assertEquals(1, source.requests.get());
+    }
+
+    @Test
+    public void testKeyedByPrivateKey() throws Exception {
+        CountingSource source = new CountingSource();
+        AccessTokenCache cache = new AccessTokenCache(source, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
+        PrivateKey oldKey = newKey();
+        PrivateKey newKey = newKey();
+
+        assertEquals("a@x.com-1", cache.getToken(SERVICE_ACCOUNT, oldKey, SCOPES, "a@x.com"));
+        assertEquals("a@x.com-2", cache.getToken(SERVICE_ACCOUNT, newKey, SCOPES, "a@x.com"));
+        // The same key loaded again shares the cached token.
+        PrivateKey reloaded = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(oldKey.getEncoded()));
+        assertEquals("a@x.com-1", cache.getToken(SERVICE_ACCOUNT, reloaded, SCOPES, "a@x.com"));
+        assertEquals(2, source.requests.get());
+    }
+
+    @Test
+    public void testRemoveAll() throws Exception {
+        CountingSource source = new CountingSource();
+        AccessTokenCache cache = new AccessTokenCache(source, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
+        PrivateKey key = newKey();
+
+        cache.getToken(SERVICE_ACCOUNT, key, SCOPES, "a@x.com");
+        cache.getToken(SERVICE_ACCOUNT, key, new String[]{"scope-a"}, "b@x.com");
+        cache.getToken(SERVICE_ACCOUNT, newKey(), SCOPES, "a@x.com");
+        cache.removeAll(SERVICE_ACCOUNT, key);
+        assertEquals(1, cache.size());
+        assertEquals("a@x.com-4", cache.getToken(SERVICE_ACCOUNT, key, SCOPES, "a@x.com"));
+    }
+
+    private static PrivateKey newKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        return generator.generateKeyPair().getPrivate();
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneRequest() throws Exception {
+        final CountingSource source = new CountingSource();
+        final AccessTokenCache cache = new AccessTokenCache(source, AccessTokenCache.DEFAULT_REFRESH_MARGIN_MILLIS);
+        final List<String> tokens = Collections.synchronizedList(new ArrayList<String>());
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        tokens.add(cache.getToken(SERVICE_ACCOUNT, null, SCOPES, "a@x.com"));
+                    } catch (IdMUnitException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, source.requests.get());
+        assertEquals(10, tokens.size());
+        for (String token : tokens) {
+            assertEquals("a@x.com-1", token);
+        }
+    }
+}
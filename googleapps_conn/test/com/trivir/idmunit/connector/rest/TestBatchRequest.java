@@ -0,0 +1,120 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import org.idmunit.IdMUnitException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestBatchRequest {
+
+    @Test
+    public void testEncode() throws Exception {
+        String body = BatchRequest.encode(Arrays.asList(
+            new BatchRequest.SubRequest("DELETE", "/admin/directory/v1/users/a@x.com", null),
+            new BatchRequest.SubRequest("POST", "/admin/directory/v1/users/a@x.com/aliases", "{\"alias\":\"b@x.com\"}")),
+            5, "batch_xyz");
+
+        String expected = "--batch_xyz\r\n" +
+            "Content-Type: application/http\r\n" +
+            "Content-ID: <item5>\r\n" +
+            "\r\n" +
+            "DELETE /admin/directory/v1/users/a@x.com HTTP/1.1\r\n" +
+            "\r\n" +
+            "--batch_xyz\r\n" +
+            "Content-Type: application/http\r\n" +
+            "Content-ID: <item6>\r\n" +
+            "\r\n" +
+            "POST /admin/directory/v1/users/a@x.com/aliases HTTP/1.1\r\n" +
+            "Content-Type: application/json; charset=UTF-8\r\n" +
+            "\r\n" +
+            "{\"alias\":\"b@x.com\"}\r\n" +
+            "--batch_xyz--\r\n";
+        assertEquals(expected, body);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        // Parts may come back in any order.
+        String body = "--batch_abc\r\n" +
+            "Content-Type: application/http\r\n" +
+            "Content-ID: <response-item1>\r\n" +
+            "\r\n" +
+            "HTTP/1.1 404 Not Found\r\n" +
+            "Content-Type: application/json; charset=UTF-8\r\n" +
+            "\r\n" +
+            "{\"error\":{\"code\":404,\"message\":\"Resource Not Found: userKey\"}}\r\n" +
+            "--batch_abc\r\n" +
+            "Content-Type: application/http\r\n" +
+            "Content-ID: <response-item0>\r\n" +
+            "\r\n" +
+            "HTTP/1.1 204 No Content\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n" +
+            "\r\n" +
+            "--batch_abc--\r\n";
+
+        Map<Integer, RestClient.Response> responses = BatchRequest.parse("multipart/mixed; boundary=batch_abc", body);
+        assertEquals(2, responses.size());
+
+        RestClient.Response deleted = responses.get(0);
+        assertEquals(204, deleted.getStatusCode());
+        assertEquals("No Content", deleted.getReasonPhrase());
+        assertEquals("", deleted.getMessageBody());
+        assertEquals("0", deleted.getHeader("Content-Length"));
+
+        RestClient.Response notFound = responses.get(1);
+        assertEquals(404, notFound.getStatusCode());
+        assertEquals("Resource Not Found: userKey", RestClient.parseErrorDescription(notFound.getMessageBody()));
+    }
+
+    @Test
+    public void testParseQuotedBoundary() throws Exception {
+        String body = "--batch_q\n" +
+            "Content-Type: application/http\n" +
+            "Content-ID: response-item3\n" +
+            "\n" +
+            "HTTP/1.1 200 OK\n" +
+            "\n" +
+            "{\"kind\":\"admin#directory#member\"}\n" +
+            "--batch_q--";
+
+        Map<Integer, RestClient.Response> responses = BatchRequest.parse("multipart/mixed; boundary=\"batch_q\"", body);
+        assertEquals(200, responses.get(3).getStatusCode());
+        assertEquals("{\"kind\":\"admin#directory#member\"}", responses.get(3).getMessageBody());
+    }
+
+    @Test(expected = IdMUnitException.class)
+    public void testParseWithoutBoundary() throws Exception {
+        BatchRequest.parse("application/json", "{}");
+    }
+}
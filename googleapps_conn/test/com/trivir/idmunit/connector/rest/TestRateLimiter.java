@@ -0,0 +1,103 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TestRateLimiter {
+
+    @Test
+    public void testBurstIsNotThrottled() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, 5);
+        long waited = 0;
+        for (int i = 0; i < 5; i++) {
+            waited += limiter.acquire();
+        }
+        assertEquals(0, waited);
+    }
+
+    @Test
+    public void testConcurrentCallersAreHeldToRate() throws Exception {
+        final RateLimiter limiter = new RateLimiter(50, 1);
+        final AtomicLong acquired = new AtomicLong();
+
+        long start = System.currentTimeMillis();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 5; t++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10; i++) {
+                        limiter.acquire();
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(50, acquired.get());
+        // 49 requests after the first at 50 per second take close to a second.
+        assertTrue("elapsed " + elapsed, elapsed >= 900);
+        assertTrue("elapsed " + elapsed, elapsed < 3000);
+    }
+
+    @Test
+    public void testBatchTakesOnePermitPerSubRequest() throws Exception {
+        RateLimiter limiter = new RateLimiter(50, 10);
+        assertEquals(0, limiter.acquire(10));
+
+        // The burst is spent, so 10 more permits at 50 per second take about 200 ms.
+        long start = System.currentTimeMillis();
+        limiter.acquire(10);
+        limiter.acquire();
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= 150);
+        assertTrue("elapsed " + elapsed, elapsed < 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPermits() throws Exception {
+        new RateLimiter(10, 1).acquire(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() throws Exception {
+        new RateLimiter(0, 1);
+    }
+}
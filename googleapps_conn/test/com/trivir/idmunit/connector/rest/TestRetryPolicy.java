@@ -0,0 +1,103 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector.rest;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestRetryPolicy {
+
+    private static final String USER_RATE_LIMIT = "{\"error\":{\"errors\":[{\"domain\":\"usageLimits\"," +
+        "\"reason\":\"userRateLimitExceeded\",\"message\":\"User Rate Limit Exceeded\"}],\"code\":403," +
+        "\"message\":\"User Rate Limit Exceeded\"}}";
+    private static final String DAILY_LIMIT = "{\"error\":{\"errors\":[{\"domain\":\"usageLimits\"," +
+        "\"reason\":\"dailyLimitExceeded\",\"message\":\"Daily Limit Exceeded\"}],\"code\":403," +
+        "\"message\":\"Daily Limit Exceeded\"}}";
+    private static final String NOT_AUTHORIZED = "{\"error\":{\"errors\":[{\"domain\":\"global\"," +
+        "\"reason\":\"forbidden\",\"message\":\"Not Authorized to access this resource/api\"}],\"code\":403," +
+        "\"message\":\"Not Authorized to access this resource/api\"}}";
+
+    private static RestClient.Response response(int code, String body, String retryAfter) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (retryAfter != null) {
+            headers.put("retry-after", retryAfter);
+        }
+        return new RestClient.Response(code, "", body, headers);
+    }
+
+    @Test
+    public void testIsRetryable() throws Exception {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+
+        assertTrue(policy.isRetryable(response(429, "", null)));
+        assertTrue(policy.isRetryable(response(500, "", null)));
+        assertTrue(policy.isRetryable(response(503, "<html>Service Unavailable</html>", null)));
+        assertTrue(policy.isRetryable(response(403, USER_RATE_LIMIT, null)));
+
+        assertFalse(policy.isRetryable(response(200, "{}", null)));
+        assertFalse(policy.isRetryable(response(400, "", null)));
+        assertFalse(policy.isRetryable(response(404, "", null)));
+        assertFalse(policy.isRetryable(response(403, DAILY_LIMIT, null)));
+        assertFalse(policy.isRetryable(response(403, NOT_AUTHORIZED, null)));
+        assertFalse(policy.isRetryable(response(403, "not json", null)));
+    }
+
+    @Test
+    public void testBackoffGrowsWithJitter() throws Exception {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 8000);
+        for (int i = 0; i < 20; i++) {
+            long first = policy.getDelayMillis(0, null);
+            assertTrue(first >= 500 && first <= 1000);
+            long second = policy.getDelayMillis(1, null);
+            assertTrue(second >= 1000 && second <= 2000);
+            long capped = policy.getDelayMillis(9, null);
+            assertTrue(capped >= 4000 && capped <= 8000);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        assertEquals(7000, policy.getDelayMillis(0, response(429, "", "7")));
+        assertEquals(0, policy.getDelayMillis(3, response(503, "", "0")));
+
+        long now = 1000000000000L; // Sun, 09 Sep 2001 01:46:40 GMT
+        assertEquals(20000, RetryPolicy.parseRetryAfter("Sun, 09 Sep 2001 01:47:00 GMT", now));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon", now));
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null, now));
+    }
+
+    @Test
+    public void testNone() throws Exception {
+        assertEquals(0, RetryPolicy.NONE.getMaxRetries());
+    }
+}
@@ -34,9 +34,9 @@ import org.idmunit.connector.ConnectorUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.*;
 
 public class OneIdentityConnector extends AbstractConnector {
 
@@ -55,7 +55,8 @@ public class OneIdentityConnector extends AbstractConnector {
     private static Logger log = LoggerFactory.getLogger(OneIdentityConnector.class);
     private RestClient rest;
     private Gson gson;
-    private String sessionId;
+    // UIDs of objects found by ValidateObject and ValidateAnyObject, by table, naming attribute and value
+    private final Map<String, String> uidCache = new HashMap<String, String>();
 
 
     public void setup(Map<String, String> config) throws IdMUnitException {
@@ -82,18 +83,19 @@ public class OneIdentityConnector extends AbstractConnector {
 
     @Override
     public void tearDown() throws IdMUnitException {
-
+        // The session is logged out once no other connector to the same server is using it
+        if (rest != null) {
+            rest.logout();
+            rest = null;
+        }
+        uidCache.clear();
     }
 
     private void auth(String module, String user, String password, String server) throws IdMUnitException {
 
         gson = new GsonBuilder().create();
         rest = RestClient.init(server, user, password, false);
-
-        String path = "/auth/apphost";
-        String request = "{\"authString\":\"Module=" + module + ";User=" + user + ";Password=" + password + "\"}";
-        JsonObject response = gson.fromJson(rest.executePost(path, request).messageBody, JsonObject.class);
-        sessionId = response.get("sessionId").getAsString();
+        rest.login(module);
     }
 
     public void opStartJob(Map<String, Collection<String>> attrs) throws IdMUnitException {
@@ -116,7 +118,7 @@ public class OneIdentityConnector extends AbstractConnector {
                 "    \"DateValue\": \"" + ConnectorUtil.getSingleValue(attrs, "DateValue") + "\"\n" +
                 "  }\n" +
                 "}";
-        rest.executePut(path, request, sessionId);
+        rest.executeSessionPut(path, request);
     }
 
     public void opStartEvent(Map<String, Collection<String>> attrs) throws IdMUnitException {
@@ -143,7 +145,7 @@ public class OneIdentityConnector extends AbstractConnector {
                 "    \"DateValue\": \"" + ConnectorUtil.getSingleValue(attrs, "DateValue") + "\"\n" +
                 "  }\n" +
                 "}";
-        rest.executePut(path, request, sessionId);
+        rest.executeSessionPut(path, request);
     }
 
     public void opValidateObject(Map<String, Collection<String>> attrs) throws IdMUnitException {
@@ -156,39 +158,10 @@ public class OneIdentityConnector extends AbstractConnector {
         if (tableName == null || tableName.isEmpty()) {
             throw new IdMUnitException("No value specified for 'TableName'");
         }
-        String URLcn = cn.replace(" ", "+");
-        // log.info("cn: " + cn + " and URL cn: " + URLcn);
-
-        String path = "/api/entities/" + tableName + "?loadType=Default&format=json&cn=" + URLcn;
-        // String testPath = "/api/entity/ADSAccount/fe4f62df-67fc-446f-ae36-4c89f99d4e3d";
-        JsonArray obj = gson.fromJson(rest.executeGet(path, sessionId).messageBody, JsonArray.class);
-        //log.info("obj: " + obj);
-        //String uid = obj.getAsJsonObject("values").get("UID_" + tableName).getAsString();
 
-        String uid = getUidByCn(obj, cn);
-        if (uid == null || uid.isEmpty()) {
-            throw new IdMUnitException("No UID was found in JSON response");
-        }
-        // log.info("uid of user: " + uid);
-        path = "/api/entity/" + tableName + "/" + uid + "?format=json";
-        JsonObject userObj = gson.fromJson(rest.executeGet(path, sessionId).messageBody, JsonObject.class);
-
-        for (String key : attrs.keySet()) {
-
-            if (TABLENAME.equals(key)) {
-                continue;
-            }
-            // log.info("Validating attributes for: " + key);
-            String expectedAttr = ConnectorUtil.getSingleValue(attrs, key);
-            String actualAttr = userObj.getAsJsonObject("values").get(key).getAsString();
-            // log.info("Attr retrieved: " + actualAttr);
-            if (expectedAttr.equals(actualAttr)) {
-                log.info(key + " expected value: " + expectedAttr + " matches actual value: " + actualAttr);
-            } else {
-                //throw exception if values do not match
-                throw new IdMUnitException("Values for " + key + ": <Expected>: " + expectedAttr + " but was <Actual>: " + actualAttr);
-            }
-        }
+        Map<String, String> expectedValues = getExpectedValues(attrs, TABLENAME);
+        JsonObject values = findObject(tableName, "cn", cn, "UID_" + tableName, expectedValues.keySet(), true);
+        validateValues(expectedValues, values);
     }
 
     public void opValidateAnyObject(Map<String, Collection<String>> attrs) throws IdMUnitException {
@@ -204,43 +177,34 @@ public class OneIdentityConnector extends AbstractConnector {
         if (tableName == null || tableName.isEmpty()) {
             throw new IdMUnitException("No value specified for 'TableName'");
         }
-        String URLnaming = naming.replace(" ", "+");
-        // log.info("naming: " + naming + " and URL namingcn: " + URLnaming);
         if (namevalue == null || namevalue.isEmpty()) {
             throw new IdMUnitException("No value specified for 'namevalue'");
         }
-        String URLnamevalue = namevalue.replace(" ", "+");
-        // log.info("namevalue: " + namevalue + " and URLnamevalue: " + URLnamevalue);
         if (uidName == null || uidName.isEmpty()) {
             throw new IdMUnitException("No value specified for 'uidName'");
         }
 
-        String path = "/api/entities/" + tableName + "?loadType=Default&format=json&" + URLnaming + "=" + URLnamevalue;
-        // log.info("path: " + path);
-        // String testPath = "/api/entity/ADSAccount/fe4f62df-67fc-446f-ae36-4c89f99d4e3d";
-        JsonArray obj = gson.fromJson(rest.executeGet(path, sessionId).messageBody, JsonArray.class);
-        //log.info("obj: " + obj);
-        //String uid = obj.getAsJsonObject("values").get("UID_" + tableName).getAsString();
-
-        String uid = getUidByNaming(obj, namevalue, naming, uidName);
-        if (uid == null || uid.isEmpty()) {
-            throw new IdMUnitException("No UID was found in any JSON response");
-        }
-        // log.info("uid of user: " + uid);
-        path = "/api/entity/" + tableName + "/" + uid + "?format=json";
-        // log.info("path: " + path);
-        JsonObject retobj = gson.fromJson(rest.executeGet(path, sessionId).messageBody, JsonObject.class);
+        Map<String, String> expectedValues = getExpectedValues(attrs, TABLENAME, NAMING, NAMEVALUE, UIDNAME);
+        JsonObject values = findObject(tableName, naming, namevalue, uidName, expectedValues.keySet(), false);
+        validateValues(expectedValues, values);
+    }
 
+    private static Map<String, String> getExpectedValues(Map<String, Collection<String>> attrs, String... excluded) throws IdMUnitException {
+        Map<String, String> expectedValues = new LinkedHashMap<String, String>();
         for (String key : attrs.keySet()) {
-
-            if (TABLENAME.equals(key)) {
-                continue;
+            if (!Arrays.asList(excluded).contains(key)) {
+                expectedValues.put(key, ConnectorUtil.getSingleValue(attrs, key));
             }
-            log.info("Validating attributes for: " + key);
-            String expectedAttr = ConnectorUtil.getSingleValue(attrs, key);
-            String actualAttr = retobj.getAsJsonObject("values").get(key).getAsString();
-            log.info("Attr retrieved: " + actualAttr);
-            if (expectedAttr.equals(actualAttr)) {
+        }
+        return expectedValues;
+    }
+
+    private void validateValues(Map<String, String> expectedValues, JsonObject values) throws IdMUnitException {
+        for (Map.Entry<String, String> entry : expectedValues.entrySet()) {
+            String key = entry.getKey();
+            String expectedAttr = entry.getValue();
+            String actualAttr = getString(values, key);
+            if (expectedAttr == null ? actualAttr == null : expectedAttr.equals(actualAttr)) {
                 log.info(key + " expected value: " + expectedAttr + " matches actual value: " + actualAttr);
             } else {
                 //throw exception if values do not match
@@ -249,17 +213,73 @@ public class OneIdentityConnector extends AbstractConnector {
         }
     }
 
-    private String getUidByCn(JsonArray obj, String objectCn) throws IdMUnitException {
+    /**
+     * Returns the values of the object whose naming attribute has the given value. The object is
+     * looked up with a single request that asks only for the columns being validated. Its UID is
+     * cached so that later validations of the same object read it directly, as long as it still has that name.
+     */
+    private JsonObject findObject(String tableName, String naming, String nameValue, String uidName, Collection<String> columns, boolean exactName) throws IdMUnitException {
+        String cacheKey = tableName + "|" + naming + "|" + nameValue;
+        String uid = uidCache.get(cacheKey);
+        if (uid != null) {
+            try {
+                JsonObject values = getObjectValues(tableName, uid);
+                // The object may have been renamed since its UID was cached
+                if (nameValue.equalsIgnoreCase(getString(values, naming))) {
+                    return values;
+                }
+                log.info("Object " + uid + " is no longer named " + naming + "=" + nameValue + ", looking it up again");
+            } catch (IdMUnitException e) {
+                log.info("Object " + uid + " could not be read, looking up " + naming + "=" + nameValue + " again: " + e.getMessage());
+            }
+            uidCache.remove(cacheKey);
+        }
+
+        Set<String> displayColumns = new LinkedHashSet<String>(columns);
+        displayColumns.add(naming);
+        displayColumns.add(uidName);
+        String path = "/api/entities/" + tableName + "?loadType=Default&format=json&displaycolumns=" + urlEncode(join(displayColumns))
+                + "&" + urlEncode(naming) + "=" + urlEncode(nameValue);
+        JsonArray objects = gson.fromJson(rest.executeSessionGet(path).messageBody, JsonArray.class);
+
+        JsonObject values = getValuesByNaming(objects, naming, nameValue, exactName);
+        uid = values == null ? null : getString(values, uidName);
+        if (uid == null || uid.isEmpty()) {
+            throw new IdMUnitException("No UID was found in JSON response");
+        }
+        uidCache.put(cacheKey, uid);
+
+        // Servers that ignore displaycolumns return only their default columns
+        for (String column : columns) {
+            if (!values.has(column)) {
+                return getObjectValues(tableName, uid);
+            }
+        }
+        return values;
+    }
+
+    private JsonObject getObjectValues(String tableName, String uid) throws IdMUnitException {
+        String path = "/api/entity/" + tableName + "/" + urlEncode(uid) + "?format=json";
+        RestClient.Response response = rest.executeSessionGet(path);
+        if (response.statusCode >= 300) {
+            throw new IdMUnitException("Error reading " + tableName + " " + uid + ": " + response.statusCode + " " + response.reasonPhrase);
+        }
+        JsonObject values = gson.fromJson(response.messageBody, JsonObject.class).getAsJsonObject("values");
+        if (values == null) {
+            throw new IdMUnitException("No values were found in JSON response for " + tableName + " " + uid);
+        }
+        return values;
+    }
+
+    private static JsonObject getValuesByNaming(JsonArray objects, String naming, String nameValue, boolean exactName) throws IdMUnitException {
         try {
-            obj.size();
-            for (int objNum = 0; objNum < obj.size(); objNum++) {
-                JsonElement user = obj.get(objNum);
-                JsonObject valobj = user.getAsJsonObject();
-                JsonObject values = valobj.getAsJsonObject("values");
-                String jsonCn = values.get("cn").getAsString();
-                String jsonUid = values.get("UID_ADSAccount").getAsString();
-                if (jsonCn.equalsIgnoreCase(objectCn)) {
-                    return jsonUid;
+            for (JsonElement object : objects) {
+                JsonObject values = object.getAsJsonObject().getAsJsonObject("values");
+                if (values == null) {
+                    continue;
+                }
+                if (!exactName || nameValue.equalsIgnoreCase(getString(values, naming))) {
+                    return values;
                 }
             }
         } catch (JsonParseException e) {
@@ -268,27 +288,27 @@ public class OneIdentityConnector extends AbstractConnector {
         return null;
     }
 
-    private String getUidByNaming(JsonArray obj, String nameValue, String naming, String uidName) throws IdMUnitException {
-        try {
-            // log.info("nameValue: " + nameValue + " Naming: " + Naming + " uidName: " + uidName + " obj.size: " + obj.size());
-            obj.size();
-            for (int objNum = 0; objNum < obj.size(); objNum++) {
-                JsonElement user = obj.get(objNum);
-                JsonObject valobj = user.getAsJsonObject();
-                JsonObject values = valobj.getAsJsonObject("values");
-                String jsonCn = values.get(naming).getAsString();
-                //   log.info("jsonCn: " + jsonCn);
-                JsonElement ejsonUid = values.get(uidName);
-                // log.info("got element: " + ejsonUid);
-                String jsonUid = ejsonUid.getAsString();
-                // log.info("after getstring");
-                return jsonUid;
+    private static String getString(JsonObject values, String name) {
+        JsonElement value = values.get(name);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static String join(Collection<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(',');
             }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
 
-        } catch (JsonParseException e) {
-            throw new IdMUnitException("Error parsing user UID.", e);
+    private static String urlEncode(String value) throws IdMUnitException {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IdMUnitException("Error encoding '" + value + "'", e);
         }
-        //log.info("returning null uid");
-        return null;
     }
 }
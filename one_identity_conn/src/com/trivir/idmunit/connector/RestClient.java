@@ -32,19 +32,34 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import org.idmunit.IdMUnitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public final class RestClient {
+    // Open sessions by server, module, user and a hash of the password. They are shared by every connector in the
+    // JVM. The lock is held only to look up or change an entry, never while authenticating.
+    private static final Map<String, Session> SESSIONS = new HashMap<String, Session>();
+    private static final JsonParser JSON_PARSER = new JsonParser();
+    private static Logger log = LoggerFactory.getLogger(RestClient.class);
+
     private final String server;
     private final String username;
     private final String password;
     private boolean sslConnect = false;
+    private String module;
+    private boolean loggedIn;
 
     private RestClient(String server, String username, String password, boolean sslConnect) {
         this.server = server;
@@ -73,14 +88,6 @@ public final class RestClient {
         return executeRequest("GET", path, null);
     }
 
-    Response executeGet(String path, String sessionId) throws IdMUnitException {
-        Map<String, String> additionalHeaders = new HashMap<String, String>();
-        if (sessionId != null) {
-            additionalHeaders.put("Cookie", "ss-id=" + sessionId);
-        }
-        return executeRequest("GET", path, null, additionalHeaders);
-    }
-
     Response executePost(String path) throws IdMUnitException {
         return executePost(path, null);
     }
@@ -94,36 +101,218 @@ public final class RestClient {
     }
 
     Response executePut(String path, String request) throws IdMUnitException {
-        return executePut(path, request, null);
+        return executeRequest("PUT", path, request);
     }
 
-    Response executePut(String path, String request, String sessionId) throws IdMUnitException {
-        Map<String, String> additionalHeaders = new HashMap<String, String>();
-        if (sessionId != null) {
-            additionalHeaders.put("Cookie", "ss-id=" + sessionId);
+    Response executeSessionGet(String path) throws IdMUnitException {
+        return executeSessionRequest("GET", path, null);
+    }
+
+    Response executeSessionPut(String path, String request) throws IdMUnitException {
+        return executeSessionRequest("PUT", path, request);
+    }
+
+    /**
+     * Authenticates with the given module unless a session for the same server, module and user
+     * is already open. The session stays open until every client that logged in to it has called
+     * {@link #logout()}.
+     */
+    void login(String module) throws IdMUnitException {
+        this.module = module;
+        if (!loggedIn) {
+            synchronized (SESSIONS) {
+                getSession(sessionKey()).clients++;
+            }
+            loggedIn = true;
+        }
+        try {
+            getSessionId();
+        } catch (IdMUnitException e) {
+            logout();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases this client's use of its session, logging the session out once no other client uses it.
+     */
+    void logout() {
+        if (!loggedIn) {
+            return;
+        }
+        loggedIn = false;
+        FutureTask<String> task = null;
+        String key = sessionKey();
+        synchronized (SESSIONS) {
+            Session session = SESSIONS.get(key);
+            if (session != null && --session.clients <= 0) {
+                SESSIONS.remove(key);
+                task = session.id;
+            }
+        }
+        if (task == null || !task.isDone()) {
+            return;
+        }
+        try {
+            Response r = executeRequestReturnRawResponse("POST", "/auth/logout", null, sessionHeaders(task.get()));
+            if (r.statusCode >= 300) {
+                log.info("Logout returned " + r.statusCode + " " + r.reasonPhrase);
+            }
+        } catch (Exception e) {
+            // The session failed to open, or it will expire on the server
+            log.info("Failed to log out: " + e.getMessage());
+        }
+    }
+
+    String getSessionId() throws IdMUnitException {
+        return awaitSession(sessionTask());
+    }
+
+    /*
+     * Returns the task that opens the session, starting it if no session is open. Callers that find a login
+     * in progress wait for it rather than authenticating again.
+     */
+    private FutureTask<String> sessionTask() {
+        FutureTask<String> task;
+        boolean start = false;
+        synchronized (SESSIONS) {
+            Session session = getSession(sessionKey());
+            if (session.id == null) {
+                session.id = new FutureTask<String>(new Callable<String>() {
+                    public String call() throws IdMUnitException {
+                        return authenticate();
+                    }
+                });
+                start = true;
+            }
+            task = session.id;
+        }
+        if (start) {
+            task.run();
+        }
+        return task;
+    }
+
+    private String awaitSession(FutureTask<String> task) throws IdMUnitException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdMUnitException("Interrupted while authenticating", e);
+        } catch (ExecutionException e) {
+            // Let the next request try again
+            expireSession(task);
+            if (e.getCause() instanceof IdMUnitException) {
+                throw (IdMUnitException)e.getCause();
+            }
+            throw new IdMUnitException("Error authenticating", e.getCause());
+        }
+    }
+
+    private void expireSession(FutureTask<String> task) {
+        synchronized (SESSIONS) {
+            // Another client may already have replaced the expired session
+            Session session = SESSIONS.get(sessionKey());
+            if (session != null && session.id == task) {
+                session.id = null;
+            }
+        }
+    }
+
+    private static Session getSession(String key) {
+        Session session = SESSIONS.get(key);
+        if (session == null) {
+            session = new Session();
+            SESSIONS.put(key, session);
         }
-        return executeRequest("PUT", path, request, additionalHeaders);
+        return session;
+    }
+
+    /*
+     * The password is part of the key so that a changed password opens a new session, but only as a hash so that
+     * it is not kept in memory for the life of the JVM.
+     */
+    String sessionKey() {
+        return (sslConnect ? "https://" : "http://") + server + "|" + module + "|" + username + "|" + sha256(password);
+    }
+
+    private static String sha256(String value) {
+        if (value == null) {
+            return "";
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String authenticate() throws IdMUnitException {
+        if (module == null) {
+            throw new IdMUnitException("No module specified for authentication");
+        }
+        String request = "{\"authString\":\"Module=" + module + ";User=" + username + ";Password=" + password + "\"}";
+        JsonObject response = parseObject(executePost("/auth/apphost", request).messageBody);
+        JsonElement sessionId = response.get("sessionId");
+        if (sessionId == null || sessionId.isJsonNull()) {
+            throw new IdMUnitException("No session id in authentication response");
+        }
+        return sessionId.getAsString();
+    }
+
+    private Response executeSessionRequest(String method, String path, String request) throws IdMUnitException {
+        FutureTask<String> session = sessionTask();
+        Response r = executeRequestReturnRawResponse(method, path, request, sessionHeaders(awaitSession(session)));
+        if (r.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            // The server rejects requests without running them once the session has expired
+            log.info("Session expired, authenticating again");
+            expireSession(session);
+            r = executeRequestReturnRawResponse(method, path, request, sessionHeaders(getSessionId()));
+        }
+        return checkResponse(r);
+    }
+
+    private static Map<String, String> sessionHeaders(String sessionId) {
+        Map<String, String> additionalHeaders = new HashMap<String, String>();
+        additionalHeaders.put("Cookie", "ss-id=" + sessionId);
+        return additionalHeaders;
     }
 
     private Response executeRequest(String method, String path, String request) throws IdMUnitException {
-        return executeRequest(method, path, request, null);
+        return checkResponse(executeRequestReturnRawResponse(method, path, request, null));
     }
 
     private Response executeRequest(String method, String path, String request, Map<String, String> additionalHeaders) throws IdMUnitException {
-        Response r = executeRequestReturnRawResponse(method, path, request, additionalHeaders);
+        return checkResponse(executeRequestReturnRawResponse(method, path, request, additionalHeaders));
+    }
+
+    private static JsonObject parseObject(String messageBody) throws IdMUnitException {
+        try {
+            JsonElement element = JSON_PARSER.parse(messageBody);
+            if (element.isJsonObject()) {
+                return element.getAsJsonObject();
+            }
+        } catch (JsonSyntaxException e) {
+            // Reported below
+        }
+        throw new IdMUnitException("Unexpected message body in response: " + messageBody);
+    }
+
+    private static Response checkResponse(Response r) throws IdMUnitException {
         if (r.statusCode < 300) {
             return r;
         }
 
         // {"code":403,"reason":"Forbidden","message":"Policy validation failed","detail":{"result":false,"failedPolicyRequirements":[{"policyRequirements":[{"policyRequirement":"CANNOT_CONTAIN_OTHERS","params":{"disallowedFields":"givenName"}}],"property":"password"}]}}
 
-        JsonObject response;
-        try {
-//            response = new Gson().fromJson(r.messageBody, STRING_STRING_HASHMAP_TYPE);
-            response = new JsonParser().parse(r.messageBody).getAsJsonObject();
-        } catch (JsonSyntaxException e) {
-            throw new IdMUnitException("Unexpected message body in response: " + r.messageBody);
-        }
+        JsonObject response = parseObject(r.messageBody);
 
         JsonElement code = response.get("code");
         JsonElement reason = response.get("reason");
@@ -154,7 +343,7 @@ public final class RestClient {
                 url = new URL("http://" + server + "/AppServer" + path);
             }
             HttpURLConnection conn = (HttpURLConnection)url.openConnection();
-            conn.setDoOutput(true);
+            conn.setDoOutput(request != null);
             conn.setRequestMethod(method);
             conn.setRequestProperty("Accept", "application/json");
             conn.setRequestProperty("Content-Type", "application/json");
@@ -175,7 +364,7 @@ public final class RestClient {
             if (request != null) {
                 OutputStream os = conn.getOutputStream();
                 os.write(request.getBytes("UTF8"));
-                os.flush();
+                os.close();
             }
 
             InputStream is;
@@ -185,17 +374,11 @@ public final class RestClient {
                 is = conn.getErrorStream();
             }
 
-            BufferedReader br = new BufferedReader(new InputStreamReader(is));
-
-            StringBuilder messageBody = new StringBuilder();
-            int c;
-            while ((c = br.read()) != -1) {
-                messageBody.append((char)c);
-            }
-
-            conn.disconnect();
+            // Reading the whole body and closing the stream, rather than calling disconnect(), lets
+            // the JDK keep the connection alive and reuse it for the next request to the server
+            String messageBody = is == null ? "" : readFully(is);
 
-            return new Response(conn.getResponseCode(), conn.getResponseMessage(), messageBody.toString());
+            return new Response(conn.getResponseCode(), conn.getResponseMessage(), messageBody);
         } catch (MalformedURLException e) {
             throw new IdMUnitException("Bad host or path specified.", e);
         } catch (IOException e) {
@@ -203,6 +386,26 @@ public final class RestClient {
         }
     }
 
+    private static String readFully(InputStream is) throws IOException {
+        Reader reader = new InputStreamReader(is, "UTF-8");
+        try {
+            StringBuilder messageBody = new StringBuilder();
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                messageBody.append(buffer, 0, count);
+            }
+            return messageBody.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static class Session {
+        FutureTask<String> id;
+        int clients;
+    }
+
 //    private static final Type STRING_OBJECT_HASHMAP_TYPE = new TypeToken<HashMap<String,Object>>(){}.getType();
 
     static class Response {
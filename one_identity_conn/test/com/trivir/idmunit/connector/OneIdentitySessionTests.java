@@ -0,0 +1,258 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.idmunit.IdMUnitException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests session handling and object lookups against a local stand-in for the application server.
+ */
+public class OneIdentitySessionTests {
+    private static final String ACCOUNT = "{\"values\": {\"cn\": \"aabbass\", \"UID_ADSAccount\": \"uid-1\", \"DisplayName\": \"Abbas\"}}";
+
+    private HttpServer server;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private int logins;
+    private String validSession;
+    private String entitiesResponse = "[" + ACCOUNT + "]";
+    private String accountResponse = ACCOUNT;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/AppServer", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI());
+                if (path.equals("/AppServer/auth/apphost")) {
+                    logins++;
+                    validSession = "session-" + logins;
+                    respond(exchange, 200, "{\"sessionId\": \"" + validSession + "\"}");
+                } else if (!("ss-id=" + validSession).equals(exchange.getRequestHeaders().getFirst("Cookie"))) {
+                    respond(exchange, 401, "{\"code\": 401, \"reason\": \"Unauthorized\", \"message\": \"Session expired\"}");
+                } else if (path.startsWith("/AppServer/api/entities/")) {
+                    respond(exchange, 200, entitiesResponse);
+                } else if (path.equals("/AppServer/api/entity/ADSAccount/uid-1")) {
+                    respond(exchange, 200, accountResponse);
+                } else {
+                    respond(exchange, 200, "{}");
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
+    private OneIdentityConnector newConnector(String user) throws IdMUnitException {
+        return newConnector(server, user);
+    }
+
+    private static OneIdentityConnector newConnector(HttpServer server, String user) throws IdMUnitException {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("server", "127.0.0.1:" + server.getAddress().getPort());
+        config.put("module", "DialogUser");
+        config.put("user", user);
+        config.put("password", "Password1");
+        OneIdentityConnector connector = new OneIdentityConnector();
+        connector.setup(config);
+        return connector;
+    }
+
+    private static Map<String, Collection<String>> validateAttrs() {
+        Map<String, Collection<String>> attrs = new HashMap<String, Collection<String>>();
+        attrs.put("cn", Collections.singletonList("aabbass"));
+        attrs.put("tableName", Collections.singletonList("ADSAccount"));
+        attrs.put("DisplayName", Collections.singletonList("Abbas"));
+        return attrs;
+    }
+
+    @Test
+    public void testSessionIsShared() throws IdMUnitException {
+        newConnector("shared");
+        newConnector("shared");
+        assertEquals(1, logins);
+    }
+
+    @Test
+    public void testExpiredSessionIsRenewed() throws IdMUnitException {
+        OneIdentityConnector connector = newConnector("renewed");
+        validSession = "expired";
+
+        connector.opValidateObject(validateAttrs());
+        assertEquals(2, logins);
+    }
+
+    @Test
+    public void testValidateObjectWithSingleRequest() throws IdMUnitException {
+        OneIdentityConnector connector = newConnector("single");
+        requests.clear();
+
+        connector.opValidateObject(validateAttrs());
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0), requests.get(0).contains("displaycolumns="));
+
+        // The cached UID is used to read the object directly
+        connector.opValidateObject(validateAttrs());
+        assertEquals(2, requests.size());
+        assertEquals("GET /AppServer/api/entity/ADSAccount/uid-1?format=json", requests.get(1));
+    }
+
+    @Test
+    public void testRenamedObjectIsLookedUpAgain() throws IdMUnitException {
+        OneIdentityConnector connector = newConnector("renamed");
+        connector.opValidateObject(validateAttrs());
+
+        // uid-1 was renamed, so the cached UID no longer names the object being validated
+        accountResponse = "{\"values\": {\"cn\": \"other\", \"UID_ADSAccount\": \"uid-1\", \"DisplayName\": \"Other\"}}";
+        requests.clear();
+        connector.opValidateObject(validateAttrs());
+        assertEquals(2, requests.size());
+        assertEquals("GET /AppServer/api/entity/ADSAccount/uid-1?format=json", requests.get(0));
+        assertTrue(requests.get(1), requests.get(1).startsWith("GET /AppServer/api/entities/ADSAccount?"));
+    }
+
+    @Test
+    public void testMissingColumnsAreRead() throws IdMUnitException {
+        entitiesResponse = "[{\"values\": {\"cn\": \"aabbass\", \"UID_ADSAccount\": \"uid-1\"}}]";
+        OneIdentityConnector connector = newConnector("missing");
+        requests.clear();
+
+        connector.opValidateObject(validateAttrs());
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void testMismatch() throws IdMUnitException {
+        OneIdentityConnector connector = newConnector("mismatch");
+        Map<String, Collection<String>> attrs = validateAttrs();
+        attrs.put("DisplayName", Collections.singletonList("Other"));
+        try {
+            connector.opValidateObject(attrs);
+            fail("Expected a mismatch");
+        } catch (IdMUnitException e) {
+            assertEquals("Values for DisplayName: <Expected>: Other but was <Actual>: Abbas", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTearDownLogsOutLastConnector() throws IdMUnitException {
+        OneIdentityConnector first = newConnector("logout");
+        OneIdentityConnector second = newConnector("logout");
+        requests.clear();
+
+        first.tearDown();
+        assertEquals(0, requests.size());
+
+        // The second connector still uses the session
+        second.opValidateObject(validateAttrs());
+        assertEquals(1, logins);
+
+        second.tearDown();
+        assertEquals("POST /AppServer/auth/logout", requests.get(requests.size() - 1));
+
+        newConnector("logout");
+        assertEquals(2, logins);
+    }
+
+    @Test
+    public void testSessionKeyDoesNotContainPassword() {
+        RestClient rest = RestClient.init("127.0.0.1", "user", "Password1", false);
+        assertFalse(rest.sessionKey(), rest.sessionKey().contains("Password1"));
+        assertFalse(rest.sessionKey().equals(RestClient.init("127.0.0.1", "user", "Password2", false).sessionKey()));
+    }
+
+    @Test
+    public void testSlowLoginDoesNotBlockOtherSessions() throws Exception {
+        final CountDownLatch loginStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final HttpServer slowServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        slowServer.createContext("/AppServer", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                loginStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, "{\"sessionId\": \"slow\"}");
+            }
+        });
+        slowServer.start();
+
+        final OneIdentityConnector connector = newConnector("fast");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(new Callable<OneIdentityConnector>() {
+                public OneIdentityConnector call() throws IdMUnitException {
+                    return newConnector(slowServer, "slow");
+                }
+            });
+            assertTrue(loginStarted.await(5, TimeUnit.SECONDS));
+
+            Future<Void> validate = executor.submit(new Callable<Void>() {
+                public Void call() throws IdMUnitException {
+                    connector.opValidateObject(validateAttrs());
+                    return null;
+                }
+            });
+            validate.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            slowServer.stop(0);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.google.gson.*;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * An expected JSON document compiled once so it can be compared with an actual document.
+ * <p>
+ * Primitive values are regular expressions. Values without regex metacharacters are compared
+ * with String.equals and never compiled. Validating an array is a "contains" operation.
+ * Each expected item consumes the first actual item it matches. Literal items, and objects with
+ * a literal property, find their candidates through a hash index of the actual items rather than
+ * by trying every item. Difference messages are only built for values that do not match.
+ */
+abstract class JsonMatcher {
+    private static final Gson GSON = new Gson();
+    private static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+    final JsonElement expected;
+
+    JsonMatcher(JsonElement expected) {
+        this.expected = expected;
+    }
+
+    static JsonMatcher compile(JsonElement expected, boolean exact) {
+        if (expected.isJsonPrimitive()) {
+            return new PrimitiveMatcher(expected.getAsJsonPrimitive());
+        }
+        if (expected.isJsonArray()) {
+            return new ArrayMatcher(expected.getAsJsonArray(), exact);
+        }
+        if (expected.isJsonObject()) {
+            return new ObjectMatcher(expected.getAsJsonObject(), exact);
+        }
+        return new AnyMatcher(expected);
+    }
+
+    List<String> differences(JsonElement actual) {
+        List<String> differences = new ArrayList<String>();
+        addDifferences(differences, "", actual);
+        return differences;
+    }
+
+    abstract boolean matches(JsonElement actual);
+
+    abstract void addDifferences(List<String> differences, String baseName, JsonElement actual);
+
+    /**
+     * Returns the string an actual primitive must equal to match, or null when this matcher is
+     * not a literal. The empty string is not a literal because it also matches a missing value.
+     */
+    String literalValue() {
+        return null;
+    }
+
+    static boolean isLiteral(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (REGEX_META_CHARACTERS.indexOf(value.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String toJson(JsonElement element) {
+        return GSON.toJson(element == null ? JsonNull.INSTANCE : element);
+    }
+
+    // Java null means the attribute is missing
+    static boolean isNull(JsonElement actual) {
+        return actual == null || actual.isJsonNull();
+    }
+
+    private static final class AnyMatcher extends JsonMatcher {
+        AnyMatcher(JsonElement expected) {
+            super(expected);
+        }
+
+        boolean matches(JsonElement actual) {
+            return true;
+        }
+
+        void addDifferences(List<String> differences, String baseName, JsonElement actual) {
+        }
+    }
+
+    private static final class PrimitiveMatcher extends JsonMatcher {
+        private final String value;
+        private final boolean literal;
+        private Pattern pattern;
+
+        PrimitiveMatcher(JsonPrimitive expected) {
+            super(expected);
+            value = expected.getAsString();
+            literal = isLiteral(value);
+        }
+
+        boolean matches(JsonElement actual) {
+            if (isNull(actual)) {
+                return value.isEmpty();
+            }
+            if (!actual.isJsonPrimitive()) {
+                return false;
+            }
+            String actualValue = actual.getAsString();
+            if (literal) {
+                return value.equals(actualValue);
+            }
+            if (pattern == null) {
+                pattern = Pattern.compile(value);
+            }
+            return pattern.matcher(actualValue).matches();
+        }
+
+        void addDifferences(List<String> differences, String baseName, JsonElement actual) {
+            if (isNull(actual)) {
+                if (!value.isEmpty()) {
+                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, toJson(expected)));
+                }
+                return;
+            }
+
+            if (!matches(actual)) {
+                differences.add(String.format("'%s' attribute mismatch: expected %s but was %s", baseName, toJson(expected), toJson(actual)));
+            }
+        }
+
+        String literalValue() {
+            return literal && !value.isEmpty() ? value : null;
+        }
+    }
+
+    private static final class ArrayMatcher extends JsonMatcher {
+        private final JsonMatcher[] items;
+        private final boolean exact;
+
+        ArrayMatcher(JsonArray expected, boolean exact) {
+            super(expected);
+            this.exact = exact;
+            items = new JsonMatcher[expected.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = compile(expected.get(i), exact);
+            }
+        }
+
+        boolean matches(JsonElement actual) {
+            if (isNull(actual)) {
+                return items.length == 0;
+            }
+            if (!actual.isJsonArray()) {
+                return false;
+            }
+            JsonArray actualArray = actual.getAsJsonArray();
+            if (exact && actualArray.size() != items.length) {
+                return false;
+            }
+            ActualItems remaining = new ActualItems(actualArray);
+            for (JsonMatcher item : items) {
+                if (!remaining.consume(item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void addDifferences(List<String> differences, String baseName, JsonElement actual) {
+            if (isNull(actual)) {
+                if (items.length != 0) {
+                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, toJson(expected)));
+                }
+                return;
+            }
+
+            if (!actual.isJsonArray()) {
+                differences.add(String.format("'%s' attribute mismatch: expected an array %s but was %s", baseName, toJson(expected), toJson(actual)));
+                return;
+            }
+
+            JsonArray actualArray = actual.getAsJsonArray();
+            if (exact && actualArray.size() != items.length) {
+                differences.add(String.format("'%s' attribute mismatch: actual item contains %s values when our expected item contains %s values. \nExpected values: %s \nActual values: %s ", baseName, actualArray.size(), items.length, toJson(expected), toJson(actual)));
+            }
+
+            ActualItems remaining = new ActualItems(actualArray);
+            String actualJson = null;
+            for (JsonMatcher item : items) {
+                if (!remaining.consume(item)) {
+                    if (actualJson == null) {
+                        actualJson = toJson(actual);
+                    }
+                    differences.add(String.format("'%s' attribute mismatch: expected item %s was not found in %s", baseName, toJson(item.expected), actualJson));
+                }
+            }
+        }
+    }
+
+    private static final class ObjectMatcher extends JsonMatcher {
+        private final Map<String, JsonMatcher> properties = new LinkedHashMap<String, JsonMatcher>();
+        // A property with a literal value, used to look up candidate objects in an array
+        private String indexName;
+        private String indexValue;
+
+        ObjectMatcher(JsonObject expected, boolean exact) {
+            super(expected);
+            for (Map.Entry<String, JsonElement> entry : expected.entrySet()) {
+                JsonMatcher matcher = compile(entry.getValue(), exact);
+                properties.put(entry.getKey(), matcher);
+                if (indexName == null && matcher.literalValue() != null) {
+                    indexName = entry.getKey();
+                    indexValue = matcher.literalValue();
+                }
+            }
+        }
+
+        boolean matches(JsonElement actual) {
+            if (actual == null || !actual.isJsonObject()) {
+                return false;
+            }
+            JsonObject actualObj = actual.getAsJsonObject();
+            for (Map.Entry<String, JsonMatcher> entry : properties.entrySet()) {
+                if (!entry.getValue().matches(actualObj.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void addDifferences(List<String> differences, String baseName, JsonElement actual) {
+            if (actual == null || !actual.isJsonObject()) {
+                differences.add(String.format("'%s' attribute mismatch: expected an object %s but was %s", baseName, toJson(expected), toJson(actual)));
+                return;
+            }
+            JsonObject actualObj = actual.getAsJsonObject();
+            for (Map.Entry<String, JsonMatcher> entry : properties.entrySet()) {
+                String name = entry.getKey();
+                entry.getValue().addDifferences(differences, baseName + "." + name, actualObj.get(name));
+            }
+        }
+    }
+
+    /**
+     * The items of an actual array that have not been consumed by an expected item yet. Indexes
+     * are built the first time an expected item needs them.
+     */
+    private static final class ActualItems {
+        private final JsonArray items;
+        private final boolean[] used;
+        private int firstUnused = 0;
+        private Map<String, List<Integer>> byValue;
+        private final Map<String, Map<String, List<Integer>>> byProperty = new HashMap<String, Map<String, List<Integer>>>();
+
+        ActualItems(JsonArray items) {
+            this.items = items;
+            used = new boolean[items.size()];
+        }
+
+        boolean consume(JsonMatcher matcher) {
+            List<Integer> candidates = candidates(matcher);
+            if (candidates != null) {
+                for (Iterator<Integer> i = candidates.iterator(); i.hasNext(); ) {
+                    int index = i.next();
+                    if (used[index]) {
+                        i.remove();
+                    } else if (matcher.matches(items.get(index))) {
+                        i.remove();
+                        markUsed(index);
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            for (int index = firstUnused; index < used.length; index++) {
+                if (!used[index] && matcher.matches(items.get(index))) {
+                    markUsed(index);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void markUsed(int index) {
+            used[index] = true;
+            while (firstUnused < used.length && used[firstUnused]) {
+                firstUnused++;
+            }
+        }
+
+        /**
+         * Returns the indexes, in array order, of the only items that can match, or null if every
+         * item has to be tried.
+         */
+        private List<Integer> candidates(JsonMatcher matcher) {
+            String literal = matcher.literalValue();
+            if (literal != null) {
+                if (byValue == null) {
+                    byValue = new HashMap<String, List<Integer>>();
+                    for (int index = 0; index < used.length; index++) {
+                        addToIndex(byValue, items.get(index), index);
+                    }
+                }
+                return candidates(byValue, literal);
+            }
+
+            if (matcher instanceof ObjectMatcher && ((ObjectMatcher) matcher).indexName != null) {
+                ObjectMatcher objectMatcher = (ObjectMatcher) matcher;
+                Map<String, List<Integer>> index = byProperty.get(objectMatcher.indexName);
+                if (index == null) {
+                    index = new HashMap<String, List<Integer>>();
+                    for (int i = 0; i < used.length; i++) {
+                        JsonElement item = items.get(i);
+                        if (item.isJsonObject()) {
+                            addToIndex(index, item.getAsJsonObject().get(objectMatcher.indexName), i);
+                        }
+                    }
+                    byProperty.put(objectMatcher.indexName, index);
+                }
+                return candidates(index, objectMatcher.indexValue);
+            }
+
+            return null;
+        }
+
+        private static List<Integer> candidates(Map<String, List<Integer>> index, String value) {
+            List<Integer> candidates = index.get(value);
+            return candidates == null ? Collections.<Integer>emptyList() : candidates;
+        }
+
+        private static void addToIndex(Map<String, List<Integer>> index, JsonElement value, int position) {
+            if (value == null || !value.isJsonPrimitive()) {
+                return;
+            }
+            String key = value.getAsString();
+            List<Integer> positions = index.get(key);
+            if (positions == null) {
+                positions = new LinkedList<Integer>();
+                index.put(key, positions);
+            }
+            positions.add(position);
+        }
+    }
+}
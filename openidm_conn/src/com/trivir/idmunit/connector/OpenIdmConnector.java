@@ -656,157 +656,11 @@ public class OpenIdmConnector extends AbstractConnector {
     }
 
     static List<String> jsonMatches(JsonElement expected, JsonElement actual) {
-        List<String> differences = new ArrayList<String>();
-        jsonMatches(differences, "", expected, actual);
-        return differences;
+        return JsonMatcher.compile(expected, false).differences(actual);
     }
 
     static List<String> jsonExactMatches(JsonElement expected, JsonElement actual) {
-        List<String> differences = new ArrayList<String>();
-        jsonExactMatches(differences, "", expected, actual);
-        return differences;
-    }
-
-    static void jsonMatches(List<String> differences, String baseName, JsonElement expected, JsonElement actual) {
-        Gson gson = new Gson();
-
-        if (expected.isJsonPrimitive()) {
-            // Java null means the attribute is missing
-            if (actual == null || actual.isJsonNull()) {
-                if (!expected.getAsString().isEmpty()) {
-                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, gson.toJson(expected)));
-                }
-                return;
-            }
-
-            if (!actual.isJsonPrimitive() || !actual.getAsString().matches(expected.getAsString())) {
-                differences.add(String.format("'%s' attribute mismatch: expected %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-            }
-            return;
-        }
-
-        if (expected.isJsonArray()) {
-            if (actual == null || actual.isJsonNull()) {
-                if (expected.getAsJsonArray().size() != 0) {
-                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, gson.toJson(expected)));
-                }
-                return;
-            }
-
-            if (!actual.isJsonArray()) {
-                differences.add(String.format("'%s' attribute mismatch: expected an array %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-                return;
-            }
-
-            // Validating an array is a "contains" operation, it ignores ordering of the items in the array
-            Set<JsonElement> actualItems = new LinkedHashSet<JsonElement>();
-            for (JsonElement item : actual.getAsJsonArray()) {
-                actualItems.add(item);
-            }
-            for (JsonElement expectedItem : expected.getAsJsonArray()) {
-                int actualItemSize = actualItems.size();
-                for (Iterator<JsonElement> i = actualItems.iterator(); i.hasNext(); ) {
-                    JsonElement actualItem = i.next();
-                    List<String> d = new ArrayList<String>();
-                    jsonMatches(d, baseName + "[]", expectedItem, actualItem);
-                    if (d.size() == 0) {
-                        i.remove();
-                        break;
-                    }
-                }
-                if (actualItems.size() == actualItemSize) {
-                    differences.add(String.format("'%s' attribute mismatch: expected item %s was not found in %s", baseName, gson.toJson(expectedItem), gson.toJson(actual)));
-                }
-            }
-            return;
-        }
-
-        if (expected.isJsonObject()) {
-            if (!actual.isJsonObject()) {
-                differences.add(String.format("'%s' attribute mismatch: expected an object %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-                return;
-            }
-            JsonObject actualObj = actual.getAsJsonObject();
-            for (Map.Entry<String, JsonElement> entry : expected.getAsJsonObject().entrySet()) {
-                String name = entry.getKey();
-                JsonElement expectedValue = entry.getValue();
-                JsonElement actualValue = actualObj.get(name);
-                jsonMatches(differences, baseName + "." + name, expectedValue, actualValue);
-            }
-        }
-    }
-
-    static void jsonExactMatches(List<String> differences, String baseName, JsonElement expected, JsonElement actual) {
-        Gson gson = new Gson();
-
-        if (expected.isJsonPrimitive()) {
-            // Java null means the attribute is missing
-            if (actual == null || actual.isJsonNull()) {
-                if (!expected.getAsString().isEmpty()) {
-                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, gson.toJson(expected)));
-                }
-                return;
-            }
-
-            if (!actual.isJsonPrimitive() || !actual.getAsString().matches(expected.getAsString())) {
-                differences.add(String.format("'%s' attribute mismatch: expected %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-            }
-            return;
-        }
-
-        if (expected.isJsonArray()) {
-            if (actual == null || actual.isJsonNull()) {
-                if (expected.getAsJsonArray().size() != 0) {
-                    differences.add(String.format("'%s' attribute mismatch: expected %s but was null", baseName, gson.toJson(expected)));
-                }
-                return;
-            }
-
-            if (!actual.isJsonArray()) {
-                differences.add(String.format("'%s' attribute mismatch: expected an array %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-                return;
-            }
-
-            if (actual.getAsJsonArray().size() != expected.getAsJsonArray().size()) {
-                differences.add(String.format("'%s' attribute mismatch: actual item contains %s values when our expected item contains %s values. \nExpected values: %s \nActual values: %s ", baseName, actual.getAsJsonArray().size(), expected.getAsJsonArray().size(), gson.toJson(expected), gson.toJson(actual)));
-            }
-
-            // Validating an array is a "contains" operation, it ignores ordering of the items in the array
-            Set<JsonElement> actualItems = new LinkedHashSet<JsonElement>();
-            for (JsonElement item : actual.getAsJsonArray()) {
-                actualItems.add(item);
-            }
-            for (JsonElement expectedItem : expected.getAsJsonArray()) {
-                int actualItemSize = actualItems.size();
-                for (Iterator<JsonElement> i = actualItems.iterator(); i.hasNext(); ) {
-                    JsonElement actualItem = i.next();
-                    List<String> d = new ArrayList<String>();
-                    jsonExactMatches(d, baseName + "[]", expectedItem, actualItem);
-                    if (d.size() == 0) {
-                        i.remove();
-                        break;
-                    }
-                }
-                if (actualItems.size() == actualItemSize) {
-                    differences.add(String.format("'%s' attribute mismatch: expected item %s was not found in %s", baseName, gson.toJson(expectedItem), gson.toJson(actual)));
-                }
-            }
-            return;
-        }
-
-        if (expected.isJsonObject()) {
-            if (!actual.isJsonObject()) {
-                differences.add(String.format("'%s' attribute mismatch: expected an object %s but was %s", baseName, gson.toJson(expected), gson.toJson(actual)));
-                return;
-            }
-            JsonObject actualObj = actual.getAsJsonObject();
-            for (Map.Entry<String, JsonElement> entry : expected.getAsJsonObject().entrySet()) {
-                String name = entry.getKey();
-                JsonElement expectedValue = entry.getValue();
-                JsonElement actualValue = actualObj.get(name);
-                jsonExactMatches(differences, baseName + "." + name, expectedValue, actualValue);
-            }
-        }
+        return JsonMatcher.compile(expected, true).differences(actual);
     }
 
     // Package access method to facilitate testing
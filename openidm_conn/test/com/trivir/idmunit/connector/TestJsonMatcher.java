@@ -0,0 +1,127 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class TestJsonMatcher extends TestCase {
+    private static JsonElement parse(String json) {
+        return new JsonParser().parse(json);
+    }
+
+    public void testLiteralAndRegexValues() {
+        assertEquals(0, OpenIdmConnector.jsonMatches(parse("{\"a\": \"val1\", \"b\": \"val.*\"}"), parse("{\"a\": \"val1\", \"b\": \"value\"}")).size());
+
+        List<String> differences = OpenIdmConnector.jsonMatches(parse("{\"a\": \"val\"}"), parse("{\"a\": \"val1\"}"));
+        assertEquals(1, differences.size());
+        assertEquals("'.a' attribute mismatch: expected \"val\" but was \"val1\"", differences.get(0));
+    }
+
+    public void testEmptyValueMatchesMissingValue() {
+        assertEquals(0, OpenIdmConnector.jsonMatches(parse("{\"a\": \"\", \"b\": []}"), parse("{}")).size());
+        assertEquals(0, OpenIdmConnector.jsonMatches(parse("{\"a\": [\"\"]}"), parse("{\"a\": [null]}")).size());
+    }
+
+    public void testArrayItemsAreConsumed() {
+        assertEquals(0, OpenIdmConnector.jsonMatches(parse("{\"a\": [\"x\", \"x\", \"y.*\"]}"), parse("{\"a\": [\"yes\", \"x\", \"x\"]}")).size());
+
+        List<String> differences = OpenIdmConnector.jsonMatches(parse("{\"a\": [\"x\", \"x\"]}"), parse("{\"a\": [\"x\", \"z\"]}"));
+        assertEquals(1, differences.size());
+        assertEquals("'.a' attribute mismatch: expected item \"x\" was not found in [\"x\",\"z\"]", differences.get(0));
+    }
+
+    public void testRegexItemConsumesIndexedItem() {
+        // The regex takes the first actual item, so the literal has nothing left to match
+        List<String> differences = OpenIdmConnector.jsonMatches(parse("{\"a\": [\"x.*\", \"x1\"]}"), parse("{\"a\": [\"x1\", \"y\"]}"));
+        assertEquals(1, differences.size());
+    }
+
+    public void testObjectItemsWithLiteralProperty() {
+        String expected = "{\"roles\": [{\"_ref\": \"managed/role/2\", \"_refProperties\": {\"temporalConstraints\": []}}, {\"_ref\": \"managed/role/[13]\"}]}";
+        String actual = "{\"roles\": [{\"_ref\": \"managed/role/1\"}, {\"_ref\": \"managed/role/2\", \"_refProperties\": {}}, {\"_ref\": \"managed/role/3\"}]}";
+        assertEquals(0, OpenIdmConnector.jsonMatches(parse(expected), parse(actual)).size());
+
+        List<String> differences = OpenIdmConnector.jsonMatches(parse("{\"roles\": [{\"_ref\": \"managed/role/4\"}]}"), parse(actual));
+        assertEquals(1, differences.size());
+    }
+
+    public void testExactArraySize() {
+        assertEquals(0, OpenIdmConnector.jsonExactMatches(parse("{\"a\": [\"y\", \"x\"]}"), parse("{\"a\": [\"x\", \"y\"]}")).size());
+
+        List<String> differences = OpenIdmConnector.jsonExactMatches(parse("{\"a\": [\"x\"]}"), parse("{\"a\": [\"x\", \"y\"]}"));
+        assertEquals(1, differences.size());
+        assertTrue(differences.get(0).startsWith("'.a' attribute mismatch: actual item contains 2 values when our expected item contains 1 values."));
+    }
+
+    public void testMissingObject() {
+        List<String> differences = OpenIdmConnector.jsonMatches(parse("{\"a\": {\"b\": \"c\"}}"), parse("{}"));
+        assertEquals(1, differences.size());
+        assertEquals("'.a' attribute mismatch: expected an object {\"b\":\"c\"} but was null", differences.get(0));
+    }
+
+    public void testLargeArrays() {
+        int[] sizes = {1000, 10000};
+        for (int size : sizes) {
+            JsonArray expectedRoles = new JsonArray();
+            JsonArray actualRoles = new JsonArray();
+            JsonArray expectedNames = new JsonArray();
+            JsonArray actualNames = new JsonArray();
+            for (int i = 0; i < size; i++) {
+                JsonObject expectedRole = new JsonObject();
+                expectedRole.addProperty("_ref", "managed/role/" + i);
+                expectedRoles.add(expectedRole);
+                JsonObject actualRole = new JsonObject();
+                actualRole.addProperty("_ref", "managed/role/" + (size - 1 - i));
+                actualRole.addProperty("_id", Integer.toString(i));
+                actualRoles.add(actualRole);
+                expectedNames.add(parse("\"name" + i + "\""));
+                actualNames.add(parse("\"name" + (size - 1 - i) + "\""));
+            }
+            JsonObject expected = new JsonObject();
+            expected.add("effectiveRoles", expectedRoles);
+            expected.add("names", expectedNames);
+            JsonObject actual = new JsonObject();
+            actual.add("effectiveRoles", actualRoles);
+            actual.add("names", actualNames);
+
+            long start = System.nanoTime();
+            assertEquals(0, OpenIdmConnector.jsonExactMatches(expected, actual).size());
+            System.out.println(size + " items matched in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+            actualNames.set(0, parse("\"other\""));
+            assertEquals(1, OpenIdmConnector.jsonMatches(expected, actual).size());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import org.idmunit.IdMUnitException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pull parser for PowerShell CLIXML output that returns one top level object at a time, so the
+ * memory used does not depend on how many objects a command returns.
+ * <p>
+ * An <code>Obj</code> element is returned as a map of its <code>Props</code> by name. Any other top
+ * level element (a primitive such as <code>S</code> or <code>I32</code>) is returned as a map with the
+ * single key <code>output</code>.
+ */
+class CliXmlReader {
+    static final String PREAMBLE = "#< CLIXML";
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final XMLStreamReader reader;
+    private boolean done = false;
+
+    CliXmlReader(Reader output) throws IdMUnitException {
+        PushbackReader in = new PushbackReader(new BufferedReader(output));
+        try {
+            skipPreamble(in);
+            reader = FACTORY.createXMLStreamReader(in);
+            if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !"Objs".equals(reader.getLocalName())) {
+                throw new IdMUnitException("Expected CLIXML root element 'Objs'.");
+            }
+        } catch (IOException e) {
+            throw new IdMUnitException("Error reading results.", e);
+        } catch (XMLStreamException e) {
+            throw new IdMUnitException("Error parsing results.", e);
+        }
+    }
+
+    /**
+     * @return the next object's values, or null when there are no more objects
+     */
+    Map<String, String> next() throws IdMUnitException {
+        if (done) {
+            return null;
+        }
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    Map<String, String> values = new HashMap<String, String>();
+                    if ("Obj".equals(reader.getLocalName())) {
+                        readObj(values);
+                    } else {
+                        values.put("output", readText());
+                    }
+                    return values;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    // end of Objs; anything after it is not part of this document
+                    break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IdMUnitException("Error parsing results.", e);
+        }
+        done = true;
+        return null;
+    }
+
+    private void readObj(Map<String, String> values) throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("Props".equals(reader.getLocalName())) {
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getAttributeValue(null, "N");
+                    String value = readText();
+                    if (name != null) {
+                        values.put(name, value);
+                    }
+                }
+            } else {
+                readText();
+            }
+        }
+    }
+
+    /**
+     * Returns the text of the current element and all of its descendants and leaves the reader on the
+     * element's end tag.
+     */
+    private String readText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return text.toString();
+    }
+
+    /* From Microsoft Command Line Standard
+     * (http://technet.microsoft.com/en-us/library/ee156811.aspx)
+     *
+     * Schema enhanced data streams start with a Preamble indicated by the
+     * character sequence "#< " followed by the name of the data schema in
+     * use (e.g. CliXml, TCSV, etc). The preamble can optionally continue
+     * with multiple lines of the format "# NAME VALUE". These lines can
+     * provide additional information about the data such as when, where,
+     * and by whom it was created. The preamble is terminated with a blank
+     * line and followed by the body.
+     */
+    private static void skipPreamble(PushbackReader in) throws IOException, IdMUnitException {
+        String line;
+        do {
+            line = readLine(in);
+            if (line == null) {
+                throw new IdMUnitException("Output missing the preamble \"" + PREAMBLE + "\".");
+            }
+        } while (!line.startsWith(PREAMBLE));
+
+        while (true) {
+            int c = in.read();
+            if (c == '#') {
+                readLine(in);
+            } else if (c != '\r' && c != '\n') {
+                if (c != -1) {
+                    in.unread(c);
+                }
+                break;
+            }
+        }
+    }
+
+    private static String readLine(Reader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            if (c != '\r') {
+                line.append((char)c);
+            }
+        }
+        return line.toString();
+    }
+}
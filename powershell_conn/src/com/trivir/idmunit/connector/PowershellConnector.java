@@ -38,7 +38,10 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class PowershellConnector extends AbstractConnector {
     private static Logger log = LoggerFactory.getLogger(PowershellConnector.class);
@@ -54,6 +57,8 @@ public class PowershellConnector extends AbstractConnector {
     private String powershellPath;
     private int timeout = 60 * 1000;
     private String psConsoleFile = null;
+    private String executable = "powershell.exe";
+    private PowershellHost host = null;
 
 
     private static String arrayToString(String[] s, String delimeter) {
@@ -85,6 +90,23 @@ public class PowershellConnector extends AbstractConnector {
         }
 
         psConsoleFile = config.get("ps-console-file");
+
+        String executableParam = config.get("executable");
+        if (executableParam != null) {
+            executable = executableParam;
+        }
+
+        if (Boolean.parseBoolean(config.get("persistent-host"))) {
+            host = new PowershellHost(getCommandLine());
+            host.start();
+        }
+    }
+
+    public void tearDown() throws IdMUnitException {
+        if (host != null) {
+            host.close();
+            host = null;
+        }
     }
 
     public void opExec(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -98,168 +120,154 @@ public class PowershellConnector extends AbstractConnector {
         }
     }
 
+    /**
+     * Validates the objects a command writes to its output. By default exactly one object must be
+     * returned. The optional <code>match-objects</code> column changes this to <code>any</code> (at least
+     * one object has the expected values) or <code>all</code> (every object has the expected values), and
+     * <code>object-count</code> is a regular expression the number of returned objects must match.
+     * The output is parsed as it is produced, so commands that return many objects do not need to be
+     * held in memory.
+     */
     public void opValidate(Map<String, Collection<String>> expectedValues) throws IdMUnitFailureException, IdMUnitException {
         String command = ConnectorUtil.getSingleValue(expectedValues, "exec");
-        ExecResults results = exec(command);
+        final ObjectValidator validator = new ObjectValidator(expectedValues);
+        ExecResults results = exec(command, new OutputHandler() {
+            public void handle(Reader stdout) throws IdMUnitException {
+                CliXmlReader objects = new CliXmlReader(stdout);
+                Map<String, String> actualValues;
+                while ((actualValues = objects.next()) != null) {
+                    validator.accept(actualValues);
+                }
+            }
+        });
         System.out.println("error code: " + results.errorCode);
-        log.debug("stdout: " + results.stdout);
         log.debug("stderr: " + results.stderr);
 
         if (results.errorCode != 0) {
             throw new IdMUnitException("Error executing command/script: " + parseErrorMessage(results.stderr));
         }
-
-        /* From Microsoft Command Line Standard
-         * (http://technet.microsoft.com/en-us/library/ee156811.aspx)
-         *
-         * Schema enhanced data streams start with a Preamble indicated by the
-         * character sequence "#< " followed by the name of the data schema in
-         * use (e.g. CliXml, TCSV, etc). The preamble can optionally continue
-         * with multiple lines of the format "# NAME VALUE". These lines can
-         * provide additional information about the data such as when, where,
-         * and by whom it was created. The preamble is terminated with a blank
-         * line and followed by the body.
-         */
-        int xmlStart = results.stdout.indexOf("#< CLIXML\r\n");
-        if (xmlStart == -1) {
-            throw new IdMUnitException("Output missing the preamble \"#< CLIXML\".");
-        }
-
-        String output = results.stdout.substring(xmlStart + "#< CLIXML\r\n".length());
-        Document doc;
-        try {
-            Builder parser = new Builder();
-            doc = parser.build(output, null);
-        } catch (ParsingException e) {
-            throw new IdMUnitException("Error parsing results.", e);
-        } catch (IOException e) {
-            throw new IdMUnitException("Error reading results.", e);
+        if (results.handlerException != null) {
+            throw results.handlerException;
         }
 
-        Elements objs = doc.getRootElement().getChildElements();
-        if (objs.size() == 0) {
-            throw new IdMUnitFailureException("No objects returned from powershell command.");
-        } else if (objs.size() > 1) {
-            throw new IdMUnitFailureException("More than one (" + objs.size() + ") object returned from power shell command.");
-        }
+        validator.finish();
+    }
 
-        Map<String, String> actualValues = new HashMap<String, String>();
-        Element obj = objs.get(0);
-        if (obj.getQualifiedName().equals("Obj")) {
-            Elements props = obj.getFirstChildElement("Props", "http://schemas.microsoft.com/powershell/2004/04").getChildElements();
-            for (int i = 0; i < props.size(); ++i) {
-                Element prop = props.get(i);
-                actualValues.put(prop.getAttributeValue("N"), prop.getValue());
-            }
+    private String[] getCommandLine() {
+        if (psConsoleFile == null) {
+            return new String[]{powershellPath + executable, "-NoLogo", "-NoProfile", "-Noninteractive", "-OutputFormat", "XML", "-Command", "-"};
         } else {
-            actualValues.put("output", obj.getValue());
-        }
-
-        for (String name : expectedValues.keySet()) {
-            if ("exec".equals(name)) {
-                continue;
-            }
-
-            String expectedValue = ConnectorUtil.getSingleValue(expectedValues, name);
-            String actualValue = actualValues.get(name);
-
-            if (actualValue == null) {
-                throw new IdMUnitFailureException("The command output does not contain a value for '" + name + "'");
-            } else {
-                if (actualValue.matches(expectedValue) == false) {
-                    throw new IdMUnitFailureException("For '" + name + "' expected '" + expectedValue + "' but was '" + actualValue + "'.");
-                }
-            }
+            return new String[]{powershellPath + executable, "-PSConsoleFile", psConsoleFile, "-NoLogo", "-NoProfile", "-Noninteractive", "-OutputFormat", "XML", "-Command", "-"};
         }
     }
 
     private ExecResults exec(String command) throws IdMUnitException {
-        String[] cmdarray;
+        return exec(command, null);
+    }
 
-        if (psConsoleFile == null) {
-            cmdarray = new String[]{powershellPath + "powershell.exe", "-NoLogo", "-NoProfile", "-Noninteractive", "-OutputFormat", "XML", "-Command", "-"};
-        } else {
-            cmdarray = new String[]{powershellPath + "powershell.exe", "-PSConsoleFile", psConsoleFile, "-NoLogo", "-NoProfile", "-Noninteractive", "-OutputFormat", "XML", "-Command", "-"};
+    /**
+     * Runs a command. If <code>handler</code> is not null it is given the command's stdout as it is
+     * produced, otherwise stdout is collected into {@link ExecResults#stdout}.
+     */
+    private ExecResults exec(String command, OutputHandler handler) throws IdMUnitException {
+        if (host != null) {
+            return host.exec(command, timeout, handler);
         }
 
+        String[] cmdarray = getCommandLine();
+
         Process proc;
         try {
-            proc = Runtime.getRuntime().exec(cmdarray);
+            proc = new ProcessBuilder(cmdarray).start();
         } catch (IOException e) {
             throw new IdMUnitException("Error starting powershell.", e);
         }
 
+        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorBuffer = new ByteArrayOutputStream();
+        StreamPump stdoutPump = new StreamPump(proc.getInputStream(), outputBuffer, handler);
+        StreamPump stderrPump = new StreamPump(proc.getErrorStream(), errorBuffer, null);
+        stdoutPump.start();
+        stderrPump.start();
+
         OutputStreamWriter stdin = new OutputStreamWriter(proc.getOutputStream());
         try {
             stdin.write(command);
             stdin.close();
         } catch (IOException e) {
+            proc.destroy();
             throw new IdMUnitException("Error executing '" + arrayToString(cmdarray, " ") + "'.", e);
         }
 
-        InputStream stdout = proc.getInputStream();
-        InputStream stderr = proc.getErrorStream();
-
-        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
-        ByteArrayOutputStream errorBuffer = new ByteArrayOutputStream();
-
         int errorCode;
-        int processingTime = 0;
-        while (true) {
-            try {
-                errorCode = proc.exitValue();
-                break;
-            } catch (IllegalThreadStateException e) {
-                try {
-                    Thread.sleep(200);
-                } catch (InterruptedException ex) {
-                    //ignore exception
-                }
-                processingTime += 200;
+        try {
+            if (proc.waitFor(timeout, TimeUnit.MILLISECONDS) == false) {
+                proc.destroy();
+                throw new IdMUnitException("Timed out after " + timeout / 1000 + " seconds executing '" + arrayToString(cmdarray, " ") + "'.");
             }
+            errorCode = proc.exitValue();
+            stdoutPump.join();
+            stderrPump.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            proc.destroy();
+            throw new IdMUnitException("Interrupted while waiting for powershell.", e);
+        }
 
-            try {
-                while (stdout.available() > 0) {
-                    outputBuffer.write(stdout.read());
+        ExecResults results = new ExecResults();
+        results.errorCode = errorCode;
+        results.stdout = handler == null ? outputBuffer.toString() : null;
+        results.stderr = errorBuffer.toString();
+        results.handlerException = stdoutPump.exception;
+        return results;
+    }
+
+    /**
+     * Receives a command's stdout as it is produced.
+     */
+    interface OutputHandler {
+        void handle(Reader stdout) throws IdMUnitException;
+    }
+
+    /**
+     * Copies a process stream into a buffer, or passes it to a handler and then discards whatever the
+     * handler did not read so the process never blocks on a full pipe.
+     */
+    private static class StreamPump extends Thread {
+        private final InputStream in;
+        private final OutputStream out;
+        private final OutputHandler handler;
+        private IdMUnitException exception;
+
+        StreamPump(InputStream in, OutputStream out, OutputHandler handler) {
+            this.in = in;
+            this.out = out;
+            this.handler = handler;
+            setDaemon(true);
+        }
+
+        public void run() {
+            if (handler != null) {
+                try {
+                    handler.handle(new InputStreamReader(in));
+                } catch (IdMUnitException e) {
+                    exception = e;
+                } catch (RuntimeException e) {
+                    exception = new IdMUnitException("Error processing output.", e);
                 }
-            } catch (IOException e) {
-                //ignore exception
             }
-
+            byte[] buf = new byte[8192];
             try {
-                while (stderr.available() > 0) {
-                    errorBuffer.write(stderr.read());
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    if (handler == null) {
+                        out.write(buf, 0, len);
+                    }
                 }
             } catch (IOException e) {
                 //ignore exception
             }
-
-            if (processingTime > timeout) {
-                proc.destroy();
-            }
-        }
-
-        try {
-            while (stdout.available() > 0) {
-                outputBuffer.write(stdout.read());
-            }
-        } catch (IOException e) {
-            //ignore exception
         }
-
-        try {
-            while (stderr.available() > 0) {
-                errorBuffer.write(stderr.read());
-            }
-        } catch (IOException e) {
-            //ignore exception
-        }
-
-        ExecResults results = new ExecResults();
-        results.errorCode = errorCode;
-        results.stdout = outputBuffer.toString();
-        results.stderr = errorBuffer.toString();
-        return results;
     }
 
     private String parseErrorMessage(String stderr) throws IdMUnitException {
@@ -301,9 +309,97 @@ public class PowershellConnector extends AbstractConnector {
         return propsValues.get(errorCategoryMessage);
     }
 
-    private static class ExecResults {
+    /**
+     * Checks each object returned by a command against the expected values of a validate row.
+     */
+    private static class ObjectValidator {
+        private static final String MATCH_ONE = "one";
+        private static final String MATCH_ANY = "any";
+        private static final String MATCH_ALL = "all";
+
+        private final String mode;
+        private final Pattern expectedCount;
+        private final Map<String, Pattern> expectedValues = new LinkedHashMap<String, Pattern>();
+        private int count = 0;
+        private int matched = 0;
+        private String firstMismatch = null;
+
+        ObjectValidator(Map<String, Collection<String>> data) throws IdMUnitException {
+            String modeParam = ConnectorUtil.getSingleValue(data, "match-objects");
+            mode = modeParam == null ? MATCH_ONE : modeParam.toLowerCase();
+            if (!MATCH_ONE.equals(mode) && !MATCH_ANY.equals(mode) && !MATCH_ALL.equals(mode)) {
+                throw new IdMUnitException("Invalid value '" + modeParam + "' for 'match-objects'. Expected 'one', 'any' or 'all'.");
+            }
+
+            String countParam = ConnectorUtil.getSingleValue(data, "object-count");
+            expectedCount = countParam == null ? null : Pattern.compile(countParam);
+
+            for (String name : data.keySet()) {
+                if ("exec".equals(name) || "match-objects".equals(name) || "object-count".equals(name)) {
+                    continue;
+                }
+                expectedValues.put(name, Pattern.compile(ConnectorUtil.getSingleValue(data, name)));
+            }
+        }
+
+        void accept(Map<String, String> actualValues) throws IdMUnitFailureException {
+            count++;
+            if (MATCH_ONE.equals(mode) && count > 1) {
+                return;
+            }
+            if (MATCH_ANY.equals(mode) && matched > 0) {
+                return;
+            }
+
+            String mismatch = compare(actualValues);
+            if (mismatch == null) {
+                matched++;
+            } else if (MATCH_ALL.equals(mode)) {
+                throw new IdMUnitFailureException("Object " + count + ": " + mismatch);
+            } else if (firstMismatch == null) {
+                firstMismatch = mismatch;
+            }
+        }
+
+        void finish() throws IdMUnitFailureException {
+            if (expectedCount != null) {
+                if (expectedCount.matcher(Integer.toString(count)).matches() == false) {
+                    throw new IdMUnitFailureException("Expected the number of objects to match '" + expectedCount.pattern() + "' but was " + count + ".");
+                }
+            } else if (count == 0) {
+                throw new IdMUnitFailureException("No objects returned from powershell command.");
+            }
+
+            if (MATCH_ONE.equals(mode)) {
+                if (count > 1) {
+                    throw new IdMUnitFailureException("More than one (" + count + ") object returned from power shell command.");
+                }
+                if (firstMismatch != null) {
+                    throw new IdMUnitFailureException(firstMismatch);
+                }
+            } else if (MATCH_ANY.equals(mode) && matched == 0 && count > 0 && firstMismatch != null) {
+                throw new IdMUnitFailureException("None of the " + count + " objects matched. First object: " + firstMismatch);
+            }
+        }
+
+        private String compare(Map<String, String> actualValues) {
+            for (Map.Entry<String, Pattern> expected : expectedValues.entrySet()) {
+                String name = expected.getKey();
+                String actualValue = actualValues.get(name);
+                if (actualValue == null) {
+                    return "The command output does not contain a value for '" + name + "'";
+                } else if (expected.getValue().matcher(actualValue).matches() == false) {
+                    return "For '" + name + "' expected '" + expected.getValue().pattern() + "' but was '" + actualValue + "'.";
+                }
+            }
+            return null;
+        }
+    }
+
+    static class ExecResults {
         int errorCode;
         String stdout;
         String stderr;
+        IdMUnitException handlerException;
     }
 }
@@ -0,0 +1,263 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import org.idmunit.IdMUnitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived PowerShell process that commands are streamed to over stdin.
+ * <p>
+ * Each command is followed by a marker statement that writes a unique end-of-command line to both stdout
+ * and stderr, carrying the success status of the command on stdout. stdout and stderr are read on their
+ * own threads, so a command completes as soon as its markers arrive. If the process dies or a command
+ * does not complete within the timeout, the process is killed and a new one is started for the next
+ * command.
+ */
+class PowershellHost {
+    static final String END_MARKER = "##IDMUNIT-END ";
+
+    private static Logger log = LoggerFactory.getLogger(PowershellHost.class);
+    private static final String EOF = new String("EOF");
+
+    private final List<String> cmdarray;
+    private Process proc;
+    private Writer stdin;
+    private BlockingQueue<String> stdoutLines;
+    private BlockingQueue<String> stderrLines;
+
+    PowershellHost(String[] cmdarray) {
+        this.cmdarray = Arrays.asList(cmdarray);
+    }
+
+    synchronized void start() throws IdMUnitException {
+        try {
+            proc = new ProcessBuilder(cmdarray).start();
+        } catch (IOException e) {
+            throw new IdMUnitException("Error starting powershell.", e);
+        }
+        stdin = new BufferedWriter(new OutputStreamWriter(proc.getOutputStream()));
+        stdoutLines = new LinkedBlockingQueue<String>();
+        stderrLines = new LinkedBlockingQueue<String>();
+        startReader(proc.getInputStream(), stdoutLines, "stdout");
+        startReader(proc.getErrorStream(), stderrLines, "stderr");
+    }
+
+    synchronized void close() {
+        if (proc == null) {
+            return;
+        }
+        try {
+            stdin.write("exit\n");
+            stdin.flush();
+            stdin.close();
+            if (!proc.waitFor(5, TimeUnit.SECONDS)) {
+                proc.destroy();
+            }
+        } catch (IOException e) {
+            proc.destroy();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            proc.destroy();
+        }
+        proc = null;
+    }
+
+    synchronized PowershellConnector.ExecResults exec(String command, long timeoutMillis, PowershellConnector.OutputHandler handler) throws IdMUnitException {
+        if (proc == null || !proc.isAlive()) {
+            log.info("Starting powershell host process.");
+            close();
+            start();
+        }
+
+        String token = UUID.randomUUID().toString();
+        String marker = END_MARKER + token;
+        try {
+            stdin.write(command);
+            // A blank line completes any multi-line statement before the marker is run.
+            stdin.write("\n\n");
+            stdin.write("[Console]::Out.WriteLine('" + marker + " ' + [int](-not $?)); [Console]::Error.WriteLine('" + marker + "')\n");
+            stdin.flush();
+        } catch (IOException e) {
+            restart();
+            throw new IdMUnitException("Error sending command to the powershell host.", e);
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        PowershellConnector.ExecResults results = new PowershellConnector.ExecResults();
+        CommandOutput stdout = new CommandOutput(stdoutLines, marker, deadline);
+        if (handler != null) {
+            try {
+                handler.handle(stdout);
+            } catch (IdMUnitException e) {
+                results.handlerException = e;
+            } catch (RuntimeException e) {
+                results.handlerException = new IdMUnitException("Error processing output.", e);
+            }
+        }
+        String remaining = stdout.drain();
+        results.stdout = handler == null ? remaining : null;
+        checkFailure(stdout);
+
+        CommandOutput stderr = new CommandOutput(stderrLines, marker, deadline);
+        results.stderr = stderr.drain();
+        checkFailure(stderr);
+
+        try {
+            results.errorCode = Integer.parseInt(stdout.endLine.substring(marker.length()).trim());
+        } catch (NumberFormatException e) {
+            results.errorCode = 1;
+        }
+        return results;
+    }
+
+    private void checkFailure(CommandOutput output) throws IdMUnitException {
+        if (output.failure != null) {
+            restart();
+            throw output.failure;
+        }
+    }
+
+    private void restart() throws IdMUnitException {
+        if (proc != null) {
+            proc.destroy();
+            proc = null;
+        }
+        start();
+    }
+
+    /**
+     * The lines of one stream up to the end-of-command marker, as a Reader.
+     */
+    private static class CommandOutput extends Reader {
+        private final BlockingQueue<String> lines;
+        private final String marker;
+        private final long deadline;
+        private String current = "";
+        private int pos = 0;
+        private boolean ended = false;
+        String endLine;
+        IdMUnitException failure;
+
+        CommandOutput(BlockingQueue<String> lines, String marker, long deadline) {
+            this.lines = lines;
+            this.marker = marker;
+            this.deadline = deadline;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (pos == current.length()) {
+                if (ended || !nextLine()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length() - pos);
+            current.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        public void close() {
+        }
+
+        /**
+         * Reads the remaining output up to the marker.
+         */
+        String drain() {
+            StringBuilder output = new StringBuilder(current.substring(pos));
+            pos = current.length();
+            while (!ended && nextLine()) {
+                output.append(current);
+                pos = current.length();
+            }
+            return output.toString();
+        }
+
+        private boolean nextLine() {
+            String line;
+            try {
+                line = lines.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return fail(new IdMUnitException("Interrupted while waiting for the powershell host.", e));
+            }
+            if (line == null) {
+                return fail(new IdMUnitException("Timed out waiting for the powershell host; the host has been restarted."));
+            }
+            if (line == EOF) {
+                return fail(new IdMUnitException("The powershell host exited unexpectedly; the host has been restarted."));
+            }
+            if (line.startsWith(marker)) {
+                endLine = line;
+                ended = true;
+                return false;
+            }
+            current = line + "\r\n";
+            pos = 0;
+            return true;
+        }
+
+        private boolean fail(IdMUnitException e) {
+            failure = e;
+            ended = true;
+            return false;
+        }
+    }
+
+    private static void startReader(final InputStream in, final BlockingQueue<String> lines, String name) {
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                BufferedReader r = new BufferedReader(new InputStreamReader(in));
+                try {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        lines.add(line);
+                    }
+                } catch (IOException e) {
+                    //stream closed when the process was destroyed
+                } finally {
+                    lines.add(EOF);
+                }
+            }
+        }, "powershell-host-" + name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+public class CliXmlReaderTests extends TestCase {
+    private static final String NS = "http://schemas.microsoft.com/powershell/2004/04";
+
+    public void testPrimitiveAndObject() throws IdMUnitException {
+        CliXmlReader reader = new CliXmlReader(new StringReader(
+            "#< CLIXML\r\n<Objs Version=\"1.1.0.1\" xmlns=\"" + NS + "\"><S>test</S>" +
+            "<Obj RefId=\"0\"><TN RefId=\"0\"><T>System.Object</T></TN><ToString>x</ToString>" +
+            "<Props><S N=\"Name\">ConsoleHost</S><Obj N=\"Version\" RefId=\"1\"><ToString>5.1</ToString></Obj><Nil N=\"Empty\" /></Props></Obj></Objs>"));
+
+        Map<String, String> values = reader.next();
+        assertEquals("test", values.get("output"));
+
+        values = reader.next();
+        assertEquals("ConsoleHost", values.get("Name"));
+        assertEquals("5.1", values.get("Version"));
+        assertEquals("", values.get("Empty"));
+        assertNull(values.get("output"));
+
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    public void testPreambleHeaderLinesAndLeadingOutput() throws IdMUnitException {
+        CliXmlReader reader = new CliXmlReader(new StringReader(
+            "WARNING: something\n#< CLIXML\n# Created 2018-01-01\n\n<Objs xmlns=\"" + NS + "\"><I32>42</I32></Objs>\n"));
+        assertEquals("42", reader.next().get("output"));
+        assertNull(reader.next());
+    }
+
+    public void testMissingPreamble() {
+        try {
+            new CliXmlReader(new StringReader("<Objs xmlns=\"" + NS + "\"/>"));
+            fail("Expected an IdMUnitException to be thrown");
+        } catch (IdMUnitException e) {
+            // success
+        }
+    }
+
+    public void testStreamsLargeOutput() throws IdMUnitException {
+        final int objects = 200000;
+        CliXmlReader reader = new CliXmlReader(new GeneratingReader(objects));
+        int count = 0;
+        Map<String, String> values;
+        while ((values = reader.next()) != null) {
+            assertEquals("user" + count, values.get("Name"));
+            count++;
+        }
+        assertEquals(objects, count);
+    }
+
+    /**
+     * Produces CLIXML for a number of objects on demand without ever holding the whole document.
+     */
+    private static class GeneratingReader extends Reader {
+        private final int objects;
+        private int next = -1;
+        private String chunk = "";
+        private int pos = 0;
+
+        GeneratingReader(int objects) {
+            this.objects = objects;
+        }
+
+        public int read(char[] cbuf, int off, int len) {
+            if (pos == chunk.length()) {
+                if (next > objects) {
+                    return -1;
+                } else if (next == -1) {
+                    chunk = "#< CLIXML\r\n<Objs Version=\"1.1.0.1\" xmlns=\"" + NS + "\">";
+                } else if (next == objects) {
+                    chunk = "</Objs>";
+                } else {
+                    chunk = "<Obj RefId=\"" + next + "\"><Props><S N=\"Name\">user" + next + "</S></Props></Obj>";
+                }
+                next++;
+                pos = 0;
+            }
+            int n = Math.min(len, chunk.length() - pos);
+            chunk.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        public void close() {
+        }
+    }
+}
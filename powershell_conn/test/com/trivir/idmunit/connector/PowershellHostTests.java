@@ -0,0 +1,228 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+import org.idmunit.IdMUnitFailureException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Runs the connector against a stub shell script that answers a few commands with CLIXML the way
+ * powershell.exe -OutputFormat XML does, so these tests do not need Windows.
+ */
+public class PowershellHostTests extends TestCase {
+    private static final String STUB_SCRIPT =
+        "#!/bin/sh\n" +
+        "echo started >> \"$(dirname \"$0\")/starts.log\"\n" +
+        "NS='http://schemas.microsoft.com/powershell/2004/04'\n" +
+        "status=0\n" +
+        "while IFS= read -r line || [ -n \"$line\" ]; do\n" +
+        "  case \"$line\" in\n" +
+        "    *'##IDMUNIT-END '*)\n" +
+        "      token=$(printf '%s' \"$line\" | sed \"s/.*##IDMUNIT-END \\([^ ']*\\).*/\\1/\")\n" +
+        "      printf '##IDMUNIT-END %s %s\\r\\n' \"$token\" \"$status\"\n" +
+        "      printf '##IDMUNIT-END %s\\r\\n' \"$token\" >&2 ;;\n" +
+        "    '') ;;\n" +
+        "    'echo \"test\"')\n" +
+        "      printf '#< CLIXML\\r\\n<Objs Version=\"1.1.0.1\" xmlns=\"%s\"><S>test</S></Objs>\\r\\n' \"$NS\"; status=0 ;;\n" +
+        "    'Get-Host')\n" +
+        "      printf '#< CLIXML\\r\\n<Objs Version=\"1.1.0.1\" xmlns=\"%s\"><Obj RefId=\"0\"><Props><S N=\"Name\">ConsoleHost</S><Version N=\"Version\">5.1</Version></Props></Obj></Objs>\\r\\n' \"$NS\"; status=0 ;;\n" +
+        "    'Get-ADUser -Filter *')\n" +
+        "      printf '#< CLIXML\\r\\n<Objs Version=\"1.1.0.1\" xmlns=\"%s\">' \"$NS\"\n" +
+        "      for i in 1 2 3; do printf '<Obj RefId=\"%s\"><TN RefId=\"0\"><T>Microsoft.ActiveDirectory.Management.ADUser</T></TN><Props><S N=\"Name\">user%s</S><B N=\"Enabled\">true</B></Props></Obj>' \"$i\" \"$i\"; done\n" +
+        "      printf '</Objs>\\r\\n'; status=0 ;;\n" +
+        "    'Start-Sleep'*) sleep 5 ;;\n" +
+        "    'exit') exit 1 ;;\n" +
+        "    *)\n" +
+        "      printf '#< CLIXML\\r\\n<Objs Version=\"1.1.0.1\" xmlns=\"%s\"><Obj S=\"error\" RefId=\"0\"><MS><S N=\"ErrorCategory_Message\">ObjectNotFound: (%s:String) [], CommandNotFoundException</S></MS></Obj></Objs>\\r\\n' \"$NS\" \"$line\" >&2\n" +
+        "      status=1 ;;\n" +
+        "  esac\n" +
+        "done\n" +
+        "exit $status\n";
+
+    private File stubDir;
+    private PowershellConnector conn;
+
+    private static void addSingleValue(Map<String, Collection<String>> data, String name, String value) {
+        List<String> values = new ArrayList<String>();
+        values.add(value);
+        data.put(name, values);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        stubDir = Files.createTempDirectory("pshost").toFile();
+        File stub = new File(stubDir, "stub-powershell.sh");
+        Writer w = new FileWriter(stub);
+        try {
+            w.write(STUB_SCRIPT);
+        } finally {
+            w.close();
+        }
+        stub.setExecutable(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (conn != null) {
+            conn.tearDown();
+        }
+        for (File f : stubDir.listFiles()) {
+            f.delete();
+        }
+        stubDir.delete();
+    }
+
+    private void setupConnector(boolean persistent) throws IdMUnitException {
+        conn = new PowershellConnector();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("path", stubDir.getAbsolutePath());
+        config.put("executable", "stub-powershell.sh");
+        config.put("timeout", "1");
+        config.put("persistent-host", Boolean.toString(persistent));
+        conn.setup(config);
+    }
+
+    private int hostStarts() throws IOException {
+        File log = new File(stubDir, "starts.log");
+        return log.exists() ? Files.readAllLines(log.toPath()).size() : 0;
+    }
+
+    private void exec(String command) throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, "exec", command);
+        conn.execute("exec", data);
+    }
+
+    private void validate(String command, String name, String expected) throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, "exec", command);
+        addSingleValue(data, name, expected);
+        conn.execute("validate", data);
+    }
+
+    private void validateUsers(String... nameValuePairs) throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, "exec", "Get-ADUser -Filter *");
+        for (int i = 0; i < nameValuePairs.length; i += 2) {
+            addSingleValue(data, nameValuePairs[i], nameValuePairs[i + 1]);
+        }
+        conn.execute("validate", data);
+    }
+
+    private void assertValidateUsersFails(String... nameValuePairs) throws IdMUnitException {
+        try {
+            validateUsers(nameValuePairs);
+            fail("Expected an IdMUnitFailureException to be thrown");
+        } catch (IdMUnitFailureException e) {
+            // success
+        }
+    }
+
+    private void multipleObjectValidation() throws IdMUnitException {
+        assertValidateUsersFails("Name", "user1");
+        validateUsers("match-objects", "any", "Name", "user2");
+        assertValidateUsersFails("match-objects", "any", "Name", "user4");
+        validateUsers("match-objects", "all", "Name", "user[0-9]", "Enabled", "true");
+        assertValidateUsersFails("match-objects", "all", "Name", "user1");
+        validateUsers("match-objects", "all", "object-count", "3");
+        assertValidateUsersFails("match-objects", "all", "object-count", "[4-9]");
+    }
+
+    public void testValidateMultipleObjects() throws Exception {
+        setupConnector(false);
+        multipleObjectValidation();
+    }
+
+    public void testValidateMultipleObjectsPersistentHost() throws Exception {
+        setupConnector(true);
+        multipleObjectValidation();
+        validate("Get-Host", "Name", "ConsoleHost");
+        assertEquals(1, hostStarts());
+    }
+
+    public void testSingleProcessMode() throws Exception {
+        setupConnector(false);
+        exec("echo \"test\"");
+        validate("Get-Host", "Name", "ConsoleHost");
+        assertEquals(2, hostStarts());
+    }
+
+    public void testPersistentHostIsReused() throws Exception {
+        setupConnector(true);
+        for (int i = 0; i < 5; i++) {
+            exec("echo \"test\"");
+            validate("echo \"test\"", "output", "tes.?");
+            validate("Get-Host", "Name", "ConsoleHost");
+        }
+        assertEquals(1, hostStarts());
+    }
+
+    public void testPersistentHostReportsErrors() throws Exception {
+        setupConnector(true);
+        try {
+            exec("asdff -");
+            fail("Expected an IdMUnitException to be thrown");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CommandNotFoundException"));
+        }
+        exec("echo \"test\"");
+        assertEquals(1, hostStarts());
+    }
+
+    public void testPersistentHostRestartsAfterHang() throws Exception {
+        setupConnector(true);
+        try {
+            exec("Start-Sleep 30");
+            fail("Expected the command to time out");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Timed out"));
+        }
+        validate("Get-Host", "Name", "ConsoleHost");
+        assertEquals(2, hostStarts());
+    }
+
+    public void testPersistentHostRestartsAfterCrash() throws Exception {
+        setupConnector(true);
+        try {
+            exec("exit");
+            fail("Expected the host exit to be reported");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exited unexpectedly"));
+        }
+        validate("Get-Host", "Name", "ConsoleHost");
+        assertEquals(2, hostStarts());
+    }
+}
@@ -32,9 +32,34 @@ import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Starts the remote connector server.
+ * <p>
+ * Usage: <code>IdMUnitServer [workerThreads] [idleTimeoutMinutes]</code>
+ */
 public class IdMUnitServer {
     public static void main(String[] args) {
+        int workerThreads = RemoteConnectorImpl.DEFAULT_WORKER_THREADS;
+        long idleTimeoutMillis = RemoteConnectorImpl.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        try {
+            if (args.length > 0) {
+                workerThreads = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                idleTimeoutMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(args[1]));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: IdMUnitServer [workerThreads] [idleTimeoutMinutes]");
+            return;
+        }
+        if (workerThreads < 1 || idleTimeoutMillis <= 0) {
+            System.out.println("workerThreads and idleTimeoutMinutes must be at least 1.");
+            System.out.println("Usage: IdMUnitServer [workerThreads] [idleTimeoutMinutes]");
+            return;
+        }
+
         try {
             LocateRegistry.createRegistry(1099);
         } catch (RemoteException e) {
@@ -42,7 +67,7 @@ public class IdMUnitServer {
             e.printStackTrace();
         }
         try {
-            RemoteConnectorImpl conn = new RemoteConnectorImpl();
+            RemoteConnectorImpl conn = new RemoteConnectorImpl(workerThreads, idleTimeoutMillis);
             Naming.rebind("rmi://localhost:1099/IdMUnitConnectorService", conn);
         } catch (RemoteException e) {
             System.out.println("Trouble: " + e);
@@ -36,9 +36,16 @@ import java.util.Collection;
 import java.util.Map;
 
 public interface RemoteConnector extends Remote {
-    void setup(Map<String, String> config) throws IdMUnitException, RemoteException;
+    /**
+     * Creates a new connector instance on the server for the calling client.
+     *
+     * @return a handle that identifies the session in subsequent calls
+     */
+    String openSession(Map<String, String> config) throws IdMUnitException, RemoteException;
 
-    void tearDown() throws IdMUnitException, RemoteException;
+    void closeSession(String sessionId) throws IdMUnitException, RemoteException;
 
-    void execute(String operation, Map<String, Collection<String>> data) throws IdMUnitException, RemoteException;
+    void execute(String sessionId, String operation, Map<String, Collection<String>> data) throws IdMUnitException, RemoteException;
+
+    Map<String, Long> getSessionMetrics(String sessionId) throws IdMUnitException, RemoteException;
 }
@@ -33,22 +33,78 @@ import org.idmunit.connector.Connector;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Server side of the remote connector. Every client that calls {@link #openSession(Map)} gets its own
+ * connector instance, so several IdMUnit runners can share one server without overwriting each other's
+ * connector. Operations are executed on a bounded worker pool and sessions that have been idle longer
+ * than the configured timeout are torn down automatically.
+ */
 public class RemoteConnectorImpl extends UnicastRemoteObject implements RemoteConnector {
+    static final int DEFAULT_WORKER_THREADS = 8;
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
     private static final long serialVersionUID = -143273425954312728L;
-    Connector conn = null;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    // Guards looking up a session and marking it busy against the reaper removing it.
+    private final transient Object sessionLock = new Object();
+    private final transient ExecutorService workers;
+    private final transient ScheduledExecutorService reaper;
+    private final long idleTimeoutMillis;
 
     public RemoteConnectorImpl() throws RemoteException {
+        this(DEFAULT_WORKER_THREADS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public RemoteConnectorImpl(int workerThreads, long idleTimeoutMillis) throws RemoteException {
         super();
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be at least 1");
+        }
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must be greater than 0");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.workers = Executors.newFixedThreadPool(workerThreads, new DaemonThreadFactory("idmunit-remote-worker"));
+        this.reaper = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("idmunit-remote-reaper"));
+
+        long reapInterval = Math.max(idleTimeoutMillis / 2, 10);
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reapIdleSessions();
+            }
+        }, reapInterval, reapInterval, TimeUnit.MILLISECONDS);
     }
 
-    public void setup(Map<String, String> config) throws IdMUnitException {
+    public String openSession(Map<String, String> config) throws IdMUnitException {
         String type = config.get("remote-type");
+        if (type == null) {
+            throw new IdMUnitException("No 'remote-type' specified in configuration.");
+        }
+
+        Connector conn;
         try {
             conn = (Connector)Class.forName(type).newInstance();
-            conn.setup(config);
         } catch (InstantiationException e) {
             throw new IdMUnitException(e);
         } catch (IllegalAccessException e) {
@@ -56,14 +112,210 @@ public class RemoteConnectorImpl extends UnicastRemoteObject implements RemoteCo
         } catch (ClassNotFoundException e) {
             throw new IdMUnitException(e);
         }
+
+        final Session session = new Session(UUID.randomUUID().toString(), conn);
+        final Map<String, String> sessionConfig = config;
+        session.activeCalls.incrementAndGet();
+        submit(session, new Callable<Void>() {
+            public Void call() throws IdMUnitException {
+                session.conn.setup(sessionConfig);
+                return null;
+            }
+        });
+        sessions.put(session.id, session);
+        return session.id;
     }
 
-    public void tearDown() throws IdMUnitException {
-        conn.tearDown();
+    public void closeSession(String sessionId) throws IdMUnitException {
+        final Session session = sessions.remove(sessionId);
+        if (session == null) {
+            throw new IdMUnitException("Unknown or expired session '" + sessionId + "'.");
+        }
+        session.activeCalls.incrementAndGet();
+        submit(session, new Callable<Void>() {
+            public Void call() throws IdMUnitException {
+                session.conn.tearDown();
+                return null;
+            }
+        });
     }
 
-    public void execute(String operation, Map<String, Collection<String>> data) throws IdMUnitException {
-        conn.execute(operation, data);
+    public void execute(String sessionId, final String operation, final Map<String, Collection<String>> data) throws IdMUnitException {
+        final Session session = acquireSession(sessionId);
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            submit(session, new Callable<Void>() {
+                public Void call() throws IdMUnitException {
+                    session.conn.execute(operation, data);
+                    return null;
+                }
+            });
+            failed = false;
+        } finally {
+            session.recordExecution(System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    public Map<String, Long> getSessionMetrics(String sessionId) throws IdMUnitException {
+        Session session = acquireSession(sessionId);
+        try {
+            return session.getMetrics();
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * Tears down every open session and stops the worker and reaper threads.
+     */
+    public void shutdown() {
+        reaper.shutdownNow();
+        for (Iterator<Session> i = sessions.values().iterator(); i.hasNext();) {
+            Session session = i.next();
+            i.remove();
+            tearDownQuietly(session);
+        }
+        workers.shutdown();
+    }
+
+    int getSessionCount() {
+        return sessions.size();
+    }
+
+    void reapIdleSessions() {
+        List<Session> idle = new ArrayList<Session>();
+        synchronized (sessionLock) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Session> i = sessions.values().iterator(); i.hasNext();) {
+                Session session = i.next();
+                if (session.activeCalls.get() == 0 && now - session.lastUsed > idleTimeoutMillis) {
+                    i.remove();
+                    idle.add(session);
+                }
+            }
+        }
+        for (Session session : idle) {
+            tearDownQuietly(session);
+        }
     }
 
+    /**
+     * Looks up a session and marks it busy, so the reaper cannot tear it down before the caller is done with
+     * it. Every call must be paired with {@link #releaseSession(Session)}, which {@link #submit} does.
+     */
+    Session acquireSession(String sessionId) throws IdMUnitException {
+        synchronized (sessionLock) {
+            Session session = sessionId == null ? null : sessions.get(sessionId);
+            if (session == null) {
+                throw new IdMUnitException("Unknown or expired session '" + sessionId + "'.");
+            }
+            session.activeCalls.incrementAndGet();
+            session.lastUsed = System.currentTimeMillis();
+            return session;
+        }
+    }
+
+    void releaseSession(Session session) {
+        session.lastUsed = System.currentTimeMillis();
+        session.activeCalls.decrementAndGet();
+    }
+
+    /**
+     * Runs task on a worker thread and releases the session, which the caller has already marked busy.
+     * Connectors are not thread safe, so calls within one session are serialized. The caller waits for the
+     * session's earlier calls before a worker is taken, so a client sending concurrent calls on its session
+     * holds at most one worker and cannot hold up other sessions.
+     */
+    private void submit(final Session session, final Callable<Void> task) throws IdMUnitException {
+        try {
+            session.callLock.lockInterruptibly();
+            try {
+                workers.submit(task).get();
+            } finally {
+                session.callLock.unlock();
+            }
+        } catch (RejectedExecutionException e) {
+            throw new IdMUnitException("The remote connector server is shutting down.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdMUnitException("Interrupted while waiting for the remote connector.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IdMUnitException) {
+                throw (IdMUnitException)cause;
+            }
+            throw new IdMUnitException(cause);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    private static void tearDownQuietly(Session session) {
+        session.callLock.lock();
+        try {
+            session.conn.tearDown();
+        } catch (Exception e) {
+            System.out.println("Error tearing down session '" + session.id + "': " + e);
+        } finally {
+            session.callLock.unlock();
+        }
+    }
+
+    static class Session {
+        final String id;
+        final Connector conn;
+        final long created = System.currentTimeMillis();
+        final AtomicInteger activeCalls = new AtomicInteger();
+        // Held by the caller for the whole of each call, including while its task waits for a worker
+        final ReentrantLock callLock = new ReentrantLock(true);
+        final AtomicLong executions = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong totalMillis = new AtomicLong();
+        final AtomicLong maxMillis = new AtomicLong();
+        volatile long lastUsed = created;
+
+        Session(String id, Connector conn) {
+            this.id = id;
+            this.conn = conn;
+        }
+
+        void recordExecution(long elapsed, boolean failed) {
+            executions.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            totalMillis.addAndGet(elapsed);
+            long max;
+            do {
+                max = maxMillis.get();
+            } while (elapsed > max && !maxMillis.compareAndSet(max, elapsed));
+        }
+
+        Map<String, Long> getMetrics() {
+            Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+            metrics.put("executions", executions.get());
+            metrics.put("failures", failures.get());
+            metrics.put("totalExecutionMillis", totalMillis.get());
+            metrics.put("maxExecutionMillis", maxMillis.get());
+            metrics.put("createdMillis", created);
+            metrics.put("idleMillis", System.currentTimeMillis() - lastUsed);
+            return metrics;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
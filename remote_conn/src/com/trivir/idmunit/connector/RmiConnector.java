@@ -41,6 +41,7 @@ import java.util.Map;
 
 public class RmiConnector implements Connector {
     RemoteConnector conn = null;
+    String sessionId = null;
 
     public void setup(Map<String, String> config) throws IdMUnitException {
         if (config.get("remote-type") == null) {
@@ -62,7 +63,7 @@ public class RmiConnector implements Connector {
         remoteConfig.remove("rmi-server");
 
         try {
-            conn.setup(remoteConfig);
+            sessionId = conn.openSession(remoteConfig);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -72,7 +73,7 @@ public class RmiConnector implements Connector {
 
     public void tearDown() throws IdMUnitException {
         try {
-            conn.tearDown();
+            conn.closeSession(sessionId);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -81,7 +82,7 @@ public class RmiConnector implements Connector {
 
     public void execute(String operation, Map<String, Collection<String>> data) throws IdMUnitException {
         try {
-            conn.execute(operation, data);
+            conn.execute(sessionId, operation, data);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
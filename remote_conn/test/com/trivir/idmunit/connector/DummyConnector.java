@@ -46,6 +46,14 @@ public class DummyConnector implements Connector {
     }
 
     public void execute(String operation, Map<String, Collection<String>> data) throws IdMUnitException {
+        if ("sleep".equals(operation)) {
+            try {
+                Thread.sleep(Long.parseLong(data.get("millis").iterator().next()));
+            } catch (InterruptedException e) {
+                throw new IdMUnitException("Interrupted", e);
+            }
+            return;
+        }
         if ("validateObject".equals(operation) == false) {
             throw new IdMUnitException("Operation '" + operation + "' not supported.");
         }
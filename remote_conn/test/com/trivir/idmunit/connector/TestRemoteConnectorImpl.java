@@ -0,0 +1,193 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TestRemoteConnectorImpl extends TestCase {
+    private RemoteConnectorImpl server;
+
+    private static Map<String, String> dummyConfig() {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("remote-type", "com.trivir.idmunit.connector.DummyConnector");
+        config.put("server", "testserver");
+        return config;
+    }
+
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    public void testSessionsAreIndependent() throws Exception {
+        server = new RemoteConnectorImpl(2, TimeUnit.MINUTES.toMillis(1));
+        String first = server.openSession(dummyConfig());
+        String second = server.openSession(dummyConfig());
+        assertFalse(first.equals(second));
+        assertEquals(2, server.getSessionCount());
+
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        server.execute(first, "validateObject", data);
+        server.execute(first, "validateObject", data);
+        server.execute(second, "validateObject", data);
+
+        assertEquals(Long.valueOf(2), server.getSessionMetrics(first).get("executions"));
+        assertEquals(Long.valueOf(1), server.getSessionMetrics(second).get("executions"));
+
+        server.closeSession(first);
+        assertEquals(1, server.getSessionCount());
+        try {
+            server.execute(first, "validateObject", data);
+            fail("Expected closed session to be rejected");
+        } catch (IdMUnitException e) {
+            // expected
+        }
+    }
+
+    public void testFailedExecutionIsReportedAndCounted() throws Exception {
+        server = new RemoteConnectorImpl(1, TimeUnit.MINUTES.toMillis(1));
+        String session = server.openSession(dummyConfig());
+        try {
+            server.execute(session, "unsupported", new HashMap<String, Collection<String>>());
+            fail("Expected the connector exception to be propagated");
+        } catch (IdMUnitException e) {
+            assertEquals("Operation 'unsupported' not supported.", e.getMessage());
+        }
+        assertEquals(Long.valueOf(1), server.getSessionMetrics(session).get("failures"));
+    }
+
+    public void testSetupFailureDoesNotCreateSession() throws Exception {
+        server = new RemoteConnectorImpl(1, TimeUnit.MINUTES.toMillis(1));
+        Map<String, String> config = dummyConfig();
+        config.put("server", "wrongserver");
+        try {
+            server.openSession(config);
+            fail("Expected setup to fail");
+        } catch (IdMUnitException e) {
+            // expected
+        }
+        assertEquals(0, server.getSessionCount());
+    }
+
+    public void testIdleSessionsAreReaped() throws Exception {
+        server = new RemoteConnectorImpl(1, 50);
+        server.openSession(dummyConfig());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getSessionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, server.getSessionCount());
+    }
+
+    public void testBusySessionIsNotReaped() throws Exception {
+        server = new RemoteConnectorImpl(1, TimeUnit.MINUTES.toMillis(1));
+        String id = server.openSession(dummyConfig());
+
+        RemoteConnectorImpl.Session session = server.acquireSession(id);
+        session.lastUsed = 0;
+        server.reapIdleSessions();
+        assertEquals(1, server.getSessionCount());
+
+        server.releaseSession(session);
+        session.lastUsed = 0;
+        server.reapIdleSessions();
+        assertEquals(0, server.getSessionCount());
+    }
+
+    public void testIdleTimeoutMustBePositive() throws Exception {
+        try {
+            server = new RemoteConnectorImpl(1, 0);
+            fail("Expected an idle timeout of 0 to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentCallsOnOneSessionDoNotHoldUpOthers() throws Exception {
+        server = new RemoteConnectorImpl(2, TimeUnit.MINUTES.toMillis(1));
+        final String busy = server.openSession(dummyConfig());
+        String other = server.openSession(dummyConfig());
+        final Map<String, Collection<String>> sleep = new HashMap<String, Collection<String>>();
+        sleep.put("millis", Collections.singletonList("500"));
+
+        ExecutorService runners = Executors.newFixedThreadPool(3);
+        List<Future<?>> calls = new ArrayList<Future<?>>();
+        for (int i = 0; i < 3; i++) {
+            calls.add(runners.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    server.execute(busy, "sleep", sleep);
+                    return null;
+                }
+            }));
+        }
+        Thread.sleep(100);
+
+        // The busy session holds one worker; the other is free for this session
+        long start = System.currentTimeMillis();
+        server.execute(other, "validateObject", new HashMap<String, Collection<String>>());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed < 300);
+
+        for (Future<?> call : calls) {
+            call.get();
+        }
+        runners.shutdown();
+        assertEquals(Long.valueOf(3), server.getSessionMetrics(busy).get("executions"));
+    }
+
+    public void testConcurrentClients() throws Exception {
+        server = new RemoteConnectorImpl(4, TimeUnit.MINUTES.toMillis(1));
+        final int clients = 8;
+        final int rows = 25;
+        ExecutorService runners = Executors.newFixedThreadPool(clients);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < clients; i++) {
+            results.add(runners.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    String session = server.openSession(dummyConfig());
+                    for (int row = 0; row < rows; row++) {
+                        server.execute(session, "validateObject", new HashMap<String, Collection<String>>());
+                    }
+                    return session;
+                }
+            }));
+        }
+        for (Future<String> result : results) {
+            assertEquals(Long.valueOf(rows), server.getSessionMetrics(result.get()).get("executions"));
+        }
+        runners.shutdown();
+        assertEquals(clients, server.getSessionCount());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import com.trivir.idmunit.util.ValueSource;
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.ConnectorUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates many IDocs from one template into a single buffered file, or a set of files rolled every idocsPerFile
+ * IDocs, and reports the time taken and throughput. Used by SAP.opBulkCreateIdoc.
+ */
+final class IdocBulkGenerator {
+    static final String ATTR_VALUES = ValueSource.ATTR_VALUES;
+    static final String ATTR_RANGE = ValueSource.ATTR_RANGE;
+    static final String ATTR_CSV_FILE = ValueSource.ATTR_CSV_FILE;
+    static final String ATTR_IDOCS_PER_FILE = "idocsPerFile";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static Logger log = LoggerFactory.getLogger(IdocBulkGenerator.class);
+
+    private final SAP connector;
+    private final String templatePath;
+    private final Map<String, Collection<String>> data;
+
+    IdocBulkGenerator(SAP connector, String templatePath, Map<String, Collection<String>> data) {
+        this.connector = connector;
+        this.templatePath = templatePath;
+        this.data = data;
+    }
+
+    private static int getInt(Map<String, Collection<String>> data, String name, int defaultValue) throws IdMUnitException {
+        String value = ConnectorUtil.getSingleValue(data, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("'" + name + "' must be a number, but: [" + value + "] was provided.");
+        }
+    }
+
+    Report run(Set<String> controlColumns) throws IdMUnitException {
+        int idocsPerFile = getInt(data, ATTR_IDOCS_PER_FILE, 0);
+        ValueSource source = ValueSource.open(data);
+        try {
+            long start = System.nanoTime();
+            IdocTemplate template = connector.getTemplate(templatePath);
+            IdocTemplate.Columns columns = IdocTemplate.Columns.parse(data.keySet(), SAP.STR_DN, SAP.STR_KEY, controlColumns);
+            Report report = new Report(template.size());
+            report.templateNanos = System.nanoTime() - start;
+
+            Map<String, String> columnTemplates = new HashMap<String, String>();
+            for (String name : data.keySet()) {
+                if (!controlColumns.contains(name.toLowerCase())) {
+                    columnTemplates.put(name, ConnectorUtil.getSingleValue(data, name));
+                }
+            }
+
+            Map<String, String> values = new HashMap<String, String>();
+            Writer writer = null;
+            File file = null;
+            int idocsInFile = 0;
+            try {
+                Map<String, String> row;
+                while ((row = source.next()) != null) {
+                    if (writer == null) {
+                        file = new File(connector.composeIdocFileName(idocsPerFile > 0 ? report.files.size() + 1 : -1));
+                        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, false), "UTF-8"), WRITE_BUFFER_SIZE);
+                        report.files.add(file);
+                    }
+                    for (Map.Entry<String, String> column : columnTemplates.entrySet()) {
+                        values.put(column.getKey(), column.getValue() == null ? null : ValueSource.substitute(column.getValue(), row));
+                    }
+                    IdocTemplate.Idoc idoc = template.newIdoc();
+                    connector.fillIdoc(idoc, columns, values);
+                    idoc.writeTo(writer, LINE_SEPARATOR);
+                    report.idocs++;
+
+                    if (idocsPerFile > 0 && ++idocsInFile == idocsPerFile) {
+                        writer.close();
+                        writer = null;
+                        idocsInFile = 0;
+                        finishFile(report, file);
+                    }
+                }
+                if (writer != null) {
+                    writer.close();
+                    writer = null;
+                    finishFile(report, file);
+                }
+            } catch (IOException e) {
+                throw new IdMUnitException("Failure to write the IDoc to [" + file + "] Please see the " + SAP.IDOC_LOCAL_PATH + " setting in idmunit-config.xml.  Error: " + e.getMessage(), e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        log.warn("Failed to close [" + file + "]", e);
+                    }
+                }
+            }
+            report.elapsedNanos = System.nanoTime() - start;
+            if (report.idocs == 0) {
+                throw new IdMUnitException("No rows were provided to generate IDocs from.");
+            }
+            return report;
+        } finally {
+            source.close();
+        }
+    }
+
+    private void finishFile(Report report, File file) throws IdMUnitException {
+        report.bytes += file.length();
+        long start = System.nanoTime();
+        connector.deliver(file);
+        report.deliveryNanos += System.nanoTime() - start;
+    }
+
+    static final class Report {
+        final int recordsPerIdoc;
+        final List<File> files = new ArrayList<File>();
+        int idocs;
+        long bytes;
+        long templateNanos;
+        long deliveryNanos;
+        long elapsedNanos;
+
+        Report(int recordsPerIdoc) {
+            this.recordsPerIdoc = recordsPerIdoc;
+        }
+
+        double idocsPerSecond() {
+            return elapsedNanos == 0 ? 0 : idocs * 1e9 / elapsedNanos;
+        }
+
+        double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes / (1024.0 * 1024.0) * 1e9 / elapsedNanos;
+        }
+
+        public String toString() {
+            return String.format("generated %d IDocs (%d records each) in %d file(s), %.1f MB in %d ms: %.1f IDocs/s, %.1f MB/s (template load %d ms, delivery %d ms)",
+                    idocs, recordsPerIdoc, files.size(), bytes / (1024.0 * 1024.0), elapsedNanos / 1000000,
+                    idocsPerSecond(), megabytesPerSecond(), templateNanos / 1000000, deliveryNanos / 1000000);
+        }
+    }
+}
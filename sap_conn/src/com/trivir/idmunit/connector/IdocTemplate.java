@@ -0,0 +1,259 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import org.idmunit.IdMUnitException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An IDoc template parsed once into its fixed-width records. The records containing each info type are indexed the
+ * first time the info type is used, and field columns (InfoType:FieldName:Subtype:Offset:Length) are parsed once, so
+ * generating an IDoc only copies the records and overwrites characters at known offsets. The index describes the
+ * template; an IDoc re-checks the records it has already changed, so a field is written to exactly the records that
+ * contain its info type after the keys and earlier fields have been filled in.
+ */
+final class IdocTemplate {
+    private static final Pattern REGEX_META = Pattern.compile("[\\\\\\[\\](){}.*+?^$|]");
+    private static final Map<String, Field> FIELDS = new ConcurrentHashMap<String, Field>();
+    private static final Map<String, Pattern> KEY_PATTERNS = new ConcurrentHashMap<String, Pattern>();
+
+    private final String[] records;
+    private final long lastModified;
+    private final Map<String, int[]> recordsByInfoType = new ConcurrentHashMap<String, int[]>();
+
+    IdocTemplate(List<String> records, long lastModified) {
+        this.records = records.toArray(new String[records.size()]);
+        this.lastModified = lastModified;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    int size() {
+        return records.length;
+    }
+
+    /**
+     * Parses a field column name such as P0002:VORNA:none:134:25.
+     */
+    static Field parseField(String column) throws IdMUnitException {
+        Field field = FIELDS.get(column);
+        if (field != null) {
+            return field;
+        }
+        String[] tokens = column.split(":");
+        if (tokens.length < 5) {
+            throw new IdMUnitException("Failed to parse data column [" + column + "].  Should be in the format: InfoType:FieldName:Subtype:Offset:Length (ex: P0002:VORNA:none:134:25)");
+        }
+        try {
+            field = new Field(column, tokens[0], Integer.parseInt(tokens[3].trim()), Integer.parseInt(tokens[4].trim()));
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("Failed to parse data column [" + column + "].  Offset and Length must be numbers (ex: P0002:VORNA:none:134:25)");
+        }
+        FIELDS.put(column, field);
+        return field;
+    }
+
+    /**
+     * Returns the indexes of the template records that contain infoType.
+     */
+    int[] recordsContaining(String infoType) {
+        int[] indexes = recordsByInfoType.get(infoType);
+        if (indexes == null) {
+            List<Integer> matches = new ArrayList<Integer>();
+            for (int i = 0; i < records.length; i++) {
+                if (records[i].indexOf(infoType) != -1) {
+                    matches.add(i);
+                }
+            }
+            indexes = new int[matches.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = matches.get(i);
+            }
+            recordsByInfoType.put(infoType, indexes);
+        }
+        return indexes;
+    }
+
+    Idoc newIdoc() {
+        return new Idoc();
+    }
+
+    /**
+     * The association key columns (dn, key1, key2...) and field columns of a data row, in the order they are applied.
+     */
+    static final class Columns {
+        final List<String> keyColumns = new ArrayList<String>();
+        final List<Field> fields = new ArrayList<Field>();
+
+        /**
+         * @param names   the column names of the data row
+         * @param dn      the name of the first key column
+         * @param keyPrefix the prefix of the numbered key columns
+         * @param ignored other columns that are neither keys nor fields, compared case insensitively
+         */
+        static Columns parse(Collection<String> names, String dn, String keyPrefix, Set<String> ignored) throws IdMUnitException {
+            Columns columns = new Columns();
+            columns.keyColumns.add(dn);
+            for (int i = 1; names.contains(keyPrefix + i); i++) {
+                columns.keyColumns.add(keyPrefix + i);
+            }
+            for (String name : names) {
+                if (name.equalsIgnoreCase(dn) || ignored.contains(name.toLowerCase()) || (name.startsWith(keyPrefix) && name.length() > keyPrefix.length())) {
+                    continue;
+                }
+                columns.fields.add(parseField(name));
+            }
+            return columns;
+        }
+    }
+
+    static final class Field {
+        final String column;
+        final String infoType;
+        final int offset;
+        final int length;
+
+        Field(String column, String infoType, int offset, int length) {
+            this.column = column;
+            this.infoType = infoType;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A copy of the template records being filled in with test data.
+     */
+    final class Idoc {
+        private final StringBuilder[] rows = new StringBuilder[records.length];
+        // Rows that may no longer match the template's index of info types
+        private final boolean[] changed = new boolean[records.length];
+        private boolean anyChanged;
+
+        private Idoc() {
+            for (int i = 0; i < records.length; i++) {
+                rows[i] = new StringBuilder(records[i]);
+            }
+        }
+
+        /**
+         * Replaces every match of the regular expression key with value in all records, as String.replaceAll does.
+         */
+        void replaceKey(String key, String value) {
+            if (!REGEX_META.matcher(key).find() && value.indexOf('$') == -1 && value.indexOf('\\') == -1) {
+                for (int i = 0; i < rows.length; i++) {
+                    StringBuilder row = rows[i];
+                    int index = row.indexOf(key);
+                    if (index != -1) {
+                        markChanged(i);
+                    }
+                    while (index != -1) {
+                        row.replace(index, index + key.length(), value);
+                        index = row.indexOf(key, index + value.length());
+                    }
+                }
+                return;
+            }
+
+            Pattern pattern = KEY_PATTERNS.get(key);
+            if (pattern == null) {
+                pattern = Pattern.compile(key);
+                KEY_PATTERNS.put(key, pattern);
+            }
+            for (int i = 0; i < rows.length; i++) {
+                StringBuilder row = rows[i];
+                Matcher matcher = pattern.matcher(row);
+                if (matcher.find()) {
+                    String replaced = matcher.replaceAll(value);
+                    row.setLength(0);
+                    row.append(replaced);
+                    markChanged(i);
+                }
+            }
+        }
+
+        /**
+         * Writes value, padded to the field length, at the field offset of every record containing the field's info type.
+         */
+        void setField(Field field, String value, int initialIdocDataOffset) throws IdMUnitException {
+            if (value.length() > field.length) {
+                throw new IdMUnitException("Field [" + field.column + "] replacement data: [" + value + "] is too long, it can only be [" + field.length + "] characters long.");
+            }
+            int start = initialIdocDataOffset + field.offset - 1;
+            String padded = SAP.padRight(value, field.length);
+            int[] indexes = recordsContaining(field.infoType);
+            if (!anyChanged) {
+                for (int index : indexes) {
+                    rows[index].replace(start, start + field.length, padded);
+                    markChanged(index);
+                }
+                return;
+            }
+            for (int i = 0; i < rows.length; i++) {
+                boolean contains = changed[i] ? rows[i].indexOf(field.infoType) != -1 : Arrays.binarySearch(indexes, i) >= 0;
+                if (contains) {
+                    rows[i].replace(start, start + field.length, padded);
+                    markChanged(i);
+                }
+            }
+        }
+
+        private void markChanged(int index) {
+            changed[index] = true;
+            anyChanged = true;
+        }
+
+        List<String> toList() {
+            List<String> list = new ArrayList<String>(rows.length);
+            for (StringBuilder row : rows) {
+                list.add(row.toString());
+            }
+            return list;
+        }
+
+        void writeTo(Writer writer, String lineSeparator) throws IOException {
+            for (StringBuilder row : rows) {
+                writer.append(row);
+                writer.write(lineSeparator);
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@
 package com.trivir.idmunit.connector;
 
 import com.trivir.idmunit.extension.SCPUtil;
+import com.trivir.idmunit.extension.SftpTransport;
 import org.idmunit.IdMUnitException;
 import org.idmunit.connector.AbstractConnector;
 import org.idmunit.connector.ConnectorUtil;
@@ -37,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements an IdMUnit connector for SAP that simulates iDoc format transactions originating from SAP to the SAP IDM Driver
@@ -59,9 +61,11 @@ public class SAP extends AbstractConnector {
     protected static final String WORKING_DIRECTORY = System.getProperty("user.dir"); //The current working directory (used to suppor the relative access of iDocCache files)
 
     private static final String STR_IDOC_TEMPLATE_PATH = "IDocTemplate";
-    private static final String STR_DN = "dn";
+    static final String STR_DN = "dn";
     private static final String STR_DELIM = "=";
-    private static final String STR_KEY = "key";
+    static final String STR_KEY = "key";
+
+    private static final Map<String, IdocTemplate> TEMPLATES = new ConcurrentHashMap<String, IdocTemplate>();
 
     private static Logger log = LoggerFactory.getLogger(SAP.class);
 
@@ -75,6 +79,7 @@ public class SAP extends AbstractConnector {
     private String scpPath;
     private String scpScriptPath;
     private String scpServerIdocPath;
+    private SftpTransport sftpTransport;
 
     /**
      * This method provides a mechanism to pad IDoc fields so that when inserted into the IDoc the existing contents will be entirely overwritten
@@ -140,12 +145,23 @@ public class SAP extends AbstractConnector {
         idocFilenamePrefix = config.get(IDOC_FILENAME_PREFIX);
         idocFileExtension = config.get(IDOC_FILE_EXTENSION);
 
+        if (scpEnabled && SftpTransport.isConfigured(config)) {
+            if (scpServerIdocPath == null) {
+                throw new IdMUnitException("'" + SCP_SERVER_IDOC_PATH + "' must be configured if '" + SftpTransport.CONFIG_SERVER + "' is configured.");
+            }
+            sftpTransport = SftpTransport.fromConfig(config);
+        }
 
         log.info("### SAP Connector Initialization: Using SAP Client Number [" + sapClientNumber + "] - This should match the SAP User Client Number in the SAP HR driver - Java working path [" + WORKING_DIRECTORY + "] ###");
     }
 
     public void tearDown() throws IdMUnitException {
         //TODO: Create routine to clean up local generated IDocs and IDocs pushed to a remote server
+        if (sftpTransport != null) {
+            SftpTransport transport = sftpTransport;
+            sftpTransport = null;
+            transport.close();
+        }
     }
 
     public void opValidateObject(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -198,91 +214,79 @@ public class SAP extends AbstractConnector {
     }
 
     /**
-     * Replaces the a key in a template file with an actual test value (to be used for DirXML Association purposes in the SAP driver)
-     * Note: Some of these helper methods are friendly to the class so they can be directly tested from test/org.idmunit.connector.SAPTests
-     * Additional Note: This method is called recursively to resolve additional templatized keys to the correct key values for the test objects.  This
-     * is to facilitate the replacement of multiple keys in a single IDOC row (previously only the key in the dn column was transformed.  Now the DN column and any
-     * number of key1, key2... columns will also be transformed.
+     * Returns the parsed IDoc template, reading it from disk only the first time it is used or after it has changed.
      *
-     * @param List<String> templateFileData read from an IDoc template
-     * @param String       dn The key to replace and the new unique value (guid) - for example: EMPLOYID=12345678
+     * @param String fileName The IDoc template file
+     * @return IdocTemplate The parsed template
+     * @throws IdMUnitException if the template could not be read
      */
-    void replaceAssociationKeyWithObjectGUID(List<String> templateFileData, String key, Map<String, Collection<String>> data) throws IdMUnitException {
-        dumpList(templateFileData);
-        ListIterator<String> dataIterator = templateFileData.listIterator();
-        String dn = ConnectorUtil.getSingleValue(data, key);
-        if (dn == null || dn.length() < 1) {
-            return;
-        }
-        String searchKey = dn.substring(0, dn.indexOf(STR_DELIM));
-        if (searchKey == null || searchKey.length() < 1) {
-            return;
-        }
-        String replaceValue = dn.substring(dn.indexOf(STR_DELIM) + 1);
-        log.info("... replacing template association key [" + searchKey + "] with value [" + replaceValue + "]");
-        while (dataIterator.hasNext()) {
-            String currentRow = dataIterator.next();
-            dataIterator.set(currentRow.replaceAll(searchKey, replaceValue));
+    IdocTemplate getTemplate(String fileName) throws IdMUnitException {
+        if ((fileName == null) || ("".equals(fileName))) {
+            throw new IdMUnitException("Failed to load the specified SAP template file [" + fileName + "]");
         }
-        dumpList(templateFileData);
-
-        //Recursively call this method in order to apply any additional key transformations that might exist (as necessary)
-        //  These additional keys will be specified as columns named key1, key2, key3, and so forth.
-        String newKey = "";
-        if (!key.startsWith(STR_KEY)) {
-            newKey = STR_KEY + "1";
-        } else {
-            int keyNumber = Integer.parseInt(key.substring(3));
-            newKey = STR_KEY + (keyNumber + 1);
+        File file = new File(fileName);
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        IdocTemplate template = TEMPLATES.get(key);
+        if (template == null || template.getLastModified() != lastModified) {
+            template = new IdocTemplate(loadFileData(fileName), lastModified);
+            TEMPLATES.put(key, template);
         }
-        replaceAssociationKeyWithObjectGUID(templateFileData, newKey, data);
+        return template;
     }
 
     /**
-     * Displays list data out to the log
+     * Fills in a copy of an IDoc template with the values of a data row.
+     * The key in the dn column (for example EMPLOYID=12345678) is replaced with its value throughout the IDoc, followed by any
+     * number of key1, key2... columns, so several templatized keys can be resolved to the keys of the test objects.  Each field column
+     * (for example P0002:VORNA:none:134:25 with data of "Happy") then overwrites the field at its offset in every record of its info type.
+     * Note: Some of these helper methods are friendly to the class so they can be directly tested from test/org.idmunit.connector.SAPTests
      *
-     * @param dataList The list data to dump
+     * @param IdocTemplate.Idoc    idoc The copy of the template to fill in
+     * @param IdocTemplate.Columns columns The key and field columns of the data row
+     * @param Map<String, String>  values The single value of each column
      */
-    private void dumpList(List<String> dataList) {
-        for (String data : dataList) {
-            log.info("### File data: " + data); //TODO: Change this to log.debug once I can figure out how to configure my apache logging to a level of debug!
+    void fillIdoc(IdocTemplate.Idoc idoc, IdocTemplate.Columns columns, Map<String, String> values) throws IdMUnitException {
+        for (String keyColumn : columns.keyColumns) {
+            String dn = values.get(keyColumn);
+            if (dn == null || dn.length() < 1) {
+                break;
+            }
+            int delimiter = dn.indexOf(STR_DELIM);
+            if (delimiter < 0) {
+                throw new IdMUnitException("Failed to parse key column [" + keyColumn + "] value [" + dn + "].  Should be in the format: KEY=value (ex: EMPLOYID=12345678)");
+            } else if (delimiter == 0) {
+                break;
+            }
+            String searchKey = dn.substring(0, delimiter);
+            String replaceValue = dn.substring(delimiter + 1);
+            if (log.isDebugEnabled()) {
+                log.debug("... replacing template association key [" + searchKey + "] with value [" + replaceValue + "]");
+            }
+            idoc.replaceKey(searchKey, replaceValue);
+        }
+        for (IdocTemplate.Field field : columns.fields) {
+            String value = values.get(field.column);
+            if (log.isDebugEnabled()) {
+                log.debug("... replacing template data attribute identifiers[" + field.column + "] with value [" + value + "]");
+            }
+            idoc.setField(field, value == null ? "" : value, initialIdocDataOffset);
         }
     }
 
     /**
-     * This method performs a search and replace within the IDoc data on fields located by a data offset, following standard IDoc protocol.
-     * Note: Some of these helper methods are friendly to the class so they can be directly tested from test/org.idmunit.connector.SAPTests
+     * Pushes a generated IDoc file to the IDM server if SCP is enabled.
      *
-     * @param List<String> templateFileData read from an IDoc template and now mutating to become the test IDoc
-     * @param String       attributeName The attribute identification and offset information required to replace the template values
+     * @param File iDocFile The local IDoc file
+     * @throws IdMUnitException if the file could not be pushed
      */
-    void replaceAttrValueByOffSet(List<String> templateFileData, String replaceKey, String replaceValue) throws IdMUnitException {
-        dumpList(templateFileData);
-        StringTokenizer tokenizer = new StringTokenizer(replaceKey, ":");
-        if (tokenizer.countTokens() < 5) {
-            throw new IdMUnitException("Failed to parse data column [" + replaceKey + "].  Should be in the format: InfoType:FieldName:Subtype:Offset:Length (ex: P0002:VORNA:none:134:25)");
-        }
-        String infoType = tokenizer.nextToken();
-        tokenizer.nextToken(); // String fieldName
-        tokenizer.nextToken(); // String subType
-        String dataOffset = tokenizer.nextToken();
-        int fieldDataOffset = initialIdocDataOffset + Integer.parseInt(dataOffset);
-        int fieldDataLength = Integer.parseInt(tokenizer.nextToken());
-        replaceValue = padRight(replaceValue, fieldDataLength);
-        if (replaceValue.length() > fieldDataLength) {
-            throw new IdMUnitException("Field [" + replaceKey + "] replacement data: [" + replaceValue + "] is too long, it can only be [" + fieldDataLength + "] characters long.");
-        }
-        ListIterator<String> dataIterator = templateFileData.listIterator();
-        log.info("... replacing template data attribute identifiers[" + replaceKey + "] with value [" + replaceValue + "]");
-        while (dataIterator.hasNext()) {
-            StringBuffer currentRowBuffer = new StringBuffer(dataIterator.next());
-            if (currentRowBuffer.indexOf(infoType) != -1) {
-                currentRowBuffer.replace(fieldDataOffset - 1, fieldDataOffset + fieldDataLength - 1, replaceValue);
-                dataIterator.set(currentRowBuffer.toString());
-            }
+    void deliver(File iDocFile) throws IdMUnitException {
+        if (sftpTransport != null) {
+            sftpTransport.send(iDocFile, scpServerIdocPath);
+        } else if (scpEnabled) {
+            //SCP the file to the target IDM server
+            SCPUtil.scpSendFile(scpPath, scpProfileName, scpScriptPath, iDocFile.getPath(), scpServerIdocPath + "/", iDocFile.getName());
         }
-        dumpList(templateFileData);
-
     }
 
     /**
@@ -291,10 +295,20 @@ public class SAP extends AbstractConnector {
      * @return List<String> The generated IDoc name
      */
     String composeIdocFileName() {
+        return composeIdocFileName(-1);
+    }
+
+    /**
+     * Composes the name of one of a set of rolled IDoc files by adding a sequence number after the timestamp.
+     *
+     * @param int sequence The number of the file in the set, or -1 for a single file
+     * @return String The generated IDoc name
+     */
+    String composeIdocFileName(int sequence) {
         SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyyMMddHHmmss");
         Date timestamp = new Date();
         String currentTimeStamp = dateFormatter.format(timestamp);
-        return idocLocalFilePath + System.getProperty("file.separator") + "O_" + this.getSAPUserClientNumber() + "_" + idocFilenamePrefix + currentTimeStamp + ((idocFileExtension != null && idocFileExtension.length() > 0) ? ("." + idocFileExtension) : "");
+        return idocLocalFilePath + System.getProperty("file.separator") + "O_" + this.getSAPUserClientNumber() + "_" + idocFilenamePrefix + currentTimeStamp + (sequence < 0 ? "" : String.format("_%04d", sequence)) + ((idocFileExtension != null && idocFileExtension.length() > 0) ? ("." + idocFileExtension) : "");
     }
 
     /**
@@ -316,20 +330,16 @@ public class SAP extends AbstractConnector {
             throw new IdMUnitException("Please include your template key and unique SAP ID in a column titled [" + STR_DN + "] in order to process the SAP IDoc template called [" + STR_IDOC_TEMPLATE_PATH + "]. For example: EMPLOYID=12345678");
         }
 
-        //Read in the IDoc template
-        List<String> templateFileData = loadFileData(idocTemplatePath);
-        /*Search for key specified in DN and replace it with the specified value throughout the entire IDoc template
-         * ex: DN: EMPLOYID=12345678 (this will replace the template's EMPLOYID key with the test object value 12345678.)*/
-        replaceAssociationKeyWithObjectGUID(templateFileData, "dn", data);
-        //- For each attribute column in the spreadsheet parse as follows: (example: P0002:VORNA:none:134:25 with data of "Happy")
+        //Read in the IDoc template and fill in a copy of it with the row's keys and field values
+        IdocTemplate template = getTemplate(idocTemplatePath);
+        IdocTemplate.Columns columns = IdocTemplate.Columns.parse(data.keySet(), STR_DN, STR_KEY, Collections.singleton(STR_IDOC_TEMPLATE_PATH.toLowerCase()));
+        Map<String, String> values = new HashMap<String, String>();
         for (String attrName : data.keySet()) {
-            if ((!(attrName.equalsIgnoreCase(STR_IDOC_TEMPLATE_PATH))) && (!(attrName.equalsIgnoreCase(STR_DN))) && ((!(attrName.startsWith(STR_KEY) && (attrName.length() > 3))))) {
-                String attrVal = ConnectorUtil.getSingleValue(data, attrName);
-                log.info("##### attrName [" + attrName + "] and attrVal [" + attrVal + "] ###");
-                //--Find all rows with the current info-type (ex: P0002)
-                replaceAttrValueByOffSet(templateFileData, attrName, attrVal);
-            }
+            values.put(attrName, ConnectorUtil.getSingleValue(data, attrName));
         }
+        IdocTemplate.Idoc idoc = template.newIdoc();
+        fillIdoc(idoc, columns, values);
+        List<String> templateFileData = idoc.toList();
 
         String idocName = composeIdocFileName();
         log.info("...generating IDoc: " + idocName);
@@ -337,18 +347,48 @@ public class SAP extends AbstractConnector {
         writeFile(idocName, templateFileData);
         log.info("...successful.");
 
-        File iDocFile = new File(idocName);
-        String fileRDN = iDocFile.getName();
+        deliver(new File(idocName));
+        return templateFileData;
+    }
 
-        if (scpEnabled) {
-            //SCP the file to the target IDM server
-            //TODO: Abstract these constants into the idmunit-config.xml interface
-            SCPUtil.scpSendFile(scpPath, scpProfileName, scpScriptPath, idocName, scpServerIdocPath + "/", fileRDN);
 
+    /**
+     * This is the implementation of opBulkCreateIdoc, returning the generation metrics for analysis.
+     *
+     * @param Map<String, Collection<String>> data The data map of instructions and data value templates from the IdMUnit spreadsheet
+     * @return IdocBulkGenerator.Report The number of IDocs and files generated and the time taken
+     * @throws IdMUnitException
+     */
+    IdocBulkGenerator.Report opBulkCreateIdocIMPL(Map<String, Collection<String>> data) throws IdMUnitException {
+        String idocTemplatePath = ConnectorUtil.getSingleValue(data, STR_IDOC_TEMPLATE_PATH);
+        if (idocTemplatePath == null) {
+            throw new IdMUnitException("Please include your full IDoc template path in a column titled [" + STR_IDOC_TEMPLATE_PATH + "] to generate SAP transactions.");
+        } else if (ConnectorUtil.getSingleValue(data, STR_DN) == null) {
+            throw new IdMUnitException("Please include your template key and unique SAP ID in a column titled [" + STR_DN + "] in order to process the SAP IDoc template called [" + STR_IDOC_TEMPLATE_PATH + "]. For example: EMPLOYID=${value}");
         }
-        return templateFileData;
+
+        Set<String> controlColumns = new HashSet<String>();
+        controlColumns.add(STR_IDOC_TEMPLATE_PATH.toLowerCase());
+        controlColumns.add(IdocBulkGenerator.ATTR_VALUES.toLowerCase());
+        controlColumns.add(IdocBulkGenerator.ATTR_RANGE.toLowerCase());
+        controlColumns.add(IdocBulkGenerator.ATTR_CSV_FILE.toLowerCase());
+        controlColumns.add(IdocBulkGenerator.ATTR_IDOCS_PER_FILE.toLowerCase());
+
+        IdocBulkGenerator.Report report = new IdocBulkGenerator(this, idocTemplatePath, data).run(controlColumns);
+        log.info("..." + report);
+        return report;
     }
 
+    /**
+     * Generates many IDocs from one template for load tests, one for each number of a range or each line of a CSV file.
+     * Column values may refer to the current number as ${value} or to a CSV column as ${column}.
+     *
+     * @param Map<String, Collection<String>> data The data map of instructions and data value templates from the IdMUnit spreadsheet
+     * @throws IdMUnitException
+     */
+    public void opBulkCreateIdoc(Map<String, Collection<String>> data) throws IdMUnitException {
+        opBulkCreateIdocIMPL(data);
+    }
 
     /**
      * Simulates data and transaction flow from SAP to the identity vault by generating IDocs based
@@ -0,0 +1,241 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.ConnectionConfigData;
+
+import java.io.*;
+import java.util.*;
+
+public class IdocBulkGeneratorTests extends TestCase {
+    // Data starts at column 11 (initial-idoc-data-offset 10) and the P1000 description field is at offset 11, length 10
+    private static final String CONTROL = "EDI_DC40  ORGROLID  ";
+    private static final String P1000 = "E2P1000   ORGROLID  OLD DESCRIPTION";
+    private static final String P1001 = "E2P1001   ORGROLID  OTHER";
+    private static final String DESCRIPTION = "P1000:STEXT:none:11:10";
+
+    private File directory;
+    private File templateFile;
+    private SAP sap;
+
+    private static Collection<String> singleValue(String value) {
+        List<String> values = new ArrayList<String>();
+        values.add(value);
+        return values;
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static void writeLines(File file, String... lines) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("idocs", "");
+        directory.delete();
+        directory.mkdir();
+        templateFile = new File(directory, "orgRole.idoc");
+        writeLines(templateFile, CONTROL, P1000, P1001);
+
+        sap = new SAP();
+        ConnectionConfigData configurationData = new ConnectionConfigData("SAP", "org.idmunit.connector.SAP");
+        configurationData.setParam(SAP.ENABLE_SCP, "false");
+        configurationData.setParam(SAP.SAP_CLIENT_NUMBER, "030");
+        configurationData.setParam(SAP.INITIAL_IDOC_DATA_OFFSET, "10");
+        configurationData.setParam(SAP.IDOC_LOCAL_PATH, directory.getPath());
+        configurationData.setParam(SAP.IDOC_FILENAME_PREFIX, "0000000000");
+        configurationData.setParam(SAP.IDOC_FILE_EXTENSION, "idmunit");
+        sap.setup(configurationData.getParams());
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        sap.tearDown();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private List<File> idocFiles() {
+        List<File> files = new ArrayList<File>();
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".idmunit")) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    public void testCreateIdocReplacesKeysAndFields() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=60005100"));
+        data.put(DESCRIPTION, singleValue("Analyst"));
+
+        List<String> idoc = sap.opCreateIdocIMPL(data);
+        assertEquals(Arrays.asList("EDI_DC40  60005100  ", "E2P1000   60005100  Analyst   PTION", "E2P1001   60005100  OTHER"), idoc);
+    }
+
+    public void testAdditionalKeyColumns() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=60005100"));
+        data.put("key1", singleValue("OTHER=SECOND"));
+
+        List<String> idoc = sap.opCreateIdocIMPL(data);
+        assertEquals("E2P1001   60005100  SECOND", idoc.get(2));
+    }
+
+    public void testFieldsFollowInfoTypesChangedByKeys() throws IdMUnitException {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=60005100"));
+        // The first key moves the P1000 info type from the second record to the third
+        data.put("key1", singleValue("E2P1000=E2P9999"));
+        data.put("key2", singleValue("OTHER=P1000"));
+        data.put(DESCRIPTION, singleValue("Analyst"));
+
+        List<String> idoc = sap.opCreateIdocIMPL(data);
+        assertEquals(Arrays.asList("EDI_DC40  60005100  ", "E2P9999   60005100  OLD DESCRIPTION", "E2P1001   60005100  Analyst   "), idoc);
+    }
+
+    public void testFieldTooLong() {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=60005100"));
+        data.put(DESCRIPTION, singleValue("Much too long"));
+        try {
+            sap.opCreateIdocIMPL(data);
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertEquals("Field [" + DESCRIPTION + "] replacement data: [Much too long] is too long, it can only be [10] characters long.", e.getMessage());
+        }
+    }
+
+    public void testTemplateIsCachedUntilModified() throws Exception {
+        IdocTemplate template = sap.getTemplate(templateFile.getPath());
+        assertSame(template, sap.getTemplate(templateFile.getPath()));
+
+        writeLines(templateFile, CONTROL, P1000);
+        templateFile.setLastModified(template.getLastModified() + 2000);
+        IdocTemplate reloaded = sap.getTemplate(templateFile.getPath());
+        assertNotSame(template, reloaded);
+        assertEquals(2, reloaded.size());
+    }
+
+    public void testBulkCreateFromRangeIntoOneFile() throws Exception {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=6000${value}"));
+        data.put(DESCRIPTION, singleValue("Role ${value}"));
+        data.put("range", singleValue("1001-2000"));
+
+        IdocBulkGenerator.Report report = sap.opBulkCreateIdocIMPL(data);
+        assertEquals(1000, report.idocs);
+        assertEquals(1, report.files.size());
+        assertEquals(idocFiles(), report.files);
+        assertEquals(report.files.get(0).length(), report.bytes);
+        assertTrue(report.toString(), report.toString().startsWith("generated 1000 IDocs (3 records each) in 1 file(s)"));
+
+        List<String> lines = readLines(report.files.get(0));
+        assertEquals(3000, lines.size());
+        assertEquals("EDI_DC40  60001001  ", lines.get(0));
+        assertEquals("E2P1000   60001001  Role 1001 PTION", lines.get(1));
+        assertEquals("E2P1000   60002000  Role 2000 PTION", lines.get(2998));
+    }
+
+    public void testBulkCreateRollsFiles() throws Exception {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=${value}"));
+        data.put("range", singleValue("1-1000"));
+        data.put("idocsPerFile", singleValue("300"));
+
+        IdocBulkGenerator.Report report = sap.opBulkCreateIdocIMPL(data);
+        assertEquals(1000, report.idocs);
+        assertEquals(4, report.files.size());
+        assertEquals(4, idocFiles().size());
+        assertEquals(900, readLines(report.files.get(0)).size());
+        assertEquals(300, readLines(report.files.get(3)).size());
+        assertTrue(report.files.get(0).getName().contains("_0001."));
+    }
+
+    public void testBulkCreateFromCsv() throws Exception {
+        File csv = new File(directory, "roles.csv");
+        writeLines(csv, "id,description", "60001001,\"Clerk, HR\"", "60001002,Manager");
+
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=${id}"));
+        data.put(DESCRIPTION, singleValue("${description}"));
+        data.put("csvFile", singleValue(csv.getPath()));
+
+        IdocBulkGenerator.Report report = sap.opBulkCreateIdocIMPL(data);
+        assertEquals(2, report.idocs);
+        List<String> lines = readLines(report.files.get(0));
+        assertEquals("E2P1000   60001001  Clerk, HR PTION", lines.get(1));
+        assertEquals("E2P1000   60001002  Manager   PTION", lines.get(4));
+    }
+
+    public void testBulkCreateRequiresOneSource() {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put("IDocTemplate", singleValue(templateFile.getPath()));
+        data.put("dn", singleValue("ORGROLID=${value}"));
+        try {
+            sap.opBulkCreateIdocIMPL(data);
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertEquals("Exactly one of 'values', 'range' or 'csvFile' must be provided.", e.getMessage());
+        }
+    }
+}
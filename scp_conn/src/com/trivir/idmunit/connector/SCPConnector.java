@@ -27,6 +27,7 @@
  */
 package com.trivir.idmunit.connector;
 
+import com.trivir.idmunit.extension.SftpTransport;
 import com.trivir.idmunit.extension.WinSCPLib;
 import org.idmunit.IdMUnitException;
 import org.idmunit.connector.AbstractConnector;
@@ -59,11 +60,17 @@ import java.util.*;
  * <dtf-data-file-extension>csv</dtf-data-file-extension>
  * <!-- SCP Interface Configuration Section -->
  * <enable-scp>true</enable-scp>
- * <win-scp-exe-path>C:\Program Files\WinSCP3\WinSCP3.exe</win-scp-exe-path>
- * <scp-profile>trivirvm</scp-profile>
- * <user/>
+ * <!-- Either an SFTP server... -->
+ * <server>trivirvm</server>
+ * <port>22</port>
+ * <user>idmunit</user>
  * <password/>
  * <keystore-path/>
+ * <known-hosts/>
+ * <batch-size>1</batch-size>
+ * <!-- ...or a WinSCP profile -->
+ * <win-scp-exe-path>C:\Program Files\WinSCP3\WinSCP3.exe</win-scp-exe-path>
+ * <scp-profile>trivirvm</scp-profile>
  * <multiplier>
  * <retry>0</retry>
  * <wait>0</wait>
@@ -94,6 +101,9 @@ public class SCPConnector extends AbstractConnector {
     private String scpProfileName;
     private String localCachePath;
     private String fileExtension;
+    private SftpTransport sftpTransport;
+    private String lastTimeStamp;
+    private int sequence;
 
     public void setup(Map<String, String> config) throws IdMUnitException {
         delimiter = config.get(DELIM);
@@ -121,13 +131,16 @@ public class SCPConnector extends AbstractConnector {
             scpEnabled = (config.get(ENABLE_SCP).equalsIgnoreCase("true")) ? true : false;
         }
 
+        if (scpEnabled && SftpTransport.isConfigured(config)) {
+            sftpTransport = SftpTransport.fromConfig(config);
+        } else {
+            if (scpPath == null) {
+                throw new IdMUnitException("'" + WIN_SCP_EXE_PATH + "' not configured");
+            }
 
-        if (scpPath == null) {
-            throw new IdMUnitException("'" + WIN_SCP_EXE_PATH + "' not configured");
-        }
-
-        if (scpProfileName == null) {
-            throw new IdMUnitException("'" + SCP_PROFILE + "' not configured");
+            if (scpProfileName == null) {
+                throw new IdMUnitException("'" + SCP_PROFILE + "' not configured");
+            }
         }
 
         if (targetFile == null) {
@@ -141,6 +154,19 @@ public class SCPConnector extends AbstractConnector {
 
     public void tearDown() throws IdMUnitException {
         //TODO: Create routine to clean up local generated files and clean from the remote server if SCP is enabled
+        if (sftpTransport != null) {
+            SftpTransport transport = sftpTransport;
+            sftpTransport = null;
+            transport.close();
+        }
+    }
+
+    SftpTransport getSftpTransport() {
+        return sftpTransport;
+    }
+
+    void setSftpTransport(SftpTransport sftpTransport) {
+        this.sftpTransport = sftpTransport;
     }
 
     public void opValidateObject(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -151,12 +177,21 @@ public class SCPConnector extends AbstractConnector {
     /**
      * This method generates an industry standard Output IDoc ready for consumption by Novell Identity Manager.  The formatting may be tweaked as necessary.
      *
+     * Files written within the same second get a sequence number after the timestamp, so a file that is still
+     * queued for SFTP is never overwritten by the next one.
+     *
      * @return List<String> The generated IDoc name
      */
     private String composeDTFFileName() {
         SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyyMMddHHmmss");
         Date timestamp = new Date();
         String currentTimeStamp = dateFormatter.format(timestamp);
+        if (currentTimeStamp.equals(lastTimeStamp)) {
+            sequence++;
+            return currentTimeStamp + String.format("_%04d", sequence) + "." + fileExtension;
+        }
+        lastTimeStamp = currentTimeStamp;
+        sequence = 0;
         return currentTimeStamp + "." + fileExtension;
     }
 
@@ -214,7 +249,9 @@ public class SCPConnector extends AbstractConnector {
         }
         log.info("...successfully cached DTF file data to [" + fileName + "].");
 
-        if (scpEnabled) {
+        if (sftpTransport != null) {
+            sftpTransport.send(new File(fullFileNameAndPath), targetFile);
+        } else if (scpEnabled) {
             log.info("...pushing to SCP interface [" + scpProfileName + "].");
             //SCPConnector the file to the target IDM server
             WinSCPLib.scpSendFile(scpPath, scpProfileName, localCachePath + "winscpscript.txt", fullFileNameAndPath, targetFile + "/", fileName);
@@ -0,0 +1,294 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.extension;
+
+import com.jcraft.jsch.*;
+import org.idmunit.IdMUnitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pushes files to a UNIX server over SFTP from within the JVM, replacing the WinSCP process spawned for every file.
+ * The SSH session is opened on first use and kept until close() is called. Each file is streamed to a hidden temporary
+ * name and renamed once complete so a driver polling the remote directory never picks up a partial file. Files are
+ * queued and sent together once batchSize files are pending.
+ */
+public class SftpTransport {
+    public static final String CONFIG_SERVER = "server"; //SFTP server to push files to; when configured files are pushed over SFTP instead of WinSCP
+    public static final String CONFIG_PORT = "port"; //SSH port of the SFTP server (default: 22)
+    public static final String CONFIG_USER = "user"; //User to log in to the SFTP server as
+    public static final String CONFIG_PASSWORD = "password"; //Password of the SFTP user (optional when keystore-path is configured)
+    public static final String CONFIG_KEYSTORE_PATH = "keystore-path"; //Path to an unencrypted private key used to log in to the SFTP server
+    public static final String CONFIG_KNOWN_HOSTS = "known-hosts"; //Path to a known_hosts file used to verify the SFTP server
+    public static final String CONFIG_INSECURE_SKIP_HOST_KEY_CHECK = "insecure-skip-host-key-check"; //Set to true to connect without known-hosts; the server is not verified
+    public static final String CONFIG_BATCH_SIZE = "batch-size"; //Number of files to queue before pushing them together (default: 1); queued files are pushed at tearDown
+
+    public static final int DEFAULT_PORT = 22;
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".part";
+    private static Logger log = LoggerFactory.getLogger(SftpTransport.class);
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final String keyFile;
+    private final String knownHosts;
+    private final int batchSize;
+    private final Map<String, File> pending = new LinkedHashMap<String, File>();
+
+    private Session session;
+    private ChannelSftp channel;
+
+    /**
+     * @param host             SFTP server
+     * @param port             SSH port, normally DEFAULT_PORT
+     * @param user             user to log in as
+     * @param password         password for the user (may be null when keyFile is given)
+     * @param keyFile          path to an unencrypted private key (may be null)
+     * @param knownHosts       path to an OpenSSH known_hosts file used to verify the server
+     * @param skipHostKeyCheck must be true to allow a null knownHosts, in which case any host key is accepted
+     * @param batchSize        number of files to queue before they are sent
+     */
+    public SftpTransport(String host, int port, String user, String password, String keyFile, String knownHosts, boolean skipHostKeyCheck, int batchSize) {
+        if (knownHosts == null && !skipHostKeyCheck) {
+            throw new IllegalArgumentException("Param 'knownHosts' is required unless the host key check is skipped");
+        }
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.keyFile = keyFile;
+        this.knownHosts = knownHosts;
+        this.batchSize = Math.max(1, batchSize);
+        if (knownHosts == null) {
+            log.warn("...the host key of SFTP server [" + host + ":" + port + "] will not be checked. Configure '" + CONFIG_KNOWN_HOSTS + "' to verify it.");
+        }
+    }
+
+    /**
+     * Returns true if the connection configuration names an SFTP server.
+     */
+    public static boolean isConfigured(Map<String, String> config) {
+        return config.get(CONFIG_SERVER) != null;
+    }
+
+    /**
+     * Creates a transport from the CONFIG_* settings of a connection. known-hosts is required unless
+     * insecure-skip-host-key-check is set to true.
+     */
+    public static SftpTransport fromConfig(Map<String, String> config) throws IdMUnitException {
+        String user = config.get(CONFIG_USER);
+        String password = config.get(CONFIG_PASSWORD);
+        String keystorePath = config.get(CONFIG_KEYSTORE_PATH);
+        if (user == null || (password == null && keystorePath == null)) {
+            throw new IdMUnitException("'" + CONFIG_USER + "' and either '" + CONFIG_PASSWORD + "' or '" + CONFIG_KEYSTORE_PATH + "' must be configured if '" + CONFIG_SERVER + "' is configured.");
+        }
+        String knownHosts = config.get(CONFIG_KNOWN_HOSTS);
+        boolean skipHostKeyCheck = "true".equalsIgnoreCase(config.get(CONFIG_INSECURE_SKIP_HOST_KEY_CHECK));
+        if (knownHosts == null && !skipHostKeyCheck) {
+            throw new IdMUnitException("'" + CONFIG_KNOWN_HOSTS + "' must be configured if '" + CONFIG_SERVER + "' is configured. To connect without checking the server's host key set '"
+                + CONFIG_INSECURE_SKIP_HOST_KEY_CHECK + "' to true.");
+        }
+        int port = DEFAULT_PORT;
+        int batchSize = 1;
+        try {
+            if (config.get(CONFIG_PORT) != null) {
+                port = Integer.parseInt(config.get(CONFIG_PORT));
+            }
+            if (config.get(CONFIG_BATCH_SIZE) != null) {
+                batchSize = Integer.parseInt(config.get(CONFIG_BATCH_SIZE));
+            }
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("'" + CONFIG_PORT + "' and '" + CONFIG_BATCH_SIZE + "' must be numbers", e);
+        }
+        return new SftpTransport(config.get(CONFIG_SERVER), port, user, password, keystorePath, knownHosts, skipHostKeyCheck, batchSize);
+    }
+
+    static String remotePath(String remoteDir, String fileName) {
+        if (remoteDir == null || remoteDir.length() == 0) {
+            return fileName;
+        }
+        return remoteDir.endsWith("/") ? remoteDir + fileName : remoteDir + "/" + fileName;
+    }
+
+    static String tempPath(String remotePath) {
+        int slash = remotePath.lastIndexOf('/');
+        return remotePath.substring(0, slash + 1) + TEMP_PREFIX + remotePath.substring(slash + 1) + TEMP_SUFFIX;
+    }
+
+    /**
+     * Queues a local file for delivery to remoteDir, sending the queue if it is full. The file is read when the queue
+     * is sent, so it must not be changed until then. If a file is already queued under the same remote name, the
+     * queue is sent first so that both files are delivered in order.
+     */
+    public synchronized void send(File localFile, String remoteDir) throws IdMUnitException {
+        String remotePath = remotePath(remoteDir, localFile.getName());
+        if (pending.containsKey(remotePath)) {
+            flush();
+        }
+        pending.put(remotePath, localFile);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Sends all queued files over the current session, reconnecting once if the session was dropped.
+     */
+    public synchronized void flush() throws IdMUnitException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        connect();
+        Iterator<Map.Entry<String, File>> files = pending.entrySet().iterator();
+        while (files.hasNext()) {
+            Map.Entry<String, File> file = files.next();
+            try {
+                upload(file.getValue(), file.getKey());
+            } catch (IdMUnitException e) {
+                if (isConnected()) {
+                    throw e;
+                }
+                log.warn("...SFTP session to [" + host + "] was dropped, reconnecting.");
+                connect();
+                upload(file.getValue(), file.getKey());
+            }
+            files.remove();
+        }
+    }
+
+    /**
+     * Sends any queued files and closes the session.
+     */
+    public synchronized void close() throws IdMUnitException {
+        try {
+            flush();
+        } finally {
+            disconnect();
+        }
+    }
+
+    private boolean isConnected() {
+        return session != null && session.isConnected() && channel != null && channel.isConnected();
+    }
+
+    private void connect() throws IdMUnitException {
+        if (isConnected()) {
+            return;
+        }
+        disconnect();
+
+        JSch jsch = new JSch();
+        try {
+            if (keyFile != null) {
+                jsch.addIdentity(keyFile);
+            }
+            if (knownHosts != null) {
+                jsch.setKnownHosts(knownHosts);
+            }
+            session = jsch.getSession(user, host, port);
+            if (password != null) {
+                session.setPassword(password);
+            }
+            session.setConfig("StrictHostKeyChecking", knownHosts == null ? "no" : "yes");
+            session.connect(CONNECT_TIMEOUT);
+
+            Channel c = session.openChannel("sftp");
+            c.connect(CONNECT_TIMEOUT);
+            channel = (ChannelSftp)c;
+        } catch (JSchException e) {
+            disconnect();
+            throw new IdMUnitException("Failed to open an SFTP session to [" + user + "@" + host + ":" + port + "]: " + e.getMessage(), e);
+        }
+        log.info("...opened SFTP session to [" + host + ":" + port + "].");
+    }
+
+    private void disconnect() {
+        if (channel != null) {
+            channel.disconnect();
+            channel = null;
+        }
+        if (session != null) {
+            session.disconnect();
+            session = null;
+        }
+    }
+
+    private void upload(File localFile, String remotePath) throws IdMUnitException {
+        String tempPath = tempPath(remotePath);
+        InputStream in;
+        try {
+            in = new FileInputStream(localFile);
+        } catch (FileNotFoundException e) {
+            throw new IdMUnitException("Failed to read [" + localFile + "] for upload: " + e.getMessage(), e);
+        }
+
+        try {
+            channel.put(in, tempPath, ChannelSftp.OVERWRITE);
+            rename(tempPath, remotePath);
+        } catch (SftpException e) {
+            throw new IdMUnitException("Failed to push [" + localFile + "] to [" + host + ":" + remotePath + "]: " + e.getMessage(), e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn("Failed to close [" + localFile + "]", e);
+            }
+        }
+        log.info("...pushed [" + localFile.getName() + "] to [" + host + ":" + remotePath + "].");
+    }
+
+    private void rename(String from, String to) throws SftpException {
+        try {
+            channel.rename(from, to);
+        } catch (SftpException e) {
+            // SFTP version 3 servers will not rename over an existing file
+            try {
+                channel.rm(to);
+            } catch (SftpException notFound) {
+                throw e;
+            }
+            channel.rename(from, to);
+        }
+    }
+}
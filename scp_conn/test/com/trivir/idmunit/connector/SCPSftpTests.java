@@ -0,0 +1,123 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.trivir.idmunit.extension.SftpTransport;
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.ConnectionConfigData;
+
+import java.io.*;
+import java.util.*;
+
+public class SCPSftpTests extends TestCase {
+    private File cache;
+    private SCPConnector connector;
+    private RecordingTransport transport;
+
+    private static Collection<String> singleValue(String value) {
+        List<String> values = new ArrayList<String>();
+        values.add(value);
+        return values;
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = File.createTempFile("dtf", "");
+        cache.delete();
+        cache.mkdir();
+        connector = new SCPConnector();
+        ConnectionConfigData configurationData = new ConnectionConfigData("SCP", "com.trivir.idmunit.connector.SCPConnector");
+        configurationData.setParam(SCPConnector.ENABLE_SCP, "true");
+        configurationData.setParam(SCPConnector.SCP_PROFILE, "trivirvm");
+        configurationData.setParam(SCPConnector.WRITE_PATH, "/data/in");
+        configurationData.setParam(SCPConnector.DELIM, ",");
+        configurationData.setParam(SCPConnector.DTF_FILE_EXTENSION, "csv");
+        configurationData.setParam(SCPConnector.LOCAL_CACHE, cache.getPath() + File.separator);
+        configurationData.setParam(SCPConnector.WIN_SCP_EXE_PATH, "WinSCP3.exe");
+        connector.setup(configurationData.getParams());
+        transport = new RecordingTransport();
+        connector.setSftpTransport(transport);
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        connector.tearDown();
+        for (File file : cache.listFiles()) {
+            file.delete();
+        }
+        cache.delete();
+    }
+
+    public void testFilesWrittenInTheSameSecondAreAllDelivered() throws IdMUnitException {
+        Map<String, Collection<String>> data = new TreeMap<String, Collection<String>>();
+        data.put("FIELD1", singleValue("first"));
+        connector.opAddObjectIMPL(data);
+        data.put("FIELD1", singleValue("second"));
+        connector.opAddObjectIMPL(data);
+        connector.tearDown();
+
+        assertEquals(2, transport.delivered.size());
+        Collection<String> contents = transport.delivered.values();
+        assertTrue(contents.toString(), contents.contains("first,"));
+        assertTrue(contents.toString(), contents.contains("second,"));
+    }
+
+    /**
+     * Queues files like a batched SftpTransport and reads them only when the queue is sent.
+     */
+    private static class RecordingTransport extends SftpTransport {
+        private final List<String> queued = new ArrayList<String>();
+        private final Map<String, String> delivered = new LinkedHashMap<String, String>();
+
+        RecordingTransport() {
+            super("localhost", DEFAULT_PORT, "user", "password", null, null, true, 10);
+        }
+
+        public void send(File localFile, String remoteDir) {
+            queued.add(localFile.getPath());
+        }
+
+        public void close() throws IdMUnitException {
+            try {
+                for (String path : queued) {
+                    BufferedReader reader = new BufferedReader(new FileReader(path));
+                    try {
+                        delivered.put(path, reader.readLine());
+                    } finally {
+                        reader.close();
+                    }
+                }
+            } catch (IOException e) {
+                throw new IdMUnitException("Failed to read a queued file", e);
+            }
+            queued.clear();
+        }
+    }
+}
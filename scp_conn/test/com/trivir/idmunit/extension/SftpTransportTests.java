@@ -0,0 +1,155 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+package com.trivir.idmunit.extension;
+
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SftpTransportTests extends TestCase {
+    private File localFile;
+
+    private static int closedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        localFile = File.createTempFile("sftp", ".csv");
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        localFile.delete();
+    }
+
+    private static Map<String, String> config() {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(SftpTransport.CONFIG_SERVER, "localhost");
+        config.put(SftpTransport.CONFIG_USER, "user");
+        config.put(SftpTransport.CONFIG_PASSWORD, "password");
+        return config;
+    }
+
+    public void testKnownHostsIsRequired() throws Exception {
+        try {
+            SftpTransport.fromConfig(config());
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("'known-hosts' must be configured"));
+        }
+
+        try {
+            new SftpTransport("localhost", SftpTransport.DEFAULT_PORT, "user", "password", null, null, false, 1);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testHostKeyCheckCanBeSkippedExplicitly() throws Exception {
+        Map<String, String> config = config();
+        config.put(SftpTransport.CONFIG_INSECURE_SKIP_HOST_KEY_CHECK, "false");
+        try {
+            SftpTransport.fromConfig(config);
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            // expected
+        }
+
+        config.put(SftpTransport.CONFIG_INSECURE_SKIP_HOST_KEY_CHECK, "true");
+        assertNotNull(SftpTransport.fromConfig(config));
+
+        config.remove(SftpTransport.CONFIG_INSECURE_SKIP_HOST_KEY_CHECK);
+        config.put(SftpTransport.CONFIG_KNOWN_HOSTS, "known_hosts");
+        assertNotNull(SftpTransport.fromConfig(config));
+    }
+
+    public void testRemotePath() {
+        assertEquals("/data/in/file.csv", SftpTransport.remotePath("/data/in", "file.csv"));
+        assertEquals("/data/in/file.csv", SftpTransport.remotePath("/data/in/", "file.csv"));
+        assertEquals("file.csv", SftpTransport.remotePath("", "file.csv"));
+        assertEquals("file.csv", SftpTransport.remotePath(null, "file.csv"));
+    }
+
+    public void testTempPathIsHiddenInSameDirectory() {
+        assertEquals("/data/in/.file.csv.part", SftpTransport.tempPath("/data/in/file.csv"));
+        assertEquals(".file.csv.part", SftpTransport.tempPath("file.csv"));
+    }
+
+    public void testFilesAreQueuedUntilBatchIsFull() throws Exception {
+        SftpTransport transport = new SftpTransport("localhost", closedPort(), "user", "password", null, null, true, 3);
+        transport.send(localFile, "/data/in");
+        assertEquals(1, transport.getPendingCount());
+        transport.send(localFile, "/data/out");
+        assertEquals(2, transport.getPendingCount());
+    }
+
+    public void testReusedRemoteNameSendsQueueFirst() throws Exception {
+        SftpTransport transport = new SftpTransport("localhost", closedPort(), "user", "password", null, null, true, 3);
+        transport.send(localFile, "/data/in");
+        try {
+            transport.send(localFile, "/data/in/");
+            fail("Should have tried to send the queued file");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to open an SFTP session to [user@localhost:"));
+        }
+        assertEquals(1, transport.getPendingCount());
+    }
+
+    public void testFailedConnectKeepsQueue() throws Exception {
+        SftpTransport transport = new SftpTransport("localhost", closedPort(), "user", "password", null, null, true, 1);
+        try {
+            transport.send(localFile, "/data/in");
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to open an SFTP session to [user@localhost:"));
+        }
+        assertEquals(1, transport.getPendingCount());
+
+        try {
+            transport.close();
+            fail("Should have thrown exception");
+        } catch (IdMUnitException e) {
+            // expected
+        }
+    }
+
+    public void testCloseWithNothingQueuedDoesNotConnect() throws Exception {
+        SftpTransport transport = new SftpTransport("localhost", closedPort(), "user", "password", null, null, true, 1);
+        transport.close();
+    }
+}
@@ -33,18 +33,16 @@ import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.util.EntityUtils;
-import org.custommonkey.xmlunit.XMLAssert;
-import org.custommonkey.xmlunit.exceptions.XpathException;
 import org.idmunit.IdMUnitException;
 import org.idmunit.IdMUnitFailureException;
 import org.idmunit.connector.AbstractConnector;
@@ -57,6 +55,7 @@ import org.xml.sax.SAXException;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import javax.xml.xpath.XPathExpressionException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
@@ -66,27 +65,46 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.*;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 public class SoapClientConnector extends AbstractConnector {
     static final String CONFIG_HTTP_REQUEST_HEADERS = "httpRequestHeaders";
+    static final String CONFIG_MAX_CONNECTIONS = "maxConnections";
 
     static final String ATTR_URL = "url";
     static final String ATTR_REQUEST = "request";
     static final String ATTR_RESPONSE = "response";
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
     private static Logger log = LoggerFactory.getLogger(SoapClientConnector.class);
     protected String username;
     protected String password;
     // TODO: support the validation of httpResponseHeaders .. hasn't been needed so it hasn't been implemented.
     protected Set<String> httpRequestHeaders;
+    // One client per connector, its connections are kept alive and reused across rows
+    private DefaultHttpClient httpClient;
+    private final ConcurrentMap<String, Pattern> regexCache = new ConcurrentHashMap<String, Pattern>();
+    private final XpathEvaluator xpathEvaluator = new XpathEvaluator();
 
     public void tearDown() {
+        if (httpClient != null) {
+            httpClient.getConnectionManager().shutdown();
+            httpClient = null;
+        }
     }
 
     public void setup(Map<String, String> config) throws IdMUnitException {
         username = config.get(BasicConnector.CONFIG_USER);
         password = config.get(BasicConnector.CONFIG_PASSWORD);
+        if (username == null && password != null) {
+            throw new IdMUnitException("SoapClientConnector username isn't setup correctly in the idmunit-config file.");
+        }
+        if (username != null) {
+            username = username.trim();
+            password = password == null ? "" : password.trim();
+        }
+
         String headers = config.get(SoapClientConnector.CONFIG_HTTP_REQUEST_HEADERS);
         httpRequestHeaders = new HashSet<String>();
         if (headers != null) {
@@ -94,6 +112,22 @@ public class SoapClientConnector extends AbstractConnector {
                 httpRequestHeaders.add(header);
             }
         }
+
+        int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        String maxConnectionsValue = config.get(CONFIG_MAX_CONNECTIONS);
+        if (maxConnectionsValue != null) {
+            try {
+                maxConnections = Integer.parseInt(maxConnectionsValue.trim());
+            } catch (NumberFormatException e) {
+                throw new IdMUnitException("'" + CONFIG_MAX_CONNECTIONS + "' must be a number, but: [" + maxConnectionsValue + "] was provided.");
+            }
+            if (maxConnections < 1) {
+                throw new IdMUnitException("'" + CONFIG_MAX_CONNECTIONS + "' must be at least 1, but: [" + maxConnectionsValue + "] was provided.");
+            }
+        }
+
+        tearDown();
+        httpClient = buildHttpClient(maxConnections);
     }
 
     public void opValidateXpath(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -106,18 +140,10 @@ public class SoapClientConnector extends AbstractConnector {
 
         String response = getResponse(url, request, headerValues);
 
-        try {
-            log.debug("Expected: " + expectedResponse);
-            log.debug("Actual  : " + response);
-            XMLAssert.assertXpathExists(expectedResponse, response);
-            log.info("Response: " + response);
-        } catch (IOException e) {
-            throw new IdMUnitFailureException("The xpath expression didn't match. [" + expectedResponse + "] did not match:\n\t" + response, e);
-        } catch (SAXException e) {
-            throw new IdMUnitFailureException("The xpath expression didn't match. [" + expectedResponse + "] did not match:\n\t" + response, e);
-        } catch (XpathException e) {
-            throw new IdMUnitFailureException("The xpath expression didn't match. [" + expectedResponse + "] did not match:\n\t" + response, e);
-        }
+        log.debug("Expected: " + expectedResponse);
+        log.debug("Actual  : " + response);
+        validateXpath(expectedResponse, response);
+        log.info("Response: " + response);
     }
 
     public void opValidateRegex(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -132,17 +158,59 @@ public class SoapClientConnector extends AbstractConnector {
 
         log.debug("ExpectedResponse: " + expectedResponse);
         log.debug("Response(Actual): " + response);
-        log.debug("Did they match?: " + response.matches(expectedResponse));
+        validateRegex(expectedResponse, response);
+    }
+
+    /**
+     * Sends requests built from a template concurrently and validates each response. Reports the
+     * throughput, error count and latency percentiles.
+     */
+    public void opLoadTest(Map<String, Collection<String>> data) throws IdMUnitException {
+        Map<String, Collection<String>> headerValues = new HashMap<String, Collection<String>>(data);
+        headerValues.keySet().retainAll(httpRequestHeaders);
+
+        SoapLoadTest loadTest = new SoapLoadTest(this, data, headerValues);
+        SoapLoadTest.Report report = loadTest.run();
+        if (report.errorCount > loadTest.getMaxErrors()) {
+            throw new IdMUnitFailureException(report.toString());
+        }
+    }
+
+    void validateXpath(String expression, String response) throws IdMUnitFailureException {
+        boolean exists;
+        try {
+            exists = xpathEvaluator.exists(expression, response == null ? "" : response);
+        } catch (IOException e) {
+            throw new IdMUnitFailureException("The xpath expression didn't match. [" + expression + "] did not match:\n\t" + response, e);
+        } catch (SAXException e) {
+            throw new IdMUnitFailureException("The xpath expression didn't match. [" + expression + "] did not match:\n\t" + response, e);
+        } catch (XPathExpressionException e) {
+            throw new IdMUnitFailureException("The xpath expression didn't match. [" + expression + "] did not match:\n\t" + response, e);
+        }
+        if (!exists) {
+            throw new IdMUnitFailureException("The xpath expression didn't match. [" + expression + "] did not match:\n\t" + response);
+        }
+    }
 
-        Pattern pattern = Pattern.compile(expectedResponse, Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(response);
+    void validateRegex(String expression, String response) throws IdMUnitFailureException {
+        Pattern pattern = regexCache.get(expression);
+        if (pattern == null) {
+            pattern = Pattern.compile(expression, Pattern.DOTALL);
+            regexCache.put(expression, pattern);
+        }
 
-        if (!matcher.matches()) {
-            throw new IdMUnitFailureException("The regex expression didn't match the response. Regex: [" + expectedResponse + "] did not match:\n\t" + response);
+        boolean matches = pattern.matcher(response == null ? "" : response).matches();
+        log.debug("Did they match?: " + matches);
+        if (!matches) {
+            throw new IdMUnitFailureException("The regex expression didn't match the response. Regex: [" + expression + "] did not match:\n\t" + response);
         }
     }
 
     public String getResponse(String url, String request, Map<String, Collection<String>> httpHeaders) throws IdMUnitException {
+        if (httpClient == null) {
+            throw new IdMUnitException("SoapClientConnector has not been setup.");
+        }
+
         StringEntity requestEntity;
         try {
             requestEntity = new StringEntity(request, "UTF-8");
@@ -152,7 +220,7 @@ public class SoapClientConnector extends AbstractConnector {
 
         requestEntity.setContentType("text/xml");
 
-        HttpClient client = buildHttpClient(url, username, password);
+        addCredentials(url);
         HttpPost post = new HttpPost(url);
         post.setEntity(requestEntity);
 
@@ -178,63 +246,37 @@ public class SoapClientConnector extends AbstractConnector {
 
         String response;
         try {
-            response = client.execute(post, handler);
+            response = httpClient.execute(post, handler);
         } catch (IOException e) {
             throw new IdMUnitException("Error sending request.", e);
         }
         return response;
     }
 
-    public HttpClient buildHttpClient(String urlString, String clientUsername, String clientPassword) throws IdMUnitException {
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-
-        if (clientUsername == null && clientPassword != null) {
-            throw new IdMUnitException("SoapClientConnector username isn't setup correctly in the idmunit-config file.");
-        }
-
+    /**
+     * Checks the URL and makes the configured credentials available for its host and port.
+     */
+    private void addCredentials(String urlString) throws IdMUnitException {
         URI uri;
-        int port = -1;
-        boolean isHttps = false;
-        String scheme;
         try {
             uri = new URI(urlString);
-            scheme = uri.getScheme().toLowerCase();
-
-            if (!("https".equals(scheme) || "http".equals(scheme))) {
-                throw new IdMUnitException(String.format("SOAP URL contains unknown scheme '%s'.", uri.getScheme()));
-            }
-
-            if ("http".equals(scheme)) {
-                if (uri.getPort() == -1) {
-                    port = 80;
-                } else {
-                    port = uri.getPort();
-                }
-            } else if ("https".equals(scheme)) {
-                if (uri.getPort() == -1) {
-                    port = 443;
-                } else {
-                    port = uri.getPort();
-                }
-                isHttps = true;
-            }
-
         } catch (URISyntaxException e) {
             throw new IdMUnitException("Soap URL has bad syntax.", e);
         }
 
-        if (clientUsername != null) {
-            this.username = clientUsername.trim();
-            this.password = clientPassword == null ? "" : clientPassword.trim();
-            httpClient.getCredentialsProvider().setCredentials(
-                    new AuthScope(uri.getHost(), uri.getPort(), AuthScope.ANY_SCHEME),
-                    new UsernamePasswordCredentials(clientUsername, clientPassword));
+        String scheme = uri.getScheme() == null ? null : uri.getScheme().toLowerCase();
+        if (!("https".equals(scheme) || "http".equals(scheme))) {
+            throw new IdMUnitException(String.format("SOAP URL contains unknown scheme '%s'.", uri.getScheme()));
         }
 
-        if (!isHttps) {
-            return httpClient; //If it isn't https, then we are done here.
+        if (username != null) {
+            httpClient.getCredentialsProvider().setCredentials(
+                    new AuthScope(uri.getHost(), uri.getPort(), AuthScope.ANY_SCHEME),
+                    new UsernamePasswordCredentials(username, password));
         }
+    }
 
+    static DefaultHttpClient buildHttpClient(int maxConnections) throws IdMUnitException {
         SSLContext ctx;
         try {
             ctx = SSLContext.getInstance("TLS");
@@ -260,10 +302,14 @@ public class SoapClientConnector extends AbstractConnector {
             throw new IdMUnitException("SSLContext failed to initialize.", e);
         }
         SSLSocketFactory ssf = new SSLSocketFactory(ctx, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-        ClientConnectionManager ccm = httpClient.getConnectionManager();
-        SchemeRegistry sr = ccm.getSchemeRegistry();
-        sr.register(new Scheme(scheme, port, ssf));
 
-        return httpClient;
+        SchemeRegistry sr = new SchemeRegistry();
+        sr.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+        sr.register(new Scheme("https", 443, ssf));
+
+        ThreadSafeClientConnManager ccm = new ThreadSafeClientConnManager(sr);
+        ccm.setMaxTotal(maxConnections);
+        ccm.setDefaultMaxPerRoute(maxConnections);
+        return new DefaultHttpClient(ccm);
     }
 }
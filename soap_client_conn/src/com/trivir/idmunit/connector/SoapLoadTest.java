@@ -0,0 +1,265 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.trivir.idmunit.util.ValueSource;
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.ConnectorUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends many requests built from a template concurrently, at a target rate, and validates every
+ * response. Used by SoapClientConnector.opLoadTest.
+ */
+final class SoapLoadTest {
+    static final String ATTR_VALUES = ValueSource.ATTR_VALUES;
+    static final String ATTR_RANGE = ValueSource.ATTR_RANGE;
+    static final String ATTR_CSV_FILE = ValueSource.ATTR_CSV_FILE;
+    static final String ATTR_COUNT = "count";
+    static final String ATTR_THREADS = "threads";
+    static final String ATTR_RATE = "rate";
+    static final String ATTR_VALIDATION = "validation";
+    static final String ATTR_MAX_ERRORS = "maxErrors";
+
+    static final String VALIDATION_REGEX = "regex";
+    static final String VALIDATION_XPATH = "xpath";
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static Logger log = LoggerFactory.getLogger(SoapLoadTest.class);
+
+    private final SoapClientConnector connector;
+    private final String url;
+    private final String requestTemplate;
+    private final String responseTemplate;
+    private final boolean xpath;
+    private final List<Map<String, String>> values;
+    private final int count;
+    private final int threads;
+    private final double rate;
+    private final int maxErrors;
+    private final Map<String, Collection<String>> httpHeaders;
+
+    SoapLoadTest(SoapClientConnector connector, Map<String, Collection<String>> data, Map<String, Collection<String>> httpHeaders) throws IdMUnitException {
+        this.connector = connector;
+        this.httpHeaders = httpHeaders;
+        url = ConnectorUtil.getSingleValue(data, SoapClientConnector.ATTR_URL);
+        requestTemplate = ConnectorUtil.getSingleValue(data, SoapClientConnector.ATTR_REQUEST);
+        responseTemplate = ConnectorUtil.getSingleValue(data, SoapClientConnector.ATTR_RESPONSE);
+        if (url == null) {
+            throw new IdMUnitException("No value provided for '" + SoapClientConnector.ATTR_URL + "'");
+        }
+        if (requestTemplate == null) {
+            throw new IdMUnitException("No value provided for '" + SoapClientConnector.ATTR_REQUEST + "'");
+        }
+
+        String validation = ConnectorUtil.getSingleValue(data, ATTR_VALIDATION);
+        if (validation == null || VALIDATION_REGEX.equalsIgnoreCase(validation)) {
+            xpath = false;
+        } else if (VALIDATION_XPATH.equalsIgnoreCase(validation)) {
+            xpath = true;
+        } else {
+            throw new IdMUnitException("'" + ATTR_VALIDATION + "' must be '" + VALIDATION_REGEX + "' or '" + VALIDATION_XPATH + "', but: [" + validation + "] was provided.");
+        }
+
+        values = readValues(data);
+        count = getInt(data, ATTR_COUNT, values.size());
+        threads = getInt(data, ATTR_THREADS, DEFAULT_THREADS);
+        maxErrors = getInt(data, ATTR_MAX_ERRORS, 0);
+        String rateValue = ConnectorUtil.getSingleValue(data, ATTR_RATE);
+        try {
+            rate = rateValue == null ? 0 : Double.parseDouble(rateValue.trim());
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("'" + ATTR_RATE + "' must be a number of requests per second, but: [" + rateValue + "] was provided.");
+        }
+        if (count < 1 || threads < 1 || rate < 0) {
+            throw new IdMUnitException("'" + ATTR_COUNT + "' and '" + ATTR_THREADS + "' must be at least 1 and '" + ATTR_RATE + "' cannot be negative.");
+        }
+    }
+
+    int getMaxErrors() {
+        return maxErrors;
+    }
+
+    Report run() throws IdMUnitException {
+        final long[] latencies = new long[count];
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger errorCount = new AtomicInteger();
+        final AtomicInteger next = new AtomicInteger();
+        final long start = System.nanoTime();
+        // Requests are started on a fixed schedule so that slow responses do not lower the rate
+        final long intervalNanos = rate == 0 ? 0 : (long)(TimeUnit.SECONDS.toNanos(1) / rate);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int n = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SoapLoadTest-" + ++n);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(new Callable<Void>() {
+                public Void call() throws InterruptedException {
+                    int i;
+                    while ((i = next.getAndIncrement()) < count) {
+                        long wait = start + i * intervalNanos - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        Map<String, String> value = values.get(i % values.size());
+                        long sent = System.nanoTime();
+                        String error = send(value);
+                        latencies[i] = System.nanoTime() - sent;
+                        if (error != null) {
+                            errorCount.incrementAndGet();
+                            if (errors.size() < MAX_REPORTED_ERRORS) {
+                                errors.add("Request " + (i + 1) + ": " + error);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdMUnitException("Interrupted while sending requests");
+        } catch (ExecutionException e) {
+            throw new IdMUnitException("Error sending requests.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Report report = new Report(count, errorCount.get(), System.nanoTime() - start, latencies, errors);
+        log.info(report.summary());
+        return report;
+    }
+
+    /**
+     * Sends one request and returns why it failed, or null if its response was valid.
+     */
+    private String send(Map<String, String> value) {
+        try {
+            String response = connector.getResponse(url, ValueSource.substitute(requestTemplate, value), httpHeaders);
+            if (responseTemplate != null) {
+                String expected = ValueSource.substitute(responseTemplate, value);
+                if (xpath) {
+                    connector.validateXpath(expected, response);
+                } else {
+                    connector.validateRegex(expected, response);
+                }
+            }
+            return null;
+        } catch (IdMUnitException e) {
+            Throwable cause = e.getCause();
+            return cause == null ? e.getMessage() : e.getMessage() + " (" + cause + ")";
+        }
+    }
+
+    static List<Map<String, String>> readValues(Map<String, Collection<String>> data) throws IdMUnitException {
+        List<Map<String, String>> values = ValueSource.open(data).readAll();
+        if (values.isEmpty()) {
+            throw new IdMUnitException("No values were generated for the requests.");
+        }
+        return values;
+    }
+
+    private static int getInt(Map<String, Collection<String>> data, String name, int defaultValue) throws IdMUnitException {
+        String value = ConnectorUtil.getSingleValue(data, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("'" + name + "' must be a number, but: [" + value + "] was provided.");
+        }
+    }
+
+    static final class Report {
+        final int total;
+        final int errorCount;
+        final long elapsedNanos;
+        final long[] sortedLatencies;
+        final List<String> errors;
+
+        Report(int total, int errorCount, long elapsedNanos, long[] latencies, List<String> errors) {
+            this.total = total;
+            this.errorCount = errorCount;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = latencies.clone();
+            Arrays.sort(sortedLatencies);
+            this.errors = new ArrayList<String>(errors);
+        }
+
+        double throughput() {
+            return elapsedNanos == 0 ? 0 : total * (double)TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        /**
+         * Returns the latency in milliseconds below which the given percentage of requests completed.
+         */
+        double percentileMillis(double percentile) {
+            int rank = (int)Math.ceil(percentile / 100 * sortedLatencies.length);
+            int index = Math.min(Math.max(rank - 1, 0), sortedLatencies.length - 1);
+            return sortedLatencies[index] / 1000000.0;
+        }
+
+        String summary() {
+            return String.format("Sent %d requests in %d ms (%.1f/s): %d errors, latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                total, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), throughput(), errorCount,
+                percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(100));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(summary()).append("\r\n");
+            for (String error : errors) {
+                sb.append(error).append("\r\n");
+            }
+            if (errorCount > errors.size()) {
+                sb.append("... ").append(errorCount - errors.size()).append(" more errors\r\n");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks whether an XPath expression selects any node in an XML document. Expressions are compiled
+ * once and cached by their text.
+ * <p>
+ * Simple location paths are evaluated while streaming the document with StAX, and stop at the first
+ * match, so large responses are not parsed into a DOM. A simple path is made of /name, //name, /*
+ * and /*[local-name()='name'] steps, optionally ending in /@attribute or /text(). Other expressions
+ * are evaluated against a DOM.
+ */
+final class XpathEvaluator {
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.\\-]*");
+    private static final Pattern LOCAL_NAME_STEP = Pattern.compile("\\*\\[\\s*local-name\\(\\)\\s*=\\s*(['\"])([A-Za-z_][A-Za-z0-9_.\\-]*)\\1\\s*\\]");
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>() {
+        protected DocumentBuilder initialValue() {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            try {
+                return factory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException("Unable to create a document builder", e);
+            }
+        }
+    };
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    // SimplePath or XPathExpression by expression text
+    private final ConcurrentMap<String, Object> compiled = new ConcurrentHashMap<String, Object>();
+
+    boolean exists(String xpath, String xml) throws IOException, SAXException, XPathExpressionException {
+        Object expression = compile(xpath);
+        if (expression instanceof SimplePath) {
+            try {
+                return ((SimplePath)expression).existsIn(xml);
+            } catch (XMLStreamException e) {
+                throw new SAXException(e);
+            }
+        }
+        return existsInDom((XPathExpression)expression, xml);
+    }
+
+    // Package access method to facilitate testing
+    boolean existsWithDom(String xpath, String xml) throws IOException, SAXException, XPathExpressionException {
+        return existsInDom(compileXpath(xpath), xml);
+    }
+
+    private Object compile(String xpath) throws XPathExpressionException {
+        Object expression = compiled.get(xpath);
+        if (expression == null) {
+            expression = SimplePath.parse(xpath);
+            if (expression == null) {
+                expression = compileXpath(xpath);
+            }
+            compiled.put(xpath, expression);
+        }
+        return expression;
+    }
+
+    private static XPathExpression compileXpath(String xpath) throws XPathExpressionException {
+        return XPathFactory.newInstance().newXPath().compile(xpath);
+    }
+
+    private static boolean existsInDom(XPathExpression expression, String xml) throws IOException, SAXException, XPathExpressionException {
+        Document document = DOCUMENT_BUILDER.get().parse(new InputSource(new StringReader(xml)));
+        NodeList nodes;
+        // XPathExpression is not thread safe
+        synchronized (expression) {
+            nodes = (NodeList)expression.evaluate(document, XPathConstants.NODESET);
+        }
+        return nodes.getLength() > 0;
+    }
+
+    static final class SimplePath {
+        // Local name of each element step, or null for any element
+        private final String[] names;
+        // Whether the step matches elements in any namespace, otherwise only in no namespace
+        private final boolean[] anyNamespace;
+        // Whether the step is preceded by // rather than /
+        private final boolean[] descendant;
+        private final String attribute;
+        private final boolean text;
+
+        private SimplePath(List<String> names, List<Boolean> anyNamespace, List<Boolean> descendant, String attribute, boolean text) {
+            this.names = names.toArray(new String[names.size()]);
+            this.anyNamespace = new boolean[names.size()];
+            this.descendant = new boolean[names.size()];
+            for (int i = 0; i < this.names.length; i++) {
+                this.anyNamespace[i] = anyNamespace.get(i);
+                this.descendant[i] = descendant.get(i);
+            }
+            this.attribute = attribute;
+            this.text = text;
+        }
+
+        /**
+         * Returns the path, or null if the expression is not a simple path.
+         */
+        static SimplePath parse(String xpath) {
+            String path = xpath.trim();
+            List<String> names = new ArrayList<String>();
+            List<Boolean> anyNamespace = new ArrayList<Boolean>();
+            List<Boolean> descendant = new ArrayList<Boolean>();
+            String attribute = null;
+            boolean text = false;
+
+            int pos = 0;
+            while (pos < path.length()) {
+                boolean descendantStep;
+                if (path.startsWith("//", pos)) {
+                    descendantStep = true;
+                    pos += 2;
+                } else if (path.charAt(pos) == '/') {
+                    descendantStep = false;
+                    pos++;
+                } else {
+                    return null;
+                }
+                if (attribute != null || text) {
+                    return null;
+                }
+
+                int end = path.indexOf('/', pos);
+                if (end == -1) {
+                    end = path.length();
+                }
+                String step = path.substring(pos, end);
+                pos = end;
+
+                Matcher localName = LOCAL_NAME_STEP.matcher(step);
+                if ("text()".equals(step)) {
+                    if (descendantStep || names.isEmpty()) {
+                        return null;
+                    }
+                    text = true;
+                } else if (step.startsWith("@")) {
+                    if (descendantStep || names.isEmpty() || !NAME.matcher(step.substring(1)).matches()) {
+                        return null;
+                    }
+                    attribute = step.substring(1);
+                } else if ("*".equals(step)) {
+                    names.add(null);
+                    anyNamespace.add(true);
+                    descendant.add(descendantStep);
+                } else if (NAME.matcher(step).matches()) {
+                    names.add(step);
+                    anyNamespace.add(false);
+                    descendant.add(descendantStep);
+                } else if (localName.matches()) {
+                    names.add(localName.group(2));
+                    anyNamespace.add(true);
+                    descendant.add(descendantStep);
+                } else {
+                    return null;
+                }
+            }
+
+            if (names.isEmpty()) {
+                return null;
+            }
+            return new SimplePath(names, anyNamespace, descendant, attribute, text);
+        }
+
+        boolean existsIn(String xml) throws XMLStreamException {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+            try {
+                // The steps that the children of each open element may match next
+                LinkedList<BitSet> open = new LinkedList<BitSet>();
+                BitSet document = new BitSet();
+                document.set(0);
+                open.push(document);
+                // Depths of open elements that matched a path ending in text()
+                BitSet textDepths = new BitSet();
+
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            BitSet parent = open.peek();
+                            BitSet steps = new BitSet();
+                            boolean matched = false;
+                            for (int i = parent.nextSetBit(0); i >= 0; i = parent.nextSetBit(i + 1)) {
+                                if (descendant[i]) {
+                                    steps.set(i);
+                                }
+                                if (matches(i, reader)) {
+                                    if (i + 1 == names.length) {
+                                        matched = true;
+                                    } else {
+                                        steps.set(i + 1);
+                                    }
+                                }
+                            }
+                            open.push(steps);
+                            if (matched) {
+                                if (text) {
+                                    textDepths.set(open.size());
+                                } else if (attribute == null || hasAttribute(reader)) {
+                                    return true;
+                                }
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            textDepths.clear(open.size());
+                            open.pop();
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.SPACE:
+                            if (textDepths.get(open.size()) && reader.getTextLength() > 0) {
+                                return true;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                return false;
+            } finally {
+                reader.close();
+            }
+        }
+
+        private boolean matches(int step, XMLStreamReader reader) {
+            if (names[step] != null && !names[step].equals(reader.getLocalName())) {
+                return false;
+            }
+            return anyNamespace[step] || isEmpty(reader.getNamespaceURI());
+        }
+
+        private boolean hasAttribute(XMLStreamReader reader) {
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                if (attribute.equals(reader.getAttributeLocalName(i)) && isEmpty(reader.getAttributeNamespace(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isEmpty(String s) {
+            return s == null || s.length() == 0;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.idmunit.IdMUnitException;
+import org.idmunit.IdMUnitFailureException;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests against a SOAP endpoint stub running in the test.
+ */
+public class SoapClientConnectorLocalTests extends TestCase {
+    static final String RESPONSE =
+            "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+                    "<S:Body><ns2:generateResponse xmlns:ns2=\"http://predic8.com/wsdl/IDService/1/\"><id>%s</id></ns2:generateResponse></S:Body>" +
+                    "</S:Envelope>";
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private SoapClientConnector conn;
+    private String url;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Set<String> clients = Collections.synchronizedSet(new HashSet<String>());
+
+    protected void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/soap", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                clients.add(exchange.getRemoteAddress().toString());
+                String request = read(exchange.getRequestBody());
+                int start = request.indexOf("<ns:generate>");
+                String id = start == -1 ? "none" : request.substring(start + "<ns:generate>".length(), request.indexOf("</ns:generate>"));
+                byte[] body = String.format(RESPONSE, id).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        serverThreads = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverThreads);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/soap";
+
+        conn = new SoapClientConnector();
+        Map<String, String> config = new TreeMap<String, String>();
+        config.put("user", "testUserName");
+        config.put("password", "testPassword");
+        conn.setup(config);
+    }
+
+    protected void tearDown() throws Exception {
+        conn.tearDown();
+        server.stop(0);
+        serverThreads.shutdown();
+    }
+
+    static String read(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        is.close();
+        return new String(bytes.toByteArray(), "UTF-8");
+    }
+
+    static String request(String id) {
+        return "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:ns=\"http://predic8.com/wsdl/IDService/1/\">" +
+                "<soapenv:Body><ns:generate>" + id + "</ns:generate></soapenv:Body>" +
+                "</soapenv:Envelope>";
+    }
+
+    private Map<String, Collection<String>> row(String id, String response) {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put(SoapClientConnector.ATTR_URL, Collections.singletonList(url));
+        data.put(SoapClientConnector.ATTR_REQUEST, Collections.singletonList(request(id)));
+        data.put(SoapClientConnector.ATTR_RESPONSE, Collections.singletonList(response));
+        return data;
+    }
+
+    public void testConnectionIsReused() throws IdMUnitException {
+        for (int i = 0; i < 5; i++) {
+            conn.opValidateRegex(row("id" + i, ".+<id>id" + i + "</id>.+"));
+            conn.opValidateXpath(row("id" + i, "//*[local-name()='generateResponse']/id/text()"));
+        }
+        assertEquals(10, requests.get());
+        assertEquals(1, clients.size());
+    }
+
+    public void testRegexMismatch() throws IdMUnitException {
+        try {
+            conn.opValidateRegex(row("id1", ".+<id>id2</id>.+"));
+            fail("Expected a mismatch");
+        } catch (IdMUnitFailureException e) {
+            assertTrue(e.getMessage().startsWith("The regex expression didn't match the response."));
+        }
+    }
+
+    public void testXpathMismatch() throws IdMUnitException {
+        try {
+            conn.opValidateXpath(row("id1", "//missing"));
+            fail("Expected a mismatch");
+        } catch (IdMUnitFailureException e) {
+            assertTrue(e.getMessage().startsWith("The xpath expression didn't match."));
+        }
+    }
+
+    public void testBadScheme() {
+        Map<String, Collection<String>> data = row("id1", ".*");
+        data.put(SoapClientConnector.ATTR_URL, Collections.singletonList("ftp://127.0.0.1/soap"));
+        try {
+            conn.opValidateRegex(data);
+            fail("Expected an error");
+        } catch (IdMUnitException e) {
+            assertEquals("SOAP URL contains unknown scheme 'ftp'.", e.getMessage());
+        }
+    }
+
+    public void testMaxConnectionsMustBePositive() {
+        for (String value : new String[] {"0", "-1"}) {
+            Map<String, String> config = new TreeMap<String, String>();
+            config.put(SoapClientConnector.CONFIG_MAX_CONNECTIONS, value);
+            try {
+                new SoapClientConnector().setup(config);
+                fail("Expected an error for " + value);
+            } catch (IdMUnitException e) {
+                assertEquals("'maxConnections' must be at least 1, but: [" + value + "] was provided.", e.getMessage());
+            }
+        }
+    }
+
+    private Map<String, Collection<String>> loadTestRow(String response) {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        data.put(SoapClientConnector.ATTR_URL, Collections.singletonList(url));
+        data.put(SoapClientConnector.ATTR_REQUEST, Collections.singletonList(request("${value}")));
+        data.put(SoapClientConnector.ATTR_RESPONSE, Collections.singletonList(response));
+        data.put(SoapLoadTest.ATTR_THREADS, Collections.singletonList("4"));
+        return data;
+    }
+
+    public void testLoadTestRange() throws IdMUnitException {
+        Map<String, Collection<String>> data = loadTestRow(".+<id>${value}</id>.+");
+        data.put(SoapLoadTest.ATTR_RANGE, Collections.singletonList("1-50"));
+
+        conn.opLoadTest(data);
+        assertEquals(50, requests.get());
+    }
+
+    public void testLoadTestValuesWithXpath() throws IdMUnitException {
+        Map<String, Collection<String>> data = loadTestRow("//id[text()='${value}']");
+        data.put(SoapLoadTest.ATTR_VALUES, Arrays.asList("a", "b", "c"));
+        data.put(SoapLoadTest.ATTR_VALIDATION, Collections.singletonList("xpath"));
+        data.put(SoapLoadTest.ATTR_COUNT, Collections.singletonList("9"));
+
+        conn.opLoadTest(data);
+        assertEquals(9, requests.get());
+    }
+
+    public void testLoadTestCsv() throws IdMUnitException, IOException {
+        File csv = File.createTempFile("loadtest", ".csv");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+            writer.write("id,expected\n\"x,1\",x\n\"y,2\",y\n");
+            writer.close();
+
+            Map<String, Collection<String>> data = loadTestRow(".+<id>${expected},\\d</id>.+");
+            data.put(SoapClientConnector.ATTR_REQUEST, Collections.singletonList(request("${id}")));
+            data.put(SoapLoadTest.ATTR_CSV_FILE, Collections.singletonList(csv.getPath()));
+
+            conn.opLoadTest(data);
+            assertEquals(2, requests.get());
+        } finally {
+            csv.delete();
+        }
+    }
+
+    public void testLoadTestErrors() throws IdMUnitException {
+        Map<String, Collection<String>> data = loadTestRow(".+<id>wrong</id>.+");
+        data.put(SoapLoadTest.ATTR_RANGE, Collections.singletonList("1-20"));
+        try {
+            conn.opLoadTest(data);
+            fail("Expected a failure");
+        } catch (IdMUnitFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(": 20 errors,"));
+            assertTrue(e.getMessage(), e.getMessage().contains("... 10 more errors"));
+        }
+
+        data.put(SoapLoadTest.ATTR_MAX_ERRORS, Collections.singletonList("20"));
+        conn.opLoadTest(data);
+    }
+
+    public void testLoadTestRate() throws IdMUnitException {
+        Map<String, Collection<String>> data = loadTestRow(".+");
+        data.put(SoapLoadTest.ATTR_RANGE, Collections.singletonList("1-11"));
+        data.put(SoapLoadTest.ATTR_RATE, Collections.singletonList("50"));
+
+        long start = System.currentTimeMillis();
+        conn.opLoadTest(data);
+        // The 11th request is not started until 200 ms in
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    public void testLoadTestNeedsOneValueSource() {
+        Map<String, Collection<String>> data = loadTestRow(".+");
+        try {
+            conn.opLoadTest(data);
+            fail("Expected an error");
+        } catch (IdMUnitException e) {
+            assertEquals("Exactly one of 'values', 'range' or 'csvFile' must be provided.", e.getMessage());
+        }
+    }
+
+    public void testReportPercentiles() {
+        long[] latencies = new long[100];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (100 - i) * 1000000L;
+        }
+        SoapLoadTest.Report report = new SoapLoadTest.Report(100, 0, 1000000000L, latencies, new ArrayList<String>());
+        assertEquals(50.0, report.percentileMillis(50));
+        assertEquals(99.0, report.percentileMillis(99));
+        assertEquals(100.0, report.percentileMillis(100));
+        assertEquals(100.0, report.throughput());
+    }
+}
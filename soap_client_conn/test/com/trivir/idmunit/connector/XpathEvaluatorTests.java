@@ -0,0 +1,96 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+
+public class XpathEvaluatorTests extends TestCase {
+    private static final String RESPONSE =
+            "<?xml version='1.0' encoding='UTF-8'?>" +
+                    "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+                    "<S:Body>" +
+                    "<ns2:generateResponse xmlns:ns2=\"http://predic8.com/wsdl/IDService/1/\">" +
+                    "<id type=\"generated\">892-00002</id>" +
+                    "<empty></empty>" +
+                    "<nested><id><![CDATA[1]]></id></nested>" +
+                    "</ns2:generateResponse>" +
+                    "</S:Body>" +
+                    "</S:Envelope>";
+
+    private static final String[] EXPRESSIONS = {
+        "//id",
+        "//id/text()",
+        "//id/@type",
+        "//id/@missing",
+        "//empty",
+        "//empty/text()",
+        "//nested/id/text()",
+        "//nested//id",
+        "/*/*/*/id",
+        "/*/*/id",
+        "//*[local-name()='generateResponse']/id/text()",
+        "//*[local-name()='generateResponse']/nested",
+        "//*[local-name()='Body']//*[local-name()='missing']",
+        "//generateResponse",
+        "/Envelope",
+        "//missing",
+    };
+
+    public void testSimplePathsMatchDom() throws Exception {
+        XpathEvaluator evaluator = new XpathEvaluator();
+        for (String expression : EXPRESSIONS) {
+            assertNotNull(expression, XpathEvaluator.SimplePath.parse(expression));
+            assertEquals(expression, evaluator.existsWithDom(expression, RESPONSE), evaluator.exists(expression, RESPONSE));
+        }
+    }
+
+    public void testOtherExpressionsUseDom() throws Exception {
+        String[] expressions = {"//id[@type='generated']", "count(//id) > 1", "//id | //missing", "id", "//S:Body", "//id/..", "//@type"};
+        for (String expression : expressions) {
+            assertNull(expression, XpathEvaluator.SimplePath.parse(expression));
+        }
+
+        XpathEvaluator evaluator = new XpathEvaluator();
+        assertTrue(evaluator.exists("//id[@type='generated']", RESPONSE));
+        assertFalse(evaluator.exists("//id[@type='other']", RESPONSE));
+    }
+
+    public void testLargeResponse() throws Exception {
+        StringBuilder xml = new StringBuilder("<results>");
+        for (int i = 0; i < 100000; i++) {
+            xml.append("<item><name>name").append(i).append("</name></item>");
+        }
+        xml.append("<last>done</last></results>");
+
+        XpathEvaluator evaluator = new XpathEvaluator();
+        assertTrue(evaluator.exists("//item/name/text()", xml.toString()));
+        assertTrue(evaluator.exists("/results/last", xml.toString()));
+        assertFalse(evaluator.exists("/results/item/missing", xml.toString()));
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP listener used by MockSoapService. It accepts any number of connections and serves
+ * keep-alive requests on each of them. Every SOAP envelope received is queued until a test
+ * takes it. A request that matches a scripted expectation is answered straight away. Other
+ * requests wait for the test to validate them and supply the response.
+ */
+final class MockSoapListener {
+    private static Logger log = LoggerFactory.getLogger(MockSoapListener.class);
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int port;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<Socket>());
+
+    // Guarded by this
+    private final List<Exchange> received = new LinkedList<Exchange>();
+    private final List<Expectation> expectations = new LinkedList<Expectation>();
+    private boolean stopped = false;
+
+    private MockSoapListener(int port) throws IOException {
+        this.port = port;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        connections = Executors.newCachedThreadPool(new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MockSoapService-" + MockSoapListener.this.port + "-" + ++count);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    static MockSoapListener start(int port) throws IOException {
+        final MockSoapListener listener = new MockSoapListener(port);
+        Thread acceptThread = new Thread(new Runnable() {
+            public void run() {
+                listener.acceptConnections();
+            }
+        }, "MockSoapService-" + port);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return listener;
+    }
+
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            for (Exchange exchange : received) {
+                exchange.reply(null);
+            }
+            received.clear();
+            expectations.clear();
+            notifyAll();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.info("Failed to close listener on port " + port, e);
+        }
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+        }
+        connections.shutdownNow();
+    }
+
+    /**
+     * Answers the next request whose envelope matches requestPattern with response, instead of
+     * waiting for the test to validate it.
+     */
+    synchronized void expect(String requestPattern, String response) {
+        expectations.add(new Expectation(Pattern.compile(normalize(requestPattern)), response));
+    }
+
+    /**
+     * Removes and returns the first received request whose envelope matches requestPattern,
+     * waiting up to timeoutMillis for one to arrive. Returns null if none arrived in time.
+     */
+    synchronized Exchange take(Pattern requestPattern, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            for (Iterator<Exchange> i = received.iterator(); i.hasNext(); ) {
+                Exchange exchange = i.next();
+                if (requestPattern.matcher(exchange.normalizedEnvelope).matches()) {
+                    i.remove();
+                    return exchange;
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || stopped) {
+                return null;
+            }
+            wait(remaining);
+        }
+    }
+
+    /**
+     * Removes and returns the oldest received request, or null if there is none.
+     */
+    synchronized Exchange poll() {
+        return received.isEmpty() ? null : received.remove(0);
+    }
+
+    static String normalize(String envelope) {
+        return envelope.replaceAll("[ \r\n\t]", "");
+    }
+
+    private void acceptConnections() {
+        log.debug("Listening on port: [" + port + "], waiting for driver to connect . .");
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.error("Accept failed on port: [" + port + "] :" + e);
+                }
+                return;
+            }
+            log.debug("Accepted client socket: [" + socket + "]");
+            sockets.add(socket);
+            connections.execute(new Runnable() {
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                HttpMessage request = HttpMessage.read(in);
+                if (request == null) {
+                    return;
+                }
+                Exchange exchange = receive(request.getBodyAsString());
+                Reply reply = exchange.awaitReply();
+                if (reply == null) {
+                    return;
+                }
+                boolean keepAlive = request.isKeepAlive();
+                writeResponse(out, reply, keepAlive);
+                if (!keepAlive) {
+                    return;
+                }
+            }
+        } catch (SocketException e) {
+            log.debug("Connection closed: [" + socket + "]: " + e);
+        } catch (IOException e) {
+            log.info("Failed while serving connection: [" + socket + "]", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private synchronized Exchange receive(String envelope) {
+        Exchange exchange = new Exchange(envelope);
+        log.debug("Received request: [" + envelope + "]");
+        if (stopped) {
+            exchange.reply(null);
+            return exchange;
+        }
+        received.add(exchange);
+        for (Iterator<Expectation> i = expectations.iterator(); i.hasNext(); ) {
+            Expectation expectation = i.next();
+            if (expectation.requestPattern.matcher(exchange.normalizedEnvelope).matches()) {
+                i.remove();
+                exchange.reply(new Reply("200 OK", expectation.response));
+                break;
+            }
+        }
+        notifyAll();
+        return exchange;
+    }
+
+    private static void writeResponse(OutputStream out, Reply reply, boolean keepAlive) throws IOException {
+        byte[] body = reply.body.getBytes(UTF_8);
+        String headers = "HTTP/1.1 " + reply.status + "\r\n" +
+                "Content-Type: application/soap+xml; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                (keepAlive ? "" : "Connection: close\r\n") +
+                "\r\n";
+        out.write(headers.getBytes(ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Failed to close socket: [" + socket + "]", e);
+        }
+    }
+
+    private static final class Expectation {
+        private final Pattern requestPattern;
+        private final String response;
+
+        Expectation(Pattern requestPattern, String response) {
+            this.requestPattern = requestPattern;
+            this.response = response;
+        }
+    }
+
+    private static final class Reply {
+        private final String status;
+        private final String body;
+
+        Reply(String status, String body) {
+            this.status = status;
+            this.body = body == null ? "" : body;
+        }
+    }
+
+    /**
+     * A request received from the driver and the reply sent back for it.
+     */
+    static final class Exchange {
+        private final String normalizedEnvelope;
+        private Reply reply;
+        private boolean replied = false;
+
+        Exchange(String envelope) {
+            normalizedEnvelope = normalize(envelope);
+        }
+
+        String getNormalizedEnvelope() {
+            return normalizedEnvelope;
+        }
+
+        synchronized boolean isReplied() {
+            return replied;
+        }
+
+        /**
+         * Sends the response unless the request has already been answered.
+         */
+        void respond(String status, String body) {
+            reply(new Reply(status, body));
+        }
+
+        private synchronized void reply(Reply r) {
+            if (!replied) {
+                replied = true;
+                reply = r;
+                notifyAll();
+            }
+        }
+
+        private synchronized Reply awaitReply() throws InterruptedException {
+            while (!replied) {
+                wait();
+            }
+            return reply;
+        }
+    }
+
+    /**
+     * An HTTP request or response read from a stream.
+     */
+    static final class HttpMessage {
+        private final String startLine;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        private HttpMessage(String startLine, Map<String, String> headers, byte[] body) {
+            this.startLine = startLine;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * Reads the next message, or returns null if the stream ends before one starts.
+         */
+        static HttpMessage read(InputStream in) throws IOException {
+            String startLine = readLine(in);
+            // Skip blank lines left over from a previous message
+            while (startLine != null && startLine.length() == 0) {
+                startLine = readLine(in);
+            }
+            if (startLine == null) {
+                return null;
+            }
+
+            Map<String, String> headers = new HashMap<String, String>();
+            while (true) {
+                String line = readLine(in);
+                if (line == null) {
+                    throw new EOFException("Connection closed while reading headers");
+                }
+                if (line.length() == 0) {
+                    // End of HTTP headers
+                    break;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line.substring(colon + 1).trim());
+                }
+            }
+
+            byte[] body;
+            String contentLength = headers.get("content-length");
+            if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                body = readChunked(in);
+            } else if (contentLength != null) {
+                body = new byte[Integer.parseInt(contentLength)];
+                new DataInputStream(in).readFully(body);
+            } else {
+                body = new byte[0];
+            }
+            return new HttpMessage(startLine, headers, body);
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ENGLISH));
+        }
+
+        boolean isKeepAlive() {
+            String connection = getHeader("Connection");
+            if (connection != null) {
+                return !"close".equalsIgnoreCase(connection);
+            }
+            return startLine.endsWith("HTTP/1.1");
+        }
+
+        String getBodyAsString() {
+            Charset charset = UTF_8;
+            String contentType = getHeader("Content-Type");
+            if (contentType != null) {
+                for (String param : contentType.split(";")) {
+                    param = param.trim();
+                    if (param.toLowerCase(Locale.ENGLISH).startsWith("charset=")) {
+                        try {
+                            charset = Charset.forName(param.substring("charset=".length()).replace("\"", ""));
+                        } catch (IllegalArgumentException e) {
+                            log.debug("Unsupported charset in [" + contentType + "], using UTF-8");
+                        }
+                    }
+                }
+            }
+            return new String(body, charset);
+        }
+
+        private static byte[] readChunked(InputStream in) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataInputStream data = new DataInputStream(in);
+            while (true) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new EOFException("Connection closed while reading chunks");
+                }
+                int extension = sizeLine.indexOf(';');
+                int size = Integer.parseInt((extension == -1 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+                if (size == 0) {
+                    // Skip any trailers
+                    String line = readLine(in);
+                    while (line != null && line.length() != 0) {
+                        line = readLine(in);
+                    }
+                    return body.toByteArray();
+                }
+                byte[] chunk = new byte[size];
+                data.readFully(chunk);
+                body.write(chunk);
+                readLine(in);
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    break;
+                }
+                line.write(c);
+            }
+            if (c == -1 && line.size() == 0) {
+                return null;
+            }
+            String s = new String(line.toByteArray(), ISO_8859_1);
+            return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+        }
+    }
+}
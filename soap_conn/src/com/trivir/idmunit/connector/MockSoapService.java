@@ -39,46 +39,47 @@ import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 
 import java.io.*;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
-
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for a SOAP web service called by a driver.
+ * <p>
+ * AddObject starts a listener on the configured port. It accepts any number of keep-alive
+ * connections and queues every envelope received. If the row has request and response columns,
+ * the response is scripted for the next request that matches the request pattern.
+ * <p>
+ * ValidateObject takes the first queued request that matches the request pattern, so requests
+ * can be validated in any order. It waits up to wait-timeout milliseconds (default 500) for one
+ * to arrive. A request without a scripted response is answered with the row's response.
+ */
 public class MockSoapService extends AbstractConnector {
+    private static final String CONFIG_WAIT_TIMEOUT = "wait-timeout";
+    private static final long DEFAULT_WAIT_TIMEOUT = 500;
+
     private static Marker fatal = MarkerFactory.getMarker("FATAL");
     private static Logger log = LoggerFactory.getLogger(MockSoapService.class);
-    private static Socket clientSocket = null;
-    private static Thread acceptThread = null;
+    // Listeners by port, so the connections on a port share the received requests
+    private static final Map<Integer, MockSoapListener> LISTENERS = new HashMap<Integer, MockSoapListener>();
     private int serverPort = -1;
+    private long waitTimeout = DEFAULT_WAIT_TIMEOUT;
+    private MockSoapListener listener = null;
 
     public static String getSoapEnvelopeFromHTTPResponse(Socket inputClientSocket) throws IdMUnitException {
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(inputClientSocket.getInputStream()));
-
-            int soapEnvelopeLength = -1;
-            while (true) {
-                String line = in.readLine();
-                if (line == null) {
-                    throw new IdMUnitException("Error reading request");
-                }
-
-                if (line.length() == 0) {
-                    // End of HTTP headers
-                    break;
-                }
-
-                if (line.startsWith("Content-Length")) {
-                    soapEnvelopeLength = Integer.parseInt(line.substring(line.indexOf(":") + 2));
-                }
+            MockSoapListener.HttpMessage message = MockSoapListener.HttpMessage.read(inputClientSocket.getInputStream());
+            if (message == null) {
+                throw new IdMUnitException("Error reading request");
             }
 
-            if (soapEnvelopeLength == -1) {
+            if (message.getHeader("Content-Length") == null && message.getHeader("Transfer-Encoding") == null) {
                 throw new IdMUnitException("No Content-Length header received.");
             }
 
-            char[] soapEnvelope = new char[soapEnvelopeLength];
-            in.read(soapEnvelope, 0, soapEnvelope.length);
-            return new String(soapEnvelope);
+            return message.getBodyAsString();
         } catch (IOException e) {
             throw new IdMUnitException("failed while reading data from client: [" + e + "]");
         }
@@ -90,101 +91,94 @@ public class MockSoapService extends AbstractConnector {
         } catch (NumberFormatException e) {
             throw new IdMUnitException("Server URL provided must consist only of a port, but: [" + config.get(BasicConnector.CONFIG_SERVER) + "] was provided.");
         }
+
+        String waitTimeoutValue = config.get(CONFIG_WAIT_TIMEOUT);
+        if (waitTimeoutValue != null) {
+            try {
+                waitTimeout = Long.parseLong(waitTimeoutValue);
+            } catch (NumberFormatException e) {
+                throw new IdMUnitException("'" + CONFIG_WAIT_TIMEOUT + "' must be a number of milliseconds, but: [" + waitTimeoutValue + "] was provided.");
+            }
+        }
     }
 
     public void tearDown() throws IdMUnitException {
-        // do nothing.
+        if (listener != null) {
+            synchronized (LISTENERS) {
+                if (LISTENERS.get(serverPort) == listener) {
+                    LISTENERS.remove(serverPort);
+                }
+            }
+            listener.stop();
+            listener = null;
+        }
     }
 
     /**
-     * Starts listener on configured port
+     * Starts listener on configured port, if it is not already running, and optionally scripts
+     * the response to a request
      */
     public void opAddObject(Map<String, Collection<String>> data) throws IdMUnitException {
-        log.info("Starting listener . .Server port:[" + serverPort + "]");
-        acceptThread = new Thread(new SoapProcessor());
-        acceptThread.start();
-    }
-
-    public void opValidateObject(Map<String, Collection<String>> data) throws IdMUnitException {
-
-        // Confirm we've accepted the socket . .
-        log.debug("Waiting on accept thread to complete . .");
-        try {
-            acceptThread.join(500);
-        } catch (InterruptedException e) {
-            // do nothing
+        synchronized (LISTENERS) {
+            listener = LISTENERS.get(serverPort);
+            if (listener == null) {
+                log.info("Starting listener . .Server port:[" + serverPort + "]");
+                try {
+                    listener = MockSoapListener.start(serverPort);
+                } catch (IOException e) {
+                    log.error(fatal, "Listen failed on port: [" + serverPort + "] :" + e);
+                    throw new IdMUnitException("Failed to listen on port: [" + serverPort + "]: " + e);
+                }
+                LISTENERS.put(serverPort, listener);
+            }
         }
 
-        if (acceptThread.isAlive()) {
-            throw new IdMUnitFailureException("No message received");
+        if (data == null) {
+            return;
         }
-
-        if (clientSocket == null) {
-            throw new IdMUnitException("clientSocket is not connected, please call addObject first!");
+        String request = ConnectorUtil.getSingleValue(data, "request");
+        String response = ConnectorUtil.getSingleValue(data, "response");
+        if (request != null && response != null) {
+            listener.expect(request, response);
         }
+    }
 
-        String request = null;
-        String response = null;
+    public void opValidateObject(Map<String, Collection<String>> data) throws IdMUnitException {
+        if (listener == null) {
+            throw new IdMUnitException("Listener is not running, please call addObject first!");
+        }
 
-        request = ConnectorUtil.getSingleValue(data, "request");
-        response = ConnectorUtil.getSingleValue(data, "response");
+        String request = ConnectorUtil.getSingleValue(data, "request");
+        String response = ConnectorUtil.getSingleValue(data, "response");
+        if (request == null) {
+            throw new IdMUnitException("No value provided for 'request'");
+        }
+        request = MockSoapListener.normalize(request);
 
+        log.debug("Waiting for a matching request . .");
+        MockSoapListener.Exchange exchange;
         try {
-            String requestStringFromIDM = getSoapEnvelopeFromHTTPResponse(clientSocket).replaceAll("[ \r\n\t]", "");
-            request = request.replaceAll("[ \r\n\t]", "");
-
-            String failMessage = null;
-            PrintWriter out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream()), true);
-            String responseCode = "200 OK";
-            if (!requestStringFromIDM.matches(request)) {
-                failMessage = "Received document from IDM did not match expected!\n" +
-                        "Expected: [" + request + "]\n" +
-                        "Received: [" + requestStringFromIDM + "]\n";
-
-                responseCode = "400 Bad Request";
-                response = "<status level=\"error\">Test failed.</status>";
-            }
-            String httpResponse =
-                    "HTTP/1.1 " + responseCode + "\r\n" +
-                            "Content-Type: application/soap+xml; charset=utf-8" +
-                            "Content-Length: " + response.length() + "\r\n" +
-                            "\r\n" +
-                            response;
-
-            out.println(httpResponse);
-            out.close();
-
-            if (failMessage != null) {
-                throw new IdMUnitException(failMessage);
-            }
-
-        } catch (IOException e) {
-            throw new IdMUnitException("exception while executing validating: [" + e + "]");
-        } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                log.info("Failed to close clientSocket connection", e);
-            }
-            clientSocket = null;
+            exchange = listener.take(Pattern.compile(request), waitTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdMUnitException("Interrupted while waiting for a request");
         }
 
-    }
+        if (exchange != null) {
+            exchange.respond("200 OK", response);
+            return;
+        }
 
-    class SoapProcessor implements Runnable {
-        public void run() {
+        exchange = listener.poll();
+        if (exchange == null) {
+            throw new IdMUnitFailureException("No message received");
+        }
 
-            ServerSocket serverSocket = null;
-            try {
-                serverSocket = new ServerSocket(serverPort);
-                log.debug("Created socket: [" + serverSocket + "], waiting for driver to connect . .");
-                clientSocket = serverSocket.accept();
-                log.debug("Accepted client socket . .");
-                serverSocket.close();
-            } catch (IOException e) {
-                log.error(fatal, "Accept failed on port: [" + serverPort + "] :" + e);
-                return;
-            }
+        if (!exchange.isReplied()) {
+            exchange.respond("400 Bad Request", "<status level=\"error\">Test failed.</status>");
         }
+        throw new IdMUnitException("Received document from IDM did not match expected!\n" +
+                "Expected: [" + request + "]\n" +
+                "Received: [" + exchange.getNormalizedEnvelope() + "]\n");
     }
 }
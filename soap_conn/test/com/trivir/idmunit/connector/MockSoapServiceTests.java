@@ -30,21 +30,22 @@ package com.trivir.idmunit.connector;
 
 import junit.framework.TestCase;
 import org.idmunit.IdMUnitException;
+import org.idmunit.IdMUnitFailureException;
 import org.idmunit.connector.ConnectionConfigData;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * Tests not working yet . .
- *
  * @author TriVir
  */
 public class MockSoapServiceTests extends TestCase {
     MockSoapService mss = new MockSoapService();
+    int port;
 
     String addInteldocsXML =
             "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
@@ -77,54 +78,147 @@ public class MockSoapServiceTests extends TestCase {
         data.put(name, values);
     }
 
-    public void testConnect() throws IdMUnitException, IOException {
+    protected void setUp() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        port = s.getLocalPort();
+        s.close();
+
         ConnectionConfigData ccd = new ConnectionConfigData("", "");
-        ccd.setParam("server", "4444");
+        ccd.setParam("server", String.valueOf(port));
+        ccd.setParam("wait-timeout", "2000");
         mss.setup(ccd.getParams());
-        mss.opAddObject(null);
+    }
 
-        // Connect to our MockConnection:
-        // wait just a bit to ensure we've hit accept on the lister socket.
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            //ignore exception
-        }
+    protected void tearDown() throws Exception {
+        mss.tearDown();
+    }
+
+    private static void sendRequest(Socket socket, String envelope) throws IOException {
+        byte[] body = envelope.getBytes("UTF-8");
+        OutputStream out = socket.getOutputStream();
+        out.write(("POST /soap HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Content-Type: text/xml; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "\r\n").getBytes("ISO-8859-1"));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String envelope(String teamId) {
+        return "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+                "<SOAP-ENV:Body><addInteldocs><teamid>" + teamId + "</teamid></addInteldocs></SOAP-ENV:Body>" +
+                "</SOAP-ENV:Envelope>";
+    }
 
-        Socket mockDriverDataSocket = new Socket("localhost", 4444);
+    private static Map<String, Collection<String>> row(String request, String response) {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, "request", request);
+        addSingleValue(data, "response", response);
+        return data;
+    }
 
-        //System.out.println("Client port: started, client socket contains: [" + mockDriverDataSocket + "]");
+    public void testConnect() throws IdMUnitException, IOException {
+        mss.opAddObject(null);
 
-        PrintWriter out = new PrintWriter(new OutputStreamWriter(mockDriverDataSocket.getOutputStream()), true);
-        //BufferedReader in = new BufferedReader(new InputStreamReader(mockDriverDataSocket.getInputStream()));
+        Socket mockDriverDataSocket = new Socket("localhost", port);
 
         Map<String, Collection<String>> assertedAttrs = new HashMap<String, Collection<String>>();
         addSingleValue(assertedAttrs, "request", addInteldocsXML);
         addSingleValue(assertedAttrs, "response", addInteldocsXMLResponse);
 
-        out.println(addInteldocsXML);
-
+        sendRequest(mockDriverDataSocket, addInteldocsXML);
 
         mss.opValidateObject(assertedAttrs);
 
         String finalDoc = MockSoapService.getSoapEnvelopeFromHTTPResponse(mockDriverDataSocket);
-        /*
-        StringBuffer finalDoc = new StringBuffer("");
-        int oneChar;
-
-        while ((oneChar = in.read()) != -1) {
-            finalDoc.append((char)oneChar);
-            System.out.print((char)oneChar);
-            if (finalDoc.toString().toLowerCase().endsWith("</soap-env:envelope>")) {
-                break;
-            }
+        assertEquals(addInteldocsXMLResponse, finalDoc);
+        mockDriverDataSocket.close();
+    }
+
+    public void testKeepAlive() throws Exception {
+        mss.opAddObject(null);
+        Socket socket = new Socket("localhost", port);
+
+        for (int i = 0; i < 3; i++) {
+            sendRequest(socket, envelope("team" + i));
+            mss.opValidateObject(row(envelope("team" + i), "<response>" + i + "</response>"));
+            assertEquals("<response>" + i + "</response>", MockSoapService.getSoapEnvelopeFromHTTPResponse(socket));
         }
-        */
-        System.out.println();
-        System.out.println("Response: [" + finalDoc + "]");
+        socket.close();
+    }
 
-        //finalDoc = finalDoc.replaceAll("[ \r\n\t]", "");
+    public void testConcurrentRequestsInAnyOrder() throws Exception {
+        mss.opAddObject(null);
+        final int count = 5;
+        ExecutorService driver = Executors.newFixedThreadPool(count);
+        List<Future<String>> responses = new ArrayList<Future<String>>();
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            responses.add(driver.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    Socket socket = new Socket("localhost", port);
+                    try {
+                        sendRequest(socket, envelope("team" + n));
+                        return MockSoapService.getSoapEnvelopeFromHTTPResponse(socket);
+                    } finally {
+                        socket.close();
+                    }
+                }
+            }));
+        }
+
+        for (int i = count - 1; i >= 0; i--) {
+            mss.opValidateObject(row(envelope("team" + i), "<response>" + i + "</response>"));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals("<response>" + i + "</response>", responses.get(i).get(5, TimeUnit.SECONDS));
+        }
+        driver.shutdown();
+    }
+
+    public void testScriptedResponse() throws Exception {
+        mss.opAddObject(row(".*<teamid>team1</teamid>.*", "<scripted/>"));
 
+        Socket socket = new Socket("localhost", port);
+        sendRequest(socket, envelope("team1"));
+        // Answered before the request is validated
+        assertEquals("<scripted/>", MockSoapService.getSoapEnvelopeFromHTTPResponse(socket));
+        socket.close();
 
+        mss.opValidateObject(row(envelope("team1"), null));
+    }
+
+    public void testNoMessageReceived() throws Exception {
+        ConnectionConfigData ccd = new ConnectionConfigData("", "");
+        ccd.setParam("server", String.valueOf(port));
+        ccd.setParam("wait-timeout", "100");
+        mss.setup(ccd.getParams());
+        mss.opAddObject(null);
+        try {
+            mss.opValidateObject(row(envelope("team1"), "<response/>"));
+            fail("Expected a failure");
+        } catch (IdMUnitFailureException e) {
+            assertEquals("No message received", e.getMessage());
+        }
+    }
+
+    public void testMismatch() throws Exception {
+        ConnectionConfigData ccd = new ConnectionConfigData("", "");
+        ccd.setParam("server", String.valueOf(port));
+        ccd.setParam("wait-timeout", "100");
+        mss.setup(ccd.getParams());
+        mss.opAddObject(null);
+
+        Socket socket = new Socket("localhost", port);
+        sendRequest(socket, envelope("team2"));
+        try {
+            mss.opValidateObject(row(envelope("team1"), "<response/>"));
+            fail("Expected a mismatch");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().startsWith("Received document from IDM did not match expected!"));
+        }
+        assertEquals("<status level=\"error\">Test failed.</status>", MockSoapService.getSoapEnvelopeFromHTTPResponse(socket));
+        socket.close();
     }
 }
@@ -35,6 +35,7 @@ import com.sun.jersey.api.client.WebResource.Builder;
 import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.client.urlconnection.HTTPSProperties;
+import com.trivir.idmunit.util.Backoff;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.codehaus.jettison.json.JSONArray;
@@ -54,8 +55,10 @@ import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.text.MessageFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Kenneth Rawlings
@@ -89,6 +92,14 @@ public class UserAppREST extends AbstractConnector {
     private static final String PARAM_FILTER = "filter";
     private static final String FILTER_DEFINITION = "Definition";
     private static final String FILTER_PROCESSID = "ProcessId";
+    static final String CONFIG_DEFINITION_CACHE_TTL = "definition-cache-ttl";
+    static final String CONFIG_WAIT_TIMEOUT = "wait-timeout";
+    static final String CONFIG_CAPTURE_SINCE_FILTER = "capture-since-filter";
+    static final String CONFIG_CAPTURE_CLOCK_SKEW = "capture-clock-skew";
+    static final long DEFAULT_DEFINITION_CACHE_TTL = 300;
+    static final long DEFAULT_WAIT_TIMEOUT = 30;
+    static final String CONFIG_BULK_THREADS = "bulk-threads";
+    static final int DEFAULT_BULK_THREADS = 8;
     // NOTE: Even though we are using ConcurrentHashMap, there may be some "check then act" problems that would need to be resolved by an explicit lock.
     private static final Map<String, String> WORKFLOW_CACHE = new ConcurrentHashMap<String, String>();
     private static final Map<String, PreCapture> CAPTURE_CACHE = new ConcurrentHashMap<String, PreCapture>();
@@ -97,6 +108,25 @@ public class UserAppREST extends AbstractConnector {
     private String credentials;
     private WebResource rootResource;
     private Map<String, String> defaultHeaders;
+    private DefinitionCache definitionCache;
+    private Backoff backoff;
+    private MessageFormat captureSinceFilter;
+    private long captureClockSkew;
+    private int bulkThreads;
+    private ExecutorService bulkExecutor;
+    private BulkResult lastBulkResult;
+
+    private static long getLongConfig(Map<String, String> config, String name, long defaultValue) throws IdMUnitException {
+        String value = config.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException(String.format("Invalid value '%s' for '%s'", value, name), e);
+        }
+    }
 
     private static void fillDataItems(JSONArray dataItems, Map<String, Collection<String>> data, boolean strict) throws IdMUnitException {
         try {
@@ -189,6 +219,29 @@ public class UserAppREST extends AbstractConnector {
                 put(REST_AUTH, credentials);
                 put(ACCEPT, APPLICATION_JSON);
             }});
+
+        definitionCache = new DefinitionCache(getLongConfig(config, CONFIG_DEFINITION_CACHE_TTL, DEFAULT_DEFINITION_CACHE_TTL) * 1000);
+        backoff = new Backoff(getLongConfig(config, CONFIG_WAIT_TIMEOUT, DEFAULT_WAIT_TIMEOUT) * 1000);
+        captureClockSkew = getLongConfig(config, CONFIG_CAPTURE_CLOCK_SKEW, 0) * 1000;
+        bulkThreads = (int)getLongConfig(config, CONFIG_BULK_THREADS, DEFAULT_BULK_THREADS);
+        if (bulkThreads < 1) {
+            throw new IdMUnitException(String.format("'%s' must be at least 1", CONFIG_BULK_THREADS));
+        }
+        shutdownBulkExecutor();
+        String sinceFilter = config.get(CONFIG_CAPTURE_SINCE_FILTER);
+        if (sinceFilter == null || sinceFilter.trim().isEmpty()) {
+            captureSinceFilter = null;
+        } else {
+            try {
+                captureSinceFilter = new MessageFormat(sinceFilter.trim());
+            } catch (IllegalArgumentException e) {
+                throw new IdMUnitException(String.format("Invalid value '%s' for '%s'", sinceFilter, CONFIG_CAPTURE_SINCE_FILTER), e);
+            }
+        }
+    }
+
+    public void tearDown() throws IdMUnitException {
+        shutdownBulkExecutor();
     }
 
     public void opStartWorkflow(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -213,13 +266,12 @@ public class UserAppREST extends AbstractConnector {
             throw new IdMUnitException(String.format("%s '%s' already in use", WORKFLOW_IDENTIFIER, workflowIdentifier));
         }
 
-        JSONArray definitions = getDefinitions();
-        String definitionGuid = getGuidByDn(definitions, workflowDn);
+        String definitionGuid = definitionCache.getGuidByDn(workflowDn);
         if (definitionGuid == null) {
             throw new IdMUnitException(String.format("Specified workflow DN '%s' was not found", workflowDn));
         }
 
-        JSONObject definition = getDefinition(definitionGuid);
+        JSONObject definition = definitionCache.getDefinition(definitionGuid);
 
         try {
             JSONArray dataItems = definition.getJSONArray(JSON_FIELD_DATAITEMS);
@@ -301,9 +353,11 @@ public class UserAppREST extends AbstractConnector {
         if (WORKFLOW_CACHE.containsKey(workflowIdentifier) || CAPTURE_CACHE.containsKey(workflowIdentifier)) {
             throw new IdMUnitException(String.format("%s '%s' already in use", WORKFLOW_IDENTIFIER, workflowIdentifier));
         }
-        JSONArray processesBefore = getProcessItems(workflowDn);
-
-        CAPTURE_CACHE.put(workflowIdentifier, new PreCapture(workflowDn, processesBefore));
+        if (captureSinceFilter != null) {
+            CAPTURE_CACHE.put(workflowIdentifier, new PreCapture(workflowDn, System.currentTimeMillis() - captureClockSkew));
+        } else {
+            CAPTURE_CACHE.put(workflowIdentifier, new PreCapture(workflowDn, getGuids(getProcessItems(workflowDn))));
+        }
     }
 
     public void opCaptureWorkflow(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -322,10 +376,22 @@ public class UserAppREST extends AbstractConnector {
             throw new IdMUnitException(String.format("%s '%s' not found", WORKFLOW_IDENTIFIER, workflowIdentifier));
         }
 
-        PreCapture preCapture = CAPTURE_CACHE.get(workflowIdentifier);
-        JSONArray processesAfter = getProcessItems(preCapture.workflowDn);
+        final PreCapture preCapture = CAPTURE_CACHE.get(workflowIdentifier);
+        final Set<String> newGuids = new HashSet<String>();
+        backoff.waitFor(new Backoff.Poll<Set<String>>() {
+            public Set<String> attempt() throws IdMUnitException {
+                newGuids.clear();
+                if (preCapture.processes == null) {
+                    newGuids.addAll(getGuids(getProcessItemsSince(preCapture.workflowDn, preCapture.startTime)));
+                } else {
+                    newGuids.addAll(getGuids(getProcessItems(preCapture.workflowDn)));
+                    newGuids.removeAll(preCapture.processes);
+                }
+                return newGuids.isEmpty() ? null : newGuids;
+            }
+        });
 
-        String processGuid = getProcessGuid(preCapture.processes, processesAfter);
+        String processGuid = getProcessGuid(newGuids);
 
         CAPTURE_CACHE.remove(workflowIdentifier);
         WORKFLOW_CACHE.put(workflowIdentifier, processGuid);
@@ -334,7 +400,7 @@ public class UserAppREST extends AbstractConnector {
     public void opCaptureWorkflowFilteredWorkItem(Map<String, Collection<String>> data) throws IdMUnitException {
         data = new HashMap<String, Collection<String>>(data); //defensive copy
         final String workflowIdentifier = getAndRemoveConfigValue(data, WORKFLOW_IDENTIFIER); // This is used to track individual workflow requests in a single test
-        Collection<String> workflowFilters = data.get(WORKFLOW_FILTER);
+        final Collection<String> workflowFilters = data.get(WORKFLOW_FILTER);
 
         if (workflowIdentifier == null || workflowIdentifier.trim().isEmpty()) {
             throw new IdMUnitException(String.format("The field '%s' is required", WORKFLOW_IDENTIFIER));
@@ -344,61 +410,15 @@ public class UserAppREST extends AbstractConnector {
             throw new IdMUnitException(String.format("The field '%s' is required", WORKFLOW_FILTER));
         }
 
-        Set<String> results = new HashSet<String>();
-        int count = 0;
-        for (String filter : workflowFilters) {
-            log.debug("DELE: filter: " + filter);
-            log.debug("DELE: cout: " + count);
-
-            if (count == 0) {
-                JSONArray workItemsArray = getWorkItemsFromFilter(filter);
-                log.debug("DELE: Workitems length:" + workItemsArray.length());
-                log.debug("\n");
-                for (int i = 0; i < workItemsArray.length(); i++) {
-                    log.debug("DELE: Inside for");
-
-                    JSONObject jsonObject;
-                    try {
-                        log.debug("DELE: Inside try");
-                        jsonObject = workItemsArray.getJSONObject(i);
-                        String guid = jsonObject.getJSONObject("Process").getString(JSON_FIELD_GUID);
-                        log.debug(" GUID: " + guid);
-                        results.add(guid);
-                        log.debug("DELE: finish try");
-
-                    } catch (JSONException e) {
-                        throw new IdMUnitException("Error retrieving process GUID.", e);
-                    }
-                } //end for
-                log.debug(" GUID Count: " + results.size());
-                //end if count==0
-            } else {
-                log.debug("DELE: Inside else statement - ");
-                JSONArray workItemsArray = getWorkItemsFromFilter(filter);
-                Set<String> currentResluts = new HashSet<String>();
-
-                for (int i = 0; i < workItemsArray.length(); i++) {
-                    JSONObject jsonObject;
-                    try {
-                        log.debug("DELE: Inside else statement - Try");
-                        jsonObject = workItemsArray.getJSONObject(i);
-                        String guid = jsonObject.getJSONObject("Process").getString(JSON_FIELD_GUID);
-                        log.debug("GUID: " + guid);
-                        currentResluts.add(guid);
-                        log.debug("DELE: End else statement - Try");
-                    } catch (JSONException e) {
-                        throw new IdMUnitException("Error retrieving process GUID.", e);
-                    }
-                } //end for
-
-                log.debug("GUID Count: " + currentResluts.size());
-                results.retainAll(currentResluts);
-            } //end else
-            count++;
-            if (results.size() == 1) {
-                break;
-            } //else move on to the next filter and keep cutting down the result set
-        } //end for workflowFilters
+        Set<String> results = backoff.waitFor(new Backoff.Poll<Set<String>>() {
+            public Set<String> attempt() throws IdMUnitException {
+                Set<String> guids = getWorkItemProcessGuids(workflowFilters);
+                return guids.isEmpty() ? null : guids;
+            }
+        });
+        if (results == null) {
+            results = Collections.emptySet();
+        }
 
         int resultCount = results.size();
         if (resultCount != 1) {
@@ -427,64 +447,18 @@ public class UserAppREST extends AbstractConnector {
             throw new IdMUnitException(String.format("The field '%s' is required", WORKFLOW_FILTER));
         }
 
-        Set<String> results = new HashSet<String>();
-        int count = 0;
-        for (String filter : workflowFilters) {
-            if (count == 0) {
-                JSONArray workItemsArray = getWorkItemsFromFilter(filter);
-                for (int i = 0; i < workItemsArray.length(); i++) {
-                    JSONObject jsonObject;
-                    try {
-                        jsonObject = workItemsArray.getJSONObject(i);
-                        String guid = jsonObject.getJSONObject("Process").getString(JSON_FIELD_GUID);
-                        log.debug(" GUID: " + guid);
-                        results.add(guid);
-
-                    } catch (JSONException e) {
-                        throw new IdMUnitException("Error retrieving process GUID.", e);
-                    }
-                } //end for
-                log.debug(" GUID Count: " + results.size());
-                //end if count==0
-            } else {
-                JSONArray workItemsArray = getWorkItemsFromFilter(filter);
-                Set<String> currentResluts = new HashSet<String>();
+        Set<String> results = getWorkItemProcessGuids(workflowFilters);
 
-                for (int i = 0; i < workItemsArray.length(); i++) {
-                    JSONObject jsonObject;
-                    try {
-                        jsonObject = workItemsArray.getJSONObject(i);
-                        String guid = jsonObject.getJSONObject("Process").getString(JSON_FIELD_GUID);
-                        log.debug("GUID: " + guid);
-                        currentResluts.add(guid);
-                    } catch (JSONException e) {
-                        throw new IdMUnitException("Error retrieving process GUID.", e);
-                    }
-                } //end for
+        log.debug("There are [" + results.size() + "] workflow processes that will be denied for this filter.");
+        updateWorkItems(getWorkItemGuids(results), false, null);
+    }
 
-                log.debug("GUID Count: " + currentResluts.size());
-                results.retainAll(currentResluts);
-            } //end else
-            count++;
-            if (results.size() == 1) {
-                break;
-            } //else move on to the next filter and keep cutting down the result set
-        } //end for workflowFilters
+    public void opBulkApproveWorkItems(Map<String, Collection<String>> data) throws IdMUnitException {
+        performBulkWorkItemUpdate(data, true);
+    }
 
-        log.debug("There are [" + results.size() + "] workflow processes that will be denied for this filter.");
-        for (String guid : results) {
-            JSONArray workItems = getWorkItems(guid);
-            try {
-                for (int itemNum = 0; itemNum < workItems.length(); itemNum++) {
-                    JSONObject item = workItems.getJSONObject(itemNum);
-                    JSONObject approvalItem = getWorkItem(getGuid(item));
-                    approveWorkItem(approvalItem, false);
-                    putJsonObject(String.format("%s/%s", PATH_WORKITEMS, getGuid(approvalItem)), approvalItem, EMPTY_PARAMS);
-                }
-            } catch (JSONException e) {
-                throw new IdMUnitException("Failed work item activity.", e);
-            }
-        } //end for each GUID
+    public void opBulkDenyWorkItems(Map<String, Collection<String>> data) throws IdMUnitException {
+        performBulkWorkItemUpdate(data, false);
     }
 
     public void opCaptureWorkflowFilteredProcesses(Map<String, Collection<String>> data) throws IdMUnitException {
@@ -576,19 +550,149 @@ public class UserAppREST extends AbstractConnector {
             throw new IdMUnitException("Unknown workflow identifier");
         }
 
-        JSONArray workItems = getWorkItems(WORKFLOW_CACHE.get(workflowIdentifier));
+        final String processGuid = WORKFLOW_CACHE.get(workflowIdentifier);
+        JSONArray workItems = backoff.waitFor(new Backoff.Poll<JSONArray>() {
+            public JSONArray attempt() {
+                JSONArray items = getWorkItems(processGuid);
+                return items.length() == 0 ? null : items;
+            }
+        });
+        if (workItems == null) {
+            throw new IdMUnitException(String.format("No work items were found for workflow '%s'", workflowIdentifier));
+        }
 
+        List<String> itemGuids = new ArrayList<String>();
         try {
             for (int itemNum = 0; itemNum < workItems.length(); itemNum++) {
-                JSONObject item = workItems.getJSONObject(itemNum);
-                JSONObject approvalItem = getWorkItem(getGuid(item));
-                approveWorkItem(approvalItem, approve);
-                fillDataItems(approvalItem.getJSONArray(JSON_FIELD_DATAITEMS), data, true);
-                putJsonObject(String.format("%s/%s", PATH_WORKITEMS, getGuid(approvalItem)), approvalItem, EMPTY_PARAMS);
+                itemGuids.add(getGuid(workItems.getJSONObject(itemNum)));
             }
         } catch (JSONException e) {
             throw new IdMUnitException("Failed work item activity.", e);
         }
+        updateWorkItems(itemGuids, approve, data);
+    }
+
+    private void performBulkWorkItemUpdate(Map<String, Collection<String>> data, boolean approve) throws IdMUnitException {
+        Collection<String> workflowFilters = data.get(WORKFLOW_FILTER);
+        if (workflowFilters == null) {
+            throw new IdMUnitException(String.format("The field '%s' is required", WORKFLOW_FILTER));
+        }
+
+        Set<String> processGuids = getWorkItemProcessGuids(workflowFilters);
+        log.info(String.format("%s the work items of %d workflow processes", approve ? "Approving" : "Denying", processGuids.size()));
+        updateWorkItems(getWorkItemGuids(processGuids), approve, null);
+    }
+
+    /**
+     * Lists the work items of each process concurrently.
+     */
+    private List<String> getWorkItemGuids(Collection<String> processGuids) throws IdMUnitException {
+        Map<String, Future<JSONArray>> futures = new LinkedHashMap<String, Future<JSONArray>>();
+        for (final String processGuid : processGuids) {
+            futures.put(processGuid, getBulkExecutor().submit(new Callable<JSONArray>() {
+                public JSONArray call() {
+                    return getWorkItems(processGuid);
+                }
+            }));
+        }
+
+        List<String> itemGuids = new ArrayList<String>();
+        Failures failures = new Failures();
+        for (Map.Entry<String, Future<JSONArray>> entry : futures.entrySet()) {
+            try {
+                JSONArray workItems = getResult(entry.getValue());
+                for (int itemNum = 0; itemNum < workItems.length(); itemNum++) {
+                    itemGuids.add(getGuid(workItems.getJSONObject(itemNum)));
+                }
+            } catch (JSONException e) {
+                failures.add(String.format("Process '%s': %s", entry.getKey(), e.getMessage()));
+            } catch (ExecutionException e) {
+                failures.add(String.format("Process '%s': %s", entry.getKey(), e.getCause()));
+            }
+        }
+        if (failures.hasFailures()) {
+            throw new IdMUnitException("Failed to list work items:\n" + failures.toString());
+        }
+        return itemGuids;
+    }
+
+    /**
+     * Approves or denies every work item, up to bulk-threads at a time, over the shared client. All
+     * items are attempted; the failures are reported together afterwards.
+     *
+     * @param data data item values to fill in on each work item, or <code>null</code> to leave them unchanged
+     */
+    private BulkResult updateWorkItems(List<String> itemGuids, final boolean approve, final Map<String, Collection<String>> data) throws IdMUnitException {
+        long start = System.currentTimeMillis();
+        Map<String, Future<Void>> futures = new LinkedHashMap<String, Future<Void>>();
+        for (final String itemGuid : itemGuids) {
+            futures.put(itemGuid, getBulkExecutor().submit(new Callable<Void>() {
+                public Void call() throws IdMUnitException, JSONException {
+                    JSONObject approvalItem = getWorkItem(itemGuid);
+                    approveWorkItem(approvalItem, approve);
+                    if (data != null) {
+                        fillDataItems(approvalItem.getJSONArray(JSON_FIELD_DATAITEMS), data, true);
+                    }
+                    putJsonObject(String.format("%s/%s", PATH_WORKITEMS, getGuid(approvalItem)), approvalItem, EMPTY_PARAMS);
+                    return null;
+                }
+            }));
+        }
+
+        Failures failures = new Failures();
+        int failed = 0;
+        for (Map.Entry<String, Future<Void>> entry : futures.entrySet()) {
+            try {
+                getResult(entry.getValue());
+            } catch (ExecutionException e) {
+                failed++;
+                Throwable cause = e.getCause();
+                failures.add(String.format("Work item '%s': %s", entry.getKey(), cause instanceof IdMUnitException ? cause.getMessage() : cause.toString()));
+            }
+        }
+
+        BulkResult result = new BulkResult(itemGuids.size() - failed, failed, System.currentTimeMillis() - start);
+        lastBulkResult = result;
+        log.info(String.format("%s %d work items, %d failed, in %d ms", approve ? "Approved" : "Denied", result.succeeded, result.failed, result.elapsedMillis));
+        if (failures.hasFailures()) {
+            throw new IdMUnitException(String.format("%d of %d work items could not be %s:\n%s", failed, itemGuids.size(), approve ? "approved" : "denied", failures.toString()));
+        }
+        return result;
+    }
+
+    private static <T> T getResult(Future<T> future) throws ExecutionException, IdMUnitException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdMUnitException("Interrupted while waiting for work item updates.", e);
+        }
+    }
+
+    private synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newFixedThreadPool(bulkThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ua-rest-bulk-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return bulkExecutor;
+    }
+
+    private synchronized void shutdownBulkExecutor() {
+        if (bulkExecutor != null) {
+            bulkExecutor.shutdown();
+            bulkExecutor = null;
+        }
+    }
+
+    BulkResult getLastBulkResult() {
+        return lastBulkResult;
     }
 
     private void approveWorkItem(JSONObject item, boolean approve) throws IdMUnitException {
@@ -604,36 +708,72 @@ public class UserAppREST extends AbstractConnector {
         }
     }
 
-    private String getProcessGuid(JSONArray beforeItems, JSONArray afterItems) throws IdMUnitException {
-        int diffSize = afterItems.length() - beforeItems.length();
-
-        if (diffSize <= 0) {
-            throw new IdMUnitException("Unable to determine process GUID. After submission process count is less than or equal to before submission.");
+    private String getProcessGuid(Set<String> newGuids) throws IdMUnitException {
+        if (newGuids.isEmpty()) {
+            throw new IdMUnitException("Unable to determine process GUID. No new process was found for the workflow.");
         }
 
-        if (diffSize > 1) {
-            throw new IdMUnitException("Unable to determine process GUID. Number of processes after submission is >1 larger than before submission.");
+        if (newGuids.size() > 1) {
+            throw new IdMUnitException("Unable to determine process GUID. More than one new process was found for the workflow.");
         }
 
+        return newGuids.iterator().next();
+    }
+
+    private Set<String> getGuids(JSONArray items) throws IdMUnitException {
         try {
-            Set<String> beforeGuids = new HashSet<String>();
-            for (int beforeNum = 0; beforeNum < beforeItems.length(); beforeNum++) {
-                JSONObject beforeItem = beforeItems.getJSONObject(beforeNum);
-                beforeGuids.add(beforeItem.getString(JSON_FIELD_GUID));
+            Set<String> guids = new HashSet<String>();
+            for (int itemNum = 0; itemNum < items.length(); itemNum++) {
+                guids.add(items.getJSONObject(itemNum).getString(JSON_FIELD_GUID));
             }
+            return guids;
+        } catch (JSONException e) {
+            throw new IdMUnitException("Error retrieving process GUID.", e);
+        }
+    }
 
-            for (int afterNum = 0; afterNum < afterItems.length(); afterNum++) {
-                JSONObject afterItem = afterItems.getJSONObject(afterNum);
-                String guid = afterItem.getString(JSON_FIELD_GUID);
-                if (!beforeGuids.contains(guid)) {
-                    return guid;
+    /**
+     * Returns the GUIDs of the processes whose work items match every filter. Filters are applied in
+     * order and the remaining filters are skipped once a single process is left.
+     */
+    private Set<String> getWorkItemProcessGuids(Collection<String> filters) throws IdMUnitException {
+        Set<String> results = null;
+        for (String filter : filters) {
+            JSONArray workItemsArray = getWorkItemsFromFilter(filter);
+            Set<String> currentResults = new HashSet<String>();
+            for (int i = 0; i < workItemsArray.length(); i++) {
+                try {
+                    String guid = workItemsArray.getJSONObject(i).getJSONObject("Process").getString(JSON_FIELD_GUID);
+                    log.debug("GUID: " + guid);
+                    currentResults.add(guid);
+                } catch (JSONException e) {
+                    throw new IdMUnitException("Error retrieving process GUID.", e);
                 }
             }
-        } catch (JSONException e) {
-            throw new IdMUnitException("Error retrieving process GUID.", e);
+            log.debug("GUID Count: " + currentResults.size());
+
+            if (results == null) {
+                results = currentResults;
+            } else {
+                results.retainAll(currentResults);
+            }
+            if (results.size() == 1) {
+                break;
+            } //else move on to the next filter and keep cutting down the result set
         }
+        return results == null ? new HashSet<String>() : results;
+    }
 
-        throw new IdMUnitException("Error retrieving process GUID.");
+    /**
+     * Asks the server only for the processes of <code>workflowDn</code> created since
+     * <code>startTime</code>, using the configured capture-since-filter.
+     */
+    private JSONArray getProcessItemsSince(String workflowDn, long startTime) {
+        String sinceFilter = captureSinceFilter.format(new Object[]{new Date(startTime), startTime});
+        WebResource resource = rootResource.path(PATH_PROCESSES)
+                .queryParam(PARAM_FILTER, String.format("%s=%s", FILTER_DEFINITION, workflowDn))
+                .queryParam(PARAM_FILTER, sinceFilter);
+        return addDefaultRequestHeaders(resource).get(JSONArray.class);
     }
 
     @SuppressWarnings("serial")
@@ -704,23 +844,6 @@ public class UserAppREST extends AbstractConnector {
         return getJsonObject(String.format("%s/%s", PATH_DEFINITIONS, guid), EMPTY_PARAMS);
     }
 
-    private String getGuidByDn(JSONArray items, String workflowDn) throws IdMUnitException {
-        try {
-            for (int defNum = 0; defNum < items.length(); defNum++) {
-                JSONObject definition = items.getJSONObject(defNum);
-                if (definition != null) {
-                    if (definition.getString(JSON_FIELD_DN).equalsIgnoreCase(workflowDn)) {
-                        return getGuid(definition);
-                    }
-                }
-            }
-        } catch (JSONException e) {
-            throw new IdMUnitException("Error retrieving workflow guid.", e);
-        }
-
-        throw new IdMUnitException("Error retrieving workflow guid");
-    }
-
     private String getGuid(JSONObject item) throws IdMUnitException {
         try {
             return item.getString(JSON_FIELD_GUID);
@@ -756,16 +879,18 @@ public class UserAppREST extends AbstractConnector {
         }
 
         ClientResponse response = addDefaultRequestHeaders(resource).post(ClientResponse.class, object);
-        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
-            throw new IdMUnitException(String.format("Status code '%s' not expected while posting to '%s'", response.getStatus(), path));
-        }
         try {
+            if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                throw new IdMUnitException(String.format("Status code '%s' not expected while posting to '%s'", response.getStatus(), path));
+            }
             JSONObject o = new JSONObject(IOUtils.toString(response.getEntityInputStream()));
             return o.getString("requestID");
         } catch (IOException e) {
             throw new IdMUnitException("Unable to parse REST response", e);
         } catch (JSONException e) {
             throw new IdMUnitException("Unable to parse REST response", e);
+        } finally {
+            response.close();
         }
     }
 
@@ -777,8 +902,13 @@ public class UserAppREST extends AbstractConnector {
         }
 
         ClientResponse response = addDefaultRequestHeaders(resource).put(ClientResponse.class, object);
-        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
-            throw new IdMUnitException(String.format("Status code '%s' not expected while posting to '%s'", response.getStatus(), path));
+        try {
+            if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                throw new IdMUnitException(String.format("Status code '%s' not expected while posting to '%s'", response.getStatus(), path));
+            }
+        } finally {
+            // Closing the response lets the underlying connection be reused for the next request.
+            response.close();
         }
     }
 
@@ -795,13 +925,108 @@ public class UserAppREST extends AbstractConnector {
         return addRequestHeaders(resource, defaultHeaders);
     }
 
+    static final class BulkResult {
+        final int succeeded;
+        final int failed;
+        final long elapsedMillis;
+
+        private BulkResult(int succeeded, int failed, long elapsedMillis) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+
     private final class PreCapture {
         private final String workflowDn;
-        private final JSONArray processes;
+        private final Set<String> processes;
+        private final long startTime;
 
-        private PreCapture(String workflowDn, JSONArray processes) {
+        private PreCapture(String workflowDn, Set<String> processes) {
             this.workflowDn = workflowDn;
             this.processes = processes;
+            this.startTime = 0;
+        }
+
+        private PreCapture(String workflowDn, long startTime) {
+            this.workflowDn = workflowDn;
+            this.processes = null;
+            this.startTime = startTime;
+        }
+    }
+
+    /**
+     * Keeps the workflow definitions list indexed by DN, and the definitions already fetched, for
+     * <code>ttlMillis</code>. Definitions are stored as JSON text because starting a workflow modifies
+     * the definition object it is given.
+     */
+    private final class DefinitionCache {
+        private final long ttlMillis;
+        private final Map<String, String> guidsByDn = new HashMap<String, String>();
+        private final Map<String, String> definitionsByGuid = new HashMap<String, String>();
+        private long loadedAt;
+        private boolean loaded;
+
+        private DefinitionCache(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+        }
+
+        synchronized String getGuidByDn(String workflowDn) throws IdMUnitException {
+            boolean refreshed = false;
+            if (isExpired()) {
+                refresh();
+                refreshed = true;
+            }
+            String guid = guidsByDn.get(workflowDn.toLowerCase());
+            if (guid == null && !refreshed) {
+                // The workflow may have been deployed since the list was loaded.
+                refresh();
+                guid = guidsByDn.get(workflowDn.toLowerCase());
+            }
+            return guid;
+        }
+
+        /**
+         * Returns a copy of the definition. Cached definitions are dropped whenever the list is refreshed.
+         */
+        synchronized JSONObject getDefinition(String guid) throws IdMUnitException {
+            String definition = definitionsByGuid.get(guid);
+            if (definition == null) {
+                definition = UserAppREST.this.getDefinition(guid).toString();
+                if (ttlMillis > 0) {
+                    definitionsByGuid.put(guid, definition);
+                }
+            }
+            try {
+                return new JSONObject(definition);
+            } catch (JSONException e) {
+                throw new IdMUnitException("Error parsing workflow definition.", e);
+            }
+        }
+
+        private boolean isExpired() {
+            return !loaded || ttlMillis <= 0 || System.currentTimeMillis() - loadedAt >= ttlMillis;
+        }
+
+        private void refresh() throws IdMUnitException {
+            JSONArray definitions = getDefinitions();
+            guidsByDn.clear();
+            definitionsByGuid.clear();
+            try {
+                for (int defNum = 0; defNum < definitions.length(); defNum++) {
+                    JSONObject definition = definitions.optJSONObject(defNum);
+                    if (definition != null) {
+                        String dn = definition.getString(JSON_FIELD_DN).toLowerCase();
+                        if (!guidsByDn.containsKey(dn)) {
+                            guidsByDn.put(dn, getGuid(definition));
+                        }
+                    }
+                }
+            } catch (JSONException e) {
+                throw new IdMUnitException("Error retrieving workflow guid.", e);
+            }
+            loadedAt = System.currentTimeMillis();
+            loaded = true;
         }
     }
 }
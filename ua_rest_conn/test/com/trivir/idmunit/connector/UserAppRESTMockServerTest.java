@@ -0,0 +1,447 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.idmunit.IdMUnitException;
+import org.idmunit.connector.BasicConnector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the connector against a local server that implements the parts of the RIS workflow REST API
+ * used by the connector.
+ */
+public class UserAppRESTMockServerTest extends TestCase {
+    private static final String WORKFLOW_DN = "cn=RestConnTest,cn=RequestDefs,cn=AppConfig,cn=UserApplication,cn=driverset1,o=system";
+    private static final String RECIPIENT_DN = "cn=uaadmin,ou=sa,o=data";
+
+    private MockRisServer server;
+    private UserAppREST conn;
+    private Map<String, String> config;
+
+    private static void addSingleValue(Map<String, Collection<String>> data, String name, String value) {
+        List<String> values = new ArrayList<String>();
+        values.add(value);
+        data.put(name, values);
+    }
+
+    protected void setUp() throws Exception {
+        server = new MockRisServer();
+        config = new HashMap<String, String>();
+        config.put(BasicConnector.CONFIG_SERVER, server.getUrl());
+        config.put(BasicConnector.CONFIG_USER, "cn=uaadmin,ou=sa,o=data");
+        config.put(BasicConnector.CONFIG_PASSWORD, "secret");
+        config.put(UserAppREST.CONFIG_WAIT_TIMEOUT, "5");
+        conn = new UserAppREST();
+        conn.setup(config);
+    }
+
+    protected void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private Map<String, Collection<String>> startRow(String id) {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        addSingleValue(data, UserAppREST.WORKFLOW_DN, WORKFLOW_DN);
+        addSingleValue(data, UserAppREST.WORKFLOW_RECIPIENT, RECIPIENT_DN);
+        addSingleValue(data, "reason", "testing");
+        return data;
+    }
+
+    public void testDefinitionsAreCached() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        for (int i = 0; i < 5; i++) {
+            conn.opStartWorkflow(startRow(prefix + i));
+        }
+        assertEquals(1, server.definitionListRequests.get());
+        assertEquals(1, server.definitionRequests.get());
+        assertEquals(5, server.processes.size());
+        for (JSONObject started : server.started) {
+            assertEquals(RECIPIENT_DN, started.getString("Recipient"));
+            assertEquals("testing", started.getJSONArray("DataItems").getJSONObject(0).getJSONArray("Values").getJSONObject(0).getString("Value"));
+        }
+    }
+
+    public void testDefinitionCacheCanBeDisabled() throws Exception {
+        config.put(UserAppREST.CONFIG_DEFINITION_CACHE_TTL, "0");
+        conn.setup(config);
+        String prefix = UUID.randomUUID().toString();
+        conn.opStartWorkflow(startRow(prefix + 1));
+        conn.opStartWorkflow(startRow(prefix + 2));
+        assertEquals(2, server.definitionListRequests.get());
+        assertEquals(2, server.definitionRequests.get());
+    }
+
+    public void testUnknownDnRefreshesDefinitions() throws Exception {
+        Map<String, Collection<String>> data = startRow(UUID.randomUUID().toString());
+        addSingleValue(data, UserAppREST.WORKFLOW_DN, "cn=bogusdn,o=boguso");
+        try {
+            conn.opStartWorkflow(data);
+            fail("Expected exception not thrown");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("was not found"));
+        }
+        assertEquals(1, server.definitionListRequests.get());
+
+        conn.opStartWorkflow(startRow(UUID.randomUUID().toString()));
+        assertEquals(1, server.definitionListRequests.get());
+    }
+
+    public void testSnapshotCaptureWaitsForNewProcess() throws Exception {
+        server.createProcess(WORKFLOW_DN);
+        String id = UUID.randomUUID().toString();
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        addSingleValue(data, UserAppREST.WORKFLOW_DN, WORKFLOW_DN);
+        conn.opPreCaptureWorkflow(data);
+
+        startProcessLater(300);
+        Map<String, Collection<String>> capture = new HashMap<String, Collection<String>>();
+        addSingleValue(capture, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        conn.opCaptureWorkflow(capture);
+        assertTrue(server.processListRequests.get() >= 3);
+
+        // The captured process can be approved once its work item shows up.
+        server.workItemDelay = 300;
+        Map<String, Collection<String>> approve = new HashMap<String, Collection<String>>();
+        addSingleValue(approve, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        conn.opApproveWorkflow(approve);
+        assertEquals(1, server.actions.size());
+        assertEquals("Approve", server.actions.get(0));
+    }
+
+    public void testTimeBoundedCapture() throws Exception {
+        config.put(UserAppREST.CONFIG_CAPTURE_SINCE_FILTER, "CreationTime>={1,number,#}");
+        conn.setup(config);
+        server.createProcess(WORKFLOW_DN);
+        Thread.sleep(5);
+
+        String id = UUID.randomUUID().toString();
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        addSingleValue(data, UserAppREST.WORKFLOW_DN, WORKFLOW_DN);
+        conn.opPreCaptureWorkflow(data);
+        assertEquals(0, server.processListRequests.get());
+
+        Thread.sleep(5);
+        String guid = server.createProcess(WORKFLOW_DN);
+        Map<String, Collection<String>> capture = new HashMap<String, Collection<String>>();
+        addSingleValue(capture, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        conn.opCaptureWorkflow(capture);
+        assertEquals(1, server.processListRequests.get());
+        assertTrue(server.lastProcessFilters.get(1).startsWith("CreationTime>="));
+
+        Map<String, Collection<String>> status = new HashMap<String, Collection<String>>();
+        addSingleValue(status, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        addSingleValue(status, UserAppREST.WORKFLOW_APPROVAL_STATUS, "Approved-" + guid);
+        addSingleValue(status, UserAppREST.WORKFLOW_PROCESS_STATUS, "Running");
+        conn.opCheckWorkflowStatus(status);
+    }
+
+    public void testApprovalFailsWhenNoWorkItemsAppear() throws Exception {
+        config.put(UserAppREST.CONFIG_WAIT_TIMEOUT, "0");
+        conn.setup(config);
+        server.workItemDelay = 60000;
+        String id = UUID.randomUUID().toString();
+        conn.opStartWorkflow(startRow(id));
+
+        Map<String, Collection<String>> deny = new HashMap<String, Collection<String>>();
+        addSingleValue(deny, UserAppREST.WORKFLOW_IDENTIFIER, id);
+        try {
+            conn.opDenyWorkflow(deny);
+            fail("Expected exception not thrown");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("No work items"));
+        }
+    }
+
+    public void testBulkDenyWorkItems() throws Exception {
+        config.put(UserAppREST.CONFIG_BULK_THREADS, "6");
+        conn.setup(config);
+        for (int i = 0; i < 30; i++) {
+            server.createProcess(WORKFLOW_DN);
+        }
+        server.putDelay = 20;
+
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, UserAppREST.WORKFLOW_FILTER, "Recipient=" + RECIPIENT_DN);
+        conn.opBulkDenyWorkItems(data);
+
+        assertEquals(30, server.actions.size());
+        assertFalse(server.actions.contains("Approve"));
+        assertEquals(0, server.workItems.size());
+        assertEquals(30, conn.getLastBulkResult().succeeded);
+        assertEquals(0, conn.getLastBulkResult().failed);
+        assertTrue(server.maxConcurrentPuts.get() > 1);
+        assertTrue(server.maxConcurrentPuts.get() <= 6);
+        conn.tearDown();
+    }
+
+    public void testBulkApproveReportsFailures() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            server.createProcess(WORKFLOW_DN);
+        }
+        server.failingWorkItems.add("item-proc-3");
+        server.failingWorkItems.add("item-proc-7");
+
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, UserAppREST.WORKFLOW_FILTER, "Recipient=" + RECIPIENT_DN);
+        try {
+            conn.opBulkApproveWorkItems(data);
+            fail("Expected exception not thrown");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("2 of 10 work items could not be approved"));
+            assertTrue(e.getMessage().contains("item-proc-3"));
+        }
+        assertEquals(8, conn.getLastBulkResult().succeeded);
+        assertEquals(2, conn.getLastBulkResult().failed);
+        assertEquals(2, server.workItems.size());
+    }
+
+    private void startProcessLater(final long delay) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(delay);
+                    server.createProcess(WORKFLOW_DN);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    static class MockRisServer implements HttpHandler {
+        private static final String DEFINITION_GUID = "def-1";
+
+        final AtomicInteger definitionListRequests = new AtomicInteger();
+        final AtomicInteger definitionRequests = new AtomicInteger();
+        final AtomicInteger processListRequests = new AtomicInteger();
+        final Map<String, JSONObject> processes = new ConcurrentHashMap<String, JSONObject>();
+        final Map<String, JSONObject> workItems = new ConcurrentHashMap<String, JSONObject>();
+        final List<JSONObject> started = new CopyOnWriteArrayList<JSONObject>();
+        final List<String> actions = new CopyOnWriteArrayList<String>();
+        volatile List<String> lastProcessFilters;
+        volatile long workItemDelay;
+        volatile long putDelay;
+        final Set<String> failingWorkItems = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger maxConcurrentPuts = new AtomicInteger();
+        private final AtomicInteger concurrentPuts = new AtomicInteger();
+        private final AtomicInteger sequence = new AtomicInteger();
+        private final HttpServer httpServer;
+
+        MockRisServer() throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            httpServer.createContext("/RIS/", this);
+            httpServer.setExecutor(Executors.newCachedThreadPool());
+            httpServer.start();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/RIS";
+        }
+
+        void stop() {
+            httpServer.stop(0);
+        }
+
+        String createProcess(String definitionDn) throws JSONException {
+            final String guid = "proc-" + sequence.incrementAndGet();
+            JSONObject process = new JSONObject();
+            process.put("GUID", guid);
+            process.put("Definition", definitionDn);
+            process.put("CreationTime", System.currentTimeMillis());
+            process.put("ApprovalStatus", "Approved-" + guid);
+            process.put("ProcessStatus", "Running");
+            processes.put(guid, process);
+
+            final JSONObject item = new JSONObject();
+            item.put("GUID", "item-" + guid);
+            item.put("Process", new JSONObject().put("GUID", guid));
+            item.put("Recipient", RECIPIENT_DN);
+            item.put("DataItems", new JSONArray());
+            final long delay = workItemDelay;
+            if (delay == 0) {
+                workItems.put("item-" + guid, item);
+            } else {
+                Thread t = new Thread() {
+                    public void run() {
+                        try {
+                            Thread.sleep(delay);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        workItems.put("item-" + guid, item);
+                    }
+                };
+                t.setDaemon(true);
+                t.start();
+            }
+            return guid;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath().substring("/RIS/v1/wf/".length());
+                List<String> filters = getFilters(exchange.getRequestURI().getRawQuery());
+                String method = exchange.getRequestMethod();
+                Object response;
+                if ("definitions".equals(path)) {
+                    definitionListRequests.incrementAndGet();
+                    response = new JSONArray()
+                            .put(new JSONObject().put("DN", "cn=Other,cn=RequestDefs").put("GUID", "def-0"))
+                            .put(new JSONObject().put("DN", WORKFLOW_DN.toUpperCase()).put("GUID", DEFINITION_GUID));
+                } else if (path.equals("definitions/" + DEFINITION_GUID) && "GET".equals(method)) {
+                    definitionRequests.incrementAndGet();
+                    response = new JSONObject().put("GUID", DEFINITION_GUID).put("DN", WORKFLOW_DN)
+                            .put("DataItems", new JSONArray().put(new JSONObject().put("Name", "reason").put("MultiValued", false)));
+                } else if (path.equals("definitions/" + DEFINITION_GUID) && "POST".equals(method)) {
+                    JSONObject definition = new JSONObject(read(exchange.getRequestBody()));
+                    started.add(definition);
+                    response = new JSONObject().put("requestID", createProcess(definition.getString("DN")));
+                } else if ("processes".equals(path)) {
+                    processListRequests.incrementAndGet();
+                    lastProcessFilters = filters;
+                    response = listProcesses(filters);
+                } else if (path.startsWith("processes/")) {
+                    response = processes.get(path.substring("processes/".length()));
+                } else if ("workitems".equals(path)) {
+                    String filter = filters.get(0);
+                    JSONArray items = new JSONArray();
+                    for (JSONObject item : workItems.values()) {
+                        if (filter.equals("ProcessId=" + item.getJSONObject("Process").getString("GUID"))
+                                || filter.equals("Recipient=" + item.getString("Recipient"))) {
+                            items.put(item);
+                        }
+                    }
+                    response = items;
+                } else if (path.startsWith("workitems/") && "GET".equals(method)) {
+                    response = workItems.get(path.substring("workitems/".length()));
+                } else if (path.startsWith("workitems/") && "PUT".equals(method)) {
+                    JSONObject item = new JSONObject(read(exchange.getRequestBody()));
+                    response = updateWorkItem(item);
+                } else {
+                    response = null;
+                }
+                send(exchange, response == null ? 404 : 200, response == null ? "" : response.toString());
+            } catch (JSONException e) {
+                send(exchange, 500, e.toString());
+            }
+        }
+
+        private JSONObject updateWorkItem(JSONObject item) throws JSONException {
+            int current = concurrentPuts.incrementAndGet();
+            try {
+                while (true) {
+                    int max = maxConcurrentPuts.get();
+                    if (current <= max || maxConcurrentPuts.compareAndSet(max, current)) {
+                        break;
+                    }
+                }
+                if (putDelay > 0) {
+                    Thread.sleep(putDelay);
+                }
+                if (failingWorkItems.contains(item.getString("GUID"))) {
+                    return null;
+                }
+                actions.add(item.getJSONArray("AvailableActions").getJSONObject(0).getString("Value"));
+                workItems.remove(item.getString("GUID"));
+                return new JSONObject();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                concurrentPuts.decrementAndGet();
+            }
+        }
+
+        private JSONArray listProcesses(List<String> filters) throws JSONException {
+            String definition = filters.get(0).substring("Definition=".length());
+            long since = filters.size() > 1 ? Long.parseLong(filters.get(1).substring("CreationTime>=".length())) : 0;
+            JSONArray result = new JSONArray();
+            for (JSONObject process : processes.values()) {
+                if (process.getString("Definition").equals(definition) && process.getLong("CreationTime") >= since) {
+                    result.put(process);
+                }
+            }
+            return result;
+        }
+
+        private static List<String> getFilters(String query) throws IOException {
+            List<String> filters = new ArrayList<String>();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    if (param.startsWith("filter=")) {
+                        filters.add(URLDecoder.decode(param.substring("filter=".length()), "UTF-8"));
+                    }
+                }
+            }
+            return filters;
+        }
+
+        private static String read(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        }
+
+        private static void send(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+}
@@ -47,9 +47,7 @@ import java.rmi.RemoteException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * @author Jeremiah Seaver
@@ -62,11 +60,15 @@ public class UserAppRoles extends AbstractConnector {
     private String serverUrl;
     private String username;
     private String password;
+    private IRemoteRole rolePort;
 
     public void setup(Map<String, String> config) throws IdMUnitException {
         serverUrl = config.get(BasicConnector.CONFIG_SERVER);
         username = config.get(BasicConnector.CONFIG_USER);
         password = config.get(BasicConnector.CONFIG_PASSWORD);
+        synchronized (this) {
+            rolePort = null;
+        }
 
 
         TrustManager[] trustAllCerts = new TrustManager[] {
@@ -97,37 +99,38 @@ public class UserAppRoles extends AbstractConnector {
     }
 
     public void opAssignRole(Map<String, Collection<String>> data) throws IdMUnitException {
-        data = new HashMap<String, Collection<String>>(data); //defensive copy
-        try {
-            IRemoteRole conn = getRoleConnection();
-            RoleAssignmentRequest req = new RoleAssignmentRequest();
-            req.setActionType(RoleAssignmentActionType.grant);
-            req.setIdentity(getTargetDn(data));
-            req.setReason("Request through IdMUnit.");
-            req.setRoles(new DNStringArray(new DNString[]{new DNString(getRoleDn(data))}));
-            req.setAssignmentType(RoleAssignmentType.USER_TO_ROLE);
-
-            conn.requestRolesAssignment(req);
-        } catch (NamingException e) {
-            throw new IdMUnitException("Unable to lookup Role Service connection.", e);
-        } catch (ServiceException e) {
-            throw new IdMUnitException("Unable to lookup Role Service connection.", e);
-        } catch (RemoteException e) {
-            throw new IdMUnitException("An error occurred when communicating with the Role Service.", e);
-        } catch (NrfServiceException e) {
-            throw new IdMUnitException("The Role Service returned an error.", e);
-        }
+        requestRolesAssignment(data, RoleAssignmentActionType.grant);
     }
 
     public void opRevokeRole(Map<String, Collection<String>> data) throws IdMUnitException {
+        requestRolesAssignment(data, RoleAssignmentActionType.revoke);
+    }
+
+    public void opUserInRoles(Map<String, Collection<String>> data) throws IdMUnitException {
+        validateRoles(data, true);
+    }
+
+    public void opUserNotInRoles(Map<String, Collection<String>> data) throws IdMUnitException {
+        validateRoles(data, false);
+    }
+
+    /**
+     * Sends a single request that grants or revokes every role listed in the roleDn column.
+     */
+    private void requestRolesAssignment(Map<String, Collection<String>> data, RoleAssignmentActionType actionType) throws IdMUnitException {
         data = new HashMap<String, Collection<String>>(data); //defensive copy
+        List<String> roleDns = getRoleDns(data);
+        DNString[] roles = new DNString[roleDns.size()];
+        for (int i = 0; i < roles.length; i++) {
+            roles[i] = new DNString(roleDns.get(i));
+        }
         try {
             IRemoteRole conn = getRoleConnection();
             RoleAssignmentRequest req = new RoleAssignmentRequest();
-            req.setActionType(RoleAssignmentActionType.revoke);
+            req.setActionType(actionType);
             req.setIdentity(getTargetDn(data));
             req.setReason("Request through IdMUnit.");
-            req.setRoles(new DNStringArray(new DNString[]{new DNString(getRoleDn(data))}));
+            req.setRoles(new DNStringArray(roles));
             req.setAssignmentType(RoleAssignmentType.USER_TO_ROLE);
 
             conn.requestRolesAssignment(req);
@@ -142,14 +145,22 @@ public class UserAppRoles extends AbstractConnector {
         }
     }
 
-    public void opUserInRoles(Map<String, Collection<String>> data) throws IdMUnitException {
+    /**
+     * Fetches the user once and checks each role in the roleDn column against the roles the user holds.
+     */
+    private void validateRoles(Map<String, Collection<String>> data, boolean expectedInRole) throws IdMUnitException {
         data = new HashMap<String, Collection<String>>(data); //defensive copy
+        String targetDn = getTargetDn(data);
+        List<String> roleDns = getRoleDns(data);
         try {
-            IRemoteRole conn = getRoleConnection();
+            Set<String> userRoles = getUserRoles(getRoleConnection().getUser(targetDn));
             Failures failures = new Failures();
-            for (String role : data.get(ROLE_DN)) {
-                if (!conn.isUserInRole(getTargetDn(data), role)) {
-                    failures.add("User " + getTargetDn(data) + " is not in role " + role + ".");
+            for (String role : roleDns) {
+                boolean inRole = userRoles.contains(role.toLowerCase());
+                if (expectedInRole && !inRole) {
+                    failures.add("User " + targetDn + " is not in role " + role + ".");
+                } else if (!expectedInRole && inRole) {
+                    failures.add("User " + targetDn + " is in role " + role + ".");
                 }
             }
             if (failures.hasFailures()) {
@@ -166,27 +177,45 @@ public class UserAppRoles extends AbstractConnector {
         }
     }
 
-    public void opUserNotInRoles(Map<String, Collection<String>> data) throws IdMUnitException {
-        data = new HashMap<String, Collection<String>>(data); //defensive copy
-        try {
-            IRemoteRole conn = getRoleConnection();
-            Failures failures = new Failures();
-            for (String role : data.get(ROLE_DN)) {
-                if (conn.isUserInRole(getTargetDn(data), role)) {
-                    failures.add("User " + getTargetDn(data) + " is in role " + role + ".");
-                }
+    /**
+     * Returns the lower case DNs of every role the user holds, whether assigned directly, through a
+     * group or container, or inherited from another role.
+     */
+    static Set<String> getUserRoles(User user) {
+        Set<String> roles = new HashSet<String>();
+        if (user == null) {
+            return roles;
+        }
+        addRoles(roles, user.getRoleAssignments());
+        addRoles(roles, user.getExplicitAssignments());
+        addRoles(roles, user.getImplicitAssignments());
+        addRoles(roles, user.getInheritedAssignments());
+        addRoles(roles, user.getAssociatedRoles());
+        addRoles(roles, user.getGroupRoles());
+        addRoles(roles, user.getContainerRoles());
+        addRoles(roles, user.getInheritedRoles());
+        return roles;
+    }
+
+    private static void addRoles(Set<String> roles, RoleAssignmentArray assignments) {
+        if (assignments == null || assignments.getRoleassignment() == null) {
+            return;
+        }
+        for (RoleAssignment assignment : assignments.getRoleassignment()) {
+            if (assignment != null && assignment.getRole() != null) {
+                roles.add(assignment.getRole().toLowerCase());
             }
-            if (failures.hasFailures()) {
-                throw new IdMUnitFailureException(failures.toString());
+        }
+    }
+
+    private static void addRoles(Set<String> roles, DNStringArray dns) {
+        if (dns == null || dns.getDnstring() == null) {
+            return;
+        }
+        for (DNString dn : dns.getDnstring()) {
+            if (dn != null && dn.getDn() != null) {
+                roles.add(dn.getDn().toLowerCase());
             }
-        } catch (NamingException e) {
-            throw new IdMUnitException("Unable to lookup Role Service connection.", e);
-        } catch (ServiceException e) {
-            throw new IdMUnitException("Unable to lookup Role Service connection.", e);
-        } catch (RemoteException e) {
-            throw new IdMUnitException("An error occurred when communicating with the Role Service.", e);
-        } catch (NrfServiceException e) {
-            throw new IdMUnitException("The Role Service returned an error.", e);
         }
     }
 
@@ -201,18 +230,32 @@ public class UserAppRoles extends AbstractConnector {
         return dn;
     }
 
-    private String getRoleDn(Map<String, Collection<String>> data) throws IdMUnitException {
-        String dn = ConnectorUtil.getSingleValue(data, ROLE_DN);
-        if (dn == null) {
+    private List<String> getRoleDns(Map<String, Collection<String>> data) throws IdMUnitException {
+        Collection<String> values = data.get(ROLE_DN);
+        if (values == null || values.isEmpty()) {
             throw new IdMUnitException("A Role DN must be supplied in column '" + ROLE_DN + "'");
         }
-        if (!dn.trim().equalsIgnoreCase(dn)) {
-            throw new IdMUnitException("WARNING: your Role DN specified: [" + dn + "] is either prefixed or postfixed with whitespace!  Please correct, then retest.");
+        List<String> dns = new ArrayList<String>(values.size());
+        for (String dn : values) {
+            if (!dn.trim().equalsIgnoreCase(dn)) {
+                throw new IdMUnitException("WARNING: your Role DN specified: [" + dn + "] is either prefixed or postfixed with whitespace!  Please correct, then retest.");
+            }
+            dns.add(dn);
         }
-        return dn;
+        return dns;
+    }
+
+    /**
+     * Returns the Role Service port, looking it up and configuring it the first time it is needed.
+     */
+    private synchronized IRemoteRole getRoleConnection() throws NamingException, ServiceException {
+        if (rolePort == null) {
+            rolePort = createRoleConnection();
+        }
+        return rolePort;
     }
 
-    private IRemoteRole getRoleConnection() throws NamingException, ServiceException {
+    private IRemoteRole createRoleConnection() throws NamingException, ServiceException {
         InitialContext ctx = new InitialContext();
         RoleService service = (RoleService)ctx.lookup("xmlrpc:soap:com.novell.soa.af.role.soap.impl.RoleService");
         IRemoteRole port = service.getIRemoteRolePort();
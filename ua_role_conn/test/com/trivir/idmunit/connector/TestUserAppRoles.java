@@ -28,16 +28,14 @@
 
 package com.trivir.idmunit.connector;
 
+import com.novell.soa.af.role.soap.impl.*;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.idmunit.IdMUnitException;
 import org.idmunit.connector.BasicConnector;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * @author Jeremiah Seaver
@@ -240,4 +238,19 @@ public class TestUserAppRoles extends TestCase {
             // Expected Exception
         }
     }
+
+    public void testGetUserRoles() {
+        User user = new User();
+        RoleAssignment assignment = new RoleAssignment();
+        assignment.setRole(DEFAULT_ROLE_DN.toUpperCase());
+        user.setRoleAssignments(new RoleAssignmentArray(new RoleAssignment[]{assignment}));
+        user.setInheritedRoles(new DNStringArray(new DNString[]{new DNString("cn=Inherited,cn=Level20,o=idm")}));
+        user.setGroupRoles(new DNStringArray());
+
+        Set<String> roles = UserAppRoles.getUserRoles(user);
+        assertEquals(2, roles.size());
+        assertTrue(roles.contains(DEFAULT_ROLE_DN.toLowerCase()));
+        assertTrue(roles.contains("cn=inherited,cn=level20,o=idm"));
+        assertTrue(UserAppRoles.getUserRoles(null).isEmpty());
+    }
 }
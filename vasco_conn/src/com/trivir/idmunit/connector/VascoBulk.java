@@ -0,0 +1,200 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.trivir.idmunit.util.CsvReader;
+import org.idmunit.IdMUnitException;
+
+import java.util.*;
+
+/**
+ * Builds the list of users processed by the VASCO bulk operations and summarizes the results.
+ * <p/>
+ * Users are read from a CSV file whose header row contains the same column names as the single user
+ * operations, or generated from a numbered range. Any other column of the test row is applied to every
+ * user unless the CSV file supplies its own value.
+ */
+final class VascoBulk {
+    static final String CSV_FILE = "CSV_FILE";
+    static final String USER_ID_FORMAT = "USER_ID_FORMAT";
+    static final String RANGE_START = "RANGE_START";
+    static final String RANGE_COUNT = "RANGE_COUNT";
+    static final String DIGIPASS_SERIAL_START = "DIGIPASS_SERIAL_START";
+    static final String THREADS = "THREADS";
+    static final String RETRIES = "RETRIES";
+    static final String REPORT_FILE = "REPORT_FILE";
+
+    static final Set<String> CONTROL_COLUMNS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            CSV_FILE, USER_ID_FORMAT, RANGE_START, RANGE_COUNT, DIGIPASS_SERIAL_START, THREADS, RETRIES, REPORT_FILE)));
+
+    private VascoBulk() {
+    }
+
+    static List<Map<String, Collection<String>>> loadUsers(Map<String, Collection<String>> data) throws IdMUnitException {
+        Map<String, Collection<String>> common = new HashMap<String, Collection<String>>();
+        for (Map.Entry<String, Collection<String>> entry : data.entrySet()) {
+            if (!CONTROL_COLUMNS.contains(entry.getKey())) {
+                common.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        String csvFile = getValue(data, CSV_FILE);
+        String userIdFormat = getValue(data, USER_ID_FORMAT);
+        if (csvFile != null && userIdFormat != null) {
+            throw new IdMUnitException("Only one of '" + CSV_FILE + "' and '" + USER_ID_FORMAT + "' may be specified.");
+        }
+        if (csvFile != null) {
+            return readCsv(csvFile, common);
+        }
+        if (userIdFormat != null) {
+            return generateRange(userIdFormat, data, common);
+        }
+        throw new IdMUnitException("Either '" + CSV_FILE + "' or '" + USER_ID_FORMAT + "' must be specified.");
+    }
+
+    static List<Map<String, Collection<String>>> readCsv(String fileName, Map<String, Collection<String>> common) throws IdMUnitException {
+        List<Map<String, Collection<String>>> users = new ArrayList<Map<String, Collection<String>>>();
+        for (Map<String, String> row : CsvReader.readAll(fileName)) {
+            Map<String, Collection<String>> user = new HashMap<String, Collection<String>>(common);
+            for (Map.Entry<String, String> value : row.entrySet()) {
+                if (value.getValue().length() > 0) {
+                    user.put(value.getKey(), Collections.singletonList(value.getValue()));
+                }
+            }
+            users.add(user);
+        }
+        return users;
+    }
+
+    static List<Map<String, Collection<String>>> generateRange(String userIdFormat, Map<String, Collection<String>> data, Map<String, Collection<String>> common) throws IdMUnitException {
+        long start = getLong(data, RANGE_START, 1);
+        long count = getLong(data, RANGE_COUNT, -1);
+        if (count < 0) {
+            throw new IdMUnitException("'" + RANGE_COUNT + "' must be specified when using '" + USER_ID_FORMAT + "'.");
+        }
+
+        String serialStart = getValue(data, DIGIPASS_SERIAL_START);
+        long firstSerial = 0;
+        if (serialStart != null) {
+            firstSerial = getLong(data, DIGIPASS_SERIAL_START, 0);
+        }
+
+        List<Map<String, Collection<String>>> users = new ArrayList<Map<String, Collection<String>>>();
+        for (long i = 0; i < count; i++) {
+            Map<String, Collection<String>> user = new HashMap<String, Collection<String>>(common);
+            String userId;
+            try {
+                userId = String.format(userIdFormat, start + i);
+            } catch (IllegalFormatException e) {
+                throw new IdMUnitException("Invalid value for '" + USER_ID_FORMAT + "': " + userIdFormat, e);
+            }
+            user.put(VascoConnector.USER_ID, Collections.singletonList(userId));
+            if (serialStart != null) {
+                // Keep the leading zeros of the starting serial number.
+                String serial = String.format("%0" + serialStart.length() + "d", firstSerial + i);
+                user.put(VascoConnector.DIGIPASS_SERIAL, Collections.singletonList(serial));
+            }
+            users.add(user);
+        }
+        return users;
+    }
+
+    static String getValue(Map<String, Collection<String>> data, String name) {
+        Collection<String> values = data.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        String value = values.iterator().next();
+        return value == null || value.trim().length() == 0 ? null : value.trim();
+    }
+
+    static long getLong(Map<String, Collection<String>> data, String name, long defaultValue) throws IdMUnitException {
+        String value = getValue(data, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("Invalid value for '" + name + "': " + value, e);
+        }
+    }
+
+    /**
+     * Aggregate results of one bulk operation.
+     */
+    static final class Report {
+        final String operation;
+        final int total;
+        final int succeeded;
+        final int failed;
+        final long retries;
+        final long elapsedMillis;
+        final long minLatencyMillis;
+        final long maxLatencyMillis;
+        final double averageLatencyMillis;
+        final int threads;
+
+        Report(String operation, int threads, long elapsedMillis, long retries, long[] latencies, int failed) {
+            this.operation = operation;
+            this.threads = threads;
+            this.elapsedMillis = elapsedMillis;
+            this.retries = retries;
+            this.total = latencies.length;
+            this.failed = failed;
+            this.succeeded = total - failed;
+
+            long min = total > 0 ? Long.MAX_VALUE : 0;
+            long max = 0;
+            long sum = 0;
+            for (long latency : latencies) {
+                min = Math.min(min, latency);
+                max = Math.max(max, latency);
+                sum += latency;
+            }
+            this.minLatencyMillis = min;
+            this.maxLatencyMillis = max;
+            this.averageLatencyMillis = total > 0 ? (double)sum / total : 0;
+        }
+
+        double getThroughput() {
+            return elapsedMillis > 0 ? succeeded * 1000.0 / elapsedMillis : 0;
+        }
+
+        public String toString() {
+            return String.format(
+                    "%s: %d users, %d succeeded, %d failed, %d retries%n"
+                            + "Threads: %d, elapsed: %d ms, throughput: %.2f users/s%n"
+                            + "Latency per user (ms): min %d, avg %.1f, max %d",
+                    operation, total, succeeded, failed, retries,
+                    threads, elapsedMillis, getThroughput(),
+                    minLatencyMillis, averageLatencyMillis, maxLatencyMillis);
+        }
+    }
+}
@@ -34,14 +34,18 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.util.EntityUtils;
 import org.idmunit.Failures;
 import org.idmunit.IdMUnitException;
@@ -53,13 +57,16 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
@@ -70,10 +77,8 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.*;
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.*;
+import java.net.ConnectException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.KeyManagementException;
@@ -81,6 +86,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class VascoConnector extends AbstractConnector {
     protected static final String STR_SUCCESS = "...SUCCESS";
@@ -111,27 +119,49 @@ public class VascoConnector extends AbstractConnector {
     static final String USAGE_QUALIFIER = "USAGE_QUALIFIER";
     static final String VALUE = "VALUE";
     static final String OPTIONS = "OPTIONS";
+    static final String CONFIG_MAX_CONNECTIONS = "max-connections";
+    static final int DEFAULT_MAX_CONNECTIONS = 10;
+    static final String CONFIG_BULK_THREADS = "bulk-threads";
+    static final String CONFIG_BULK_RETRIES = "bulk-retries";
+    static final String CONFIG_BULK_RETRY_DELAY = "bulk-retry-delay";
+    static final int DEFAULT_BULK_THREADS = 4;
+    static final int DEFAULT_BULK_RETRIES = 3;
+    static final long DEFAULT_BULK_RETRY_DELAY = 500;
     private static Marker fatal = MarkerFactory.getMarker("FATAL");
     private static Logger log = LoggerFactory.getLogger(VascoConnector.class);
     protected String server;
     protected String username;
     protected String password;
     protected String sessionId;
+    protected int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    protected int bulkThreads = DEFAULT_BULK_THREADS;
+    protected int bulkRetries = DEFAULT_BULK_RETRIES;
+    protected long bulkRetryDelay = DEFAULT_BULK_RETRY_DELAY;
+    private HttpClient httpClient;
+    // Only non-zero while a bulk operation is running; single operations never retry.
+    private volatile int transientRetries;
+    private final AtomicLong retryCount = new AtomicLong();
+    private VascoBulk.Report lastBulkReport;
     Map<String, String> attrData = new TreeMap<String, String>();
     Map<String, String> auxAttrData = new TreeMap<String, String>();
 
+    /**
+     * Parsers and compiled XPath expressions are not thread safe, so each thread that processes responses
+     * gets its own set, created the first time the thread needs them.
+     */
+    private static final ThreadLocal<ResponseParser> RESPONSE_PARSER = new ThreadLocal<ResponseParser>() {
+        @Override
+        protected ResponseParser initialValue() {
+            return new ResponseParser();
+        }
+    };
+
     private static void validateResponse(Document responseDocument) throws XPathExpressionException, IdMUnitException {
-        XPathFactory xPathFactory = XPathFactory.newInstance();
-        XPath xPath = xPathFactory.newXPath();
-        XPathExpression errorCodexPath = xPath.compile("//results/resultCodes/returnCode/node()");
-        XPathExpression errorStatusCodeEnumxPath = xPath.compile("//results/resultCodes/statusCodeEnum/node()");
-        XPathExpression errorMsgxPath = xPath.compile("//results/errorStack/errors/errorDesc/node()");
-        XPathExpression faultStringxPath = xPath.compile("//Fault/faultstring/node()");
-
-        String errorCode = (String)errorCodexPath.evaluate(responseDocument, XPathConstants.STRING);
-        String errorEnumCode = (String)errorStatusCodeEnumxPath.evaluate(responseDocument, XPathConstants.STRING);
-        String errorMsg = (String)errorMsgxPath.evaluate(responseDocument, XPathConstants.STRING);
-        String faultString = (String)faultStringxPath.evaluate(responseDocument, XPathConstants.STRING);
+        ResponseParser parser = RESPONSE_PARSER.get();
+        String errorCode = (String)parser.errorCodeXPath.evaluate(responseDocument, XPathConstants.STRING);
+        String errorEnumCode = (String)parser.errorStatusCodeEnumXPath.evaluate(responseDocument, XPathConstants.STRING);
+        String errorMsg = (String)parser.errorMsgXPath.evaluate(responseDocument, XPathConstants.STRING);
+        String faultString = (String)parser.faultStringXPath.evaluate(responseDocument, XPathConstants.STRING);
 
         if (errorMsg == null || errorMsg.trim().equalsIgnoreCase("")) {
             errorMsg = faultString;
@@ -149,12 +179,9 @@ public class VascoConnector extends AbstractConnector {
     }
 
     private static void validateDeletedResponse(Document responseDocument) throws XPathExpressionException, IdMUnitException {
-        XPathFactory xPathFactory = XPathFactory.newInstance();
-        XPath xPath = xPathFactory.newXPath();
-        XPathExpression errorCodexPath = xPath.compile("//results/resultCodes/returnCode/node()");
-        XPathExpression errorMsgxPath = xPath.compile("//results/errorStack/errors/errorDesc/node()");
-        String errorCode = (String)errorCodexPath.evaluate(responseDocument, XPathConstants.STRING);
-        String errorMsg = (String)errorMsgxPath.evaluate(responseDocument, XPathConstants.STRING);
+        ResponseParser parser = RESPONSE_PARSER.get();
+        String errorCode = (String)parser.errorCodeXPath.evaluate(responseDocument, XPathConstants.STRING);
+        String errorMsg = (String)parser.errorMsgXPath.evaluate(responseDocument, XPathConstants.STRING);
         String fullErrorMsg = errorMsg + " (Error Code: " + errorCode + ")";
         if (!"0".equalsIgnoreCase(errorCode)) {
             log.warn(fullErrorMsg);
@@ -164,10 +191,10 @@ public class VascoConnector extends AbstractConnector {
     }
 
     private static Document createDocument(String xmlString) throws IdMUnitException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         InputSource source = new InputSource(new StringReader(xmlString));
         try {
-            return factory.newDocumentBuilder().parse(source);
+            DocumentBuilder builder = RESPONSE_PARSER.get().getDocumentBuilder();
+            return builder.parse(source);
         } catch (ParserConfigurationException e) {
             throw new IdMUnitException("Error parsing API response.", e);
         } catch (IOException e) {
@@ -177,6 +204,88 @@ public class VascoConnector extends AbstractConnector {
         }
     }
 
+    /**
+     * Indexes the <code>//results/resultAttribute/attributes</code> elements of a response by attributeID.
+     * If an attributeID occurs more than once the first value is kept.
+     */
+    static Map<String, String> indexAttributes(Document responseDocument) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        for (Element resultAttribute : getElements(responseDocument.getElementsByTagName("resultAttribute"))) {
+            if (!isChildOf(resultAttribute, "results")) {
+                continue;
+            }
+            for (Element attribute : getChildElements(resultAttribute, "attributes")) {
+                addAttribute(attributes, attribute);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Indexes the <code>//results/resultAttribute/attributeList</code> elements of a user attribute query
+     * response. Each attributeList describes one user attribute; it is indexed under every value it
+     * contains, so it can be looked up by the user attribute's name.
+     */
+    static Map<String, Map<String, String>> indexUserAttributes(Document responseDocument) {
+        Map<String, Map<String, String>> userAttributes = new HashMap<String, Map<String, String>>();
+        for (Element attributeList : getElements(responseDocument.getElementsByTagName("attributeList"))) {
+            Node resultAttribute = attributeList.getParentNode();
+            if (!"resultAttribute".equals(resultAttribute.getNodeName()) || !isChildOf((Element)resultAttribute, "results")) {
+                continue;
+            }
+            Map<String, String> properties = new HashMap<String, String>();
+            List<String> values = new ArrayList<String>();
+            for (Element attribute : getChildElements(attributeList, "attributes")) {
+                addAttribute(properties, attribute);
+                for (Element value : getChildElements(attribute, "value")) {
+                    values.add(value.getTextContent());
+                }
+            }
+            for (String value : values) {
+                if (!userAttributes.containsKey(value)) {
+                    userAttributes.put(value, properties);
+                }
+            }
+        }
+        return userAttributes;
+    }
+
+    private static void addAttribute(Map<String, String> attributes, Element attribute) {
+        List<Element> values = getChildElements(attribute, "value");
+        if (values.isEmpty()) {
+            return;
+        }
+        for (Element attributeId : getChildElements(attribute, "attributeID")) {
+            String id = attributeId.getTextContent();
+            if (!attributes.containsKey(id)) {
+                attributes.put(id, values.get(0).getTextContent());
+            }
+        }
+    }
+
+    private static boolean isChildOf(Element element, String parentName) {
+        Node parent = element.getParentNode();
+        return parent != null && parentName.equals(parent.getNodeName());
+    }
+
+    private static List<Element> getElements(NodeList nodes) {
+        List<Element> elements = new ArrayList<Element>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element)nodes.item(i));
+        }
+        return elements;
+    }
+
+    private static List<Element> getChildElements(Element parent, String name) {
+        List<Element> elements = new ArrayList<Element>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                elements.add((Element)child);
+            }
+        }
+        return elements;
+    }
+
     public void setup(Map<String, String> config) throws IdMUnitException {
         server = config.get(BasicConnector.CONFIG_SERVER);
         username = config.get(BasicConnector.CONFIG_USER);
@@ -200,16 +309,19 @@ public class VascoConnector extends AbstractConnector {
             }
         }
 
+        maxConnections = getIntConfig(config, CONFIG_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        bulkThreads = getIntConfig(config, CONFIG_BULK_THREADS, DEFAULT_BULK_THREADS);
+        bulkRetries = getIntConfig(config, CONFIG_BULK_RETRIES, DEFAULT_BULK_RETRIES);
+        bulkRetryDelay = getIntConfig(config, CONFIG_BULK_RETRY_DELAY, (int)DEFAULT_BULK_RETRY_DELAY);
+
+        httpClient = buildHttpClient(server, username, password);
+
         final String url = server;
         final String request = String.format(VascoSoap.LOGON_REQUEST, username, password);
         Document responseDocument = getResponse(url, request);
         try {
-            XPathFactory xPathFactory = XPathFactory.newInstance();
-            XPath xPath = xPathFactory.newXPath();
-            XPathExpression sessionIdXpath = xPath.compile("//results/resultAttribute/attributes/attributeID[text()=\"CREDFLD_SESSION_ID\"]/parent::node()/value");
-            Node sessionIdNode = (Node)sessionIdXpath.evaluate(responseDocument, XPathConstants.NODE);
             validateResponse(responseDocument);
-            sessionId = sessionIdNode != null ? sessionIdNode.getTextContent() : null;
+            sessionId = indexAttributes(responseDocument).get("CREDFLD_SESSION_ID");
         } catch (XPathExpressionException e) {
             log.error(fatal, "The logon document returned did not contain CREDFLD_SESSION_ID.");
             throw new IdMUnitException("The logon document returned did not contain CREDFLD_SESSION_ID.", e);
@@ -224,17 +336,34 @@ public class VascoConnector extends AbstractConnector {
 
     }
 
+    private static int getIntConfig(Map<String, String> config, String name, int defaultValue) throws IdMUnitException {
+        String value = config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IdMUnitException("Invalid value for '" + name + "': " + value, e);
+        }
+    }
+
     public void tearDown() throws IdMUnitException {
         final String url = server;
         final String request = String.format(VascoSoap.LOGOFF_REQUEST, sessionId);
 
-        Document response = getResponse(url, request);
         try {
+            Document response = getResponse(url, request);
             validateResponse(response);
         } catch (XPathExpressionException e) {
             String errorMsg = "The logoff request failed.";
             log.warn(errorMsg);
             throw new IdMUnitException(errorMsg, e);
+        } finally {
+            if (httpClient != null) {
+                httpClient.getConnectionManager().shutdown();
+                httpClient = null;
+            }
         }
     }
 
@@ -342,42 +471,16 @@ public class VascoConnector extends AbstractConnector {
                 sessionId,
                 expectedAttrs.get(USER_ID).toArray()[0],
                 expectedAttrs.get(DOMAIN).toArray()[0]);
-        Document responseDocument = getResponse(server, request);
-
-        log.debug("AVK: response document was: [");
-        log.debug(responseDocument.toString());
-
-        StringWriter outputString = new StringWriter();
+        Document responseDocument = getResponse(server, request, true);
 
-        TransformerFactory tFactory = TransformerFactory.newInstance();
-        Transformer transformer = null;
-        try {
-            transformer = tFactory.newTransformer();
-        } catch (TransformerConfigurationException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        DOMSource source = new DOMSource(responseDocument);
-        StreamResult result = new StreamResult(outputString);
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        //System.out.println("========================================================================================================================================");
-        //System.out.println("Test: [" + testName + "]");
-        try {
-            transformer.transform(source, result);
-        } catch (TransformerException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        if (log.isDebugEnabled()) {
+            log.debug("AVK: response document was: [");
+            log.debug(prettyPrint(responseDocument));
+            log.debug("]");
         }
 
-        log.debug(outputString.toString());
-
-        log.debug("]");
-
         validateResponse(responseDocument);
-
-        XPathFactory xPathFactory = XPathFactory.newInstance();
-        XPath xPath = xPathFactory.newXPath();
+        Map<String, String> actualAttrs = indexAttributes(responseDocument);
 
         //Check the account attributes
         for (String expectedAttrName : expectedAttrs.keySet()) {
@@ -391,10 +494,10 @@ public class VascoConnector extends AbstractConnector {
             String vascoAttrName = VascoSoap.USER_EXECUTE_PREFIX + expectedAttrName;
 
             String expectedAttrValue = expectedAttrs.get(expectedAttrName).toArray()[0].toString();
-            String xPathToAttr = "//results/resultAttribute/attributes/attributeID[text()=\"" + vascoAttrName + "\"]/parent::node()/value/text()";
-            log.debug("xPATH to validate this account attribute: " + xPathToAttr);
-            XPathExpression errorCodexPath = xPath.compile(xPathToAttr);
-            String actualAttrValue = (String)errorCodexPath.evaluate(responseDocument, XPathConstants.STRING);
+            String actualAttrValue = actualAttrs.get(vascoAttrName);
+            if (actualAttrValue == null) {
+                actualAttrValue = "";
+            }
             Collection<String> currentAttrCollection = new ArrayList<String>(Arrays.asList(new String[]{actualAttrValue}));
 
             //Handle digipass ids. Needed since we don't know the order of the returned digipass Ids.
@@ -463,17 +566,15 @@ public class VascoConnector extends AbstractConnector {
                     expectedAttrs.get(USER_ID).toArray()[0],
                     expectedAttrs.get(DOMAIN).toArray()[0],
                     sb.toString());
-            Document userAttributeResponse = getResponse(server, requestForUserAttribute);
+            Document userAttributeResponse = getResponse(server, requestForUserAttribute, true);
             validateResponse(userAttributeResponse);
+            Map<String, Map<String, String>> actualUserAttrs = indexUserAttributes(userAttributeResponse);
             for (String propertyName : ua.keySet()) {
                 String userAttributeName = (String)ua.get(NAME).toArray()[0];
                 String expectedPropertyValue = (String)ua.get(propertyName).toArray()[0];
 
-                String xPathToAttrName = "//results/resultAttribute/attributeList/attributes/value[text()=\"" + userAttributeName + "\"]";
-                XPathExpression attrNameXpathExpression = xPath.compile(xPathToAttrName);
-                String temp = (String)attrNameXpathExpression.evaluate(userAttributeResponse, XPathConstants.STRING);
-
-                if (temp == null || "".equalsIgnoreCase(temp)) {
+                Map<String, String> actualProperties = actualUserAttrs.get(userAttributeName);
+                if (actualProperties == null || "".equals(userAttributeName)) {
                     failures.add("Validation failed for the user attribute [" + VascoSoap.USER_ATTR_PREFIX + userAttributeName + "]. The user attribute did not exist in the application.");
                     break;
                 }
@@ -483,11 +584,7 @@ public class VascoConnector extends AbstractConnector {
                     continue;
                 }
 
-                String xPathToPropertyValue = "//results/resultAttribute/attributeList/attributes/value[text()=\"" + userAttributeName + "\"]/parent::node()/parent::node()/attributes/attributeID[text()=\"" + VascoSoap.ATTR_EXECUTE_PREFIX + propertyName + "\"]/parent::node()/value";
-                log.debug("xPATH to validate this user attribute: " + xPathToPropertyValue);
-
-                XPathExpression xPathEx = xPath.compile(xPathToPropertyValue);
-                String actualPropertyValue = (String)xPathEx.evaluate(userAttributeResponse, XPathConstants.STRING);
+                String actualPropertyValue = actualProperties.get(VascoSoap.ATTR_EXECUTE_PREFIX + propertyName);
 
                 Collection<String> actualAttrCollection = new ArrayList<String>(Arrays.asList(new String[]{actualPropertyValue}));
                 Collection<String> expectedAttrCollection = new ArrayList<String>(Arrays.asList(new String[]{expectedPropertyValue}));
@@ -617,6 +714,170 @@ public class VascoConnector extends AbstractConnector {
 
     } //opModifyUser
 
+    public void opBulkCreateUser(Map<String, Collection<String>> data) throws IdMUnitException {
+        runBulk("BulkCreateUser", data, new BulkTask() {
+            public void run(Map<String, Collection<String>> user) throws IdMUnitException, XPathExpressionException {
+                Map<String, Collection<String>> account = new HashMap<String, Collection<String>>(user);
+                Collection<String> digipassSerial = account.remove(DIGIPASS_SERIAL);
+                account.remove(GRACE_PERIOD_DAYS);
+                account.remove(ASSIGNED_USER_ORG_UNIT);
+                opCreateUser(account);
+                if (digipassSerial != null) {
+                    opAssignDigipass(user);
+                }
+            }
+        });
+    }
+
+    public void opBulkAssignDigipass(Map<String, Collection<String>> data) throws IdMUnitException {
+        runBulk("BulkAssignDigipass", data, new BulkTask() {
+            public void run(Map<String, Collection<String>> user) throws IdMUnitException, XPathExpressionException {
+                opAssignDigipass(user);
+            }
+        });
+    }
+
+    public void opBulkValidateUser(Map<String, Collection<String>> data) throws IdMUnitException {
+        runBulk("BulkValidateUser", data, new BulkTask() {
+            public void run(Map<String, Collection<String>> user) throws IdMUnitException, XPathExpressionException {
+                opValidateUser(user);
+            }
+        });
+    }
+
+    public void opBulkDeleteUser(Map<String, Collection<String>> data) throws IdMUnitException {
+        runBulk("BulkDeleteUser", data, new BulkTask() {
+            public void run(Map<String, Collection<String>> user) throws IdMUnitException, XPathExpressionException {
+                opDeleteUser(user);
+            }
+        });
+    }
+
+    VascoBulk.Report getLastBulkReport() {
+        return lastBulkReport;
+    }
+
+    private interface BulkTask {
+        void run(Map<String, Collection<String>> user) throws IdMUnitException, XPathExpressionException;
+    }
+
+    /**
+     * Runs <code>task</code> once for every user described by <code>data</code>, using up to
+     * <code>THREADS</code> concurrent requests over the current session. Requests that fail with a
+     * transient fault are retried. All users are processed even if some fail; the failures are reported
+     * together once every user has been processed.
+     */
+    private void runBulk(final String operation, Map<String, Collection<String>> data, final BulkTask task) throws IdMUnitException {
+        final List<Map<String, Collection<String>>> users = VascoBulk.loadUsers(data);
+        int threads = (int)VascoBulk.getLong(data, VascoBulk.THREADS, bulkThreads);
+        int retries = (int)VascoBulk.getLong(data, VascoBulk.RETRIES, bulkRetries);
+        if (threads < 1) {
+            throw new IdMUnitException("'" + VascoBulk.THREADS + "' must be at least 1.");
+        }
+        if (threads > maxConnections) {
+            log.warn(operation + ": " + threads + " threads share " + maxConnections + " pooled connections; increase '" + CONFIG_MAX_CONNECTIONS + "' to avoid waiting for a connection.");
+        }
+
+        log.info(operation + ": processing " + users.size() + " users with " + threads + " threads...");
+        final long[] latencies = new long[users.size()];
+        final String[] errors = new String[users.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "vasco-bulk-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        retryCount.set(0);
+        transientRetries = retries;
+        long start = System.currentTimeMillis();
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(users.size());
+            for (int i = 0; i < users.size(); i++) {
+                final int index = i;
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        Map<String, Collection<String>> user = users.get(index);
+                        long userStart = System.currentTimeMillis();
+                        try {
+                            task.run(user);
+                        } catch (IdMUnitException e) {
+                            errors[index] = e.getMessage();
+                        } catch (XPathExpressionException e) {
+                            errors[index] = e.getMessage();
+                        } catch (RuntimeException e) {
+                            errors[index] = e.toString();
+                        }
+                        latencies[index] = System.currentTimeMillis() - userStart;
+                        if (errors[index] != null) {
+                            log.warn(operation + " failed for [" + VascoBulk.getValue(user, USER_ID) + "]: " + errors[index]);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IdMUnitException(operation + " was interrupted.", e);
+                } catch (ExecutionException e) {
+                    throw new IdMUnitException(operation + " failed unexpectedly.", e.getCause());
+                }
+            }
+        } finally {
+            transientRetries = 0;
+            executor.shutdownNow();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        Failures failures = new Failures();
+        int failed = 0;
+        for (int i = 0; i < users.size(); i++) {
+            if (errors[i] != null) {
+                failed++;
+                failures.add("[" + VascoBulk.getValue(users.get(i), USER_ID) + "] " + errors[i]);
+            }
+        }
+
+        lastBulkReport = new VascoBulk.Report(operation, threads, elapsed, retryCount.get(), latencies, failed);
+        log.info(lastBulkReport.toString());
+        writeBulkReport(VascoBulk.getValue(data, VascoBulk.REPORT_FILE), lastBulkReport, failures);
+
+        if (failures.hasFailures()) {
+            throw new IdMUnitException(failed + " of " + users.size() + " users failed:\n" + failures.toString() + "\n" + lastBulkReport);
+        }
+    }
+
+    private static void writeBulkReport(String fileName, VascoBulk.Report report, Failures failures) throws IdMUnitException {
+        if (fileName == null) {
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8");
+            writer.write(report.toString());
+            writer.write(String.format("%n"));
+            if (failures.hasFailures()) {
+                writer.write(failures.toString());
+                writer.write(String.format("%n"));
+            }
+        } catch (IOException e) {
+            throw new IdMUnitException("Error writing bulk report to '" + fileName + "'.", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
     public void opValidateCon(Map<String, Collection<String>> expectedAttrs) throws IdMUnitException, XPathExpressionException {
         //Used simply to validate a conneciton can be made.
     }
@@ -663,6 +924,17 @@ public class VascoConnector extends AbstractConnector {
     }
 
     public Document getResponse(String url, String request) throws IdMUnitException {
+        return getResponse(url, request, false);
+    }
+
+    /**
+     * Sends request and parses the response. During a bulk operation a request that fails with a transient fault
+     * is retried, but unless it is idempotent only when the fault shows it never reached the server, so that a
+     * create the server committed before the connection dropped is not sent twice.
+     *
+     * @param idempotent true if sending the request again cannot change the outcome, such as a view or query
+     */
+    public Document getResponse(String url, String request, boolean idempotent) throws IdMUnitException {
         log.debug("VASCO Request: " + request);
 
         /*
@@ -685,14 +957,22 @@ public class VascoConnector extends AbstractConnector {
         }
 
         requestEntity.setContentType("text/xml");
-        HttpClient client = buildHttpClient(url, username, password);
+        HttpClient client = httpClient;
+        if (client == null) {
+            throw new IdMUnitException("The HTTP client has not been created. Verify that the connector setup ran.");
+        }
         HttpPost post = new HttpPost(url);
         post.setEntity(requestEntity);
 
         ResponseHandler<String> handler = new ResponseHandler<String>() {
             public String handleResponse(HttpResponse httpResponse) throws ClientProtocolException, IOException {
-                if (httpResponse.getStatusLine().getStatusCode() == 401) {
-                    throw new IOException("Authentication failed. Please check your authentication credentials.");
+                int statusCode = httpResponse.getStatusLine().getStatusCode();
+                if (statusCode == 401) {
+                    throw new HttpResponseException(statusCode, "Authentication failed. Please check your authentication credentials.");
+                }
+                if (isTransientStatus(statusCode)) {
+                    EntityUtils.consume(httpResponse.getEntity());
+                    throw new HttpResponseException(statusCode, httpResponse.getStatusLine().toString());
                 }
 
                 HttpEntity responseEntity = httpResponse.getEntity();
@@ -715,10 +995,26 @@ public class VascoConnector extends AbstractConnector {
         };
 
         String response;
-        try {
-            response = client.execute(post, handler);
-        } catch (IOException e) {
-            throw new IdMUnitException("Error sending request.", e);
+        int attempt = 0;
+        while (true) {
+            try {
+                response = client.execute(post, handler);
+                break;
+            } catch (IOException e) {
+                if (attempt >= transientRetries || !isRetryable(e, idempotent)) {
+                    throw new IdMUnitException("Error sending request.", e);
+                }
+                long delay = bulkRetryDelay << Math.min(attempt, 16);
+                attempt++;
+                retryCount.incrementAndGet();
+                log.info("Transient fault (" + e + "), retrying request in " + delay + " ms (attempt " + attempt + " of " + transientRetries + ").");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IdMUnitException("Interrupted while waiting to retry the request.", e);
+                }
+            }
         }
         log.debug("Response: " + response);
 
@@ -733,9 +1029,46 @@ public class VascoConnector extends AbstractConnector {
         return document;
     }
 
+    private static boolean isTransientStatus(int statusCode) {
+        return statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Connection failures and gateway/unavailable responses are worth retrying. Anything else, such
+     * as a protocol error or a SOAP fault, will fail the same way again.
+     */
+    static boolean isTransient(IOException e) {
+        if (e instanceof HttpResponseException) {
+            return isTransientStatus(((HttpResponseException)e).getStatusCode());
+        }
+        return !(e instanceof ClientProtocolException);
+    }
+
+    /**
+     * An idempotent request can be retried after any transient fault. Any other request can only be retried if
+     * it was not processed: no connection could be made, or the server answered 503 Service Unavailable. After a
+     * dropped connection or a gateway error the server may already have carried the request out.
+     */
+    static boolean isRetryable(IOException e, boolean idempotent) {
+        if (idempotent) {
+            return isTransient(e);
+        }
+        if (e instanceof HttpResponseException) {
+            return ((HttpResponseException)e).getStatusCode() == 503;
+        }
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException;
+    }
+
+    /**
+     * Builds a client whose connection pool is shared by every request the connector sends, so the TCP
+     * and TLS handshakes are only done once per connection instead of once per request.
+     */
     public HttpClient buildHttpClient(String urlString, String clientUsername, String clientPassword) throws IdMUnitException {
         String protocol = urlString.substring(0, 5).equalsIgnoreCase("https") ? "https" : "http";
-        DefaultHttpClient httpClient = new DefaultHttpClient();
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager);
 
         if (clientUsername == null && clientPassword != null) {
             throw new IdMUnitException("SoapClientConnector username isn't setup correctly in the idmunit-config file.");
@@ -787,11 +1120,56 @@ public class VascoConnector extends AbstractConnector {
         SSLSocketFactory ssf = new SSLSocketFactory(ctx, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
         ClientConnectionManager ccm = httpClient.getConnectionManager();
         SchemeRegistry sr = ccm.getSchemeRegistry();
-        sr.register(new Scheme(protocol, uri.getPort(), ssf));
+        sr.register(new Scheme(protocol, uri.getPort() == -1 ? 443 : uri.getPort(), ssf));
 
         return httpClient;
     }
 
+    private static String prettyPrint(Document document) {
+        StringWriter outputString = new StringWriter();
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+            transformer.transform(new DOMSource(document), new StreamResult(outputString));
+        } catch (TransformerConfigurationException e) {
+            log.debug("Unable to format the response document.", e);
+        } catch (TransformerException e) {
+            log.debug("Unable to format the response document.", e);
+        }
+        return outputString.toString();
+    }
+
+    private static class ResponseParser {
+        private final XPathExpression errorCodeXPath;
+        private final XPathExpression errorStatusCodeEnumXPath;
+        private final XPathExpression errorMsgXPath;
+        private final XPathExpression faultStringXPath;
+        private DocumentBuilder documentBuilder;
+
+        ResponseParser() {
+            XPath xPath = XPathFactory.newInstance().newXPath();
+            try {
+                errorCodeXPath = xPath.compile("//results/resultCodes/returnCode/node()");
+                errorStatusCodeEnumXPath = xPath.compile("//results/resultCodes/statusCodeEnum/node()");
+                errorMsgXPath = xPath.compile("//results/errorStack/errors/errorDesc/node()");
+                faultStringXPath = xPath.compile("//Fault/faultstring/node()");
+            } catch (XPathExpressionException e) {
+                throw new IllegalStateException("Invalid response XPath expression.", e);
+            }
+        }
+
+        DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+            if (documentBuilder == null) {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                documentBuilder = factory.newDocumentBuilder();
+            } else {
+                documentBuilder.reset();
+            }
+            return documentBuilder;
+        }
+    }
+
     @SuppressWarnings("unused")
     private void printExpectedAttrs(Map<String, Collection<String>> expectedAttrs) {
         log.info("----- Test User Details -----");
@@ -0,0 +1,369 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.HttpResponseException;
+import org.idmunit.IdMUnitException;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the bulk operations against a local SOAP endpoint that mimics the parts of the VASCO
+ * administration API used by the connector.
+ */
+public class VascoBulkTests extends TestCase {
+    private MockVascoServer server;
+    private VascoConnector conn;
+
+    private static void addSingleValue(Map<String, Collection<String>> data, String name, String value) {
+        List<String> values = new ArrayList<String>();
+        values.add(value);
+        data.put(name, values);
+    }
+
+    protected void setUp() throws Exception {
+        server = new MockVascoServer();
+        conn = new VascoConnector();
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("server", server.getUrl());
+        config.put("user", "admin");
+        config.put("password", "secret");
+        config.put(VascoConnector.CONFIG_BULK_RETRY_DELAY, "10");
+        conn.setup(config);
+    }
+
+    protected void tearDown() throws Exception {
+        conn.tearDown();
+        server.stop();
+    }
+
+    private static Map<String, Collection<String>> rangeRow(String format, int count) {
+        Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
+        addSingleValue(data, VascoBulk.USER_ID_FORMAT, format);
+        addSingleValue(data, VascoBulk.RANGE_COUNT, String.valueOf(count));
+        addSingleValue(data, VascoConnector.DOMAIN, "example.com");
+        addSingleValue(data, VascoConnector.LOCAL_AUTH, "Default");
+        addSingleValue(data, VascoConnector.BACKEND_AUTH, "Default");
+        addSingleValue(data, VascoConnector.DISABLED, "false");
+        addSingleValue(data, VascoConnector.LOCKED, "false");
+        return data;
+    }
+
+    public void testBulkCreateGeneratedRange() throws Exception {
+        Map<String, Collection<String>> data = rangeRow("load%03d", 50);
+        addSingleValue(data, VascoBulk.DIGIPASS_SERIAL_START, "0000000100");
+        addSingleValue(data, VascoConnector.GRACE_PERIOD_DAYS, "0");
+        addSingleValue(data, VascoBulk.THREADS, "8");
+        conn.opBulkCreateUser(data);
+
+        assertEquals(50, server.users.size());
+        assertEquals("example.com", server.users.get("load001").get("USERFLD_DOMAIN"));
+        assertEquals("0000000100", server.assignments.get("load001"));
+        assertEquals("0000000149", server.assignments.get("load050"));
+
+        VascoBulk.Report report = conn.getLastBulkReport();
+        assertEquals(50, report.total);
+        assertEquals(50, report.succeeded);
+        assertEquals(0, report.failed);
+        assertEquals(8, report.threads);
+        assertTrue(report.toString().contains("users/s"));
+        assertTrue(server.maxConcurrent.get() > 1);
+    }
+
+    public void testBulkCreateFromCsv() throws Exception {
+        File csv = File.createTempFile("vasco-bulk", ".csv");
+        csv.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        writer.write("USERID,DISABLED,DIGIPASS_SERIAL\n");
+        writer.write("csv1,false,1470580061\n");
+        writer.write("\n");
+        writer.write("\"csv,2\",true,\n");
+        writer.close();
+
+        Map<String, Collection<String>> data = rangeRow(null, 0);
+        data.remove(VascoBulk.USER_ID_FORMAT);
+        data.remove(VascoBulk.RANGE_COUNT);
+        addSingleValue(data, VascoBulk.CSV_FILE, csv.getAbsolutePath());
+        addSingleValue(data, VascoConnector.GRACE_PERIOD_DAYS, "0");
+        conn.opBulkCreateUser(data);
+
+        assertEquals(2, server.users.size());
+        assertEquals("true", server.users.get("csv,2").get("USERFLD_DISABLED"));
+        assertEquals("1470580061", server.assignments.get("csv1"));
+        assertNull(server.assignments.get("csv,2"));
+    }
+
+    public void testTransientFaultsAreRetried() throws Exception {
+        server.unavailableResponses.set(3);
+        Map<String, Collection<String>> data = rangeRow("retry%d", 5);
+        addSingleValue(data, VascoBulk.THREADS, "1");
+        conn.opBulkCreateUser(data);
+
+        assertEquals(5, server.users.size());
+        assertEquals(3, conn.getLastBulkReport().retries);
+    }
+
+    public void testCreateIsNotRetriedAfterGatewayError() throws Exception {
+        server.gatewayErrors.set(1);
+        Map<String, Collection<String>> data = rangeRow("gateway%d", 3);
+        addSingleValue(data, VascoBulk.THREADS, "1");
+        try {
+            conn.opBulkCreateUser(data);
+            fail("The create that got a gateway error should fail");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 3 users failed"));
+        }
+        // The server committed the create before the error, so a retry would have failed as a duplicate.
+        assertEquals(3, server.users.size());
+        assertEquals(0, conn.getLastBulkReport().retries);
+    }
+
+    public void testValidateIsRetriedAfterGatewayError() throws Exception {
+        conn.opBulkCreateUser(rangeRow("view%d", 3));
+
+        server.gatewayErrors.set(2);
+        Map<String, Collection<String>> validate = new HashMap<String, Collection<String>>();
+        addSingleValue(validate, VascoBulk.USER_ID_FORMAT, "view%d");
+        addSingleValue(validate, VascoBulk.RANGE_COUNT, "3");
+        addSingleValue(validate, VascoConnector.DOMAIN, "example.com");
+        conn.opBulkValidateUser(validate);
+        assertEquals(2, conn.getLastBulkReport().retries);
+    }
+
+    public void testRetryableFaults() {
+        assertTrue(VascoConnector.isRetryable(new HttpResponseException(502, "Bad Gateway"), true));
+        assertFalse(VascoConnector.isRetryable(new HttpResponseException(502, "Bad Gateway"), false));
+        assertTrue(VascoConnector.isRetryable(new HttpResponseException(503, "Service Unavailable"), false));
+        assertTrue(VascoConnector.isRetryable(new ConnectException("Connection refused"), false));
+        assertFalse(VascoConnector.isRetryable(new NoHttpResponseException("The target server failed to respond"), false));
+        assertTrue(VascoConnector.isRetryable(new NoHttpResponseException("The target server failed to respond"), true));
+    }
+
+    public void testFailuresAreAggregated() throws Exception {
+        Map<String, Collection<String>> data = rangeRow("dup%d", 4);
+        conn.opBulkCreateUser(data);
+
+        Map<String, Collection<String>> again = rangeRow("dup%d", 6);
+        try {
+            conn.opBulkCreateUser(again);
+            fail("Creating existing users should fail");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("4 of 6 users failed"));
+            assertTrue(e.getMessage().contains("[dup1]"));
+        }
+        VascoBulk.Report report = conn.getLastBulkReport();
+        assertEquals(2, report.succeeded);
+        assertEquals(4, report.failed);
+        assertEquals(0, report.retries);
+        assertEquals(6, server.users.size());
+    }
+
+    public void testBulkValidateAndDelete() throws Exception {
+        conn.opBulkCreateUser(rangeRow("val%d", 10));
+
+        Map<String, Collection<String>> validate = new HashMap<String, Collection<String>>();
+        addSingleValue(validate, VascoBulk.USER_ID_FORMAT, "val%d");
+        addSingleValue(validate, VascoBulk.RANGE_COUNT, "10");
+        addSingleValue(validate, VascoConnector.DOMAIN, "example.com");
+        addSingleValue(validate, VascoConnector.DISABLED, "false");
+        File report = File.createTempFile("vasco-bulk", ".txt");
+        report.deleteOnExit();
+        addSingleValue(validate, VascoBulk.REPORT_FILE, report.getAbsolutePath());
+        conn.opBulkValidateUser(validate);
+        assertTrue(report.length() > 0);
+
+        validate.remove(VascoConnector.DISABLED);
+        conn.opBulkDeleteUser(validate);
+        assertEquals(0, server.users.size());
+    }
+
+    public void testRequiresUserSource() throws Exception {
+        try {
+            conn.opBulkCreateUser(new HashMap<String, Collection<String>>());
+            fail("A CSV file or user id format should be required");
+        } catch (IdMUnitException e) {
+            assertTrue(e.getMessage().contains(VascoBulk.USER_ID_FORMAT));
+        }
+    }
+
+    private static class MockVascoServer implements HttpHandler {
+        private static final Pattern ATTRIBUTE = Pattern.compile("<value[^>]*>([^<]*)</value>\\s*<attributeID>([^<]+)</attributeID>");
+
+        final Map<String, Map<String, String>> users = new ConcurrentHashMap<String, Map<String, String>>();
+        final Map<String, String> assignments = new ConcurrentHashMap<String, String>();
+        final AtomicInteger unavailableResponses = new AtomicInteger();
+        // Requests that are carried out but answered with 502, as when a gateway loses the response.
+        final AtomicInteger gatewayErrors = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final HttpServer httpServer;
+
+        MockVascoServer() throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            httpServer.createContext("/", this);
+            httpServer.setExecutor(Executors.newCachedThreadPool());
+            httpServer.start();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/";
+        }
+
+        void stop() {
+            httpServer.stop(0);
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            int current = concurrent.incrementAndGet();
+            while (true) {
+                int max = maxConcurrent.get();
+                if (current <= max || maxConcurrent.compareAndSet(max, current)) {
+                    break;
+                }
+            }
+            try {
+                String request = read(exchange.getRequestBody());
+                if (!request.contains("adm:logo") && unavailableResponses.getAndDecrement() > 0) {
+                    send(exchange, 503, "");
+                    return;
+                }
+                String response = process(request);
+                if (!request.contains("adm:logo") && gatewayErrors.getAndDecrement() > 0) {
+                    send(exchange, 502, "");
+                    return;
+                }
+                send(exchange, 200, response);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        private String process(String request) {
+            Map<String, String> attrs = new HashMap<String, String>();
+            Matcher m = ATTRIBUTE.matcher(request);
+            while (m.find()) {
+                attrs.put(m.group(2), m.group(1));
+            }
+
+            if (request.contains("<adm:logon>")) {
+                return success("<attributes><value>mock-session</value><attributeID>CREDFLD_SESSION_ID</attributeID></attributes>");
+            }
+            if (request.contains("<adm:logoff>")) {
+                return success("");
+            }
+            if (request.contains("USERCMD_CREATE")) {
+                String userId = attrs.get("USERFLD_USERID");
+                // Simulate some server side work so requests overlap.
+                sleep(5);
+                if (users.containsKey(userId)) {
+                    return error("User already exists.");
+                }
+                users.put(userId, attrs);
+                return success("");
+            }
+            if (request.contains("DIGIPASSCMD_ASSIGN")) {
+                assignments.put(attrs.get("DIGIPASSFLD_ASSIGNED_USERID"), attrs.get("DIGIPASSFLD_SERNO"));
+                return success("");
+            }
+            if (request.contains("USERCMD_VIEW")) {
+                Map<String, String> user = users.get(attrs.get("USERFLD_USERID"));
+                if (user == null) {
+                    return error("User not found.");
+                }
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, String> entry : user.entrySet()) {
+                    sb.append("<attributes><value>").append(entry.getValue()).append("</value><attributeID>")
+                            .append(entry.getKey()).append("</attributeID></attributes>");
+                }
+                return success(sb.toString());
+            }
+            if (request.contains("USERCMD_DELETE")) {
+                users.remove(attrs.get("USERFLD_USERID"));
+                return success("");
+            }
+            return error("Unsupported request.");
+        }
+
+        private static void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static String success(String attributes) {
+            return envelope("<resultCodes><returnCode>0</returnCode><statusCodeEnum>STAT_SUCCESS</statusCodeEnum></resultCodes>"
+                    + "<resultAttribute>" + attributes + "</resultAttribute>");
+        }
+
+        private static String error(String message) {
+            return envelope("<resultCodes><returnCode>-1</returnCode><statusCodeEnum>STAT_ERROR</statusCodeEnum></resultCodes>"
+                    + "<errorStack><errors><errorDesc>" + message + "</errorDesc></errors></errorStack>");
+        }
+
+        private static String envelope(String results) {
+            return "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body>"
+                    + "<response><results>" + results + "</results></response>"
+                    + "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+        }
+
+        private static String read(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        }
+
+        private static void send(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * IdMUnit - Automated Testing Framework for Identity Management Solutions
+ * Copyright (c) 2005-2018 TriVir, LLC
+ *
+ * This program is licensed under the terms of the GNU General Public License
+ * Version 2 (the "License") as published by the Free Software Foundation, and
+ * the TriVir Licensing Policies (the "License Policies").  A copy of the License
+ * and the Policies were distributed with this program.
+ *
+ * The License is available at:
+ * http://www.gnu.org/copyleft/gpl.html
+ *
+ * The Policies are available at:
+ * http://www.idmunit.org/licensing/index.html
+ *
+ * Unless required by applicable law or agreed to in writing, this program is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied.  See the License and the Policies
+ * for specific language governing the use of this program.
+ *
+ * www.TriVir.com
+ * TriVir LLC
+ * 13890 Braddock Road
+ * Suite 310
+ * Centreville, Virginia 20121
+ *
+ */
+
+package com.trivir.idmunit.connector;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.Map;
+
+public class VascoResponseIndexTests extends TestCase {
+    private static final String VIEW_USER_RESPONSE =
+            "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body>"
+            + "<userExecuteResponse><results>"
+            + "<resultCodes><returnCode>0</returnCode><statusCodeEnum>STAT_SUCCESS</statusCodeEnum></resultCodes>"
+            + "<resultAttribute>"
+            + "<attributes><attributeID>USERFLD_USERID</attributeID><value>trivirtest</value></attributes>"
+            + "<attributes><attributeID>USERFLD_DOMAIN</attributeID><value>example.com</value></attributes>"
+            + "<attributes><attributeID>USERFLD_DISABLED</attributeID><value>false</value></attributes>"
+            + "<attributes><attributeID>USERFLD_DISABLED</attributeID><value>true</value></attributes>"
+            + "<attributes><attributeID>USERFLD_EMPTY</attributeID></attributes>"
+            + "</resultAttribute>"
+            + "</results></userExecuteResponse>"
+            + "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    private static final String USER_ATTRIBUTE_RESPONSE =
+            "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body>"
+            + "<userattributeQueryResponse><results>"
+            + "<resultCodes><returnCode>0</returnCode></resultCodes>"
+            + "<resultAttribute>"
+            + "<attributeList>"
+            + "<attributes><attributeID>UATTFLD_NAME</attributeID><value>Callback-id</value></attributes>"
+            + "<attributes><attributeID>UATTFLD_VALUE</attributeID><value>test@test.com</value></attributes>"
+            + "<attributes><attributeID>UATTFLD_OPTIONS</attributeID><value>1</value></attributes>"
+            + "</attributeList>"
+            + "<attributeList>"
+            + "<attributes><attributeID>UATTFLD_NAME</attributeID><value>Framed-IP</value></attributes>"
+            + "<attributes><attributeID>UATTFLD_VALUE</attributeID><value>10.0.0.1</value></attributes>"
+            + "</attributeList>"
+            + "</resultAttribute>"
+            + "</results></userattributeQueryResponse>"
+            + "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    private static Document parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    public void testIndexAttributes() throws Exception {
+        Map<String, String> attributes = VascoConnector.indexAttributes(parse(VIEW_USER_RESPONSE));
+        assertEquals("trivirtest", attributes.get("USERFLD_USERID"));
+        assertEquals("example.com", attributes.get("USERFLD_DOMAIN"));
+        assertEquals("false", attributes.get("USERFLD_DISABLED"));
+        assertFalse(attributes.containsKey("USERFLD_EMPTY"));
+        assertNull(attributes.get("USERFLD_MISSING"));
+    }
+
+    public void testIndexUserAttributes() throws Exception {
+        Map<String, Map<String, String>> userAttributes = VascoConnector.indexUserAttributes(parse(USER_ATTRIBUTE_RESPONSE));
+        Map<String, String> callbackId = userAttributes.get("Callback-id");
+        assertNotNull(callbackId);
+        assertEquals("test@test.com", callbackId.get("UATTFLD_VALUE"));
+        assertEquals("1", callbackId.get("UATTFLD_OPTIONS"));
+
+        Map<String, String> framedIp = userAttributes.get("Framed-IP");
+        assertNotNull(framedIp);
+        assertEquals("10.0.0.1", framedIp.get("UATTFLD_VALUE"));
+        assertNull(framedIp.get("UATTFLD_OPTIONS"));
+
+        assertNull(userAttributes.get("Missing"));
+    }
+}